@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import de.schildbach.wallet.util.AesEngine;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link AesEngine} implementations on backup sized payloads, processed in chunks like
+ * {@link de.schildbach.wallet.util.Crypto} does. Besides operations per second, each benchmark reports its
+ * throughput in megabytes per second, as the secondary result {@code megabytes}.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AesEngineBenchmark {
+    private static final int CHUNK_SIZE = 8192;
+    private static final ParametersWithIV KEY = new ParametersWithIV(new KeyParameter(new byte[32]), new byte[16]);
+
+    @Param({ "JCE", "BOUNCY_CASTLE" })
+    public AesEngine engine;
+    @Param({ "1000000", "10000000" })
+    public int payloadSize;
+
+    private byte[] plainBytes;
+    private byte[] cipherBytes;
+    private final byte[] out = new byte[CHUNK_SIZE + 32];
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidCipherTextException {
+        if (!engine.isAvailable())
+            throw new IllegalStateException("engine not available: " + engine);
+        plainBytes = new byte[payloadSize];
+        new Random(0).nextBytes(plainBytes);
+        final AesEngine.Cipher cipher = AesEngine.BOUNCY_CASTLE.newCipher();
+        cipher.init(true, KEY);
+        cipherBytes = new byte[cipher.getOutputSize(payloadSize)];
+        final int len = cipher.processBytes(plainBytes, 0, payloadSize, cipherBytes, 0);
+        cipher.doFinal(cipherBytes, len);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Benchmark
+    public int encrypt(final Megabytes megabytes) throws InvalidCipherTextException {
+        megabytes.megabytes += plainBytes.length / 1e6;
+        return process(true, plainBytes);
+    }
+
+    @Benchmark
+    public int decrypt(final Megabytes megabytes) throws InvalidCipherTextException {
+        megabytes.megabytes += cipherBytes.length / 1e6;
+        return process(false, cipherBytes);
+    }
+
+    private int process(final boolean forEncryption, final byte[] in) throws InvalidCipherTextException {
+        final AesEngine.Cipher cipher = engine.newCipher();
+        cipher.init(forEncryption, KEY);
+        int checksum = 0;
+        for (int off = 0; off < in.length; off += CHUNK_SIZE) {
+            final int len = cipher.processBytes(in, off, Math.min(CHUNK_SIZE, in.length - off), out, 0);
+            if (len > 0)
+                checksum += out[len - 1];
+        }
+        final int len = cipher.doFinal(out, 0);
+        if (len > 0)
+            checksum += out[len - 1];
+        return checksum;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.protobuf.ByteString;
+import de.schildbach.wallet.util.Crypto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encrypted wallet backups, comparing the string based {@link Crypto} API to the stream based one. Besides
+ * time, each benchmark reports the peak heap usage during an operation, on top of what was used before. The young
+ * generation is kept small, so garbage that is yet to be collected doesn't inflate the peak by much.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+UseSerialGC", "-Xmn4m" })
+public class CryptoBenchmark {
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    @Param({ "1000000", "10000000" })
+    public int payloadSize;
+
+    private File dir;
+    private File backupFile;
+    private ByteString payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("crypto-benchmark").toFile();
+        backupFile = new File(dir, "backup");
+        final byte[] bytes = new byte[payloadSize];
+        new Random(0).nextBytes(bytes);
+        payload = ByteString.copyFrom(bytes);
+        try (final OutputStream os = new FileOutputStream(backupFile)) {
+            Crypto.encrypt(payload.newInput(), os, PASSWORD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (final File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PeakHeap {
+        /** Peak heap usage of the iteration's worst operation, in bytes. */
+        public long peakHeapBytes;
+
+        private long usedBefore;
+
+        @Setup(Level.Iteration)
+        public void resetIteration() {
+            peakHeapBytes = 0;
+        }
+
+        @Setup(Level.Invocation)
+        public void before() {
+            System.gc();
+            usedBefore = 0;
+            for (final MemoryPoolMXBean pool : heapPools()) {
+                pool.resetPeakUsage();
+                usedBefore += pool.getUsage().getUsed();
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void after() {
+            long peak = 0;
+            for (final MemoryPoolMXBean pool : heapPools())
+                peak += pool.getPeakUsage().getUsed();
+            peakHeapBytes = Math.max(peakHeapBytes, peak - usedBefore);
+        }
+
+        private static Iterable<MemoryPoolMXBean> heapPools() {
+            return () -> ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP).iterator();
+        }
+    }
+
+    /** Mirrors how {@code BackupWalletDialogFragment} used to write and verify a backup. */
+    @Benchmark
+    public void backupString(final PeakHeap peakHeap) throws IOException {
+        final byte[] plainBytes = payload.toByteArray();
+        try (final Writer cipherOut = new OutputStreamWriter(new FileOutputStream(backupFile),
+                StandardCharsets.UTF_8)) {
+            cipherOut.write(Crypto.encrypt(plainBytes, PASSWORD));
+        }
+        try (final Reader cipherIn = new InputStreamReader(new FileInputStream(backupFile), StandardCharsets.UTF_8)) {
+            final StringBuilder cipherText = new StringBuilder();
+            CharStreams.copy(cipherIn, cipherText);
+            if (!Arrays.equals(plainBytes, Crypto.decryptBytes(cipherText.toString(), PASSWORD)))
+                throw new IOException("verification failed");
+        }
+    }
+
+    /** Mirrors {@code BackupWalletDialogFragment}. */
+    @Benchmark
+    public void backupStream(final PeakHeap peakHeap) throws IOException {
+        final HashCode plainHash;
+        try (final OutputStream cipherOut = new FileOutputStream(backupFile)) {
+            final HashingInputStream plainIn = new HashingInputStream(Hashing.sha256(), payload.newInput());
+            Crypto.encrypt(plainIn, cipherOut, PASSWORD);
+            plainHash = plainIn.hash();
+        }
+        try (final InputStream cipherIn = new FileInputStream(backupFile)) {
+            final HashingOutputStream plainOut = new HashingOutputStream(Hashing.sha256(),
+                    ByteStreams.nullOutputStream());
+            Crypto.decrypt(cipherIn, plainOut, PASSWORD);
+            if (!plainHash.equals(plainOut.hash()))
+                throw new IOException("verification failed");
+        }
+    }
+
+    /** Mirrors how {@code RestoreWalletDialogFragment} used to decrypt a backup. */
+    @Benchmark
+    public InputStream restoreString(final PeakHeap peakHeap) throws IOException {
+        try (final Reader cipherIn = new InputStreamReader(new FileInputStream(backupFile), StandardCharsets.UTF_8)) {
+            final StringBuilder cipherText = new StringBuilder();
+            CharStreams.copy(cipherIn, cipherText);
+            return new ByteArrayInputStream(Crypto.decryptBytes(cipherText.toString(), PASSWORD));
+        }
+    }
+
+    /** Mirrors {@code RestoreWalletDialogFragment}. */
+    @Benchmark
+    public InputStream restoreStream(final PeakHeap peakHeap) throws IOException {
+        final ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        try (final InputStream cipherIn = new FileInputStream(backupFile)) {
+            Crypto.decrypt(cipherIn, plainOut, PASSWORD);
+        }
+        return new ByteArrayInputStream(plainOut.toByteArray());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import de.schildbach.wallet.headers.HeaderSource;
+import de.schildbach.wallet.headers.HeadersFirstSync;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks catching up with the chain after a long time offline, by fetching headers from a number of local
+ * stand-in peers. Each stand-in answers after a fixed latency, and sends headers serialized as they would come over
+ * the wire. The chain is split every 2016 blocks, as the checkpoints do. A single peer amounts to the serial
+ * download of the regular chain download.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HeadersFirstBenchmark {
+    private static final NetworkParameters PARAMS = RegTestParams.get();
+    private static final long BLOCK_SPACING_SECS = 600;
+    private static final int CHECKPOINT_INTERVAL = 2016;
+
+    @Param({ "1", "2", "4" })
+    public int numPeers;
+    @Param({ "50", "200" })
+    public int latencyMs;
+    @Param({ "20000" })
+    public int numBlocks;
+
+    private List<byte[]> headers; // index is height minus one
+    private final Map<Sha256Hash, Integer> heights = new HashMap<>();
+    private final List<StoredBlock> anchors = new ArrayList<>();
+    private ExecutorService executor;
+    private ScheduledExecutorService network;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        final Address to = LegacyAddress.fromKey(PARAMS, new ECKey());
+        final Block genesis = PARAMS.getGenesisBlock();
+        headers = new ArrayList<>(numBlocks);
+        heights.put(genesis.getHash(), 0);
+        StoredBlock stored = new StoredBlock(genesis.cloneAsHeader(), genesis.getWork(), 0);
+        Block block = genesis;
+        for (int height = 1; height <= numBlocks; height++) {
+            block = block.createNextBlock(to, block.getVersion(),
+                    genesis.getTimeSeconds() + height * BLOCK_SPACING_SECS, height);
+            final Block header = block.cloneAsHeader();
+            headers.add(header.bitcoinSerialize());
+            heights.put(header.getHash(), height);
+            stored = stored.build(header);
+            if (height % CHECKPOINT_INTERVAL == 0)
+                anchors.add(stored);
+        }
+        Utils.setMockClock(block.getTimeSeconds()); // blocks must not be too far in the future
+        executor = Executors.newFixedThreadPool(numPeers + 1);
+        network = Executors.newScheduledThreadPool(numPeers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        network.shutdownNow();
+        Utils.resetMocking();
+    }
+
+    @Benchmark
+    public StoredBlock catchUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        final BlockChain blockChain = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+        final List<HeaderSource> peers = new ArrayList<>(numPeers);
+        for (int i = 0; i < numPeers; i++)
+            peers.add(new StandInPeer());
+        new HeadersFirstSync(blockChain, executor, Duration.ofMinutes(1)).sync(peers, anchors, Long.MAX_VALUE);
+        return blockChain.getChainHead();
+    }
+
+    private class StandInPeer implements HeaderSource {
+        @Override
+        public ListenableFuture<List<Block>> getHeaders(final Sha256Hash startHash, final Sha256Hash stopHash) {
+            final SettableFuture<List<Block>> future = SettableFuture.create();
+            network.schedule(() -> {
+                final Integer startHeight = heights.get(startHash);
+                if (startHeight == null) {
+                    future.set(Collections.emptyList());
+                    return;
+                }
+                final List<Block> response = new ArrayList<>();
+                for (int height = startHeight + 1; height <= numBlocks
+                        && response.size() < HeadersMessage.MAX_HEADERS; height++) {
+                    final Block header = PARAMS.getDefaultSerializer().makeBlock(headers.get(height - 1));
+                    response.add(header);
+                    if (header.getHash().equals(stopHash))
+                        break;
+                }
+                future.set(response);
+            }, latencyMs, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.DeterministicSeed;
+import org.bitcoinj.wallet.KeyChain;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Generates consistent wallets of configurable size, for benchmarking. Transactions are put together directly rather
+ * than received through the wallet, so even very large wallets are generated in seconds. The same random seed always
+ * yields the same wallet.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyntheticWallet {
+    private static final int TXS_PER_BLOCK = 10;
+    private static final long CREATION_TIME_SECS = 1500000000;
+
+    /**
+     * @param numKeys
+     *            number of issued receive keys
+     * @param numTxs
+     *            number of transactions
+     * @param inputsPerTx
+     *            number of inputs per transaction; each spends a wallet output with 50% chance, if one is left
+     * @param outputsPerTx
+     *            number of outputs per transaction; all of them pay to the wallet
+     * @param pendingRatio
+     *            ratio of transactions that are pending rather than confirmed
+     * @param randomSeed
+     *            seed for keys and transactions
+     */
+    public static Wallet create(final NetworkParameters params, final int numKeys, final int numTxs,
+            final int inputsPerTx, final int outputsPerTx, final double pendingRatio, final long randomSeed) {
+        checkArgument(numKeys > 0 && inputsPerTx > 0 && outputsPerTx > 0);
+        checkArgument(pendingRatio >= 0 && pendingRatio <= 1);
+        final Random random = new Random(randomSeed);
+
+        final byte[] entropy = new byte[16];
+        random.nextBytes(entropy);
+        final Wallet wallet = Wallet.fromSeed(params, new DeterministicSeed(entropy, "", CREATION_TIME_SECS),
+                Script.ScriptType.P2WPKH);
+        final List<Address> addresses = new ArrayList<>(numKeys);
+        for (final DeterministicKey key : wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, numKeys))
+            addresses.add(Address.fromKey(params, key, Script.ScriptType.P2WPKH));
+
+        // confirmed transactions come first, so only pending transactions spend pending outputs
+        final int numConfirmedTxs = numTxs - (int) Math.round(numTxs * pendingRatio);
+        final int chainHeight = (numConfirmedTxs + TXS_PER_BLOCK - 1) / TXS_PER_BLOCK;
+        final List<Transaction> txs = new ArrayList<>(numTxs);
+        final List<TransactionOutput> unspentOutputs = new ArrayList<>();
+        for (int i = 0; i < numTxs; i++) {
+            final Transaction tx = new Transaction(params);
+            for (int j = 0; j < inputsPerTx; j++) {
+                if (!unspentOutputs.isEmpty() && random.nextBoolean()) {
+                    final int index = random.nextInt(unspentOutputs.size());
+                    final TransactionOutput output = unspentOutputs.get(index);
+                    unspentOutputs.set(index, unspentOutputs.get(unspentOutputs.size() - 1));
+                    unspentOutputs.remove(unspentOutputs.size() - 1);
+                    output.markAsSpent(tx.addInput(output));
+                } else {
+                    tx.addInput(randomHash(random), random.nextInt(4), new ScriptBuilder().build());
+                }
+            }
+            for (int j = 0; j < outputsPerTx; j++) {
+                final Coin value = Coin.valueOf(1000 + random.nextInt(10000000));
+                unspentOutputs.add(tx.addOutput(value, addresses.get(random.nextInt(numKeys))));
+            }
+
+            final TransactionConfidence confidence = tx.getConfidence();
+            if (i < numConfirmedTxs) {
+                final int height = i / TXS_PER_BLOCK + 1;
+                tx.addBlockAppearance(blockHash(height), i % TXS_PER_BLOCK);
+                tx.setUpdateTime(new Date((CREATION_TIME_SECS + height * 600L) * 1000));
+                confidence.setAppearedAtChainHeight(height);
+                confidence.setDepthInBlocks(chainHeight - height + 1);
+            } else {
+                tx.setUpdateTime(new Date((CREATION_TIME_SECS + chainHeight * 600L) * 1000));
+                confidence.setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+                confidence.setSource(TransactionConfidence.Source.NETWORK);
+            }
+            txs.add(tx);
+        }
+
+        for (int i = 0; i < numTxs; i++) {
+            final Transaction tx = txs.get(i);
+            final WalletTransaction.Pool pool;
+            if (i >= numConfirmedTxs)
+                pool = WalletTransaction.Pool.PENDING;
+            else if (tx.getOutputs().stream().anyMatch(TransactionOutput::isAvailableForSpending))
+                pool = WalletTransaction.Pool.UNSPENT;
+            else
+                pool = WalletTransaction.Pool.SPENT;
+            wallet.addWalletTransaction(new WalletTransaction(pool, tx));
+        }
+        if (chainHeight > 0) {
+            wallet.setLastBlockSeenHash(blockHash(chainHeight));
+            wallet.setLastBlockSeenHeight(chainHeight);
+            wallet.setLastBlockSeenTimeSecs(CREATION_TIME_SECS + chainHeight * 600L);
+        }
+        checkState(wallet.isConsistent(), "inconsistent synthetic wallet");
+        return wallet;
+    }
+
+    private static Sha256Hash randomHash(final Random random) {
+        final byte[] bytes = new byte[Sha256Hash.LENGTH];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private static Sha256Hash blockHash(final int height) {
+        return Sha256Hash.of(Integer.toString(height).getBytes());
+    }
+}
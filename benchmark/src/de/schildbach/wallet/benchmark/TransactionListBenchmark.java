@@ -0,0 +1,157 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import de.schildbach.wallet.util.TransactionListIndex;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks updating the transaction list after a single transaction has changed, as after a confirmation. The full
+ * rebuild mirrors how {@code WalletTransactionsViewModel} used to build the list: compute all values, sort everything
+ * and build every item. The incremental update only rebuilds the changed item. Items are stand-ins doing the
+ * formatting of the real ones, minus the Android plumbing.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionListBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final MonetaryFormat FORMAT = MonetaryFormat.BTC.noCode();
+    private static final TransactionListIndex.Filter ALL = new TransactionListIndex.Filter() {
+        @Override
+        public boolean include(final Transaction tx, final Coin value) {
+            return true;
+        }
+
+        @Override
+        public boolean includeArchived(final Sha256Hash txId) {
+            return true;
+        }
+    };
+
+    @Param({ "100" })
+    public int numKeys;
+    @Param({ "1000", "20000" })
+    public int numTxs;
+    @Param({ "2" })
+    public int inputsPerTx;
+    @Param({ "2" })
+    public int outputsPerTx;
+    @Param({ "0.01" })
+    public double pendingRatio;
+
+    private Wallet wallet;
+    private List<Transaction> txs;
+    private TransactionListIndex<Item> index;
+    private TransactionListIndex.ItemFactory<Item> factory;
+    private long nowMs;
+    private int counter = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Context.propagate(new Context(PARAMS));
+        wallet = SyntheticWallet.create(PARAMS, numKeys, numTxs, inputsPerTx, outputsPerTx, pendingRatio, 0);
+        txs = new ArrayList<>(wallet.getTransactions(true));
+        nowMs = wallet.getLastBlockSeenTimeSecs() * 1000;
+        factory = new TransactionListIndex.ItemFactory<Item>() {
+            @Override
+            public Coin value(final Transaction tx) {
+                return tx.getValue(wallet);
+            }
+
+            @Override
+            public Item item(final Transaction tx, final Coin value) {
+                return new Item(tx, value);
+            }
+
+            @Override
+            public Item archivedItem(final Sha256Hash txId) {
+                throw new UnsupportedOperationException(); // nothing is archived here
+            }
+        };
+        index = new TransactionListIndex<>(7);
+        index.update(txs, factory, ALL, nowMs);
+    }
+
+    /** Changes a single transaction, as a confirmation or a new memo would. */
+    @Setup(Level.Invocation)
+    public void change() {
+        final Transaction tx = txs.get(counter % txs.size());
+        tx.setMemo(Integer.toString(counter++));
+    }
+
+    @Benchmark
+    public List<Item> fullRebuild() {
+        final Set<Transaction> transactions = wallet.getTransactions(true);
+        final List<Transaction> sorted = new ArrayList<>(transactions);
+        Collections.sort(sorted, TransactionListIndex.COMPARATOR);
+        final List<Item> items = new ArrayList<>(sorted.size());
+        for (final Transaction tx : sorted)
+            items.add(new Item(tx, factory.value(tx)));
+        return items;
+    }
+
+    @Benchmark
+    public List<Item> incrementalUpdate() {
+        return index.update(wallet.getTransactions(true), factory, ALL, nowMs);
+    }
+
+    public static final class Item {
+        final String value;
+        final String time;
+        final String memo;
+
+        Item(final Transaction tx, final Coin value) {
+            this.value = FORMAT.format(value).toString();
+            final Date updateTime = tx.getUpdateTime();
+            this.time = updateTime != null ? updateTime.toString() : null;
+            this.memo = tx.getMemo();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import com.google.common.hash.HashCode;
+import de.schildbach.wallet.util.KeyBackup;
+import de.schildbach.wallet.util.WalletJournal;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the slowest wallet persistence paths of the app. Each benchmark runs the app's own code, minus the
+ * Android plumbing around it.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WalletPersistenceBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    @Param({ "100" })
+    public int numKeys;
+    @Param({ "100", "1000", "10000" })
+    public int numTxs;
+    @Param({ "2" })
+    public int inputsPerTx;
+    @Param({ "2" })
+    public int outputsPerTx;
+    @Param({ "0.01" })
+    public double pendingRatio;
+
+    private File dir;
+    private File walletFile;
+    private File backupFile;
+    private Wallet wallet;
+    private WalletFiles walletFiles;
+    private HashCode backupFingerprint;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Context.propagate(new Context(PARAMS));
+        dir = Files.createTempDirectory("wallet-benchmark").toFile();
+        walletFile = new File(dir, "wallet-protobuf");
+        backupFile = new File(dir, "key-backup-protobuf");
+        wallet = SyntheticWallet.create(PARAMS, numKeys, numTxs, inputsPerTx, outputsPerTx, pendingRatio, 0);
+        wallet.saveToFile(walletFile);
+        walletFiles = wallet.autosaveToFile(walletFile, 1, TimeUnit.HOURS, null);
+        backupFingerprint = KeyBackup.write(wallet, backupFile, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wallet.shutdownAutosaveAndWait();
+        for (final File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    /** Mirrors {@code WalletApplication.loadWalletFromProtobuf()}. */
+    @Benchmark
+    public Wallet load() throws Exception {
+        try (final InputStream is = new FileInputStream(walletFile)) {
+            Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(is);
+            walletProto = WalletJournal.replay(walletProto, walletFile);
+            return new WalletProtobufSerializer().readWallet(PARAMS, null, walletProto);
+        }
+    }
+
+    /** Mirrors {@code WalletApplication.autosaveWalletNow()}. */
+    @Benchmark
+    public void save() throws IOException {
+        walletFiles.saveNow();
+    }
+
+    /** The core of {@code WalletUtils.autoBackupWallet()}, if the keys changed since the last backup. */
+    @Benchmark
+    public HashCode autoBackup() throws IOException {
+        return KeyBackup.write(wallet, backupFile, null);
+    }
+
+    /** The core of {@code WalletUtils.autoBackupWallet()}, if the keys didn't change since the last backup. */
+    @Benchmark
+    public HashCode autoBackupUnchanged() throws IOException {
+        return KeyBackup.write(wallet, backupFile, backupFingerprint);
+    }
+
+    /** The core of {@code WalletUtils.restoreWalletFromProtobuf()}. */
+    @Benchmark
+    public Wallet restore() throws IOException {
+        try (final InputStream is = new FileInputStream(walletFile)) {
+            return KeyBackup.read(is, PARAMS);
+        }
+    }
+}
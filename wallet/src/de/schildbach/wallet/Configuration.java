@@ -27,6 +27,7 @@ import com.google.common.base.Strings;
 import com.google.common.net.HostAndPort;
 import de.schildbach.wallet.util.Formats;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.utils.MonetaryFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +51,7 @@ public class Configuration {
     public static final String PREFS_KEY_SEND_COINS_AUTOCLOSE = "send_coins_autoclose";
     public static final String PREFS_KEY_EXCHANGE_CURRENCY = "exchange_currency";
     public static final String PREFS_KEY_SYNC_MODE = "sync_mode";
+    public static final String PREFS_KEY_SYNC_STOP_AT_TIP = "sync_stop_at_tip";
     public static final String PREFS_KEY_TRUSTED_PEERS = "trusted_peer";
     public static final String PREFS_KEY_TRUSTED_PEERS_ONLY = "trusted_peer_only";
     public static final String PREFS_KEY_BLOCK_EXPLORER = "block_explorer";
@@ -73,6 +75,12 @@ public class Configuration {
     private static final String PREFS_KEY_LAST_ENCRYPT_KEYS = "last_encrypt_keys";
     private static final String PREFS_KEY_LAST_BLOCKCHAIN_RESET = "last_blockchain_reset";
     private static final String PREFS_KEY_LAST_BLUETOOTH_ADDRESS = "last_bluetooth_address";
+    private static final String PREFS_KEY_KEY_BACKUP_FINGERPRINT = "key_backup_fingerprint";
+    private static final String PREFS_KEY_TRUSTED_PEERS_RESOLVED = "trusted_peers_resolved";
+    private static final String PREFS_KEY_COMPACT_FILTER_SCANNED_BLOCK = "compact_filter_scanned_block";
+    private static final String PREFS_KEY_BLOOM_FILTER_FP_RATE = "bloom_filter_fp_rate";
+    private static final String PREFS_KEY_SYNC_HISTORY = "sync_history";
+    private static final String PREFS_KEY_RUN_ACCOUNTING = "run_accounting";
 
     private static final int PREFS_DEFAULT_BTC_SHIFT = 3;
     private static final int PREFS_DEFAULT_BTC_PRECISION = 4;
@@ -150,6 +158,7 @@ public class Configuration {
 
     public enum SyncMode {
         CONNECTION_FILTER,
+        COMPACT_FILTERS,
         FULL
     }
 
@@ -167,6 +176,55 @@ public class Configuration {
         return trustedPeers;
     }
 
+    public String getTrustedPeersResolved() {
+        return prefs.getString(PREFS_KEY_TRUSTED_PEERS_RESOLVED, null);
+    }
+
+    public void setTrustedPeersResolved(final String trustedPeersResolved) {
+        prefs.edit().putString(PREFS_KEY_TRUSTED_PEERS_RESOLVED, trustedPeersResolved).apply();
+    }
+
+    public Sha256Hash getCompactFilterScannedBlock() {
+        final String hash = prefs.getString(PREFS_KEY_COMPACT_FILTER_SCANNED_BLOCK, null);
+        return hash != null ? Sha256Hash.wrap(hash) : null;
+    }
+
+    public void setCompactFilterScannedBlock(final Sha256Hash hash) {
+        prefs.edit().putString(PREFS_KEY_COMPACT_FILTER_SCANNED_BLOCK, hash.toString()).apply();
+    }
+
+    public void resetCompactFilterScannedBlock() {
+        prefs.edit().remove(PREFS_KEY_COMPACT_FILTER_SCANNED_BLOCK).apply();
+    }
+
+    public double getBloomFilterFpRate(final double defaultFpRate) {
+        return prefs.getFloat(PREFS_KEY_BLOOM_FILTER_FP_RATE, (float) defaultFpRate);
+    }
+
+    public void setBloomFilterFpRate(final double fpRate) {
+        prefs.edit().putFloat(PREFS_KEY_BLOOM_FILTER_FP_RATE, (float) fpRate).apply();
+    }
+
+    public String getSyncHistory() {
+        return prefs.getString(PREFS_KEY_SYNC_HISTORY, null);
+    }
+
+    public void setSyncHistory(final String syncHistory) {
+        prefs.edit().putString(PREFS_KEY_SYNC_HISTORY, syncHistory).apply();
+    }
+
+    public boolean isSyncStopAtTip() {
+        return prefs.getBoolean(PREFS_KEY_SYNC_STOP_AT_TIP, true);
+    }
+
+    public String getRunAccounting() {
+        return prefs.getString(PREFS_KEY_RUN_ACCOUNTING, null);
+    }
+
+    public void setRunAccounting(final String runAccounting) {
+        prefs.edit().putString(PREFS_KEY_RUN_ACCOUNTING, runAccounting).apply();
+    }
+
     public boolean getTrustedPeersOnly() {
         return prefs.getBoolean(PREFS_KEY_TRUSTED_PEERS_ONLY, false);
     }
@@ -266,6 +324,14 @@ public class Configuration {
         prefs.edit().putLong(PREFS_KEY_LAST_BLOCKCHAIN_RESET, System.currentTimeMillis()).apply();
     }
 
+    public String getKeyBackupFingerprint() {
+        return prefs.getString(PREFS_KEY_KEY_BACKUP_FINGERPRINT, null);
+    }
+
+    public void setKeyBackupFingerprint(final String fingerprint) {
+        prefs.edit().putString(PREFS_KEY_KEY_BACKUP_FINGERPRINT, fingerprint).apply();
+    }
+
     public boolean getDisclaimerEnabled() {
         return prefs.getBoolean(PREFS_KEY_DISCLAIMER, true);
     }
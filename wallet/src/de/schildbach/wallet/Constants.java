@@ -68,6 +68,10 @@ public final class Constants {
     public static final boolean ENABLE_SWEEP_WALLET = true;
     /** Enable switch for browsing to block explorers */
     public static final boolean ENABLE_BROWSE = true;
+    /** Enable switch for journaling of wallet changes in between full saves */
+    public static final boolean ENABLE_WALLET_JOURNAL = true;
+    /** Enable switch for archiving old transactions out of the wallet */
+    public static final boolean ENABLE_TRANSACTION_ARCHIVE = true;
 
     public final static class Files {
         private static final String FILENAME_NETWORK_SUFFIX = NETWORK_PARAMETERS.getId()
@@ -79,6 +83,12 @@ public final class Constants {
         /** How often the wallet is autosaved. */
         public static final long WALLET_AUTOSAVE_DELAY_MS = 3 * DateUtils.SECOND_IN_MILLIS;
 
+        /** How often the wallet is saved in full, if changes are journaled. */
+        public static final long WALLET_JOURNAL_COMPACTION_DELAY_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+        /** Size of the wallet journal that triggers a full save before the delay has passed. */
+        public static final long WALLET_JOURNAL_MAX_SIZE = 1024 * 1024;
+
         /** Filename of the automatic key backup (old format, can only be read). */
         public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58" + FILENAME_NETWORK_SUFFIX;
 
@@ -97,12 +107,18 @@ public final class Constants {
         /** Name of the asset containing the block checkpoints. */
         public static final String CHECKPOINTS_ASSET = "checkpoints.txt";
 
+        /** Name of the asset containing the block checkpoints in binary format, generated at build time. */
+        public static final String CHECKPOINTS_BINARY_ASSET = "checkpoints.bin";
+
         /** Name of the asset containing hardcoded fees. */
         public static final String FEES_ASSET = "fees.txt";
 
         /** Filename of the dynamic fees file. */
         public static final String FEES_FILENAME = "fees" + FILENAME_NETWORK_SUFFIX + ".txt";
 
+        /** Filename of the peer scores, kept across service restarts. */
+        public static final String PEER_SCORES_FILENAME = "peer-scores" + FILENAME_NETWORK_SUFFIX + ".txt";
+
         /** Name of the asset containing Electrum servers. */
         public static final String ELECTRUM_SERVERS_ASSET = "electrum-servers.txt";
     }
@@ -123,6 +139,9 @@ public final class Constants {
     /** Number of confirmations until a transaction is fully confirmed. */
     public static final int MAX_NUM_CONFIRMATIONS = 7;
 
+    /** Depth in blocks, roughly a month, after which fully spent transactions are archived out of the wallet. */
+    public static final int TRANSACTION_ARCHIVE_MIN_DEPTH = 144 * 30;
+
     /** User-agent to use for network access. */
     public static final String USER_AGENT = "Bitcoin Wallet";
 
@@ -163,6 +182,9 @@ public final class Constants {
 
     public static final int PEER_DISCOVERY_TIMEOUT_MS = 5 * (int) DateUtils.SECOND_IN_MILLIS;
     public static final int PEER_TIMEOUT_MS = 15 * (int) DateUtils.SECOND_IN_MILLIS;
+    public static final Duration TRUSTED_PEER_RESOLVE_TIMEOUT = Duration.ofSeconds(5);
+    /** How long resolved addresses of trusted peers are used without resolving again. */
+    public static final Duration TRUSTED_PEER_RESOLVE_TTL = Duration.ofHours(6);
 
     public static final long LAST_USAGE_THRESHOLD_JUST_MS = DateUtils.HOUR_IN_MILLIS;
     public static final long LAST_USAGE_THRESHOLD_TODAY_MS = DateUtils.DAY_IN_MILLIS;
@@ -179,6 +201,9 @@ public final class Constants {
             NETWORK_PARAMETERS.getId().equals(NetworkParameters.ID_MAINNET) ?
                     Duration.ofSeconds(30) :
                     Duration.ofMinutes(2);
+    /** Grace period for the last events to settle, once the chain tip was reached and nothing is pending. */
+    public static final Duration SERVICE_STOP_DELAY_AT_TIP =
+            Duration.ofSeconds(5);
 
     public static final long DELAYED_TRANSACTION_THRESHOLD_MS = 2 * DateUtils.HOUR_IN_MILLIS;
 
@@ -29,30 +29,58 @@ import android.media.AudioAttributes;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.MutableLiveData;
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.SettableFuture;
+import de.schildbach.wallet.archive.ArchivedSpendEntry;
+import de.schildbach.wallet.archive.ArchivedTransactionEntry;
+import de.schildbach.wallet.archive.TransactionArchiveDao;
+import de.schildbach.wallet.archive.TransactionArchiveDatabase;
+import de.schildbach.wallet.data.WalletEventDispatcher;
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainState;
+import de.schildbach.wallet.txindex.IndexedBlockEntry;
+import de.schildbach.wallet.txindex.IndexedTransactionEntry;
+import de.schildbach.wallet.txindex.TransactionIndexDao;
+import de.schildbach.wallet.txindex.TransactionIndexDatabase;
+import de.schildbach.wallet.txindex.TransactionSearchEntry;
 import de.schildbach.wallet.ui.Event;
 import de.schildbach.wallet.util.Bluetooth;
 import de.schildbach.wallet.util.CrashReporter;
+import de.schildbach.wallet.util.PartialWallet;
+import de.schildbach.wallet.util.BloomFilterTuner;
+import de.schildbach.wallet.util.PeerScores;
+import de.schildbach.wallet.util.SyncMetrics;
 import de.schildbach.wallet.util.Toast;
+import de.schildbach.wallet.util.TransactionArchive;
+import de.schildbach.wallet.util.TransactionIndex;
+import de.schildbach.wallet.util.TransactionSearch;
+import de.schildbach.wallet.util.WalletJournal;
 import de.schildbach.wallet.util.WalletUtils;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.VersionMessage;
 import org.bitcoinj.crypto.MnemonicCode;
+import org.bitcoinj.script.Script;
 import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.WalletFiles;
@@ -63,10 +91,20 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Andreas Schildbach
@@ -76,14 +114,24 @@ public class WalletApplication extends Application {
 
     private File walletFile;
     private WalletFiles walletFiles;
+    private WalletJournal walletJournal;
+    private volatile TransactionArchive transactionArchive = TransactionArchive.EMPTY;
     private Configuration config;
 
     public final MutableLiveData<BlockchainState> blockchainState = new MutableLiveData<>();
     public final MutableLiveData<Integer> peerState = new MutableLiveData<>();
+    public final MutableLiveData<SyncMetrics.Snapshot> syncMetrics = new MutableLiveData<>();
+    public final MutableLiveData<Map<InetSocketAddress, PeerScores.Score>> peerScores = new MutableLiveData<>();
+    public final MutableLiveData<BloomFilterTuner.Snapshot> bloomFilterTuning = new MutableLiveData<>();
     public final MutableLiveData<Event<Void>> walletChanged = new MutableLiveData<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // not aligned to frames, as those stop while the screen is off and the service still needs to be told
+    public final WalletEventDispatcher walletEvents = new WalletEventDispatcher(
+            flush -> mainHandler.postDelayed(flush, WALLET_EVENTS_COALESCE_MS));
 
     public static final long TIME_CREATE_APPLICATION = System.currentTimeMillis();
     private static final String BIP39_WORDLIST_FILENAME = "bip39-wordlist.txt";
+    private static final long WALLET_EVENTS_COALESCE_MS = 16; // about one frame
 
     private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
@@ -138,9 +186,25 @@ public class WalletApplication extends Application {
 
     @WorkerThread
     public Wallet getWallet() {
+        return awaitWallet(false);
+    }
+
+    /**
+     * Like {@link #getWallet()}, but may return a partial wallet without transaction history while the full wallet is
+     * still loading. See {@link #getPartialWalletAsync(OnWalletLoadedListener)}.
+     */
+    @WorkerThread
+    public Wallet getPartialWallet() {
+        return awaitWallet(true);
+    }
+
+    private Wallet awaitWallet(final boolean partial) {
         final Stopwatch watch = Stopwatch.createStarted();
         final SettableFuture<Wallet> future = SettableFuture.create();
-        getWalletAsync(wallet -> future.set(wallet));
+        if (partial)
+            getPartialWalletAsync(wallet -> future.set(wallet));
+        else
+            getWalletAsync(wallet -> future.set(wallet));
         try {
             return future.get();
         } catch (final InterruptedException | ExecutionException x) {
@@ -153,7 +217,80 @@ public class WalletApplication extends Application {
     }
 
     private final Executor getWalletExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("get wallet"));
+    private final Executor getPartialWalletExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("get partial wallet"));
     private final Object getWalletLock = new Object();
+    // guards handing over from the partial to the full wallet, so no key issued on the partial wallet gets lost
+    private final Object partialWalletLock = new Object();
+    private Wallet partialWallet;
+    private Protos.Wallet partialWalletSource;
+
+    /**
+     * Gets the wallet in two phases. If the full wallet hasn't been loaded yet, a partial wallet is loaded and handed
+     * out first. It contains the key chains and everything needed for the balance, but no transaction history. It is
+     * never saved or synced. Once the full wallet has been loaded in the background, {@link #walletChanged} fires, so
+     * users of the partial wallet can switch over.
+     */
+    @AnyThread
+    public void getPartialWalletAsync(final OnWalletLoadedListener listener) {
+        getPartialWalletExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Wallet wallet;
+                synchronized (getWalletLock) {
+                    if (walletFiles == null && partialWallet == null)
+                        loadPartialWalletFromProtobuf();
+                    wallet = walletFiles != null ? walletFiles.getWallet() : partialWallet;
+                }
+                if (wallet != null)
+                    listener.onWalletLoaded(wallet);
+                else
+                    getWalletAsync(listener);
+            }
+
+            @WorkerThread
+            private void loadPartialWalletFromProtobuf() {
+                if (!walletFile.exists())
+                    return;
+                try (final FileInputStream walletStream = new FileInputStream(walletFile)) {
+                    final Stopwatch watch = Stopwatch.createStarted();
+                    Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(walletStream);
+                    if (Constants.ENABLE_WALLET_JOURNAL)
+                        walletProto = WalletJournal.replay(walletProto, walletFile);
+                    final Protos.Wallet partialWalletProto = PartialWallet.withoutHistory(walletProto);
+                    final Wallet wallet = new WalletProtobufSerializer().readWallet(Constants.NETWORK_PARAMETERS,
+                            null, partialWalletProto);
+                    synchronized (partialWalletLock) {
+                        partialWallet = wallet;
+                    }
+                    partialWalletSource = walletProto;
+                    watch.stop();
+                    log.info("partial wallet loaded from: '{}', {} of {} transactions, took {}", walletFile,
+                            partialWalletProto.getTransactionCount(), walletProto.getTransactionCount(), watch);
+                } catch (final IOException | UnreadableWalletException x) {
+                    log.info("problem loading partial wallet, waiting for full wallet: " + walletFile, x);
+                    return;
+                }
+
+                // second phase
+                getWalletAsync(wallet -> walletChanged.postValue(Event.simple()));
+            }
+        });
+    }
+
+    /**
+     * Issues a fresh receive address on the given wallet, which may be the partial one. This is serialized with
+     * handing over to the full wallet: if the handover has already happened, the address is issued on the full wallet
+     * instead, otherwise it is carried over to it.
+     */
+    @WorkerThread
+    public Address freshReceiveAddress(final Wallet wallet, @Nullable final Script.ScriptType outputScriptType) {
+        synchronized (partialWalletLock) {
+            final Wallet issuingWallet = wallet != partialWallet && walletFiles != null ? walletFiles.getWallet()
+                    : wallet;
+            return outputScriptType != null ? issuingWallet.freshReceiveAddress(outputScriptType)
+                    : issuingWallet.freshReceiveAddress();
+        }
+    }
 
     @AnyThread
     public void getWalletAsync(final OnWalletLoadedListener listener) {
@@ -171,10 +308,26 @@ public class WalletApplication extends Application {
             @WorkerThread
             private void loadWalletFromProtobuf() {
                 Wallet wallet;
+                boolean walletStripped = false;
                 if (walletFile.exists()) {
-                    try (final FileInputStream walletStream = new FileInputStream(walletFile)) {
+                    try {
                         final Stopwatch watch = Stopwatch.createStarted();
-                        wallet = new WalletProtobufSerializer().readWallet(walletStream);
+                        Protos.Wallet walletProto = partialWalletSource;
+                        partialWalletSource = null;
+                        if (walletProto == null) {
+                            try (final FileInputStream walletStream = new FileInputStream(walletFile)) {
+                                walletProto = WalletProtobufSerializer.parseToProto(walletStream);
+                            }
+                            if (Constants.ENABLE_WALLET_JOURNAL)
+                                walletProto = WalletJournal.replay(walletProto, walletFile);
+                        }
+                        if (Constants.ENABLE_TRANSACTION_ARCHIVE) {
+                            final Protos.Wallet strippedWalletProto = stripArchivedTransactions(walletProto);
+                            walletStripped = strippedWalletProto != walletProto;
+                            walletProto = strippedWalletProto;
+                        }
+                        wallet = new WalletProtobufSerializer().readWallet(Constants.NETWORK_PARAMETERS, null,
+                                walletProto);
                         watch.stop();
 
                         if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
@@ -184,12 +337,14 @@ public class WalletApplication extends Application {
                         log.info("wallet loaded from: '{}', took {}", walletFile, watch);
                     } catch (final IOException | UnreadableWalletException x) {
                         log.warn("problem loading wallet, auto-restoring: " + walletFile, x);
+                        WalletJournal.delete(walletFile);
                         wallet = WalletUtils.restoreWalletFromAutoBackup(WalletApplication.this);
                         if (wallet != null)
                             new Toast(WalletApplication.this).postLongToast(R.string.toast_wallet_reset);
                     }
                     if (!wallet.isConsistent()) {
                         log.warn("inconsistent wallet, auto-restoring: " + walletFile);
+                        WalletJournal.delete(walletFile);
                         wallet = WalletUtils.restoreWalletFromAutoBackup(WalletApplication.this);
                         if (wallet != null)
                             new Toast(WalletApplication.this).postLongToast(R.string.toast_wallet_reset);
@@ -199,14 +354,22 @@ public class WalletApplication extends Application {
                         throw new Error("bad wallet network parameters: " + wallet.getParams().getId());
 
                     wallet.cleanup();
-                    walletFiles = wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                            TimeUnit.MILLISECONDS, null);
+                    synchronized (partialWalletLock) {
+                        if (partialWallet != null) {
+                            PartialWallet.carryOverIssuedKeys(partialWallet, wallet);
+                            partialWallet = null;
+                        }
+                        autosaveToFile(wallet);
+                    }
+                    if (walletStripped)
+                        walletFiles.saveLater(); // persist stripped wallet
+                    if (Constants.ENABLE_TRANSACTION_ARCHIVE)
+                        archiveTransactions(wallet);
                 } else {
                     final Stopwatch watch = Stopwatch.createStarted();
                     wallet = Wallet.createDeterministic(Constants.NETWORK_PARAMETERS,
                             Constants.DEFAULT_OUTPUT_SCRIPT_TYPE);
-                    walletFiles = wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                            TimeUnit.MILLISECONDS, null);
+                    autosaveToFile(wallet);
                     autosaveWalletNow(); // persist...
                     WalletUtils.autoBackupWallet(WalletApplication.this, wallet); // ...and backup asap
                     watch.stop();
@@ -214,6 +377,9 @@ public class WalletApplication extends Application {
 
                     config.armBackupReminder();
                 }
+
+                final Wallet loadedWallet = wallet;
+                mainHandler.post(() -> startIndexingTransactions(loadedWallet));
             }
 
             private void initMnemonicCode() {
@@ -231,6 +397,298 @@ public class WalletApplication extends Application {
         });
     }
 
+    @WorkerThread
+    private Protos.Wallet stripArchivedTransactions(final Protos.Wallet walletProto) {
+        final TransactionArchiveDatabase database = TransactionArchiveDatabase.getDatabase(this);
+        final TransactionArchiveDao dao = database.transactionArchiveDao();
+        final Set<Sha256Hash> archivedTxIds = new HashSet<>();
+        for (final String txId : dao.getIds())
+            archivedTxIds.add(Sha256Hash.wrap(txId));
+        if (archivedTxIds.isEmpty())
+            return walletProto;
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Protos.Wallet strippedWalletProto = TransactionArchive.strip(walletProto, archivedTxIds);
+
+        // archived transactions that had to stay in the wallet are dropped from the archive, so they're not
+        // accounted for twice
+        final Set<String> keptTxIds = new HashSet<>();
+        for (final Protos.Transaction tx : strippedWalletProto.getTransactionList()) {
+            final Sha256Hash txId = Sha256Hash.wrap(tx.getHash().toByteArray());
+            if (archivedTxIds.contains(txId))
+                keptTxIds.add(txId.toString());
+        }
+        if (!keptTxIds.isEmpty()) {
+            log.info("{} archived transactions are still referenced by the wallet, unarchiving", keptTxIds.size());
+            database.runInTransaction(() -> {
+                dao.delete(keptTxIds);
+                dao.deleteSpends(keptTxIds);
+            });
+        }
+
+        final Map<Sha256Hash, Coin> archivedSpends = new HashMap<>();
+        for (final ArchivedSpendEntry spend : dao.getSpends())
+            if (!keptTxIds.contains(spend.getArchivedTxId()))
+                archivedSpends.merge(spend.spendingTxId(), spend.value(), Coin::add);
+        transactionArchive = new TransactionArchive(archivedSpends);
+        watch.stop();
+        log.info("{} archived transactions stripped from wallet, took {}",
+                walletProto.getTransactionCount() - strippedWalletProto.getTransactionCount(), watch);
+        return strippedWalletProto;
+    }
+
+    private final Executor archiveExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("transaction archive"));
+
+    /**
+     * Archives transactions that are fully spent and buried deep enough. They stay in the wallet until it is loaded
+     * the next time, and are stripped from it then.
+     */
+    private void archiveTransactions(final Wallet wallet) {
+        archiveExecutor.execute(() -> {
+            final Stopwatch watch = Stopwatch.createStarted();
+            final TransactionArchive.Selection selection = TransactionArchive.select(wallet,
+                    Constants.TRANSACTION_ARCHIVE_MIN_DEPTH);
+            if (selection.transactions.isEmpty())
+                return;
+            final List<ArchivedTransactionEntry> entries = new ArrayList<>(selection.transactions.size());
+            for (final Map.Entry<Sha256Hash, Protos.Transaction> tx : selection.transactions.entrySet()) {
+                final Protos.Transaction txProto = tx.getValue();
+                entries.add(new ArchivedTransactionEntry(tx.getKey().toString(),
+                        txProto.getConfidence().getAppearedAtHeight(), txProto.getUpdatedAt(),
+                        txProto.toByteArray()));
+            }
+            final List<ArchivedSpendEntry> spends = new ArrayList<>(selection.spends.size());
+            for (final TransactionArchive.Spend spend : selection.spends)
+                spends.add(new ArchivedSpendEntry(spend.spendingTxId.toString(), spend.archivedTxId.toString(),
+                        spend.value.value));
+            final TransactionArchiveDatabase database = TransactionArchiveDatabase.getDatabase(this);
+            final TransactionArchiveDao dao = database.transactionArchiveDao();
+            database.runInTransaction(() -> {
+                dao.insertOrReplace(entries);
+                dao.insertOrReplaceSpends(spends);
+            });
+            watch.stop();
+            log.info("{} transactions archived, took {}", entries.size(), watch);
+        });
+    }
+
+    /**
+     * Empties the transaction archive. Must be called whenever the wallet is reset or replaced, as the archived
+     * transactions will be fetched again from the block chain.
+     */
+    @AnyThread
+    public void resetTransactionArchive() {
+        transactionArchive = TransactionArchive.EMPTY;
+        archiveExecutor.execute(() -> {
+            final TransactionArchiveDatabase database = TransactionArchiveDatabase.getDatabase(this);
+            final TransactionArchiveDao dao = database.transactionArchiveDao();
+            database.runInTransaction(() -> {
+                dao.deleteAll();
+                dao.deleteAllSpends();
+            });
+            log.info("transaction archive reset");
+        });
+    }
+
+    /**
+     * Gets the archive of transactions that have been stripped from the wallet. Use
+     * {@link TransactionArchive#getValue(Transaction, Wallet)} rather than {@link Transaction#getValue} for
+     * transaction values.
+     */
+    public TransactionArchive getTransactionArchive() {
+        return transactionArchive;
+    }
+
+    /**
+     * Looks up an archived transaction, for transactions that can't be found in the wallet.
+     */
+    @Nullable
+    public Transaction findArchivedTransaction(final Sha256Hash txId) {
+        final ArchivedTransactionEntry entry = TransactionArchiveDatabase.getDatabase(this).transactionArchiveDao()
+                .get(txId.toString());
+        if (entry == null)
+            return null;
+        try {
+            return TransactionArchive.readTransactions(Constants.NETWORK_PARAMETERS,
+                    Collections.singleton(entry.getProto())).get(txId);
+        } catch (final UnreadableWalletException x) {
+            log.warn("problem reading archived transaction " + txId, x);
+            return null;
+        }
+    }
+
+    /**
+     * Value of an archived transaction to the wallet. Its inputs aren't connected anymore, so the value is taken from
+     * the transaction index, which has it from back when the transaction was connected in the wallet.
+     */
+    public Coin getArchivedTransactionValue(final Transaction archivedTx, final Wallet wallet) {
+        final IndexedTransactionEntry indexedTx = TransactionIndexDatabase.getDatabase(this).transactionIndexDao()
+                .get(archivedTx.getTxId().toString());
+        return indexedTx != null ? indexedTx.value() : transactionArchive.getValue(archivedTx, wallet);
+    }
+
+    private final Executor indexExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("transaction index"));
+    private final TransactionIndex transactionIndex = new TransactionIndex();
+    private final AtomicBoolean transactionIndexPending = new AtomicBoolean();
+    private boolean transactionIndexResumed = false; // accessed by index executor only
+    private Wallet indexedWallet; // accessed on main thread only
+    private final WalletEventDispatcher.Listener transactionIndexListener = changes -> {
+        if (changes.contains(WalletEventDispatcher.Change.KEYS))
+            transactionIndex.invalidate();
+        indexTransactions(indexedWallet);
+    };
+    private static final int TRANSACTION_INDEX_BATCH_SIZE = 500;
+
+    /**
+     * Keeps the transaction index up to date with the given wallet from now on.
+     */
+    @MainThread
+    private void startIndexingTransactions(final Wallet wallet) {
+        if (indexedWallet != null)
+            walletEvents.removeListener(indexedWallet, transactionIndexListener);
+        indexedWallet = wallet;
+        walletEvents.addListener(wallet, EnumSet.of(WalletEventDispatcher.Change.TRANSACTIONS,
+                WalletEventDispatcher.Change.CONFIDENCE, WalletEventDispatcher.Change.KEYS), transactionIndexListener);
+        indexTransactions(wallet);
+    }
+
+    private void indexTransactions(final Wallet wallet) {
+        if (!transactionIndexPending.compareAndSet(false, true))
+            return; // an update is queued already, and will pick up this change too
+        indexExecutor.execute(() -> {
+            transactionIndexPending.set(false);
+            final Stopwatch watch = Stopwatch.createStarted();
+            final TransactionIndexDatabase database = TransactionIndexDatabase.getDatabase(this);
+            final TransactionIndexDao dao = database.transactionIndexDao();
+            if (!transactionIndexResumed) {
+                resumeTransactionIndex(wallet, dao);
+                transactionIndexResumed = true;
+            }
+            final TransactionArchive transactionArchive = this.transactionArchive;
+            final TransactionIndex.Delta delta = transactionIndex.update(wallet.getTransactions(true),
+                    (tx, fingerprint) -> transactionIndexRow(tx, wallet, transactionArchive, fingerprint));
+            if (delta.isEmpty())
+                return;
+
+            // archived transactions are gone from the wallet, but stay in the index
+            final Set<String> removed = new HashSet<>(delta.removed.size());
+            for (final Sha256Hash txId : delta.removed)
+                removed.add(txId.toString());
+            if (Constants.ENABLE_TRANSACTION_ARCHIVE && !removed.isEmpty())
+                removed.removeAll(TransactionArchiveDatabase.getDatabase(this).transactionArchiveDao().getIds());
+            final List<Long> removedRowIds = new ArrayList<>(removed.size());
+            for (final String txId : removed)
+                removedRowIds.add(TransactionSearch.rowId(Sha256Hash.wrap(txId)));
+            database.runInTransaction(() -> {
+                writeTransactionIndexRows(dao, delta.rows);
+                for (final List<String> batch : Iterables.partition(removed, TRANSACTION_INDEX_BATCH_SIZE)) {
+                    dao.delete(batch);
+                    dao.deleteBlocks(batch);
+                }
+                for (final List<Long> batch : Iterables.partition(removedRowIds, TRANSACTION_INDEX_BATCH_SIZE))
+                    dao.deleteSearch(batch);
+            });
+            watch.stop();
+            log.debug("transaction index: {} rows written, {} removed, took {}", delta.rows.size(), removed.size(),
+                    watch);
+        });
+    }
+
+    @WorkerThread
+    private void resumeTransactionIndex(final Wallet wallet, final TransactionIndexDao dao) {
+        final Map<Sha256Hash, Long> fingerprints = new HashMap<>();
+        for (final IndexedTransactionEntry entry : dao.getAll())
+            fingerprints.put(entry.txId(), entry.getFingerprint());
+        transactionIndex.resume(fingerprints);
+        log.info("transaction index resumed with {} rows", fingerprints.size());
+
+        // transactions archived before the index existed
+        if (Constants.ENABLE_TRANSACTION_ARCHIVE) {
+            final TransactionArchiveDao archiveDao = TransactionArchiveDatabase.getDatabase(this)
+                    .transactionArchiveDao();
+            final List<byte[]> unindexedTxs = new ArrayList<>();
+            for (final String txId : archiveDao.getIds())
+                if (!fingerprints.containsKey(Sha256Hash.wrap(txId)))
+                    unindexedTxs.add(archiveDao.get(txId).getProto());
+            if (unindexedTxs.isEmpty())
+                return;
+            try {
+                final TransactionArchive transactionArchive = this.transactionArchive;
+                final List<TransactionIndex.Row> rows = new ArrayList<>(unindexedTxs.size());
+                for (final Transaction tx : TransactionArchive.readTransactions(Constants.NETWORK_PARAMETERS,
+                        unindexedTxs).values())
+                    rows.add(transactionIndexRow(tx, wallet, transactionArchive, TransactionIndex.fingerprint(tx)));
+                writeTransactionIndexRows(dao, rows);
+                log.info("{} archived transactions indexed", rows.size());
+            } catch (final UnreadableWalletException x) {
+                log.warn("problem reading archived transactions", x);
+            }
+        }
+    }
+
+    private static TransactionIndex.Row transactionIndexRow(final Transaction tx, final Wallet wallet,
+            final TransactionArchive transactionArchive, final long fingerprint) {
+        final Coin value = transactionArchive.getValue(tx, wallet);
+        final boolean sent = value.signum() < 0;
+        final TransactionIndex.Direction direction;
+        if (tx.getPurpose() == Transaction.Purpose.KEY_ROTATION)
+            direction = TransactionIndex.Direction.INTERNAL;
+        else
+            direction = sent ? TransactionIndex.Direction.SENT : TransactionIndex.Direction.RECEIVED;
+        final boolean self = WalletUtils.isEntirelySelf(tx, wallet);
+        final Address address = sent ? WalletUtils.getToAddressOfSent(tx, wallet)
+                : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+        return new TransactionIndex.Row(tx, value, direction, self, address, fingerprint);
+    }
+
+    private static void writeTransactionIndexRows(final TransactionIndexDao dao,
+            final List<TransactionIndex.Row> rows) {
+        final List<IndexedTransactionEntry> entries = new ArrayList<>(rows.size());
+        final List<IndexedBlockEntry> blocks = new ArrayList<>();
+        final Set<String> txIds = new HashSet<>(rows.size());
+        for (final TransactionIndex.Row row : rows) {
+            final String txId = row.txId.toString();
+            entries.add(new IndexedTransactionEntry(row));
+            for (final Sha256Hash blockHash : row.blockHashes)
+                blocks.add(new IndexedBlockEntry(txId, blockHash.toString()));
+            txIds.add(txId);
+        }
+        for (final List<String> batch : Iterables.partition(txIds, TRANSACTION_INDEX_BATCH_SIZE))
+            dao.deleteBlocks(batch); // blocks may have been reorganized away
+        dao.insertOrReplace(entries);
+        dao.insertOrReplaceBlocks(blocks);
+        dao.insertOrReplaceSearch(transactionSearchEntries(entries));
+    }
+
+    private static List<TransactionSearchEntry> transactionSearchEntries(
+            final List<IndexedTransactionEntry> entries) {
+        final List<TransactionSearchEntry> searchEntries = new ArrayList<>(entries.size());
+        for (final IndexedTransactionEntry entry : entries) {
+            final Sha256Hash txId = entry.txId();
+            // labels aren't indexed but looked up while searching, see TransactionSearch.sql()
+            searchEntries.add(new TransactionSearchEntry(TransactionSearch.rowId(txId), entry.getTxId(),
+                    TransactionSearch.text(txId, entry.getAddress(), null, entry.getMemo(), entry.value())));
+        }
+        return searchEntries;
+    }
+
+    /**
+     * Empties the transaction index, e.g. if the wallet has been replaced.
+     */
+    private void resetTransactionIndex() {
+        indexExecutor.execute(() -> {
+            transactionIndex.clear();
+            final TransactionIndexDatabase database = TransactionIndexDatabase.getDatabase(this);
+            final TransactionIndexDao dao = database.transactionIndexDao();
+            database.runInTransaction(() -> {
+                dao.deleteAll();
+                dao.deleteAllBlocks();
+                dao.deleteAllSearch();
+            });
+            log.info("transaction index reset");
+        });
+    }
+
     public interface OnWalletLoadedListener {
         void onWalletLoaded(Wallet wallet);
     }
@@ -251,6 +709,19 @@ public class WalletApplication extends Application {
         }
     }
 
+    private void autosaveToFile(final Wallet wallet) {
+        if (Constants.ENABLE_WALLET_JOURNAL) {
+            walletJournal = WalletJournal.autosaveToFile(wallet, walletFile,
+                    Constants.Files.WALLET_JOURNAL_COMPACTION_DELAY_MS, TimeUnit.MILLISECONDS,
+                    Constants.Files.WALLET_JOURNAL_MAX_SIZE);
+            walletFiles = walletJournal.getWalletFiles();
+        } else {
+            walletJournal = null;
+            walletFiles = wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
+                    TimeUnit.MILLISECONDS, null);
+        }
+    }
+
     public void replaceWallet(final Wallet newWallet) {
         newWallet.cleanup();
         if (newWallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE) && !newWallet.isEncrypted())
@@ -259,10 +730,21 @@ public class WalletApplication extends Application {
 
         final Wallet oldWallet = getWallet();
         synchronized (getWalletLock) {
-            oldWallet.shutdownAutosaveAndWait(); // this will also prevent BlockchainService to save
-            walletFiles = newWallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                    TimeUnit.MILLISECONDS, null);
+            // this will also prevent BlockchainService to save
+            if (walletJournal != null)
+                walletJournal.shutdownAndWait();
+            else
+                oldWallet.shutdownAutosaveAndWait();
+            WalletJournal.delete(walletFile);
+            synchronized (partialWalletLock) {
+                autosaveToFile(newWallet);
+            }
         }
+        if (Constants.ENABLE_TRANSACTION_ARCHIVE)
+            resetTransactionArchive();
+        resetTransactionIndex();
+        startIndexingTransactions(newWallet);
+        autosaveWalletNow();
         config.maybeIncrementBestChainHeightEver(newWallet.getLastBlockSeenHeight());
         WalletUtils.autoBackupWallet(this, newWallet);
 
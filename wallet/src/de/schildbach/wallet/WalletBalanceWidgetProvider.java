@@ -68,7 +68,7 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider {
         final PendingResult result = goAsync();
         executor.execute(() -> {
             final WalletApplication application = (WalletApplication) context.getApplicationContext();
-            final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+            final Coin balance = application.getPartialWallet().getBalance(BalanceType.ESTIMATED);
             final Configuration config = application.getConfiguration();
             final ExchangeRatesRepository exchangeRatesRepository = ExchangeRatesRepository.get(application);
             final ExchangeRateEntry exchangeRate = config.isEnableExchangeRates() ?
@@ -88,7 +88,7 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider {
         final PendingResult result = goAsync();
         executor.execute(() -> {
             final WalletApplication application = (WalletApplication) context.getApplicationContext();
-            final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+            final Coin balance = application.getPartialWallet().getBalance(BalanceType.ESTIMATED);
             final Configuration config = application.getConfiguration();
             final ExchangeRatesRepository exchangeRatesRepository = ExchangeRatesRepository.get(application);
             final ExchangeRateEntry exchangeRate = config.isEnableExchangeRates() ?
@@ -0,0 +1,74 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.archive;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * A wallet output of an archived transaction, spent by another transaction.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = ArchivedSpendEntry.TABLE_NAME, primaryKeys = { "spending_tx_id", "archived_tx_id" })
+public final class ArchivedSpendEntry {
+    public static final String TABLE_NAME = "archived_spends";
+
+    @NonNull
+    @ColumnInfo(name = "spending_tx_id")
+    private String spendingTxId;
+
+    @NonNull
+    @ColumnInfo(name = "archived_tx_id")
+    private String archivedTxId;
+
+    @ColumnInfo(name = "value")
+    private long value;
+
+    public ArchivedSpendEntry(@NonNull final String spendingTxId, @NonNull final String archivedTxId,
+                              final long value) {
+        this.spendingTxId = spendingTxId;
+        this.archivedTxId = archivedTxId;
+        this.value = value;
+    }
+
+    @NonNull
+    public String getSpendingTxId() {
+        return spendingTxId;
+    }
+
+    @NonNull
+    public String getArchivedTxId() {
+        return archivedTxId;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public Sha256Hash spendingTxId() {
+        return Sha256Hash.wrap(spendingTxId);
+    }
+
+    public Coin value() {
+        return Coin.valueOf(value);
+    }
+}
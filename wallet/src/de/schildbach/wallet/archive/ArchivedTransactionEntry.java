@@ -0,0 +1,78 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.archive;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = ArchivedTransactionEntry.TABLE_NAME, indices = { @Index(value = { "height" }) })
+public final class ArchivedTransactionEntry {
+    public static final String TABLE_NAME = "archived_transactions";
+
+    @NonNull
+    @PrimaryKey
+    @ColumnInfo(name = "tx_id")
+    private String txId;
+
+    @ColumnInfo(name = "height")
+    private int height;
+
+    @ColumnInfo(name = "time")
+    private long time;
+
+    @NonNull
+    @ColumnInfo(name = "proto")
+    private byte[] proto;
+
+    public ArchivedTransactionEntry(@NonNull final String txId, final int height, final long time,
+                                    @NonNull final byte[] proto) {
+        this.txId = txId;
+        this.height = height;
+        this.time = time;
+        this.proto = proto;
+    }
+
+    @NonNull
+    public String getTxId() {
+        return txId;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @NonNull
+    public byte[] getProto() {
+        return proto;
+    }
+
+    public Sha256Hash txId() {
+        return Sha256Hash.wrap(txId);
+    }
+}
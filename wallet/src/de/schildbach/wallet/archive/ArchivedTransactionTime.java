@@ -0,0 +1,45 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.archive;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * Just enough of an archived transaction to list it, without reading it.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ArchivedTransactionTime {
+    @NonNull
+    @ColumnInfo(name = "tx_id")
+    public String txId;
+
+    @ColumnInfo(name = "time")
+    public long time;
+
+    public ArchivedTransactionTime(@NonNull final String txId, final long time) {
+        this.txId = txId;
+        this.time = time;
+    }
+
+    public Sha256Hash txId() {
+        return Sha256Hash.wrap(txId);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.archive;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Dao
+public interface TransactionArchiveDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplace(List<ArchivedTransactionEntry> entries);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplaceSpends(List<ArchivedSpendEntry> spends);
+
+    @Query("SELECT tx_id FROM archived_transactions")
+    List<String> getIds();
+
+    @Query("SELECT * FROM archived_transactions WHERE tx_id = :txId")
+    ArchivedTransactionEntry get(String txId);
+
+    @Query("SELECT tx_id, time FROM archived_transactions")
+    LiveData<List<ArchivedTransactionTime>> getTimes();
+
+    @Query("SELECT * FROM archived_transactions WHERE height >= :minHeight ORDER BY height DESC")
+    List<ArchivedTransactionEntry> getSinceHeight(int minHeight);
+
+    @Query("SELECT * FROM archived_spends")
+    List<ArchivedSpendEntry> getSpends();
+
+    @Query("DELETE FROM archived_transactions WHERE tx_id IN (:txIds)")
+    void delete(Collection<String> txIds);
+
+    @Query("DELETE FROM archived_spends WHERE archived_tx_id IN (:archivedTxIds)")
+    void deleteSpends(Collection<String> archivedTxIds);
+
+    @Query("DELETE FROM archived_transactions")
+    void deleteAll();
+
+    @Query("DELETE FROM archived_spends")
+    void deleteAllSpends();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.archive;
+
+import android.content.Context;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+/**
+ * Archived transactions, stripped from the wallet. See {@link de.schildbach.wallet.util.TransactionArchive}.
+ *
+ * @author Andreas Schildbach
+ */
+@Database(entities = { ArchivedTransactionEntry.class, ArchivedSpendEntry.class }, version = 1,
+        exportSchema = false)
+public abstract class TransactionArchiveDatabase extends RoomDatabase {
+    private static final String DATABASE_NAME = "transaction_archive";
+    private static TransactionArchiveDatabase INSTANCE;
+
+    public static TransactionArchiveDatabase getDatabase(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (TransactionArchiveDatabase.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
+                            TransactionArchiveDatabase.class, DATABASE_NAME).allowMainThreadQueries().build();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public abstract TransactionArchiveDao transactionArchiveDao();
+}
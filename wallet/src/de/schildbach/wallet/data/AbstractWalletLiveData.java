@@ -24,6 +24,8 @@ import de.schildbach.wallet.WalletApplication.OnWalletLoadedListener;
 import de.schildbach.wallet.ui.Event;
 import org.bitcoinj.wallet.Wallet;
 
+import java.util.Set;
+
 /**
  * @author Andreas Schildbach
  */
@@ -31,6 +33,8 @@ public abstract class AbstractWalletLiveData<T> extends ThrottelingLiveData<T> i
     private final WalletApplication application;
     private final Handler handler = new Handler();
     private Wallet wallet;
+    // walletChanged is sticky, but the change it was last set to is covered by loading the wallet on activation
+    private Event<Void> walletChangedSeen;
 
     public AbstractWalletLiveData(final WalletApplication application) {
         super();
@@ -44,6 +48,7 @@ public abstract class AbstractWalletLiveData<T> extends ThrottelingLiveData<T> i
 
     @Override
     protected final void onActive() {
+        walletChangedSeen = application.walletChanged.getValue();
         application.walletChanged.observeForever(this);
         loadWallet();
     }
@@ -57,20 +62,52 @@ public abstract class AbstractWalletLiveData<T> extends ThrottelingLiveData<T> i
     }
 
     private void loadWallet() {
-        application.getWalletAsync(onWalletLoadedListener);
+        if (isPartialWalletSufficient())
+            application.getPartialWalletAsync(onWalletLoadedListener);
+        else
+            application.getWalletAsync(onWalletLoadedListener);
+    }
+
+    /**
+     * Override and return {@code true} if a partial wallet without transaction history is good enough for a first
+     * value. The full wallet will follow as soon as it has been loaded.
+     */
+    protected boolean isPartialWalletSufficient() {
+        return false;
     }
 
     protected Wallet getWallet() {
         return wallet;
     }
 
+    /**
+     * Reloads on the given kinds of change to the wallet, at most once per flush of {@link WalletEventDispatcher}.
+     * Call from {@link #onWalletActive(Wallet)}.
+     */
+    protected void observeWalletChanges(final Wallet wallet, final Set<WalletEventDispatcher.Change> changes) {
+        application.walletEvents.addListener(wallet, changes, walletChangesListener);
+    }
+
+    /**
+     * Counterpart of {@link #observeWalletChanges(Wallet, Set)}. Call from {@link #onWalletInactive(Wallet)}.
+     */
+    protected void unobserveWalletChanges(final Wallet wallet) {
+        application.walletEvents.removeListener(wallet, walletChangesListener);
+    }
+
+    private final WalletEventDispatcher.Listener walletChangesListener = changes -> triggerLoad();
+
     private final OnWalletLoadedListener onWalletLoadedListener = wallet -> handler.post(() -> {
         AbstractWalletLiveData.this.wallet = wallet;
         onWalletActive(wallet);
     });
 
     @Override
-    public void onChanged(final Event<Void> v) {
+    public void onChanged(final Event<Void> walletChanged) {
+        // shared by all wallet live data, so the event can't be consumed by any of them
+        if (walletChanged == walletChangedSeen)
+            return;
+        walletChangedSeen = walletChanged;
         if (wallet != null)
             onWalletInactive(wallet);
         loadWallet();
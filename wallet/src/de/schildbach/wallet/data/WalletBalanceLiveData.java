@@ -24,14 +24,10 @@ import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import org.bitcoinj.core.Coin;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.Wallet.BalanceType;
-import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
-import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+
+import java.util.EnumSet;
 
 /**
  * @author Andreas Schildbach
@@ -51,9 +47,14 @@ public final class WalletBalanceLiveData extends AbstractWalletLiveData<Coin>
         this(application, BalanceType.ESTIMATED);
     }
 
+    @Override
+    protected boolean isPartialWalletSufficient() {
+        return true;
+    }
+
     @Override
     protected void onWalletActive(final Wallet wallet) {
-        addWalletListener(wallet);
+        observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.BALANCE));
         config.registerOnSharedPreferenceChangeListener(this);
         load();
     }
@@ -61,21 +62,7 @@ public final class WalletBalanceLiveData extends AbstractWalletLiveData<Coin>
     @Override
     protected void onWalletInactive(final Wallet wallet) {
         config.unregisterOnSharedPreferenceChangeListener(this);
-        removeWalletListener(wallet);
-    }
-
-    private void addWalletListener(final Wallet wallet) {
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
-    }
-
-    private void removeWalletListener(final Wallet wallet) {
-        wallet.removeChangeEventListener(walletListener);
-        wallet.removeReorganizeEventListener(walletListener);
-        wallet.removeCoinsSentEventListener(walletListener);
-        wallet.removeCoinsReceivedEventListener(walletListener);
+        unobserveWalletChanges(wallet);
     }
 
     @Override
@@ -87,33 +74,6 @@ public final class WalletBalanceLiveData extends AbstractWalletLiveData<Coin>
         });
     }
 
-    private final WalletListener walletListener = new WalletListener();
-
-    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
-            WalletReorganizeEventListener, WalletChangeEventListener {
-        @Override
-        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                final Coin newBalance) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                final Coin newBalance) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onReorganize(final Wallet wallet) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onWalletChanged(final Wallet wallet) {
-            triggerLoad();
-        }
-    }
-
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
         if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key))
@@ -0,0 +1,231 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.KeyChainEventListener;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Listens to each wallet once on behalf of any number of subscribers, rather than each of them registering their
+ * own set of wallet listeners. Wallet events are classified into the kinds of change they stand for, and changes
+ * are collected until the next flush. Then each subscriber is told once about what changed among the kinds it is
+ * interested in, no matter how many events caused it. A burst of events, like during a block chain sync or a
+ * reorganize, thus costs each subscriber at most one reload per flush.
+ *
+ * <p>
+ * Events are counted by type, for diagnostics.
+ *
+ * <p>
+ * Subscribers are meant to be added and removed on the same thread the flush executor delivers on, usually the main
+ * thread. Wallet events can arrive on any thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletEventDispatcher {
+    public enum Change {
+        BALANCE, TRANSACTIONS, CONFIDENCE, KEYS
+    }
+
+    public enum Event {
+        COINS_RECEIVED, COINS_SENT, REORGANIZE, CHANGED, CONFIDENCE, KEYS_ADDED
+    }
+
+    public interface Listener {
+        /**
+         * @param changes kinds of change since the last call, among those subscribed to; never empty
+         */
+        void onWalletChanges(Set<Change> changes);
+    }
+
+    private final Executor flushExecutor;
+    private final Map<Wallet, Registration> registrations = new HashMap<>();
+    private final Map<Event, AtomicLong> eventCounts = new EnumMap<>(Event.class);
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private static final Logger log = LoggerFactory.getLogger(WalletEventDispatcher.class);
+
+    /**
+     * @param flushExecutor runs a flush, usually after a short delay so events can pile up
+     */
+    public WalletEventDispatcher(final Executor flushExecutor) {
+        this.flushExecutor = flushExecutor;
+        for (final Event event : Event.values())
+            eventCounts.put(event, new AtomicLong());
+    }
+
+    /**
+     * Subscribes to the given kinds of change to a wallet. Subscribing again replaces the kinds of change.
+     */
+    public void addListener(final Wallet wallet, final Set<Change> changes, final Listener listener) {
+        checkArgument(!changes.isEmpty());
+        Registration registration = registrations.get(wallet);
+        if (registration == null) {
+            registration = new Registration(wallet);
+            registrations.put(wallet, registration);
+            registration.register();
+        }
+        registration.listeners.put(listener, EnumSet.copyOf(changes));
+    }
+
+    public void removeListener(final Wallet wallet, final Listener listener) {
+        final Registration registration = registrations.get(wallet);
+        if (registration == null || registration.listeners.remove(listener) == null)
+            return;
+        if (registration.listeners.isEmpty()) {
+            registration.unregister();
+            registrations.remove(wallet);
+        }
+    }
+
+    public Map<Event, Long> getEventCounts() {
+        final Map<Event, Long> counts = new EnumMap<>(Event.class);
+        for (final Map.Entry<Event, AtomicLong> entry : eventCounts.entrySet())
+            counts.put(entry.getKey(), entry.getValue().get());
+        return counts;
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Map.Entry<Event, Long> entry : getEventCounts().entrySet())
+            builder.append(entry.getKey().name().toLowerCase(Locale.US)).append('=').append(entry.getValue()).append(", ");
+        builder.append("delivered in ").append(getFlushCount()).append(" flushes");
+        return builder.toString();
+    }
+
+    private final class Registration implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            WalletReorganizeEventListener, WalletChangeEventListener, TransactionConfidenceEventListener,
+            KeyChainEventListener {
+        final Wallet wallet;
+        final Map<Listener, Set<Change>> listeners = new LinkedHashMap<>();
+        private final Set<Change> pending = EnumSet.noneOf(Change.class); // guarded by itself
+
+        Registration(final Wallet wallet) {
+            this.wallet = wallet;
+        }
+
+        void register() {
+            wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+            wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+            wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+            wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+            wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+            wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
+        }
+
+        void unregister() {
+            wallet.removeKeyChainEventListener(this);
+            wallet.removeTransactionConfidenceEventListener(this);
+            wallet.removeChangeEventListener(this);
+            wallet.removeReorganizeEventListener(this);
+            wallet.removeCoinsSentEventListener(this);
+            wallet.removeCoinsReceivedEventListener(this);
+        }
+
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            post(Event.COINS_RECEIVED, Change.BALANCE, Change.TRANSACTIONS);
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            post(Event.COINS_SENT, Change.BALANCE, Change.TRANSACTIONS);
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            post(Event.REORGANIZE, Change.BALANCE, Change.TRANSACTIONS, Change.CONFIDENCE);
+        }
+
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            post(Event.CHANGED, Change.BALANCE, Change.TRANSACTIONS);
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+            post(Event.CONFIDENCE, Change.CONFIDENCE);
+        }
+
+        @Override
+        public void onKeysAdded(final List<ECKey> keys) {
+            post(Event.KEYS_ADDED, Change.KEYS);
+        }
+
+        private void post(final Event event, final Change... changes) {
+            eventCounts.get(event).incrementAndGet();
+            final boolean schedule;
+            synchronized (pending) {
+                schedule = pending.isEmpty();
+                Collections.addAll(pending, changes);
+            }
+            if (schedule)
+                flushExecutor.execute(this::flush);
+        }
+
+        private void flush() {
+            final Set<Change> changes;
+            synchronized (pending) {
+                changes = EnumSet.copyOf(pending);
+                pending.clear();
+            }
+            if (registrations.get(wallet) != this)
+                return; // unsubscribed meanwhile
+            flushCount.incrementAndGet();
+            log.debug("delivering {} to {} listeners", changes, listeners.size());
+            // copy, as listeners may unsubscribe while being told
+            for (final Map.Entry<Listener, Set<Change>> entry : new LinkedHashMap<>(listeners).entrySet()) {
+                final Set<Change> relevant = EnumSet.copyOf(entry.getValue());
+                relevant.retainAll(changes);
+                if (!relevant.isEmpty())
+                    entry.getKey().onWalletChanges(relevant);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.dependencies;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Fetches the unconfirmed dependencies of a transaction, i.e. the transactions it spends from, the ones those spend
+ * from and so on, for risk analysis. The dependencies are walked level by level using a work list rather than
+ * recursion, up to a maximum depth and a maximum number of transactions. All transactions of a level that are not
+ * cached are requested in batches. Confirmed transactions are usually unknown to the memory pool of the source; they
+ * end the walk on their branch.
+ *
+ * <p>
+ * Fetched transactions, and the IDs of transactions that could not be fetched, are cached across sources. If a
+ * request fails or times out, the dependencies fetched so far are returned.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class DependencyFetcher {
+    private final int maxDepth;
+    private final int maxCount;
+    private final int maxBatchSize;
+    private final Duration timeout;
+    private final ScheduledExecutorService timeoutExecutor;
+
+    // an empty value means the transaction could not be fetched
+    private final Map<Sha256Hash, Optional<Transaction>> cache;
+
+    private static final Logger log = LoggerFactory.getLogger(DependencyFetcher.class);
+
+    /**
+     * @param maxDepth number of levels to walk
+     * @param maxCount number of dependencies to fetch per transaction
+     * @param maxBatchSize number of transactions per request
+     * @param cacheCapacity number of transactions and IDs to cache
+     * @param timeout for each request
+     * @param timeoutExecutor used for timing out requests
+     */
+    public DependencyFetcher(final int maxDepth, final int maxCount, final int maxBatchSize, final int cacheCapacity,
+            final Duration timeout, final ScheduledExecutorService timeoutExecutor) {
+        checkArgument(maxDepth > 0 && maxCount > 0 && maxBatchSize > 0);
+        this.maxDepth = maxDepth;
+        this.maxCount = maxCount;
+        this.maxBatchSize = maxBatchSize;
+        this.timeout = timeout;
+        this.timeoutExecutor = timeoutExecutor;
+        this.cache = new LinkedHashMap<Sha256Hash, Optional<Transaction>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Sha256Hash, Optional<Transaction>> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Fetches the dependencies of the given transaction. The future never fails, at worst it completes with the
+     * dependencies fetched so far.
+     */
+    public ListenableFuture<List<Transaction>> fetch(final TransactionSource source, final Transaction tx) {
+        final Fetch fetch = new Fetch(source, tx);
+        fetch.next();
+        return fetch.future;
+    }
+
+    public int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private final class Fetch {
+        private final TransactionSource source;
+        private final Transaction tx;
+        private final SettableFuture<List<Transaction>> future = SettableFuture.create();
+        private final List<Transaction> dependencies = new ArrayList<>();
+        private final Set<Sha256Hash> seen = new HashSet<>();
+        private Deque<Sha256Hash> level = new ArrayDeque<>();
+        private Deque<Sha256Hash> nextLevel = new ArrayDeque<>();
+        private int depth = 1;
+        private int numRequests = 0;
+
+        private Fetch(final TransactionSource source, final Transaction tx) {
+            this.source = source;
+            this.tx = tx;
+            seen.add(tx.getTxId());
+            enqueueParents(tx, level);
+        }
+
+        /**
+         * Works through the levels, until either a request is in flight or the walk is finished. Called again once
+         * the request completes. Requests that complete right away are handled in the loop, so the stack never grows
+         * with the number of requests.
+         */
+        private void next() {
+            while (true) {
+                if (level.isEmpty()) {
+                    final Deque<Sha256Hash> exhausted = level;
+                    level = nextLevel;
+                    nextLevel = exhausted;
+                    depth++;
+                }
+                if (level.isEmpty() || depth > maxDepth || dependencies.size() >= maxCount) {
+                    finish();
+                    return;
+                }
+                final List<Sha256Hash> batch = new ArrayList<>(Math.min(level.size(), maxBatchSize));
+                synchronized (cache) {
+                    while (!level.isEmpty() && batch.size() < maxBatchSize) {
+                        final Sha256Hash txId = level.poll();
+                        final Optional<Transaction> cached = cache.get(txId);
+                        if (cached == null)
+                            batch.add(txId);
+                        else if (cached.isPresent())
+                            found(cached.get());
+                    }
+                }
+                if (batch.isEmpty())
+                    continue;
+                numRequests++;
+                final ListenableFuture<List<Transaction>> request = source.getTransactions(batch);
+                if (!request.isDone()) {
+                    Futures.addCallback(Futures.withTimeout(request, timeout.toMillis(), TimeUnit.MILLISECONDS,
+                            timeoutExecutor), new FutureCallback<List<Transaction>>() {
+                                @Override
+                                public void onSuccess(final List<Transaction> transactions) {
+                                    received(batch, transactions);
+                                    next();
+                                }
+
+                                @Override
+                                public void onFailure(final Throwable t) {
+                                    failed(batch, t);
+                                }
+                            }, MoreExecutors.directExecutor());
+                    return;
+                }
+                try {
+                    received(batch, Futures.getDone(request));
+                } catch (final ExecutionException | CancellationException x) {
+                    failed(batch, x);
+                    return;
+                }
+            }
+        }
+
+        private void received(final List<Sha256Hash> batch, final List<Transaction> transactions) {
+            final Set<Sha256Hash> missing = new HashSet<>(batch);
+            synchronized (cache) {
+                for (final Transaction transaction : transactions) {
+                    final Sha256Hash txId = transaction.getTxId();
+                    if (missing.remove(txId)) {
+                        cache.put(txId, Optional.of(transaction));
+                        found(transaction);
+                    }
+                }
+                for (final Sha256Hash txId : missing)
+                    cache.put(txId, Optional.empty());
+            }
+        }
+
+        private void failed(final List<Sha256Hash> batch, final Throwable t) {
+            log.info("fetching {} dependencies of {} from {} failed: {}", batch.size(), tx.getTxId(), source,
+                    t.toString());
+            finish();
+        }
+
+        private void found(final Transaction dependency) {
+            if (dependencies.size() >= maxCount)
+                return;
+            dependencies.add(dependency);
+            enqueueParents(dependency, nextLevel);
+        }
+
+        private void enqueueParents(final Transaction transaction, final Deque<Sha256Hash> queue) {
+            for (final TransactionInput input : transaction.getInputs()) {
+                if (input.isCoinBase())
+                    continue;
+                final Sha256Hash parentId = input.getOutpoint().getHash();
+                if (seen.add(parentId))
+                    queue.add(parentId);
+            }
+        }
+
+        private void finish() {
+            log.debug("fetched {} dependencies of {} from {} in {} requests", dependencies.size(), tx.getTxId(),
+                    source, numRequests);
+            future.set(dependencies);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.dependencies;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VersionMessage;
+
+import java.util.List;
+
+/**
+ * Peer that fetches the dependencies of pending transactions using a {@link DependencyFetcher}, rather than the
+ * recursive implementation of bitcoinj.
+ *
+ * @author Andreas Schildbach
+ */
+public class DependencyFetchingPeer extends Peer {
+    private final DependencyFetcher dependencyFetcher;
+    private final PeerTransactionSource transactionSource;
+
+    public DependencyFetchingPeer(final NetworkParameters params, final VersionMessage ver,
+            final PeerAddress remoteAddress, final AbstractBlockChain chain, final long requiredServices,
+            final int downloadTxDependencyDepth, final DependencyFetcher dependencyFetcher) {
+        super(params, ver, remoteAddress, chain, requiredServices, downloadTxDependencyDepth);
+        this.dependencyFetcher = dependencyFetcher;
+        this.transactionSource = new PeerTransactionSource(params, this);
+    }
+
+    @Override
+    public ListenableFuture<List<Transaction>> downloadDependencies(final Transaction tx) {
+        return dependencyFetcher.fetch(transactionSource, tx);
+    }
+}
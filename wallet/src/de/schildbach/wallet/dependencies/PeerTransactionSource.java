@@ -0,0 +1,136 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.dependencies;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.NotFoundMessage;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoinj.utils.Threading;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Requests transactions from the memory pool of a peer, with a single {@code getdata} message per request. Several
+ * requests can be in flight at a time. Transactions and {@code notfound} messages answering them are taken away from
+ * the peer's regular message processing.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerTransactionSource implements TransactionSource, PreMessageReceivedEventListener {
+    private final NetworkParameters params;
+    private final Peer peer;
+
+    // a missing transaction completes with null
+    private final Map<Sha256Hash, SettableFuture<Transaction>> pending = new HashMap<>();
+
+    public PeerTransactionSource(final NetworkParameters params, final Peer peer) {
+        this.params = params;
+        this.peer = peer;
+        peer.addPreMessageReceivedEventListener(Threading.SAME_THREAD, this);
+    }
+
+    @Override
+    public ListenableFuture<List<Transaction>> getTransactions(final Collection<Sha256Hash> txIds) {
+        final List<ListenableFuture<Transaction>> futures = new ArrayList<>(txIds.size());
+        final GetDataMessage getData = new GetDataMessage(params);
+        synchronized (this) {
+            for (final Sha256Hash txId : txIds) {
+                SettableFuture<Transaction> future = pending.get(txId);
+                if (future == null) {
+                    future = SettableFuture.create();
+                    pending.put(txId, future);
+                    getData.addTransaction(txId, true);
+                }
+                futures.add(future);
+            }
+        }
+        if (!getData.getItems().isEmpty())
+            peer.sendMessage(getData);
+        final ListenableFuture<List<Transaction>> all = Futures.allAsList(futures);
+        // a timed out request must not leave its transactions pending forever
+        all.addListener(() -> {
+            if (all.isCancelled()) {
+                synchronized (PeerTransactionSource.this) {
+                    for (final Sha256Hash txId : txIds) {
+                        final SettableFuture<Transaction> future = pending.get(txId);
+                        if (future != null && future.isCancelled())
+                            pending.remove(txId);
+                    }
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return Futures.transform(all, transactions -> {
+            final List<Transaction> found = new ArrayList<>(transactions.size());
+            for (final Transaction tx : transactions)
+                if (tx != null)
+                    found.add(tx);
+            return found;
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public Message onPreMessageReceived(final Peer peer, final Message m) {
+        if (m instanceof Transaction) {
+            final Transaction tx = (Transaction) m;
+            final SettableFuture<Transaction> future;
+            synchronized (this) {
+                future = pending.remove(tx.getTxId());
+            }
+            if (future == null)
+                return m; // not ours
+            future.set(tx);
+            return null;
+        } else if (m instanceof NotFoundMessage) {
+            final List<SettableFuture<Transaction>> futures = new ArrayList<>();
+            boolean allOurs = true;
+            synchronized (this) {
+                for (final InventoryItem item : ((NotFoundMessage) m).getItems()) {
+                    final SettableFuture<Transaction> future = item.type == InventoryItem.Type.TRANSACTION
+                            || item.type == InventoryItem.Type.WITNESS_TRANSACTION ? pending.remove(item.hash) : null;
+                    if (future != null)
+                        futures.add(future);
+                    else
+                        allOurs = false;
+                }
+            }
+            for (final SettableFuture<Transaction> future : futures)
+                future.set(null);
+            return allOurs ? null : m;
+        } else {
+            return m;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return peer.toString();
+    }
+}
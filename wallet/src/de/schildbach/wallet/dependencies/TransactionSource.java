@@ -0,0 +1,37 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.dependencies;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Source of unconfirmed transactions, usually the memory pool of a remote peer.
+ *
+ * @author Andreas Schildbach
+ */
+public interface TransactionSource {
+    /**
+     * Requests transactions by their IDs, all at once. Transactions the source doesn't know, e.g. because they are
+     * already confirmed, are missing from the result.
+     */
+    ListenableFuture<List<Transaction>> getTransactions(Collection<Sha256Hash> txIds);
+}
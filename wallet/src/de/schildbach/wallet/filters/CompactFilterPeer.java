@@ -0,0 +1,156 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.schildbach.wallet.dependencies.DependencyFetcher;
+import de.schildbach.wallet.dependencies.DependencyFetchingPeer;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.BitcoinSerializer;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NotYetConnectedException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Peer that can talk BIP157. bitcoinj drops the payload of messages it doesn't know, so this peer frames the
+ * incoming byte stream itself, using a {@link CompactFilterSerializer}. Outgoing messages go through bitcoinj, except
+ * for the BIP157 ones.
+ *
+ * @author Andreas Schildbach
+ */
+public class CompactFilterPeer extends DependencyFetchingPeer {
+    private final CompactFilterSerializer serializer;
+
+    // state of a message that didn't fit into the read buffer
+    private byte[] largeReadBuffer = null;
+    private int largeReadBufferPos;
+    private BitcoinSerializer.BitcoinPacketHeader header = null;
+
+    private static final Logger log = LoggerFactory.getLogger(CompactFilterPeer.class);
+
+    public CompactFilterPeer(final NetworkParameters params, final VersionMessage ver,
+            final PeerAddress remoteAddress, final AbstractBlockChain chain, final long requiredServices,
+            final int downloadTxDependencyDepth, final DependencyFetcher dependencyFetcher) {
+        super(params, ver, remoteAddress, chain, requiredServices, downloadTxDependencyDepth, dependencyFetcher);
+        this.serializer = new CompactFilterSerializer(params);
+    }
+
+    @Override
+    public ListenableFuture sendMessage(final Message message) throws NotYetConnectedException {
+        if (!(message instanceof GetCompactFiltersMessage || message instanceof CompactFilterMessage))
+            return super.sendMessage(message);
+        final MessageWriteTarget writeTarget = this.writeTarget;
+        if (writeTarget == null)
+            throw new NotYetConnectedException();
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.serialize(message, out);
+            return writeTarget.writeBytes(out.toByteArray());
+        } catch (final IOException x) {
+            exceptionCaught(x);
+            return Futures.immediateFailedFuture(x);
+        }
+    }
+
+    /**
+     * Same framing as {@link org.bitcoinj.core.PeerSocketHandler#receiveBytes(ByteBuffer)}, but deserializing using
+     * our own serializer.
+     */
+    @Override
+    public int receiveBytes(final ByteBuffer buff) {
+        checkArgument(buff.position() == 0
+                && buff.capacity() >= BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH + 4);
+        try {
+            boolean firstMessage = true;
+            while (true) {
+                // finish a large message first, this can only happen in the first iteration
+                if (largeReadBuffer != null) {
+                    checkState(firstMessage);
+                    final int bytesToGet = Math.min(buff.remaining(), largeReadBuffer.length - largeReadBufferPos);
+                    buff.get(largeReadBuffer, largeReadBufferPos, bytesToGet);
+                    largeReadBufferPos += bytesToGet;
+                    if (largeReadBufferPos < largeReadBuffer.length)
+                        return buff.position();
+                    final Message message = serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer));
+                    largeReadBuffer = null;
+                    header = null;
+                    processMessage(message);
+                    firstMessage = false;
+                }
+
+                final int preDeserializePosition = buff.position();
+                final Message message;
+                try {
+                    message = serializer.deserialize(buff);
+                } catch (final BufferUnderflowException x) {
+                    if (firstMessage && buff.limit() == buff.capacity()) {
+                        // message doesn't fit into the read buffer, so start a large message
+                        buff.position(0);
+                        try {
+                            serializer.seekPastMagicBytes(buff);
+                            header = serializer.deserializeHeader(buff);
+                            largeReadBuffer = new byte[header.size];
+                            largeReadBufferPos = buff.remaining();
+                            buff.get(largeReadBuffer, 0, largeReadBufferPos);
+                        } catch (final BufferUnderflowException x2) {
+                            throw new ProtocolException(
+                                    "No magic bytes+header after reading " + buff.capacity() + " bytes");
+                        }
+                    } else {
+                        // wait for the rest of the message
+                        buff.position(preDeserializePosition);
+                    }
+                    return buff.position();
+                }
+                processMessage(message);
+                firstMessage = false;
+            }
+        } catch (final Exception x) {
+            exceptionCaught(x);
+            return -1; // kills the connection
+        }
+    }
+
+    private void exceptionCaught(final Exception x) {
+        if (x instanceof IOException) {
+            log.info("{} - {}", getAddress(), x.getMessage());
+        } else {
+            log.warn("{} - ", getAddress(), x);
+            final Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+            if (handler != null)
+                handler.uncaughtException(Thread.currentThread(), x);
+        }
+        close();
+    }
+}
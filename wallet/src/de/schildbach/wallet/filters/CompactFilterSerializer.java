@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import org.bitcoinj.core.BitcoinSerializer;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer that knows the BIP157 messages on top of everything bitcoinj knows. bitcoinj drops the payload of
+ * messages it doesn't know, which is why {@link CompactFilterPeer} uses this serializer for its own framing.
+ *
+ * @author Andreas Schildbach
+ */
+public class CompactFilterSerializer extends BitcoinSerializer {
+    public CompactFilterSerializer(final NetworkParameters params) {
+        super(params, false);
+    }
+
+    @Override
+    public void serialize(final Message message, final OutputStream out) throws IOException {
+        if (message instanceof GetCompactFiltersMessage)
+            serialize(GetCompactFiltersMessage.COMMAND, message.bitcoinSerialize(), out);
+        else if (message instanceof CompactFilterMessage)
+            serialize(CompactFilterMessage.COMMAND, message.bitcoinSerialize(), out);
+        else
+            super.serialize(message, out);
+    }
+
+    @Override
+    public Message deserializePayload(final BitcoinPacketHeader header, final ByteBuffer in)
+            throws ProtocolException, BufferUnderflowException {
+        if (CompactFilterMessage.COMMAND.equals(header.command))
+            return new CompactFilterMessage(getParameters(), readPayload(header, in));
+        else if (GetCompactFiltersMessage.COMMAND.equals(header.command))
+            return new GetCompactFiltersMessage(getParameters(), readPayload(header, in));
+        else
+            return super.deserializePayload(header, in);
+    }
+
+    private static byte[] readPayload(final BitcoinPacketHeader header, final ByteBuffer in)
+            throws ProtocolException, BufferUnderflowException {
+        final byte[] payload = new byte[header.size];
+        in.get(payload, 0, header.size);
+        final byte[] hash = Sha256Hash.hashTwice(payload);
+        for (int i = 0; i < 4; i++)
+            if (header.checksum[i] != hash[i])
+                throw new ProtocolException("checksum failed to verify, actual " + Utils.HEX.encode(hash) + " vs "
+                        + Utils.HEX.encode(header.checksum));
+        return payload;
+    }
+}
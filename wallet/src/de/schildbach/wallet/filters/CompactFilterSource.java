@@ -0,0 +1,40 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.List;
+
+/**
+ * Source of compact block filters and the blocks they match, usually a peer.
+ *
+ * @author Andreas Schildbach
+ */
+public interface CompactFilterSource {
+    /**
+     * Requests the basic filters of a range of blocks, in ascending order.
+     *
+     * @param count number of blocks in the range, at most {@link GetCompactFiltersMessage#MAX_FILTERS}
+     */
+    ListenableFuture<List<CompactFilterMessage>> getFilters(int startHeight, Sha256Hash stopHash, int count);
+
+    ListenableFuture<Block> getBlock(Sha256Hash blockHash);
+}
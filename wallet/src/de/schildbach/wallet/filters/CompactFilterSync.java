@@ -0,0 +1,267 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Finds the transactions relevant to a wallet using BIP157/158 compact block filters. The chain is expected to be
+ * synced as headers only. Filters of the blocks not scanned yet are fetched in batches and matched locally against
+ * the wallet's output scripts. Only the blocks that match are fetched in full, and their relevant transactions are
+ * passed to the wallet.
+ *
+ * <p>
+ * Unlike with Bloom filters, nothing about the wallet is disclosed, and new keys from the lookahead are simply part
+ * of the next match. Filters are not cross-checked against filter headers, so a peer can hide transactions from
+ * the wallet, but it cannot make up any.
+ *
+ * <p>
+ * This class is not thread-safe, scans are meant to be run on a single background thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class CompactFilterSync {
+    /** Blocks can appear a while before the keys they pay to were created. */
+    private static final Duration KEY_CREATION_TIME_SLACK = Duration.ofDays(7);
+
+    private final Wallet wallet;
+    private final BlockStore blockStore;
+    private final Duration timeout;
+    @Nullable
+    private volatile Sha256Hash scannedHash;
+    private volatile boolean cancelled = false;
+    @Nullable
+    private volatile Future<?> pending;
+
+    private static final Logger log = LoggerFactory.getLogger(CompactFilterSync.class);
+
+    /**
+     * @param scannedHash last block scanned in a previous run, or {@code null} to scan from the wallet's birth
+     */
+    public CompactFilterSync(final Wallet wallet, final BlockStore blockStore, final Duration timeout,
+            @Nullable final Sha256Hash scannedHash) {
+        this.wallet = wallet;
+        this.blockStore = blockStore;
+        this.timeout = timeout;
+        this.scannedHash = scannedHash;
+    }
+
+    /**
+     * Returns the last block scanned, which stays valid even if a scan fails half way.
+     */
+    @Nullable
+    public Sha256Hash getScannedHash() {
+        return scannedHash;
+    }
+
+    /**
+     * Makes a running scan give up as soon as possible, and any later scan right away. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        final Future<?> pending = this.pending;
+        if (pending != null)
+            pending.cancel(true);
+    }
+
+    /**
+     * Scans all blocks after the last scanned block, up to the chain head.
+     *
+     * @return number of blocks that matched and were fetched
+     */
+    public int scan(final CompactFilterSource source) throws BlockStoreException, IOException {
+        final List<StoredBlock> blocks = blocksToScan();
+        if (blocks.isEmpty())
+            return 0;
+        final Stopwatch watch = Stopwatch.createStarted();
+        log.info("scanning {} blocks from height {} using {}", blocks.size(), blocks.get(0).getHeight(), source);
+        int numFetched = 0, numReceived = 0;
+        List<byte[]> scripts = walletScripts();
+        for (int batchStart = 0; batchStart < blocks.size(); batchStart += GetCompactFiltersMessage.MAX_FILTERS) {
+            if (cancelled)
+                throw new IOException("cancelled");
+            final List<StoredBlock> batch = blocks.subList(batchStart,
+                    Math.min(batchStart + GetCompactFiltersMessage.MAX_FILTERS, blocks.size()));
+            final StoredBlock stop = batch.get(batch.size() - 1);
+            final List<CompactFilterMessage> filters = get(source.getFilters(batch.get(0).getHeight(),
+                    stop.getHeader().getHash(), batch.size()));
+            if (filters.size() != batch.size())
+                throw new IOException("expected " + batch.size() + " filters, got " + filters.size());
+            for (int i = 0; i < batch.size(); i++) {
+                final StoredBlock storedBlock = batch.get(i);
+                final Sha256Hash blockHash = storedBlock.getHeader().getHash();
+                final CompactFilterMessage filter = filters.get(i);
+                if (!filter.getBlockHash().equals(blockHash))
+                    throw new IOException("filter for " + filter.getBlockHash() + ", expected " + blockHash);
+                final GolombCodedSet set;
+                try {
+                    set = filter.getGolombCodedSet();
+                } catch (final ProtocolException x) {
+                    throw new IOException("bad filter for " + blockHash, x);
+                }
+                if (set.matchAny(scripts)) {
+                    final int received = receive(storedBlock, get(source.getBlock(blockHash)));
+                    numFetched++;
+                    if (received > 0) {
+                        numReceived += received;
+                        scripts = walletScripts(); // the lookahead might have moved
+                    }
+                }
+                scannedHash = blockHash;
+            }
+        }
+        log.info("scanned {} blocks, fetched {} matching, received {} transactions, took {}", blocks.size(),
+                numFetched, numReceived, watch);
+        return numFetched;
+    }
+
+    /**
+     * Walks back from the chain head to the last scanned block, or the fork point if it was reorganized away, or
+     * the wallet's birth, or the oldest block in the store – whichever comes first.
+     */
+    private List<StoredBlock> blocksToScan() throws BlockStoreException {
+        final long earliestTimeSecs = wallet.getEarliestKeyCreationTime() - KEY_CREATION_TIME_SLACK.getSeconds();
+        final Sha256Hash scannedHash = this.scannedHash;
+        StoredBlock scanned = scannedHash != null ? blockStore.get(scannedHash) : null;
+        final List<StoredBlock> blocks = new ArrayList<>();
+        StoredBlock cursor = blockStore.getChainHead();
+        while (cursor != null && cursor.getHeader().getTimeSeconds() >= earliestTimeSecs) {
+            while (scanned != null && scanned.getHeight() > cursor.getHeight())
+                scanned = scanned.getPrev(blockStore);
+            if (scanned != null && scanned.getHeader().getHash().equals(cursor.getHeader().getHash()))
+                break;
+            blocks.add(cursor);
+            cursor = cursor.getPrev(blockStore);
+        }
+        Collections.reverse(blocks);
+        if (cursor == null && !blocks.isEmpty() && blocks.get(0).getHeight() > 0)
+            log.warn("cannot scan below height {}, not in block store", blocks.get(0).getHeight());
+        return blocks;
+    }
+
+    private int receive(final StoredBlock storedBlock, final Block block) throws IOException {
+        final Sha256Hash blockHash = storedBlock.getHeader().getHash();
+        if (!block.getHash().equals(blockHash))
+            throw new IOException("got block " + block.getHash() + ", expected " + blockHash);
+        try {
+            block.verifyTransactions(storedBlock.getHeight(), EnumSet.noneOf(Block.VerifyFlag.class));
+        } catch (final VerificationException x) {
+            throw new IOException("block " + blockHash + " does not verify", x);
+        }
+        final List<Transaction> received = new ArrayList<>();
+        final List<Transaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            final Transaction tx = transactions.get(i);
+            if (!wallet.isTransactionRelevant(tx))
+                continue;
+            final Transaction walletTx = wallet.getTransaction(tx.getTxId());
+            final Map<Sha256Hash, Integer> appearsInHashes = walletTx != null ? walletTx.getAppearsInHashes() : null;
+            if (appearsInHashes != null && appearsInHashes.containsKey(blockHash))
+                continue; // already got it, e.g. as a full block at the tip
+            wallet.receiveFromBlock(tx, storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, i);
+            received.add(tx);
+        }
+        // the wallet counts depth from the blocks it is notified of, but these blocks are in the past
+        final int depth = wallet.getLastBlockSeenHeight() - storedBlock.getHeight() + 1;
+        if (depth > 1) {
+            for (final Transaction tx : received) {
+                final Transaction walletTx = wallet.getTransaction(tx.getTxId());
+                if (walletTx != null)
+                    walletTx.getConfidence().setDepthInBlocks(depth);
+            }
+        }
+        log.info("block {} at height {} matched, {} relevant transactions", blockHash, storedBlock.getHeight(),
+                received.size());
+        return received.size();
+    }
+
+    private List<byte[]> walletScripts() {
+        final List<byte[]> scripts = new ArrayList<>();
+        for (final DeterministicKeyChain chain : wallet.getActiveKeyChains()) {
+            chain.maybeLookAhead();
+            final Script.ScriptType outputScriptType = chain.getOutputScriptType();
+            for (final DeterministicKey key : chain.getLeafKeys()) {
+                if (outputScriptType == Script.ScriptType.P2WPKH)
+                    scripts.add(ScriptBuilder.createP2WPKHOutputScript(key).getProgram());
+                else
+                    scripts.add(ScriptBuilder.createP2PKHOutputScript(key).getProgram());
+            }
+        }
+        for (final ECKey key : wallet.getImportedKeys()) {
+            scripts.add(ScriptBuilder.createP2PKHOutputScript(key).getProgram());
+            if (key.isCompressed())
+                scripts.add(ScriptBuilder.createP2WPKHOutputScript(key).getProgram());
+        }
+        for (final Script script : wallet.getWatchedScripts())
+            scripts.add(script.getProgram());
+        return scripts;
+    }
+
+    private <T> T get(final Future<T> future) throws IOException {
+        pending = future;
+        try {
+            if (cancelled)
+                future.cancel(true);
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final CancellationException x) {
+            throw new IOException("cancelled", x);
+        } catch (final TimeoutException x) {
+            future.cancel(true);
+            throw new IOException("timed out after " + timeout, x);
+        } catch (final ExecutionException x) {
+            throw new IOException(x.getCause());
+        } catch (final InterruptedException x) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+        } finally {
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * BIP157 {@code getcfilters} message, requesting the compact filters of a range of blocks: from the given start
+ * height up to and including the given stop block. Peers answer with one {@link CompactFilterMessage} per block.
+ *
+ * @author Andreas Schildbach
+ */
+public class GetCompactFiltersMessage extends Message {
+    public static final String COMMAND = "getcfilters";
+    /** Maximum number of filters a peer will send for one request. */
+    public static final int MAX_FILTERS = 1000;
+
+    private byte filterType;
+    private int startHeight;
+    private Sha256Hash stopHash;
+
+    public GetCompactFiltersMessage(final NetworkParameters params, final byte filterType, final int startHeight,
+            final Sha256Hash stopHash) {
+        super(params);
+        this.filterType = filterType;
+        this.startHeight = startHeight;
+        this.stopHash = stopHash;
+        this.length = 1 + 4 + 32;
+    }
+
+    public GetCompactFiltersMessage(final NetworkParameters params, final byte[] payload) throws ProtocolException {
+        super(params, payload, 0);
+    }
+
+    @Override
+    protected void parse() throws ProtocolException {
+        filterType = readByte();
+        startHeight = (int) readUint32();
+        stopHash = readHash();
+        length = cursor - offset;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(final OutputStream stream) throws IOException {
+        stream.write(filterType);
+        Utils.uint32ToByteStreamLE(startHeight, stream);
+        stream.write(stopHash.getReversedBytes());
+    }
+
+    public byte getFilterType() {
+        return filterType;
+    }
+
+    public int getStartHeight() {
+        return startHeight;
+    }
+
+    public Sha256Hash getStopHash() {
+        return stopHash;
+    }
+
+    @Override
+    public String toString() {
+        return "getcfilters: type " + filterType + ", from height " + startHeight + " to " + stopHash;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VarInt;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Golomb-coded set, as used by BIP158 compact block filters. Items are hashed to a range of {@code N * M} using
+ * SipHash keyed by the block hash, then sorted and stored as Golomb-Rice coded deltas.
+ *
+ * <p>
+ * Matching many items is done by hashing and sorting the items once, then walking the filter a single time. The
+ * filter is never decoded into memory.
+ *
+ * @author Andreas Schildbach
+ */
+public final class GolombCodedSet {
+    /** Type and parameters of the basic filter. */
+    public static final byte FILTER_TYPE_BASIC = 0;
+    public static final int BASIC_P = 19;
+    public static final long BASIC_M = 784931;
+
+    private final HashFunction hashFunction;
+    private final int p;
+    private final long f;
+    private final int n;
+    private final byte[] data;
+    private final int dataOffset;
+
+    private GolombCodedSet(final HashFunction hashFunction, final int p, final long m, final int n,
+            final byte[] data, final int dataOffset) {
+        this.hashFunction = hashFunction;
+        this.p = p;
+        this.f = n * m;
+        this.n = n;
+        this.data = data;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Parses a serialized basic filter of the given block.
+     */
+    public static GolombCodedSet parseBasic(final Sha256Hash blockHash, final byte[] filter)
+            throws ProtocolException {
+        try {
+            final VarInt n = new VarInt(filter, 0);
+            final long numItems = n.longValue();
+            if (numItems < 0 || numItems > Integer.MAX_VALUE)
+                throw new ProtocolException("invalid number of items: " + numItems);
+            return new GolombCodedSet(hashFunction(blockHash), BASIC_P, BASIC_M, n.intValue(), filter,
+                    n.getOriginalSizeInBytes());
+        } catch (final ArrayIndexOutOfBoundsException x) {
+            throw new ProtocolException(x);
+        }
+    }
+
+    /**
+     * Builds a serialized basic filter of the given block. Duplicate items are stored once.
+     */
+    public static byte[] buildBasic(final Sha256Hash blockHash, final Collection<byte[]> items) {
+        final HashFunction hashFunction = hashFunction(blockHash);
+        final Set<ByteBuffer> distinctItems = new LinkedHashSet<>();
+        for (final byte[] item : items)
+            distinctItems.add(ByteBuffer.wrap(item));
+        final byte[][] itemsArray = new byte[distinctItems.size()][];
+        int i = 0;
+        for (final ByteBuffer item : distinctItems)
+            itemsArray[i++] = item.array();
+        final int n = itemsArray.length;
+        final long[] hashes = hashItems(hashFunction, n * BASIC_M, itemsArray);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] nBytes = new VarInt(n).encode();
+        out.write(nBytes, 0, nBytes.length);
+        final BitWriter writer = new BitWriter(out);
+        long last = 0;
+        for (final long hash : hashes) {
+            final long delta = hash - last;
+            for (long q = delta >>> BASIC_P; q > 0; q--)
+                writer.writeBit(1);
+            writer.writeBit(0);
+            writer.writeBits(delta, BASIC_P);
+            last = hash;
+        }
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the number of items in the set.
+     */
+    public int size() {
+        return n;
+    }
+
+    public boolean match(final byte[] item) {
+        return matchAny(new byte[][] { item });
+    }
+
+    /**
+     * Returns whether any of the given items is (probably) in the set.
+     */
+    public boolean matchAny(final Collection<byte[]> items) {
+        return matchAny(items.toArray(new byte[0][]));
+    }
+
+    private boolean matchAny(final byte[][] items) {
+        if (n == 0 || items.length == 0)
+            return false;
+        final long[] queries = hashItems(hashFunction, f, items);
+        final BitReader reader = new BitReader(data, dataOffset);
+        long value = 0;
+        int queryIndex = 0;
+        for (int i = 0; i < n; i++) {
+            long q = 0;
+            while (reader.readBit() == 1)
+                q++;
+            value += (q << p) | reader.readBits(p);
+            while (queries[queryIndex] < value) {
+                queryIndex++;
+                if (queryIndex == queries.length)
+                    return false;
+            }
+            if (queries[queryIndex] == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static long[] hashItems(final HashFunction hashFunction, final long f, final byte[][] items) {
+        final long[] hashes = new long[items.length];
+        for (int i = 0; i < items.length; i++)
+            hashes[i] = multiplyHighUnsigned(hashFunction.hashBytes(items[i]).asLong(), f);
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    private static HashFunction hashFunction(final Sha256Hash blockHash) {
+        // the key is the first 16 bytes of the hash, in little-endian byte order
+        final ByteBuffer key = ByteBuffer.wrap(blockHash.getReversedBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        return Hashing.sipHash24(key.getLong(0), key.getLong(8));
+    }
+
+    /**
+     * Returns the upper 64 bits of the unsigned 128 bit product, which maps a 64 bit hash to the range
+     * {@code [0, f)}.
+     */
+    static long multiplyHighUnsigned(final long a, final long b) {
+        final long aLo = a & 0xffffffffL, aHi = a >>> 32;
+        final long bLo = b & 0xffffffffL, bHi = b >>> 32;
+        final long loLo = aLo * bLo;
+        final long hiLo = aHi * bLo;
+        final long loHi = aLo * bHi;
+        final long cross = (loLo >>> 32) + (hiLo & 0xffffffffL) + loHi;
+        return aHi * bHi + (hiLo >>> 32) + (cross >>> 32);
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int bitPos;
+
+        public BitReader(final byte[] data, final int offset) {
+            this.data = data;
+            this.bitPos = offset * 8;
+        }
+
+        public int readBit() {
+            final int bytePos = bitPos >>> 3;
+            if (bytePos >= data.length)
+                throw new ProtocolException("filter truncated");
+            final int bit = (data[bytePos] >>> (7 - (bitPos & 7))) & 1;
+            bitPos++;
+            return bit;
+        }
+
+        public long readBits(final int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++)
+                value = (value << 1) | readBit();
+            return value;
+        }
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current = 0;
+        private int bits = 0;
+
+        public BitWriter(final ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        public void writeBit(final int bit) {
+            current = (current << 1) | bit;
+            if (++bits == 8) {
+                out.write(current);
+                current = 0;
+                bits = 0;
+            }
+        }
+
+        public void writeBits(final long value, final int count) {
+            checkArgument(count <= 64);
+            for (int i = count - 1; i >= 0; i--)
+                writeBit((int) (value >>> i) & 1);
+        }
+
+        public void flush() {
+            if (bits > 0) {
+                out.write(current << (8 - bits));
+                current = 0;
+                bits = 0;
+            }
+        }
+    }
+}
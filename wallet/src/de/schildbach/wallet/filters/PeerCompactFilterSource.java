@@ -0,0 +1,129 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import androidx.annotation.Nullable;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoinj.utils.Threading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Requests compact filters and blocks from a peer. The peer must advertise {@link VersionMessage#NODE_COMPACT_FILTERS}
+ * and be a {@link CompactFilterPeer}. Only one filter request can be in flight at a time.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerCompactFilterSource implements CompactFilterSource, PreMessageReceivedEventListener {
+    private final NetworkParameters params;
+    private final Peer peer;
+
+    @Nullable
+    private SettableFuture<List<CompactFilterMessage>> pendingFilters;
+    private final List<CompactFilterMessage> receivedFilters = new ArrayList<>();
+    private int expectedFilters;
+
+    public PeerCompactFilterSource(final NetworkParameters params, final Peer peer) {
+        this.params = params;
+        this.peer = peer;
+        peer.addPreMessageReceivedEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public static boolean canServe(final Peer peer) {
+        return (peer.getPeerVersionMessage().localServices & VersionMessage.NODE_COMPACT_FILTERS) != 0
+                && peer instanceof CompactFilterPeer;
+    }
+
+    public void close() {
+        peer.removePreMessageReceivedEventListener(this);
+        final SettableFuture<List<CompactFilterMessage>> future;
+        synchronized (this) {
+            future = pendingFilters;
+        }
+        if (future != null)
+            future.setException(new IOException("closed"));
+    }
+
+    @Override
+    public ListenableFuture<List<CompactFilterMessage>> getFilters(final int startHeight, final Sha256Hash stopHash,
+            final int count) {
+        checkArgument(count > 0 && count <= GetCompactFiltersMessage.MAX_FILTERS);
+        final SettableFuture<List<CompactFilterMessage>> future = SettableFuture.create();
+        synchronized (this) {
+            checkState(pendingFilters == null, "filter request already in flight");
+            pendingFilters = future;
+            receivedFilters.clear();
+            expectedFilters = count;
+        }
+        // a cancelled or failed request must not block the next one
+        future.addListener(() -> {
+            synchronized (PeerCompactFilterSource.this) {
+                if (pendingFilters == future)
+                    pendingFilters = null;
+            }
+        }, MoreExecutors.directExecutor());
+        peer.sendMessage(new GetCompactFiltersMessage(params, GolombCodedSet.FILTER_TYPE_BASIC, startHeight,
+                stopHash));
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Block> getBlock(final Sha256Hash blockHash) {
+        return peer.getBlock(blockHash);
+    }
+
+    @Override
+    public Message onPreMessageReceived(final Peer peer, final Message m) {
+        if (!(m instanceof CompactFilterMessage))
+            return m;
+        final SettableFuture<List<CompactFilterMessage>> completed;
+        final List<CompactFilterMessage> filters;
+        synchronized (this) {
+            if (pendingFilters == null)
+                return null; // unsolicited or late
+            receivedFilters.add((CompactFilterMessage) m);
+            if (receivedFilters.size() < expectedFilters)
+                return null;
+            completed = pendingFilters;
+            filters = new ArrayList<>(receivedFilters);
+            receivedFilters.clear();
+            pendingFilters = null;
+        }
+        completed.set(filters);
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return peer.toString();
+    }
+}
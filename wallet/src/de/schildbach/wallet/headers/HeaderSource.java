@@ -0,0 +1,38 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.headers;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.List;
+
+/**
+ * Source of block headers, usually a remote peer.
+ *
+ * @author Andreas Schildbach
+ */
+public interface HeaderSource {
+    /**
+     * Requests the headers following the given block, up to and including the stop block, or up to
+     * {@link org.bitcoinj.core.HeadersMessage#MAX_HEADERS} if the stop block is further away or
+     * {@link Sha256Hash#ZERO_HASH}. An empty list means the source doesn't know any headers after the given block.
+     */
+    ListenableFuture<List<Block>> getHeaders(Sha256Hash startHash, Sha256Hash stopHash);
+}
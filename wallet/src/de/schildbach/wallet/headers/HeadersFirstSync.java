@@ -0,0 +1,311 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.headers;
+
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.PrunedException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Catches up with the chain by fetching block headers only, from several sources in parallel. Known blocks further
+ * up the chain, usually checkpoints, split it into ranges. Each range is fetched from a different source and its
+ * headers are checked for linkage and proof of work on a worker pool. Ranges are then added to the block chain in
+ * order, which checks difficulty transitions and writes them to the block store. Beyond the last known block, the
+ * chain is fetched batch by batch, verifying one batch while fetching the next.
+ *
+ * <p>
+ * Headers are only added up to a stop time, usually the time from which on filtered blocks are needed. If a range
+ * fails, everything up to it is kept, and the regular chain download can take over from there.
+ *
+ * <p>
+ * This class is not thread-safe, a sync is meant to be run on a single background thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class HeadersFirstSync {
+    private final AbstractBlockChain blockChain;
+    private final ExecutorService executor;
+    private final Duration timeout;
+    private volatile boolean cancelled = false;
+    private final Set<Future<?>> waitingFor = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static final Logger log = LoggerFactory.getLogger(HeadersFirstSync.class);
+
+    /**
+     * @param executor worker pool for fetching and verifying, should have a thread for each source
+     * @param timeout for each request to a source
+     */
+    public HeadersFirstSync(final AbstractBlockChain blockChain, final ExecutorService executor,
+            final Duration timeout) {
+        this.blockChain = blockChain;
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Makes a running sync give up as soon as possible, and any later sync right away. Headers added so far are kept.
+     * Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (final Future<?> future : waitingFor)
+            future.cancel(true);
+    }
+
+    /**
+     * Adds headers from the chain head up to, but not including, the first header at or after the stop time.
+     *
+     * @param anchors blocks known to be on the best chain, sorted by height
+     * @return number of headers added
+     */
+    public int sync(final List<HeaderSource> sources, final List<StoredBlock> anchors, final long stopTimeSecs)
+            throws IOException {
+        checkArgument(!sources.isEmpty());
+        final Stopwatch watch = Stopwatch.createStarted();
+        StoredBlock start = blockChain.getChainHead();
+        final int startHeight = start.getHeight();
+        final List<Range> ranges = new ArrayList<>();
+        for (final StoredBlock anchor : anchors) {
+            if (anchor.getHeight() <= start.getHeight())
+                continue;
+            if (anchor.getHeader().getTimeSeconds() >= stopTimeSecs)
+                break;
+            ranges.add(new Range(start, anchor));
+            start = anchor;
+        }
+        log.info("catching up from height {} using {} ranges and {} sources", startHeight, ranges.size(),
+                sources.size());
+
+        // range i is fetched from source i modulo the number of sources, each source fetching one range at a time
+        int numAdded = 0;
+        final int numSources = sources.size();
+        final List<Future<List<Block>>> fetches = new ArrayList<>(ranges.size());
+        try {
+            for (int i = 0; i < Math.min(numSources, ranges.size()); i++)
+                fetches.add(fetchRange(sources.get(i), ranges.get(i)));
+            for (int i = 0; i < ranges.size(); i++) {
+                final List<Block> headers = get(fetches.get(i));
+                fetches.set(i, null);
+                // the source is free again, so let it go on with its next range while this one is being added
+                if (i + numSources < ranges.size())
+                    fetches.add(fetchRange(sources.get(i % numSources), ranges.get(i + numSources)));
+                final int added = add(headers, stopTimeSecs);
+                numAdded += added;
+                if (added < headers.size())
+                    return finish(numAdded, watch); // reached stop time
+            }
+        } finally {
+            for (final Future<List<Block>> fetch : fetches)
+                if (fetch != null)
+                    fetch.cancel(true);
+        }
+        numAdded += syncTail(sources, start, stopTimeSecs);
+        return finish(numAdded, watch);
+    }
+
+    private int finish(final int numAdded, final Stopwatch watch) {
+        log.info("added {} headers, now at height {}, took {}", numAdded, blockChain.getBestChainHeight(), watch);
+        return numAdded;
+    }
+
+    private Future<List<Block>> fetchRange(final HeaderSource source, final Range range) {
+        return executor.submit(() -> fetchAndVerify(source, range));
+    }
+
+    /**
+     * Fetches a range batch by batch from a single source, verifying each batch as it arrives.
+     */
+    private List<Block> fetchAndVerify(final HeaderSource source, final Range range) throws IOException {
+        final List<Block> headers = new ArrayList<>(range.size());
+        Sha256Hash startHash = range.start.getHeader().getHash();
+        final Sha256Hash stopHash = range.stop.getHeader().getHash();
+        while (!startHash.equals(stopHash)) {
+            checkCancelled();
+            final List<Block> batch = request(source.getHeaders(startHash, stopHash));
+            if (batch.isEmpty() || headers.size() + batch.size() > range.size())
+                throw new IOException(source + " sent " + batch.size() + " headers after " + headers.size() + " of "
+                        + range.size());
+            verify(batch, startHash);
+            headers.addAll(batch);
+            startHash = batch.get(batch.size() - 1).getHash();
+        }
+        return headers;
+    }
+
+    /**
+     * Fetches the chain beyond the last range, spreading the batches over the sources. Each batch is verified on
+     * the worker pool while the next one is being fetched.
+     */
+    private int syncTail(final List<HeaderSource> sources, final StoredBlock start, final long stopTimeSecs)
+            throws IOException {
+        int numAdded = 0;
+        Sha256Hash startHash = start.getHeader().getHash();
+        Future<List<Block>> verifying = null;
+        try {
+            for (int i = 0; ; i++) {
+                checkCancelled();
+                final List<Block> batch = request(sources.get(i % sources.size()).getHeaders(startHash,
+                        Sha256Hash.ZERO_HASH));
+                if (batch.isEmpty())
+                    break;
+                final Sha256Hash prevHash = startHash;
+                final Future<List<Block>> verified = executor.submit(() -> {
+                    verify(batch, prevHash);
+                    return batch;
+                });
+                if (verifying != null) {
+                    final List<Block> headers = get(verifying);
+                    final int added = add(headers, stopTimeSecs);
+                    numAdded += added;
+                    if (added < headers.size())
+                        return numAdded; // reached stop time
+                }
+                verifying = verified;
+                final Block last = batch.get(batch.size() - 1);
+                if (batch.size() < HeadersMessage.MAX_HEADERS || last.getTimeSeconds() >= stopTimeSecs)
+                    break;
+                startHash = last.getHash();
+            }
+            if (verifying != null)
+                numAdded += add(get(verifying), stopTimeSecs);
+            return numAdded;
+        } finally {
+            if (verifying != null)
+                verifying.cancel(true);
+        }
+    }
+
+    /**
+     * Checks linkage and proof of work. Hashes are cached by the headers, so adding them to the chain later won't
+     * hash them again.
+     */
+    static void verify(final List<Block> headers, final Sha256Hash prevHash) throws VerificationException {
+        Sha256Hash expectedPrevHash = prevHash;
+        for (final Block header : headers) {
+            if (!header.getPrevBlockHash().equals(expectedPrevHash))
+                throw new VerificationException("header " + header.getHash() + " does not connect to "
+                        + expectedPrevHash);
+            header.verifyHeader();
+            expectedPrevHash = header.getHash();
+        }
+    }
+
+    private int add(final List<Block> headers, final long stopTimeSecs) throws IOException {
+        int numAdded = 0;
+        for (final Block header : headers) {
+            if (header.getTimeSeconds() >= stopTimeSecs)
+                break;
+            try {
+                if (!blockChain.add(header))
+                    throw new IOException("header " + header.getHash() + " does not connect to the chain");
+            } catch (final VerificationException | PrunedException x) {
+                throw new IOException("header " + header.getHash() + " does not verify", x);
+            }
+            numAdded++;
+        }
+        return numAdded;
+    }
+
+    private <T> T request(final Future<T> future) throws IOException {
+        waitingFor.add(future);
+        try {
+            if (cancelled)
+                future.cancel(true);
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final CancellationException x) {
+            throw new IOException("cancelled", x);
+        } catch (final TimeoutException x) {
+            future.cancel(true);
+            throw new IOException("timed out after " + timeout, x);
+        } catch (final ExecutionException x) {
+            throw new IOException(x.getCause());
+        } catch (final InterruptedException x) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+        } finally {
+            waitingFor.remove(future);
+        }
+    }
+
+    /**
+     * Waits for a task on the worker pool. Its requests time out on their own.
+     */
+    private <T> T get(final Future<T> future) throws IOException {
+        waitingFor.add(future);
+        try {
+            if (cancelled)
+                future.cancel(true);
+            return future.get();
+        } catch (final CancellationException x) {
+            throw new IOException("cancelled", x);
+        } catch (final ExecutionException x) {
+            if (x.getCause() instanceof IOException)
+                throw (IOException) x.getCause();
+            throw new IOException(x.getCause());
+        } catch (final InterruptedException x) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+        } finally {
+            waitingFor.remove(future);
+        }
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled)
+            throw new IOException("cancelled");
+    }
+
+    private static final class Range {
+        final StoredBlock start;
+        final StoredBlock stop;
+
+        Range(final StoredBlock start, final StoredBlock stop) {
+            this.start = start;
+            this.stop = stop;
+        }
+
+        int size() {
+            return stop.getHeight() - start.getHeight();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.headers;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockLocator;
+import org.bitcoinj.core.GetHeadersMessage;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoinj.utils.Threading;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Requests block headers from a peer. Only one request can be in flight at a time. While it is, the peer's headers
+ * messages are taken away from the regular chain download, so it should not be running on the same peer.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerHeaderSource implements HeaderSource, PreMessageReceivedEventListener {
+    private final NetworkParameters params;
+    private final Peer peer;
+
+    @Nullable
+    private SettableFuture<List<Block>> pendingHeaders;
+
+    public PeerHeaderSource(final NetworkParameters params, final Peer peer) {
+        this.params = params;
+        this.peer = peer;
+        peer.addPreMessageReceivedEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public void close() {
+        peer.removePreMessageReceivedEventListener(this);
+        final SettableFuture<List<Block>> future;
+        synchronized (this) {
+            future = pendingHeaders;
+        }
+        if (future != null)
+            future.setException(new IOException("closed"));
+    }
+
+    @Override
+    public ListenableFuture<List<Block>> getHeaders(final Sha256Hash startHash, final Sha256Hash stopHash) {
+        final SettableFuture<List<Block>> future = SettableFuture.create();
+        synchronized (this) {
+            checkState(pendingHeaders == null, "headers request already in flight");
+            pendingHeaders = future;
+        }
+        // a cancelled or failed request must not block the next one
+        future.addListener(() -> {
+            synchronized (PeerHeaderSource.this) {
+                if (pendingHeaders == future)
+                    pendingHeaders = null;
+            }
+        }, MoreExecutors.directExecutor());
+        peer.sendMessage(new GetHeadersMessage(params, new BlockLocator(ImmutableList.of(startHash)), stopHash));
+        return future;
+    }
+
+    @Override
+    public Message onPreMessageReceived(final Peer peer, final Message m) {
+        if (!(m instanceof HeadersMessage))
+            return m;
+        final SettableFuture<List<Block>> completed;
+        synchronized (this) {
+            if (pendingHeaders == null)
+                return m; // not ours
+            completed = pendingHeaders;
+            pendingHeaders = null;
+        }
+        completed.set(((HeadersMessage) m).getBlockHeaders());
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return peer.toString();
+    }
+}
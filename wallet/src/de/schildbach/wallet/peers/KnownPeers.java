@@ -0,0 +1,74 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.peers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which of the peers in {@link PeerAddressDatabase} to seed the peer group with, and which to forget.
+ *
+ * @author Andreas Schildbach
+ */
+public final class KnownPeers {
+    private static final Comparator<PeerAddressEntry> BEST_FIRST = (entry1, entry2) -> {
+        final int successCount = Integer.compare(entry2.getSuccessCount(), entry1.getSuccessCount());
+        if (successCount != 0)
+            return successCount;
+        return Long.compare(entry2.getLastSeen(), entry1.getLastSeen());
+    };
+
+    private final long maxAgeMs;
+
+    public KnownPeers(final Duration maxAge) {
+        this.maxAgeMs = maxAge.toMillis();
+    }
+
+    /**
+     * Peers seen within the maximum age that offer all of the required services, best first: most successful
+     * connections first, and among those the most recently seen.
+     */
+    public List<PeerAddressEntry> best(final Collection<PeerAddressEntry> peers, final long requiredServices,
+            final int maxPeers, final long nowMs) {
+        final List<PeerAddressEntry> best = new ArrayList<>();
+        for (final PeerAddressEntry peer : peers)
+            if (!isExpired(peer, nowMs) && (peer.getServices() & requiredServices) == requiredServices)
+                best.add(peer);
+        Collections.sort(best, BEST_FIRST);
+        return best.size() > maxPeers ? new ArrayList<>(best.subList(0, maxPeers)) : best;
+    }
+
+    /**
+     * Peers not seen within the maximum age, to be forgotten.
+     */
+    public List<PeerAddressEntry> expired(final Collection<PeerAddressEntry> peers, final long nowMs) {
+        final List<PeerAddressEntry> expired = new ArrayList<>();
+        for (final PeerAddressEntry peer : peers)
+            if (isExpired(peer, nowMs))
+                expired.add(peer);
+        return expired;
+    }
+
+    private boolean isExpired(final PeerAddressEntry peer, final long nowMs) {
+        return peer.getLastSeen() < nowMs - maxAgeMs;
+    }
+}
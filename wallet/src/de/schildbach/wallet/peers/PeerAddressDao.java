@@ -0,0 +1,48 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.peers;
+
+import androidx.room.Dao;
+import androidx.room.Delete;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Dao
+public interface PeerAddressDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplace(PeerAddressEntry entry);
+
+    /**
+     * @return number of updated rows, 0 if the peer isn't known yet
+     */
+    @Query("UPDATE peer_addresses SET services = :services, last_seen = :lastSeen, success_count = success_count + 1"
+            + " WHERE host = :host AND port = :port")
+    int recordSuccess(String host, int port, long services, long lastSeen);
+
+    @Query("SELECT * FROM peer_addresses")
+    List<PeerAddressEntry> getAll();
+
+    @Delete
+    int delete(List<PeerAddressEntry> entries);
+}
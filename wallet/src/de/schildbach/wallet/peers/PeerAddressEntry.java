@@ -0,0 +1,87 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.peers;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import com.google.common.net.InetAddresses;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A peer we have successfully connected to before.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = PeerAddressEntry.TABLE_NAME, primaryKeys = { "host", "port" },
+        indices = { @Index(value = { "last_seen" }) })
+public final class PeerAddressEntry {
+    public static final String TABLE_NAME = "peer_addresses";
+
+    @NonNull
+    @ColumnInfo(name = "host")
+    private String host;
+
+    @ColumnInfo(name = "port")
+    private int port;
+
+    @ColumnInfo(name = "services")
+    private long services;
+
+    @ColumnInfo(name = "last_seen")
+    private long lastSeen;
+
+    @ColumnInfo(name = "success_count")
+    private int successCount;
+
+    public PeerAddressEntry(@NonNull final String host, final int port, final long services, final long lastSeen,
+                            final int successCount) {
+        this.host = host;
+        this.port = port;
+        this.services = services;
+        this.lastSeen = lastSeen;
+        this.successCount = successCount;
+    }
+
+    @NonNull
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getServices() {
+        return services;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public InetSocketAddress socketAddress() {
+        return new InetSocketAddress(InetAddresses.forString(host), port);
+    }
+}
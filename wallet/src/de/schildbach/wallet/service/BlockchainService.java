@@ -26,6 +26,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
 import android.content.pm.ServiceInfo;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -59,14 +60,35 @@ import de.schildbach.wallet.data.SelectedExchangeRateLiveData;
 import de.schildbach.wallet.data.WalletBalanceLiveData;
 import de.schildbach.wallet.data.WalletLiveData;
 import de.schildbach.wallet.exchangerate.ExchangeRateEntry;
+import de.schildbach.wallet.dependencies.DependencyFetcher;
+import de.schildbach.wallet.dependencies.DependencyFetchingPeer;
+import de.schildbach.wallet.filters.CompactFilterPeer;
+import de.schildbach.wallet.filters.CompactFilterSync;
+import de.schildbach.wallet.filters.PeerCompactFilterSource;
+import de.schildbach.wallet.headers.HeadersFirstSync;
+import de.schildbach.wallet.headers.PeerHeaderSource;
+import de.schildbach.wallet.peers.KnownPeers;
+import de.schildbach.wallet.peers.PeerAddressDao;
+import de.schildbach.wallet.peers.PeerAddressDatabase;
+import de.schildbach.wallet.peers.PeerAddressEntry;
 import de.schildbach.wallet.service.BlockchainState.Impediment;
 import de.schildbach.wallet.ui.WalletActivity;
 import de.schildbach.wallet.ui.preference.ResolveDnsTask;
+import de.schildbach.wallet.util.BinaryCheckpoints;
+import de.schildbach.wallet.util.BlockStoreRepair;
+import de.schildbach.wallet.util.BloomFilterTuner;
 import de.schildbach.wallet.util.CrashReporter;
+import de.schildbach.wallet.util.PeerScores;
+import de.schildbach.wallet.util.RecentBlocks;
+import de.schildbach.wallet.util.ResolvedAddressCache;
+import de.schildbach.wallet.util.RunAccounting;
+import de.schildbach.wallet.util.SyncHistory;
+import de.schildbach.wallet.util.SyncMetrics;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.AbstractBlockChain;
 import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.FilteredBlock;
@@ -78,11 +100,16 @@ import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionBroadcast;
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.core.VersionMessage;
 import org.bitcoinj.core.listeners.AbstractPeerDataEventListener;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
 import org.bitcoinj.core.listeners.PeerConnectedEventListener;
 import org.bitcoinj.core.listeners.PeerDataEventListener;
 import org.bitcoinj.core.listeners.PeerDisconnectedEventListener;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.core.listeners.TransactionReceivedInBlockListener;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.SPVBlockStore;
@@ -95,21 +122,39 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -123,13 +168,42 @@ public class BlockchainService extends LifecycleService {
     private WalletApplication application;
     private Configuration config;
     private AddressBookDao addressBookDao;
+    private PeerAddressDao peerAddressDao;
     private WalletLiveData wallet;
 
     private BlockStore blockStore;
     private File blockChainFile;
     private BlockChain blockChain;
+    private final RecentBlocks recentBlocks = new RecentBlocks(RECENT_BLOCKS_CAPACITY);
+    private final SyncMetrics syncMetrics = new SyncMetrics(SYNC_METRICS_WINDOW, SYNC_METRICS_STALL_THRESHOLD,
+            Clock.systemUTC());
+    private final PeerScores peerScores = new PeerScores(PEER_SCORES_CAPACITY);
+    private File peerScoresFile;
+    @Nullable
+    private InetSocketAddress scoredDownloadPeer;
+    private long scoredDownloadPeerBytes;
+    private Duration scoredDownloadPeerTime;
+    private Duration scoredDownloadPeerSince;
+    private final AtomicReference<Stopwatch> timeToFirstPeer = new AtomicReference<>();
+    private final AtomicInteger syncBlocksBehind = new AtomicInteger(-1);
+    private final AtomicReference<Duration> syncedAfter = new AtomicReference<>();
+    private boolean stopAtTip;
+    private final AtomicInteger pendingBroadcasts = new AtomicInteger();
+    private volatile boolean stoppedAtTip = false;
+    private RunAccounting runAccounting;
     @Nullable
     private PeerGroup peerGroup;
+    @Nullable
+    private CompactFilterSync compactFilterSync;
+    private final AtomicBoolean compactFilterScanPending = new AtomicBoolean(false);
+    @Nullable
+    private volatile HeadersFirstSync runningHeadersFirstSync;
+    @Nullable
+    private volatile BloomFilterTuner bloomFilterTuner;
+    @Nullable
+    private DependencyFetcher dependencyFetcher;
+    @Nullable
+    private ScheduledExecutorService dependencyTimeoutExecutor;
 
     private final Handler handler = new Handler();
     private HandlerThread backgroundThread;
@@ -150,6 +224,34 @@ public class BlockchainService extends LifecycleService {
 
     private static final int CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS = 144 * 2; // approx. 2 days
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final int RECENT_BLOCKS_CAPACITY = 100; // enough for the block list
+    private static final Duration SYNC_METRICS_WINDOW = Duration.ofSeconds(30);
+    private static final Duration SYNC_METRICS_STALL_THRESHOLD = Duration.ofSeconds(20);
+    private static final long SYNC_METRICS_BROADCAST_INTERVAL_MS = DateUtils.SECOND_IN_MILLIS * 2;
+    private static final int PEER_SCORES_CAPACITY = 200;
+    private static final int PEER_SCORES_PRIORITY = 5; // below trusted peers
+    private static final Duration PEER_STALL_DROP_THRESHOLD = Duration.ofSeconds(8); // earlier than the PeerGroup
+    private static final int PEER_MAX_BLOCKS_BEHIND = 6;
+    private static final Duration PEER_ADDRESSES_MAX_AGE = Duration.ofDays(14);
+    private static final int PEER_ADDRESSES_MAX_SEED = 32;
+    private static final KnownPeers KNOWN_PEERS = new KnownPeers(PEER_ADDRESSES_MAX_AGE);
+    private static final Duration COMPACT_FILTER_TIMEOUT = Duration.ofSeconds(30);
+    private static final long COMPACT_FILTER_SCAN_DELAY_MS = DateUtils.SECOND_IN_MILLIS * 2;
+    private static final Duration BACKGROUND_SHUTDOWN_TIMEOUT = Duration.ofSeconds(2); // well within ANR limits
+    private static final double BLOOM_FILTER_FP_RATE_MIN = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE / 10;
+    private static final double BLOOM_FILTER_FP_RATE_MAX = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE * 50;
+    private static final int BLOOM_FILTER_TUNING_WINDOW = 100; // blocks
+    private static final Duration RUN_ACCOUNTING_RADIO_TAIL = Duration.ofSeconds(10);
+    private static final int RUN_ACCOUNTING_CAPACITY = 50;
+    private static final int TX_DEPENDENCIES_MAX_DEPTH = 25; // as the ancestor limit of the memory pool
+    private static final int TX_DEPENDENCIES_MAX_COUNT = 100;
+    private static final int TX_DEPENDENCIES_MAX_BATCH_SIZE = 50;
+    private static final int TX_DEPENDENCIES_CACHE_CAPACITY = 1000;
+    private static final Duration TX_DEPENDENCIES_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration HEADERS_FIRST_MIN_AGE = Duration.ofDays(1);
+    private static final int HEADERS_FIRST_MAX_PEERS = 4;
+    private static final Duration HEADERS_FIRST_PEER_WAIT = Duration.ofSeconds(10);
+    private static final Duration HEADERS_FIRST_TIMEOUT = Duration.ofSeconds(30);
 
     private static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName()
             + ".cancel_coins_received";
@@ -293,12 +395,42 @@ public class BlockchainService extends LifecycleService {
 
         @Override
         public void onPeerConnected(final Peer peer, final int peerCount) {
+            final Stopwatch watch = timeToFirstPeer.getAndSet(null);
+            if (watch != null)
+                log.info("first peer {} connected after {}", peer, watch.stop());
+            final InetSocketAddress address = peer.getAddress().toSocketAddress();
+            final long now = System.currentTimeMillis();
+            peerScores.recordConnected(address, now);
+            if (peerCount > 1 && peerScores.isLaggard(address)) {
+                log.info("dropping {}, known as laggard: {}", peer, peerScores.get(address));
+                peerScores.recordDisconnected(address, PeerScores.Reason.DROPPED);
+                peer.close();
+            } else if (peer.getBestHeight() < blockChain.getBestChainHeight() - PEER_MAX_BLOCKS_BEHIND) {
+                log.info("dropping {}, announcing chain height {} behind ours", peer, peer.getBestHeight());
+                peerScores.recordDisconnected(address, PeerScores.Reason.MISBEHAVING);
+                peer.close();
+            } else if (!address.isUnresolved()) {
+                final String host = address.getAddress().getHostAddress();
+                final int port = address.getPort();
+                final long services = peer.getPeerVersionMessage().localServices;
+                backgroundHandler.post(() -> {
+                    if (peerAddressDao.recordSuccess(host, port, services, now) == 0)
+                        peerAddressDao.insertOrReplace(new PeerAddressEntry(host, port, services, now, 1));
+                });
+            }
+            if (compactFilterSync != null) {
+                if (PeerCompactFilterSource.canServe(peer))
+                    scheduleCompactFilterScan();
+                else
+                    log.warn("{} doesn't serve compact filters, cannot scan for transactions", peer);
+            }
             postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AFTER_EVENT);
             changed(peerCount);
         }
 
         @Override
         public void onPeerDisconnected(final Peer peer, final int peerCount) {
+            peerScores.recordDisconnected(peer.getAddress().toSocketAddress(), PeerScores.Reason.UNEXPECTED);
             changed(peerCount);
         }
 
@@ -323,7 +455,11 @@ public class BlockchainService extends LifecycleService {
         @Override
         public void onChainDownloadStarted(final Peer peer, final int blocksToDownload) {
             postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AFTER_EVENT);
+            syncMetrics.onChainDownloadStarted(blocksToDownload);
             this.blocksToDownload.set(blocksToDownload);
+            syncBlocksBehind.compareAndSet(-1, Math.max(blocksToDownload, 0));
+            if (blocksToDownload <= 0)
+                maybeSynced();
             if (blocksToDownload >= CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS) {
                 config.maybeIncrementBestChainHeightEver(blockChain.getChainHead().getHeight() + blocksToDownload);
                 startForegroundProgress(blocksToDownload, blocksToDownload);
@@ -333,6 +469,19 @@ public class BlockchainService extends LifecycleService {
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock,
                 final int blocksLeft) {
+            final int numTransactions;
+            if (filteredBlock != null)
+                numTransactions = filteredBlock.getAssociatedTransactions().size();
+            else if (block.getTransactions() != null)
+                numTransactions = block.getTransactions().size();
+            else
+                numTransactions = 0;
+            syncMetrics.onBlockDownloaded(peer.getAddress().toSocketAddress(), numTransactions, blocksLeft);
+            runAccounting.onBlockProcessed();
+            if (blocksLeft <= 0)
+                maybeSynced();
+            if (filteredBlock != null)
+                tuneBloomFilter(filteredBlock);
             this.blocksLeft.set(blocksLeft);
 
             delayHandler.removeCallbacks(this);
@@ -358,6 +507,173 @@ public class BlockchainService extends LifecycleService {
         }
     }
 
+    private void maybeSynced() {
+        syncedAfter.compareAndSet(null, Duration.ofMillis(serviceUpTime.elapsed(TimeUnit.MILLISECONDS)));
+        runAccounting.onWorkDone(System.currentTimeMillis());
+        maybeStopAtTip();
+    }
+
+    /**
+     * Whether the chain tip was reached and nothing is left to do: no broadcasts pending and, if using compact
+     * filters, all blocks scanned.
+     */
+    private boolean isIdleAtTip() {
+        if (syncedAfter.get() == null || pendingBroadcasts.get() > 0)
+            return false;
+        final CompactFilterSync compactFilterSync = this.compactFilterSync;
+        return compactFilterSync == null
+                || blockChain.getChainHead().getHeader().getHash().equals(compactFilterSync.getScannedHash());
+    }
+
+    private void maybeStopAtTip() {
+        if (stopAtTip && isIdleAtTip())
+            postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AT_TIP);
+    }
+
+    /**
+     * Feeds the tuner with a filtered block that has already been passed to the wallet, so the matched transactions
+     * the wallet knows are the relevant ones. A new filter is pushed to the peers only if the tuner asks for it.
+     */
+    private void tuneBloomFilter(final FilteredBlock filteredBlock) {
+        final BloomFilterTuner bloomFilterTuner = this.bloomFilterTuner;
+        final Wallet wallet = this.wallet.getValue();
+        if (bloomFilterTuner == null || wallet == null)
+            return;
+        final List<Sha256Hash> matched = filteredBlock.getTransactionHashes();
+        int numRelevant = 0;
+        for (final Sha256Hash txId : matched)
+            if (wallet.getTransaction(txId) != null)
+                numRelevant++;
+        bloomFilterTuner.onFilteredBlock(filteredBlock.getTransactionCount(), matched.size(), numRelevant);
+        final Double fpRate = bloomFilterTuner.maybeAdjust();
+        if (fpRate != null) {
+            log.info("adjusting bloom filter to fp rate {}, last window: {}", fpRate, bloomFilterTuner.snapshot());
+            config.setBloomFilterFpRate(fpRate);
+            // don't recalculate the filter on the network thread that delivered the block
+            backgroundHandler.post(() -> {
+                final PeerGroup peerGroup = this.peerGroup;
+                if (peerGroup != null)
+                    peerGroup.setBloomFilterFalsePositiveRate(fpRate);
+            });
+        }
+    }
+
+    private final PreMessageReceivedEventListener syncMetricsMessageListener = (peer, message) -> {
+        syncMetrics.onMessageReceived(peer.getAddress().toSocketAddress(), message.getMessageSize());
+        runAccounting.onNetworkActivity(System.currentTimeMillis());
+        return message;
+    };
+
+    private final Runnable syncMetricsBroadcastRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (peerGroup != null) {
+                for (final Peer peer : peerGroup.getConnectedPeers()) {
+                    final long pingTime = peer.getPingTime();
+                    if (pingTime < Long.MAX_VALUE) {
+                        final InetSocketAddress address = peer.getAddress().toSocketAddress();
+                        syncMetrics.onPing(address, pingTime);
+                        peerScores.recordPing(address, pingTime);
+                    }
+                }
+                scoreDownloadPeer(peerGroup, syncMetrics.snapshot());
+            }
+            broadcastSyncMetrics();
+            handler.postDelayed(this, SYNC_METRICS_BROADCAST_INTERVAL_MS);
+        }
+    };
+
+    @MainThread
+    private void scoreDownloadPeer(final PeerGroup peerGroup, final SyncMetrics.Snapshot snapshot) {
+        final Peer downloadPeer = peerGroup.getDownloadPeer();
+        final SyncMetrics.PeerSnapshot peerMetrics = downloadPeer != null ?
+                snapshot.peers.get(downloadPeer.getAddress().toSocketAddress()) : null;
+        if (!snapshot.downloading || peerMetrics == null) {
+            scoredDownloadPeer = null;
+            return;
+        }
+        final InetSocketAddress address = downloadPeer.getAddress().toSocketAddress();
+        if (address.equals(scoredDownloadPeer)) {
+            final long elapsedMs = snapshot.uptime.minus(scoredDownloadPeerTime).toMillis();
+            if (elapsedMs > 0)
+                peerScores.recordDownloadRate(address,
+                        (peerMetrics.totalBytes - scoredDownloadPeerBytes) * 1000.0 / elapsedMs);
+        } else {
+            scoredDownloadPeer = address;
+            scoredDownloadPeerSince = snapshot.uptime;
+        }
+        scoredDownloadPeerBytes = peerMetrics.totalBytes;
+        scoredDownloadPeerTime = snapshot.uptime;
+
+        // drop a stalling download peer before the peer group would
+        final boolean stalling = snapshot.sinceProgress.compareTo(PEER_STALL_DROP_THRESHOLD) >= 0
+                && snapshot.uptime.minus(scoredDownloadPeerSince).compareTo(PEER_STALL_DROP_THRESHOLD) >= 0;
+        if (stalling && peerGroup.numConnectedPeers() > 1) {
+            log.info("dropping download peer {}, no progress for {}", downloadPeer, snapshot.sinceProgress);
+            peerScores.recordDisconnected(address, PeerScores.Reason.STALLED);
+            downloadPeer.close();
+            scoredDownloadPeer = null;
+        }
+    }
+
+    /**
+     * Stands in for the wallet as a listener of the block chain, accounting the time the wallet spends in its
+     * callbacks. These run on the network thread, so they directly slow down the sync.
+     */
+    private final class TimedWalletListener
+            implements NewBestBlockListener, ReorganizeListener, TransactionReceivedInBlockListener {
+        private final Wallet wallet;
+
+        public TimedWalletListener(final Wallet wallet) {
+            this.wallet = wallet;
+        }
+
+        @Override
+        public void notifyNewBestBlock(final StoredBlock block) throws VerificationException {
+            final long start = System.nanoTime();
+            try {
+                wallet.notifyNewBestBlock(block);
+            } finally {
+                syncMetrics.onWalletCallback(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks,
+                final List<StoredBlock> newBlocks) throws VerificationException {
+            final long start = System.nanoTime();
+            try {
+                wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+            } finally {
+                syncMetrics.onWalletCallback(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void receiveFromBlock(final Transaction tx, final StoredBlock block,
+                final AbstractBlockChain.NewBlockType blockType, final int relativityOffset)
+                throws VerificationException {
+            final long start = System.nanoTime();
+            try {
+                wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+            } finally {
+                syncMetrics.onWalletCallback(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean notifyTransactionIsInBlock(final Sha256Hash txHash, final StoredBlock block,
+                final AbstractBlockChain.NewBlockType blockType, final int relativityOffset)
+                throws VerificationException {
+            final long start = System.nanoTime();
+            try {
+                return wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+            } finally {
+                syncMetrics.onWalletCallback(System.nanoTime() - start);
+            }
+        }
+    }
+
     private static class ImpedimentsLiveData extends LiveData<Set<Impediment>> {
         private final WalletApplication application;
         private final ConnectivityManager connectivityManager;
@@ -441,15 +757,23 @@ public class BlockchainService extends LifecycleService {
             };
 
     private Runnable delayedStopSelfRunnable = () -> {
-        log.info("service idling detected, trying to stop");
+        if (stopAtTip && isIdleAtTip()) {
+            log.info("chain tip reached with nothing pending, trying to stop");
+            stoppedAtTip = true;
+        } else {
+            log.info("service idling detected, trying to stop");
+        }
         stopSelf();
         if (isBound.get())
             log.info("stop is deferred because service still bound");
     };
 
     private void postDelayedStopSelf(final Duration delay) {
+        // once idle at the tip, events no longer keep the service around
+        final Duration effectiveDelay = stopAtTip && isIdleAtTip() && delay.compareTo(
+                Constants.SERVICE_STOP_DELAY_AT_TIP) > 0 ? Constants.SERVICE_STOP_DELAY_AT_TIP : delay;
         delayHandler.removeCallbacks(delayedStopSelfRunnable);
-        delayHandler.postDelayed(delayedStopSelfRunnable, delay.toMillis());
+        delayHandler.postDelayed(delayedStopSelfRunnable, effectiveDelay.toMillis());
     }
 
     private final BroadcastReceiver deviceIdleModeReceiver = new BroadcastReceiver() {
@@ -494,9 +818,13 @@ public class BlockchainService extends LifecycleService {
         pm = getSystemService(PowerManager.class);
         nm = getSystemService(NotificationManager.class);
 
+        stopAtTip = config.isSyncStopAtTip();
+        runAccounting = new RunAccounting(RUN_ACCOUNTING_RADIO_TAIL, System.currentTimeMillis());
+
         wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, getClass().getName());
         log.info("acquiring {}", wakeLock);
         wakeLock.acquire();
+        runAccounting.onWakeLockAcquired(System.currentTimeMillis());
 
         connectivityNotification.setColor(getColor(R.color.fg_network_significant));
         connectivityNotification.setContentTitle(getString(config.isTrustedPeersOnly() ?
@@ -514,7 +842,10 @@ public class BlockchainService extends LifecycleService {
         backgroundHandler = new Handler(backgroundThread.getLooper());
 
         addressBookDao = AddressBookDatabase.getDatabase(application).addressBookDao();
+        peerAddressDao = PeerAddressDatabase.getDatabase(application).peerAddressDao();
         blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
+        peerScoresFile = new File(getFilesDir(), Constants.Files.PEER_SCORES_FILENAME);
+        loadPeerScores();
 
         config.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 
@@ -547,6 +878,9 @@ public class BlockchainService extends LifecycleService {
                 if (!blockChainFileExists) {
                     log.info("blockchain does not exist, resetting wallet");
                     wallet.reset();
+                    config.resetCompactFilterScannedBlock();
+                    if (Constants.ENABLE_TRANSACTION_ARCHIVE)
+                        application.resetTransactionArchive();
                 }
 
                 try {
@@ -557,27 +891,18 @@ public class BlockchainService extends LifecycleService {
                     final long earliestKeyCreationTimeSecs = wallet.getEarliestKeyCreationTime();
 
                     if (!blockChainFileExists && earliestKeyCreationTimeSecs > 0) {
-                        try {
-                            log.info("loading checkpoints for birthdate {} from '{}'",
-                                    DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(earliestKeyCreationTimeSecs)),
-                                    Constants.Files.CHECKPOINTS_ASSET);
-                            final Stopwatch watch = Stopwatch.createStarted();
-                            final InputStream checkpointsInputStream = getAssets()
-                                    .open(Constants.Files.CHECKPOINTS_ASSET);
-                            CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream,
-                                    blockStore, earliestKeyCreationTimeSecs);
-                            watch.stop();
-                            log.info("checkpoints loaded, took {}", watch);
-                        } catch (final IOException x) {
-                            log.error("problem reading checkpoints, continuing without", x);
-                        }
+                        checkpoint(blockStore, earliestKeyCreationTimeSecs);
                     }
                 } catch (final BlockStoreException x) {
-                    blockChainFile.delete();
-
-                    final String msg = "blockstore cannot be created";
-                    log.error(msg, x);
-                    throw new Error(msg, x);
+                    log.warn("blockstore cannot be opened, trying to repair", x);
+                    blockStore = repairBlockStore(wallet);
+                    if (blockStore == null) {
+                        blockChainFile.delete();
+
+                        final String msg = "blockstore cannot be created";
+                        log.error(msg, x);
+                        throw new Error(msg, x);
+                    }
                 }
 
                 try {
@@ -585,12 +910,231 @@ public class BlockchainService extends LifecycleService {
                 } catch (final BlockStoreException x) {
                     throw new Error("blockchain cannot be created", x);
                 }
+                // replace the wallet's own listeners, so that time spent in the wallet can be accounted for
+                final TimedWalletListener timedWalletListener = new TimedWalletListener(wallet);
+                blockChain.removeWallet(wallet);
+                blockChain.addNewBestBlockListener(Threading.SAME_THREAD, timedWalletListener);
+                blockChain.addReorganizeListener(Threading.SAME_THREAD, timedWalletListener);
+                blockChain.addTransactionReceivedListener(Threading.SAME_THREAD, timedWalletListener);
+                blockChain.addNewBestBlockListener(Threading.SAME_THREAD, recentBlocks::add);
+                blockChain.addReorganizeListener(Threading.SAME_THREAD,
+                        (splitPoint, oldBlocks, newBlocks) -> recentBlocks.reorganize(splitPoint, newBlocks));
+                if (Constants.ENABLE_TRANSACTION_ARCHIVE)
+                    blockChain.addReorganizeListener(Threading.SAME_THREAD, deepReorganizeListener);
 
                 observeLiveDatasThatAreDependentOnWalletAndBlockchain();
             }
         });
     }
 
+    private final ReorganizeListener deepReorganizeListener = (splitPoint, oldBlocks, newBlocks) -> {
+        // archived transactions may have been reorganized away, so they need to be fetched again
+        if (oldBlocks.size() >= Constants.TRANSACTION_ARCHIVE_MIN_DEPTH) {
+            log.warn("reorganize of {} blocks reaches into transaction archive, resetting blockchain",
+                    oldBlocks.size());
+            handler.post(() -> {
+                resetBlockchainOnShutdown = true;
+                stopSelf();
+            });
+        }
+    };
+
+    private final NewBestBlockListener compactFilterScanTrigger = block -> scheduleCompactFilterScan();
+
+    private void scheduleCompactFilterScan() {
+        if (compactFilterScanPending.compareAndSet(false, true))
+            backgroundHandler.postDelayed(this::compactFilterScan, COMPACT_FILTER_SCAN_DELAY_MS);
+    }
+
+    private void compactFilterScan() {
+        compactFilterScanPending.set(false);
+        final PeerGroup peerGroup = this.peerGroup;
+        final CompactFilterSync compactFilterSync = this.compactFilterSync;
+        if (peerGroup == null || compactFilterSync == null)
+            return;
+        Peer filterPeer = peerGroup.getDownloadPeer();
+        if (filterPeer == null || !PeerCompactFilterSource.canServe(filterPeer)) {
+            filterPeer = null;
+            for (final Peer peer : peerGroup.getConnectedPeers()) {
+                if (PeerCompactFilterSource.canServe(peer)) {
+                    filterPeer = peer;
+                    break;
+                }
+            }
+        }
+        if (filterPeer == null) {
+            log.info("no peer serving compact filters, postponing scan");
+            return; // will be retried with the next block
+        }
+        final PeerCompactFilterSource source = new PeerCompactFilterSource(Constants.NETWORK_PARAMETERS,
+                filterPeer);
+        try {
+            compactFilterSync.scan(source);
+        } catch (final BlockStoreException | IOException x) {
+            log.warn("scanning compact filters using {} failed", filterPeer, x);
+        } finally {
+            source.close();
+            final Sha256Hash scannedHash = compactFilterSync.getScannedHash();
+            if (scannedHash != null)
+                config.setCompactFilterScannedBlock(scannedHash);
+            runAccounting.onWorkDone(System.currentTimeMillis());
+            maybeStopAtTip();
+        }
+    }
+
+    /**
+     * Catches up with the chain headers from several peers in parallel, then hands over to the regular chain
+     * download for the rest.
+     */
+    private void headersFirstSync(final PeerGroup peerGroup, final long chainHeadTimeSecs) {
+        final List<PeerHeaderSource> sources = new ArrayList<>();
+        ExecutorService executor = null;
+        try {
+            try {
+                peerGroup.waitForPeers(HEADERS_FIRST_MAX_PEERS).get(HEADERS_FIRST_PEER_WAIT.toMillis(),
+                        TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException | ExecutionException x) {
+                // go on with the peers we have
+            }
+            for (final Peer peer : peerGroup.getConnectedPeers()) {
+                if (sources.size() >= HEADERS_FIRST_MAX_PEERS)
+                    break;
+                sources.add(new PeerHeaderSource(Constants.NETWORK_PARAMETERS, peer));
+            }
+            if (sources.isEmpty()) {
+                log.info("no peers connected, skipping headers-first sync");
+                return;
+            }
+            executor = Executors.newFixedThreadPool(sources.size() + 1);
+            final HeadersFirstSync sync = new HeadersFirstSync(blockChain, executor, HEADERS_FIRST_TIMEOUT);
+            runningHeadersFirstSync = sync;
+            if (this.peerGroup != peerGroup)
+                sync.cancel(); // shut down in the meantime
+            sync.sync(new ArrayList<>(sources), loadCheckpointsAfter(chainHeadTimeSecs),
+                    peerGroup.getFastCatchupTimeSecs());
+        } catch (final IOException x) {
+            log.info("headers-first sync failed, continuing with regular chain download", x);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runningHeadersFirstSync = null;
+            for (final PeerHeaderSource source : sources)
+                source.close();
+            if (executor != null)
+                executor.shutdownNow();
+            if (this.peerGroup == peerGroup)
+                peerGroup.startBlockChainDownload(blockchainDownloadListener);
+        }
+    }
+
+    private List<StoredBlock> loadCheckpointsAfter(final long timeSecs) {
+        try (final AssetFileDescriptor fd = getAssets().openFd(Constants.Files.CHECKPOINTS_BINARY_ASSET);
+             final FileInputStream is = fd.createInputStream()) {
+            final ByteBuffer buffer = is.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                    fd.getLength());
+            return new BinaryCheckpoints(Constants.NETWORK_PARAMETERS, buffer).getCheckpointsAfter(timeSecs);
+        } catch (final IOException x) {
+            log.info("problem reading binary checkpoints, catching up serially: {}", x.toString());
+            return Collections.emptyList();
+        }
+    }
+
+    private void addTrustedPeer(final InetSocketAddress socketAddress, final int maxConnectedPeers) {
+        if (peerGroup == null)
+            return;
+        peerGroup.addAddress(new PeerAddress(Constants.NETWORK_PARAMETERS, socketAddress), 10);
+        if (peerGroup.getMaxConnections() > maxConnectedPeers)
+            peerGroup.setMaxConnections(maxConnectedPeers);
+    }
+
+    private void loadPeerScores() {
+        if (!peerScoresFile.exists())
+            return;
+        try (final Reader reader = new InputStreamReader(new FileInputStream(peerScoresFile),
+                StandardCharsets.UTF_8)) {
+            peerScores.load(reader);
+            log.info("loaded {} peer scores from '{}'", peerScores.size(), peerScoresFile);
+        } catch (final IOException x) {
+            log.warn("problem loading peer scores, ignoring", x);
+        }
+    }
+
+    private void savePeerScores() {
+        final File tempFile = new File(peerScoresFile.getParentFile(), peerScoresFile.getName() + ".tmp");
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            peerScores.save(writer);
+        } catch (final IOException x) {
+            log.warn("problem saving peer scores", x);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(peerScoresFile))
+            log.warn("cannot rename {} to {}", tempFile, peerScoresFile);
+    }
+
+    /**
+     * Salvages the chain from a corrupt block store, up to the block the wallet has last seen.
+     *
+     * @return repaired block store, or null if nothing could be salvaged
+     */
+    @Nullable
+    private BlockStore repairBlockStore(final Wallet wallet) {
+        if (blockStore != null) {
+            try {
+                blockStore.close();
+            } catch (final BlockStoreException x) {
+                log.info("problem closing corrupt blockstore", x);
+            }
+            blockStore = null;
+        }
+        final Stopwatch watch = Stopwatch.createStarted();
+        try {
+            final StoredBlock chainHead = BlockStoreRepair.repair(Constants.NETWORK_PARAMETERS, blockChainFile,
+                    Constants.Files.BLOCKCHAIN_STORE_CAPACITY, wallet.getLastBlockSeenHash());
+            if (chainHead == null)
+                return null;
+            final BlockStore blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile,
+                    Constants.Files.BLOCKCHAIN_STORE_CAPACITY, true);
+            blockStore.getChainHead();
+            log.info("blockstore repaired, resuming from height {}, took {}", chainHead.getHeight(), watch);
+            return blockStore;
+        } catch (final IOException | BlockStoreException x) {
+            log.error("blockstore cannot be repaired", x);
+            return null;
+        }
+    }
+
+    private void checkpoint(final BlockStore blockStore, final long earliestKeyCreationTimeSecs)
+            throws BlockStoreException {
+        final String birthdate = DateTimeFormatter.ISO_INSTANT.format(
+                Instant.ofEpochSecond(earliestKeyCreationTimeSecs));
+        final Stopwatch watch = Stopwatch.createStarted();
+        try (final AssetFileDescriptor fd = getAssets().openFd(Constants.Files.CHECKPOINTS_BINARY_ASSET);
+             final FileInputStream is = fd.createInputStream()) {
+            log.info("loading checkpoints for birthdate {} from '{}'", birthdate,
+                    Constants.Files.CHECKPOINTS_BINARY_ASSET);
+            final ByteBuffer buffer = is.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                    fd.getLength());
+            new BinaryCheckpoints(Constants.NETWORK_PARAMETERS, buffer).checkpoint(blockStore,
+                    earliestKeyCreationTimeSecs);
+            watch.stop();
+            log.info("checkpoints loaded, took {}", watch);
+            return;
+        } catch (final IOException x) {
+            log.info("problem reading binary checkpoints, falling back to text: {}", x.toString());
+        }
+
+        try (final InputStream checkpointsInputStream = getAssets().open(Constants.Files.CHECKPOINTS_ASSET)) {
+            log.info("loading checkpoints for birthdate {} from '{}'", birthdate, Constants.Files.CHECKPOINTS_ASSET);
+            CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore,
+                    earliestKeyCreationTimeSecs);
+            watch.stop();
+            log.info("checkpoints loaded, took {}", watch);
+        } catch (final IOException x) {
+            log.error("problem reading checkpoints, continuing without", x);
+        }
+    }
+
     private void observeLiveDatasThatAreDependentOnWalletAndBlockchain() {
         final NewTransactionLiveData newTransaction = new NewTransactionLiveData(wallet.getValue());
         newTransaction.observe(this, tx -> {
@@ -631,14 +1175,55 @@ public class BlockchainService extends LifecycleService {
                 }
 
                 final Configuration.SyncMode syncMode = config.getSyncMode();
-                peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
+                if (dependencyFetcher == null) {
+                    dependencyTimeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+                    dependencyFetcher = new DependencyFetcher(TX_DEPENDENCIES_MAX_DEPTH, TX_DEPENDENCIES_MAX_COUNT,
+                            TX_DEPENDENCIES_MAX_BATCH_SIZE, TX_DEPENDENCIES_CACHE_CAPACITY, TX_DEPENDENCIES_TIMEOUT,
+                            dependencyTimeoutExecutor);
+                }
+                final DependencyFetcher dependencyFetcher = BlockchainService.this.dependencyFetcher;
+                peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain) {
+                    private volatile long requiredServices = 0;
+
+                    @Override
+                    public void setRequiredServices(final long requiredServices) {
+                        this.requiredServices = requiredServices;
+                        super.setRequiredServices(requiredServices);
+                    }
+
+                    @Override
+                    protected Peer createPeer(final PeerAddress address, final VersionMessage ver) {
+                        // like the default, but fetching transaction dependencies without recursion
+                        if (syncMode == Configuration.SyncMode.COMPACT_FILTERS)
+                            return new CompactFilterPeer(Constants.NETWORK_PARAMETERS, ver, address, blockChain,
+                                    requiredServices, TX_DEPENDENCIES_MAX_DEPTH, dependencyFetcher);
+                        else
+                            return new DependencyFetchingPeer(Constants.NETWORK_PARAMETERS, ver, address,
+                                    blockChain, requiredServices, TX_DEPENDENCIES_MAX_DEPTH, dependencyFetcher);
+                    }
+                };
                 log.info("creating {}, sync mode: {}", peerGroup, syncMode);
-                peerGroup.setDownloadTxDependencies(0); // recursive implementation causes StackOverflowError
+                peerGroup.setDownloadTxDependencies(TX_DEPENDENCIES_MAX_DEPTH);
                 peerGroup.addWallet(wallet);
                 peerGroup.setBloomFilteringEnabled(syncMode == Configuration.SyncMode.CONNECTION_FILTER);
+                if (syncMode == Configuration.SyncMode.COMPACT_FILTERS) {
+                    // headers only, blocks are fetched once their filters match
+                    peerGroup.setFastCatchupTimeSecs(Long.MAX_VALUE);
+                    if (compactFilterSync == null)
+                        compactFilterSync = new CompactFilterSync(wallet, blockStore, COMPACT_FILTER_TIMEOUT,
+                                config.getCompactFilterScannedBlock());
+                    blockChain.addNewBestBlockListener(Threading.SAME_THREAD, compactFilterScanTrigger);
+                } else if (syncMode == Configuration.SyncMode.CONNECTION_FILTER) {
+                    if (bloomFilterTuner == null)
+                        bloomFilterTuner = new BloomFilterTuner(
+                                config.getBloomFilterFpRate(PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE),
+                                BLOOM_FILTER_FP_RATE_MIN, BLOOM_FILTER_FP_RATE_MAX, BLOOM_FILTER_TUNING_WINDOW);
+                    peerGroup.setBloomFilterFalsePositiveRate(bloomFilterTuner.getFpRate());
+                }
                 peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
                 peerGroup.addConnectedEventListener(peerConnectivityListener);
                 peerGroup.addDisconnectedEventListener(peerConnectivityListener);
+                peerGroup.addPreMessageReceivedEventListener(Threading.SAME_THREAD, syncMetricsMessageListener);
 
                 final int maxConnectedPeers = application.maxConnectedPeers();
                 final Set<HostAndPort> trustedPeers = config.getTrustedPeers();
@@ -649,40 +1234,102 @@ public class BlockchainService extends LifecycleService {
                 peerGroup.setPeerDiscoveryTimeoutMillis(Constants.PEER_DISCOVERY_TIMEOUT_MS);
                 peerGroup.setStallThreshold(20, Block.HEADER_SIZE * 10);
 
-                final ResolveDnsTask resolveDnsTask = new ResolveDnsTask(backgroundHandler) {
+                // trusted peers are resolved in parallel, or taken from the cache without any lookup
+                final ResolvedAddressCache resolvedTrustedPeers = ResolvedAddressCache.parse(
+                        config.getTrustedPeersResolved(), Constants.TRUSTED_PEER_RESOLVE_TTL);
+                resolvedTrustedPeers.retainAll(trustedPeers);
+                final ResolveDnsTask resolveDnsTask = new ResolveDnsTask(Constants.TRUSTED_PEER_RESOLVE_TIMEOUT) {
                     @Override
                     protected void onSuccess(final HostAndPort hostAndPort, final InetSocketAddress socketAddress) {
                         log.info("trusted peer '{}' resolved to {}", hostAndPort,
                                 socketAddress.getAddress().getHostAddress());
-                        if (socketAddress != null) {
-                            peerGroup.addAddress(new PeerAddress(Constants.NETWORK_PARAMETERS, socketAddress), 10);
-                            if (peerGroup.getMaxConnections() > maxConnectedPeers)
-                                peerGroup.setMaxConnections(maxConnectedPeers);
-                        }
+                        resolvedTrustedPeers.put(hostAndPort, socketAddress, System.currentTimeMillis());
+                        config.setTrustedPeersResolved(resolvedTrustedPeers.serialize());
+                        addTrustedPeer(socketAddress, maxConnectedPeers);
                     }
 
                     @Override
                     protected void onUnknownHost(final HostAndPort hostAndPort) {
                         log.info("trusted peer '{}' unknown host", hostAndPort);
+                        maybeAddStale(hostAndPort);
+                    }
+
+                    @Override
+                    protected void onTimeout(final HostAndPort hostAndPort) {
+                        log.info("trusted peer '{}' timed out resolving", hostAndPort);
+                        maybeAddStale(hostAndPort);
+                    }
+
+                    private void maybeAddStale(final HostAndPort hostAndPort) {
+                        final InetSocketAddress socketAddress = resolvedTrustedPeers.getAnyAge(hostAndPort);
+                        if (socketAddress != null) {
+                            log.info("trusted peer '{}' falling back to previously resolved {}", hostAndPort,
+                                    socketAddress.getAddress().getHostAddress());
+                            addTrustedPeer(socketAddress, maxConnectedPeers);
+                        }
                     }
                 };
-                for (final HostAndPort trustedPeer : trustedPeers)
-                    resolveDnsTask.resolve(trustedPeer);
+                final long now = System.currentTimeMillis();
+                for (final HostAndPort trustedPeer : trustedPeers) {
+                    final InetSocketAddress socketAddress = resolvedTrustedPeers.get(trustedPeer, now);
+                    if (socketAddress != null) {
+                        log.info("trusted peer '{}' cached as {}", trustedPeer,
+                                socketAddress.getAddress().getHostAddress());
+                        addTrustedPeer(socketAddress, maxConnectedPeers);
+                    } else {
+                        resolveDnsTask.resolve(trustedPeer);
+                    }
+                }
 
                 if (trustedPeerOnly) {
                     log.info("trusted peers only – not adding any random nodes from the P2P network");
                 } else {
-                    log.info("adding random peers from the P2P network");
+                    final long requiredServices;
                     if (syncMode == Configuration.SyncMode.CONNECTION_FILTER)
-                        peerGroup.setRequiredServices(VersionMessage.NODE_BLOOM | VersionMessage.NODE_WITNESS);
+                        requiredServices = VersionMessage.NODE_BLOOM | VersionMessage.NODE_WITNESS;
+                    else if (syncMode == Configuration.SyncMode.COMPACT_FILTERS)
+                        requiredServices = VersionMessage.NODE_COMPACT_FILTERS | VersionMessage.NODE_WITNESS;
                     else
-                        peerGroup.setRequiredServices(VersionMessage.NODE_WITNESS);
+                        requiredServices = VersionMessage.NODE_WITNESS;
+                    final List<PeerScores.Score> bestPeers = peerScores.best(maxConnectedPeers);
+                    log.info("preferring {} best scored peers", bestPeers.size());
+                    for (final PeerScores.Score score : bestPeers)
+                        peerGroup.addAddress(new PeerAddress(Constants.NETWORK_PARAMETERS, score.address),
+                                PEER_SCORES_PRIORITY);
+
+                    // DNS discovery only kicks in once these are used up
+                    final List<PeerAddressEntry> knownPeers = KNOWN_PEERS.best(peerAddressDao.getAll(),
+                            requiredServices, PEER_ADDRESSES_MAX_SEED, System.currentTimeMillis());
+                    for (final PeerAddressEntry knownPeer : knownPeers)
+                        peerGroup.addAddress(new PeerAddress(Constants.NETWORK_PARAMETERS,
+                                knownPeer.socketAddress()));
+                    if (knownPeers.size() >= maxConnectedPeers)
+                        log.info("seeded {} known peers, DNS discovery only as a fallback", knownPeers.size());
+                    else
+                        log.info("seeded only {} known peers, adding random peers from the P2P network",
+                                knownPeers.size());
+                    peerGroup.setRequiredServices(requiredServices);
+                    backgroundHandler.post(() -> {
+                        final int deleted = peerAddressDao.delete(
+                                KNOWN_PEERS.expired(peerAddressDao.getAll(), System.currentTimeMillis()));
+                        if (deleted > 0)
+                            log.info("forgot {} peers not seen for {}", deleted, PEER_ADDRESSES_MAX_AGE);
+                    });
                 }
 
                 // start peergroup
                 log.info("starting {} asynchronously", peerGroup);
+                timeToFirstPeer.set(Stopwatch.createStarted());
                 peerGroup.startAsync();
-                peerGroup.startBlockChainDownload(blockchainDownloadListener);
+                final long chainHeadTimeSecs = blockChain.getChainHead().getHeader().getTimeSeconds();
+                final long headersFirstBeforeSecs = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())
+                        - HEADERS_FIRST_MIN_AGE.getSeconds();
+                if (chainHeadTimeSecs < peerGroup.getFastCatchupTimeSecs()
+                        && chainHeadTimeSecs < headersFirstBeforeSecs)
+                    backgroundHandler.post(() -> headersFirstSync(peerGroup, chainHeadTimeSecs));
+                else
+                    peerGroup.startBlockChainDownload(blockchainDownloadListener);
+                handler.post(syncMetricsBroadcastRunnable);
 
                 postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AFTER_START);
             }
@@ -692,10 +1339,14 @@ public class BlockchainService extends LifecycleService {
 
                 peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
                 peerGroup.removeConnectedEventListener(peerConnectivityListener);
+                peerGroup.removePreMessageReceivedEventListener(syncMetricsMessageListener);
+                blockChain.removeNewBestBlockListener(compactFilterScanTrigger);
                 peerGroup.removeWallet(wallet);
                 log.info("stopping {} asynchronously", peerGroup);
                 peerGroup.stopAsync();
                 peerGroup = null;
+                handler.removeCallbacks(syncMetricsBroadcastRunnable);
+                broadcastSyncMetrics();
             }
         });
     }
@@ -736,44 +1387,85 @@ public class BlockchainService extends LifecycleService {
         if (peerGroup != null) {
             peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
             peerGroup.removeConnectedEventListener(peerConnectivityListener);
+            peerGroup.removePreMessageReceivedEventListener(syncMetricsMessageListener);
             peerGroup.removeWallet(wallet.getValue());
             peerGroup.stopAsync();
             log.info("stopping {} asynchronously", peerGroup);
+            peerGroup = null;
         }
 
         peerConnectivityListener.stop();
 
+        handler.removeCallbacks(syncMetricsBroadcastRunnable);
+        final SyncMetrics.Snapshot syncMetricsSnapshot = syncMetrics.snapshot();
+        log.info("sync metrics: {}", syncMetricsSnapshot);
+        if (bloomFilterTuner != null)
+            log.info("bloom filter tuning: {}", bloomFilterTuner.snapshot());
+        savePeerScores();
+
         delayHandler.removeCallbacksAndMessages(null);
 
-        backgroundHandler.removeCallbacksAndMessages(null);
-        backgroundThread.getLooper().quit();
+        if (dependencyTimeoutExecutor != null)
+            dependencyTimeoutExecutor.shutdownNow();
 
-        if (blockStore != null) {
-            try {
-                blockStore.close();
-            } catch (final BlockStoreException x) {
-                throw new RuntimeException(x);
+        // a compact filter scan or headers-first sync might still be using the block store, so it is closed on the
+        // background thread once they have given up
+        if (compactFilterSync != null)
+            compactFilterSync.cancel();
+        final HeadersFirstSync headersFirstSync = runningHeadersFirstSync;
+        if (headersFirstSync != null)
+            headersFirstSync.cancel();
+        backgroundHandler.removeCallbacksAndMessages(null);
+        final BlockStore blockStore = this.blockStore;
+        final boolean resetBlockchain = resetBlockchainOnShutdown;
+        backgroundHandler.post(() -> {
+            if (blockStore != null) {
+                try {
+                    blockStore.close();
+                } catch (final BlockStoreException x) {
+                    throw new RuntimeException(x);
+                }
             }
+            if (resetBlockchain) {
+                log.info("removing blockchain");
+                blockChainFile.delete();
+            }
+        });
+        backgroundThread.getLooper().quitSafely();
+        try {
+            backgroundThread.join(BACKGROUND_SHUTDOWN_TIMEOUT.toMillis());
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
         }
+        if (backgroundThread.isAlive())
+            log.info("background thread still busy after {}, closing block store later", BACKGROUND_SHUTDOWN_TIMEOUT);
 
         application.autosaveWalletNow();
 
-        if (resetBlockchainOnShutdown) {
-            log.info("removing blockchain");
-            blockChainFile.delete();
-        }
-
         unregisterReceiver(deviceIdleModeReceiver);
 
         config.unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
 
-        final boolean expectLargeData =
-                blockChain != null && (config.getBestChainHeightEver() - blockChain.getBestChainHeight()) > CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS;
-        StartBlockchainService.schedule(application, expectLargeData);
+        if (syncMetricsSnapshot.totalBytes > 0) {
+            final Duration syncedAfter = this.syncedAfter.get();
+            final Duration duration = syncedAfter != null ? syncedAfter : syncMetricsSnapshot.uptime;
+            StartBlockchainService.recordSync(application, new SyncHistory.Run(
+                    System.currentTimeMillis() - syncMetricsSnapshot.uptime.toMillis(), duration.toMillis(),
+                    syncMetricsSnapshot.totalBytes, (int) syncMetricsSnapshot.totalBlocks,
+                    Math.max(syncBlocksBehind.get(), 0)));
+        }
+        final int blocksBehind =
+                blockChain != null ? Math.max(config.getBestChainHeightEver() - blockChain.getBestChainHeight(), 0) : 0;
+        StartBlockchainService.schedule(application, blocksBehind);
 
         wakeLock.release();
         log.info("released {}", wakeLock);
         checkState(!wakeLock.isHeld(), "still held: " + wakeLock);
+        final long now = System.currentTimeMillis();
+        runAccounting.onWakeLockReleased(now);
+        final RunAccounting.Run run = runAccounting.finish(now, stoppedAtTip);
+        log.info("run accounting: {}", run);
+        config.setRunAccounting(RunAccounting.append(config.getRunAccounting(), run, RUN_ACCOUNTING_CAPACITY));
 
         super.onDestroy();
 
@@ -801,7 +1493,14 @@ public class BlockchainService extends LifecycleService {
     public TransactionBroadcast broadcastTransaction(final Transaction tx) {
         if (peerGroup != null) {
             log.info("broadcasting transaction {}", tx.getTxId());
-            return peerGroup.broadcastTransaction(tx);
+            pendingBroadcasts.incrementAndGet();
+            final TransactionBroadcast broadcast = peerGroup.broadcastTransaction(tx);
+            broadcast.future().addListener(() -> {
+                pendingBroadcasts.decrementAndGet();
+                runAccounting.onWorkDone(System.currentTimeMillis());
+                maybeStopAtTip();
+            }, Threading.SAME_THREAD);
+            return broadcast;
         } else {
             log.info("peergroup not available, not broadcasting transaction {}", tx.getTxId());
             return null;
@@ -840,20 +1539,26 @@ public class BlockchainService extends LifecycleService {
         if (blockChain == null || blockStore == null)
             return null;
 
-        final List<StoredBlock> blocks = new ArrayList<>(maxBlocks);
-        StoredBlock block = blockChain.getChainHead();
-        while (block != null) {
-            blocks.add(block);
-            if (blocks.size() >= maxBlocks)
-                break;
+        final List<StoredBlock> blocks = recentBlocks.get(maxBlocks);
+        if (blocks.isEmpty()) {
+            final StoredBlock chainHead = blockChain.getChainHead();
+            recentBlocks.add(chainHead);
+            blocks.add(chainHead);
+        }
+        // only needed the first time, or after a block that didn't connect to the cached ones
+        while (blocks.size() < maxBlocks) {
             try {
-                block = block.getPrev(blockStore);
+                final StoredBlock block = blocks.get(blocks.size() - 1).getPrev(blockStore);
+                if (block == null)
+                    break;
+                blocks.add(block);
+                recentBlocks.addOldest(block);
             } catch (final BlockStoreException x) {
                 log.info("skipping blocks because of exception", x);
                 break;
             }
         }
-        return blocks.isEmpty() ? null : blocks;
+        return blocks;
     }
 
     private void startForeground(final int numPeers) {
@@ -894,6 +1599,15 @@ public class BlockchainService extends LifecycleService {
         application.peerState.setValue(numPeers);
     }
 
+    @MainThread
+    private void broadcastSyncMetrics() {
+        application.syncMetrics.setValue(syncMetrics.snapshot());
+        application.peerScores.setValue(peerScores.snapshot());
+        final BloomFilterTuner bloomFilterTuner = this.bloomFilterTuner;
+        if (bloomFilterTuner != null)
+            application.bloomFilterTuning.setValue(bloomFilterTuner.snapshot());
+    }
+
     @MainThread
     private void broadcastBlockchainState() {
         final BlockchainState blockchainState = getBlockchainState();
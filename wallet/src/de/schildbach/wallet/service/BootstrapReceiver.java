@@ -79,8 +79,8 @@ public class BootstrapReceiver extends BroadcastReceiver {
             if (packageReplaced)
                 maybeUpgradeWallet(application.getWallet());
 
-            // make sure there is always a blockchain sync scheduled
-            StartBlockchainService.schedule(application, true);
+            // make sure there is always a blockchain sync scheduled, blocks missed since the last sync are predicted
+            StartBlockchainService.schedule(application, 0);
 
             // if the app hasn't been used for a while and contains coins, maybe show reminder
             maybeShowInactivityNotification(application);
@@ -24,23 +24,31 @@ import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Build;
 import android.os.PowerManager;
 import android.text.format.DateUtils;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.util.SyncHistory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+
 /**
  * @author Andreas Schildbach
  */
 public class StartBlockchainService extends JobService {
     private PowerManager pm;
 
+    private static final int SYNC_HISTORY_CAPACITY = 20;
+    private static final int MAX_INTERVAL_FACTOR = 4;
+    private static final long LARGE_DATA_BYTES = 4 * 1024 * 1024;
+
     private static final Logger log = LoggerFactory.getLogger(StartBlockchainService.class);
 
-    public static void schedule(final WalletApplication application, final boolean expectLargeData) {
+    public static void schedule(final WalletApplication application, final int blocksBehind) {
         final Configuration config = application.getConfiguration();
         final long lastUsedAgo = config.getLastUsedAgo();
 
@@ -55,22 +63,48 @@ public class StartBlockchainService extends JobService {
         else
             interval = DateUtils.DAY_IN_MILLIS;
 
-        log.info("last used {} minutes ago{}, rescheduling block chain sync in roughly {} minutes",
-                lastUsedAgo / DateUtils.MINUTE_IN_MILLIS, expectLargeData ? " and expecting large data" : "",
-                interval / DateUtils.MINUTE_IN_MILLIS);
+        // the backoff is the earliest time to sync, but waiting a bit longer might make the sync worth its cost
+        final SyncHistory history = SyncHistory.parse(config.getSyncHistory(), SYNC_HISTORY_CAPACITY);
+        final SyncHistory.Prediction prediction = history.predict(System.currentTimeMillis(), blocksBehind,
+                Duration.ofMillis(interval),
+                Duration.ofMillis(Math.min(interval * MAX_INTERVAL_FACTOR, DateUtils.DAY_IN_MILLIS)));
+        config.setSyncHistory(history.serialize());
+        final boolean expectLargeData = prediction.bytes >= LARGE_DATA_BYTES;
+
+        log.info("last used {} minutes ago, {} blocks behind, rescheduling block chain sync {}{}",
+                lastUsedAgo / DateUtils.MINUTE_IN_MILLIS, blocksBehind, prediction,
+                expectLargeData ? ", expecting large data" : "");
 
         final JobScheduler jobScheduler = application.getSystemService(JobScheduler.class);
         final JobInfo.Builder jobInfo = new JobInfo.Builder(0, new ComponentName(application,
                 StartBlockchainService.class));
-        jobInfo.setMinimumLatency(interval);
+        jobInfo.setMinimumLatency(prediction.intervalMs);
         jobInfo.setOverrideDeadline(DateUtils.WEEK_IN_MILLIS);
         jobInfo.setRequiredNetworkType(expectLargeData ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            // lets the system batch the sync with other network jobs
+            jobInfo.setEstimatedNetworkBytes(prediction.bytes, JobInfo.NETWORK_BYTES_UNKNOWN);
         jobInfo.setRequiresDeviceIdle(true);
         jobInfo.setRequiresBatteryNotLow(true);
         jobInfo.setRequiresStorageNotLow(true);
         jobScheduler.schedule(jobInfo.build());
     }
 
+    /**
+     * Records a finished sync for predicting the next ones, and logs how it compares to its prediction.
+     */
+    public static void recordSync(final WalletApplication application, final SyncHistory.Run run) {
+        final Configuration config = application.getConfiguration();
+        final SyncHistory history = SyncHistory.parse(config.getSyncHistory(), SYNC_HISTORY_CAPACITY);
+        final SyncHistory.Prediction prediction = history.record(run);
+        if (prediction != null)
+            log.info("block chain sync: {}, started {} after predicted {}", run,
+                    Duration.ofMillis(run.startedMs - prediction.madeMs), prediction);
+        else
+            log.info("block chain sync: {}, not predicted", run);
+        config.setSyncHistory(history.serialize());
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -0,0 +1,42 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Embedded;
+
+/**
+ * An indexed transaction along with a block it appears in.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BlockTransaction {
+    @NonNull
+    @ColumnInfo(name = "block_hash")
+    public String blockHash;
+
+    @NonNull
+    @Embedded
+    public IndexedTransactionEntry transaction;
+
+    public BlockTransaction(@NonNull final String blockHash, @NonNull final IndexedTransactionEntry transaction) {
+        this.blockHash = blockHash;
+        this.transaction = transaction;
+    }
+}
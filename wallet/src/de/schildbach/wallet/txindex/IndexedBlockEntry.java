@@ -0,0 +1,58 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * A block an indexed transaction appears in. A transaction can appear in more than one block, if the block chain
+ * has been reorganized.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = IndexedBlockEntry.TABLE_NAME, primaryKeys = { "tx_id", "block_hash" },
+        indices = { @Index(value = { "block_hash" }) })
+public final class IndexedBlockEntry {
+    public static final String TABLE_NAME = "indexed_blocks";
+
+    @NonNull
+    @ColumnInfo(name = "tx_id")
+    private String txId;
+
+    @NonNull
+    @ColumnInfo(name = "block_hash")
+    private String blockHash;
+
+    public IndexedBlockEntry(@NonNull final String txId, @NonNull final String blockHash) {
+        this.txId = txId;
+        this.blockHash = blockHash;
+    }
+
+    @NonNull
+    public String getTxId() {
+        return txId;
+    }
+
+    @NonNull
+    public String getBlockHash() {
+        return blockHash;
+    }
+}
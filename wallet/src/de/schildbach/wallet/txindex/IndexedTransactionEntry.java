@@ -0,0 +1,179 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import de.schildbach.wallet.util.TransactionIndex;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+
+/**
+ * A transaction of the wallet, as indexed by {@link TransactionIndex}.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = IndexedTransactionEntry.TABLE_NAME, indices = { @Index(value = { "update_time" }),
+        @Index(value = { "direction", "update_time" }), @Index(value = { "height" }), @Index(value = { "address" }) })
+public final class IndexedTransactionEntry {
+    public static final String TABLE_NAME = "indexed_transactions";
+
+    @NonNull
+    @PrimaryKey
+    @ColumnInfo(name = "tx_id")
+    private String txId;
+
+    @ColumnInfo(name = "value")
+    private long value;
+
+    @NonNull
+    @ColumnInfo(name = "direction")
+    private String direction;
+
+    @ColumnInfo(name = "self")
+    private boolean self;
+
+    @NonNull
+    @ColumnInfo(name = "purpose")
+    private String purpose;
+
+    @ColumnInfo(name = "update_time")
+    private long updateTime;
+
+    @ColumnInfo(name = "height")
+    private int height;
+
+    @ColumnInfo(name = "coinbase")
+    private boolean coinbase;
+
+    @Nullable
+    @ColumnInfo(name = "address")
+    private String address;
+
+    @Nullable
+    @ColumnInfo(name = "fee")
+    private Long fee;
+
+    @Nullable
+    @ColumnInfo(name = "memo")
+    private String memo;
+
+    @ColumnInfo(name = "fingerprint")
+    private long fingerprint;
+
+    public IndexedTransactionEntry(@NonNull final String txId, final long value, @NonNull final String direction,
+                                   final boolean self, @NonNull final String purpose, final long updateTime,
+                                   final int height, final boolean coinbase, @Nullable final String address,
+                                   @Nullable final Long fee, @Nullable final String memo, final long fingerprint) {
+        this.txId = txId;
+        this.value = value;
+        this.direction = direction;
+        this.self = self;
+        this.purpose = purpose;
+        this.updateTime = updateTime;
+        this.height = height;
+        this.coinbase = coinbase;
+        this.address = address;
+        this.fee = fee;
+        this.memo = memo;
+        this.fingerprint = fingerprint;
+    }
+
+    @Ignore
+    public IndexedTransactionEntry(final TransactionIndex.Row row) {
+        this(row.txId.toString(), row.value.value, row.direction.name(), row.self, row.purpose.name(),
+                row.updateTimeMs, row.height, row.coinbase, row.address != null ? row.address.toString() : null,
+                row.fee != null ? row.fee.value : null, row.memo, row.fingerprint);
+    }
+
+    @NonNull
+    public String getTxId() {
+        return txId;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @NonNull
+    public String getDirection() {
+        return direction;
+    }
+
+    public boolean isSelf() {
+        return self;
+    }
+
+    @NonNull
+    public String getPurpose() {
+        return purpose;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isCoinbase() {
+        return coinbase;
+    }
+
+    @Nullable
+    public String getAddress() {
+        return address;
+    }
+
+    @Nullable
+    public Long getFee() {
+        return fee;
+    }
+
+    @Nullable
+    public String getMemo() {
+        return memo;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public Sha256Hash txId() {
+        return Sha256Hash.wrap(txId);
+    }
+
+    public Coin value() {
+        return Coin.valueOf(value);
+    }
+
+    public TransactionIndex.Direction direction() {
+        return TransactionIndex.Direction.valueOf(direction);
+    }
+
+    public Transaction.Purpose purpose() {
+        return Transaction.Purpose.valueOf(purpose);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Dao
+public interface TransactionIndexDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplace(List<IndexedTransactionEntry> entries);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplaceBlocks(List<IndexedBlockEntry> blocks);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplaceSearch(List<TransactionSearchEntry> entries);
+
+    @Query("SELECT * FROM indexed_transactions")
+    List<IndexedTransactionEntry> getAll();
+
+    @Query("SELECT * FROM indexed_transactions WHERE tx_id = :txId")
+    IndexedTransactionEntry get(String txId);
+
+    @Query("SELECT tx_id FROM indexed_transactions WHERE direction = :direction ORDER BY update_time DESC")
+    LiveData<List<String>> getIdsByDirection(String direction);
+
+    @Query("SELECT b.block_hash, t.* FROM indexed_blocks b INNER JOIN indexed_transactions t ON t.tx_id = b.tx_id"
+            + " WHERE b.block_hash IN (:blockHashes)")
+    LiveData<List<BlockTransaction>> getInBlocks(Collection<String> blockHashes);
+
+    /**
+     * @param query see {@link de.schildbach.wallet.util.TransactionSearch#sql}
+     */
+    @RawQuery(observedEntities = { IndexedTransactionEntry.class, TransactionSearchEntry.class })
+    LiveData<List<String>> search(SupportSQLiteQuery query);
+
+    @Query("DELETE FROM indexed_transactions WHERE tx_id IN (:txIds)")
+    void delete(Collection<String> txIds);
+
+    @Query("DELETE FROM indexed_blocks WHERE tx_id IN (:txIds)")
+    void deleteBlocks(Collection<String> txIds);
+
+    @Query("DELETE FROM transaction_search WHERE rowid IN (:rowIds)")
+    void deleteSearch(Collection<Long> rowIds);
+
+    @Query("DELETE FROM indexed_transactions")
+    void deleteAll();
+
+    @Query("DELETE FROM indexed_blocks")
+    void deleteAllBlocks();
+
+    @Query("DELETE FROM transaction_search")
+    void deleteAllSearch();
+}
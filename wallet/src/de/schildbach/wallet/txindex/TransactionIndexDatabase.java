@@ -0,0 +1,52 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import android.content.Context;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+/**
+ * Index of the wallet's transactions, including archived ones, and a full-text index for searching them. See
+ * {@link de.schildbach.wallet.util.TransactionIndex} and {@link de.schildbach.wallet.util.TransactionSearch}.
+ *
+ * @author Andreas Schildbach
+ */
+@Database(entities = { IndexedTransactionEntry.class, IndexedBlockEntry.class, TransactionSearchEntry.class },
+        version = 4, exportSchema = false)
+public abstract class TransactionIndexDatabase extends RoomDatabase {
+    private static final String DATABASE_NAME = "transaction_index";
+    private static TransactionIndexDatabase INSTANCE;
+
+    public static TransactionIndexDatabase getDatabase(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (TransactionIndexDatabase.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
+                            TransactionIndexDatabase.class, DATABASE_NAME).allowMainThreadQueries()
+                            .fallbackToDestructiveMigration() // the index is rebuilt from the wallet
+                            .build();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public abstract TransactionIndexDao transactionIndexDao();
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.txindex;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index of transactions. See {@link de.schildbach.wallet.util.TransactionSearch}.
+ *
+ * @author Andreas Schildbach
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61, notIndexed = { "tx_id" })
+@Entity(tableName = TransactionSearchEntry.TABLE_NAME)
+public final class TransactionSearchEntry {
+    public static final String TABLE_NAME = "transaction_search";
+
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private long rowId;
+
+    @NonNull
+    @ColumnInfo(name = "tx_id")
+    private String txId;
+
+    @NonNull
+    @ColumnInfo(name = "text")
+    private String text;
+
+    public TransactionSearchEntry(final long rowId, @NonNull final String txId, @NonNull final String text) {
+        this.rowId = rowId;
+        this.txId = txId;
+        this.text = text;
+    }
+
+    public long getRowId() {
+        return rowId;
+    }
+
+    @NonNull
+    public String getTxId() {
+        return txId;
+    }
+
+    @NonNull
+    public String getText() {
+        return text;
+    }
+}
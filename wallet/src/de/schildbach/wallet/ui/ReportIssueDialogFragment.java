@@ -27,12 +27,14 @@ import android.content.DialogInterface;
 import android.content.pm.PackageInfo;
 import android.content.res.Resources;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.PowerManager;
 import android.widget.Button;
 import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModelProvider;
 import com.google.common.base.Joiner;
 import de.schildbach.wallet.BuildConfig;
@@ -43,6 +45,7 @@ import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.Bluetooth;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Installer;
+import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutput;
@@ -94,6 +97,8 @@ public class ReportIssueDialogFragment extends DialogFragment {
     private Button positiveButton;
 
     private AbstractWalletActivityViewModel walletActivityViewModel;
+    private final MutableLiveData<CharSequence> contextualData = new MutableLiveData<>();
+    private boolean contextualDataRequested = false;
 
     private static final Logger log = LoggerFactory.getLogger(ReportIssueDialogFragment.class);
 
@@ -163,29 +168,7 @@ public class ReportIssueDialogFragment extends DialogFragment {
 
             @Override
             protected CharSequence collectContextualData() {
-                if (contextualTransactionHash == null)
-                    return null;
-
-                final Wallet wallet = walletActivityViewModel.wallet.getValue();
-                final Transaction tx = wallet.getTransaction(contextualTransactionHash);
-                final StringBuilder contextualData = new StringBuilder();
-                try {
-                    contextualData.append(tx.getValue(wallet).toFriendlyString()).append(" total value");
-                } catch (final ScriptException x) {
-                    contextualData.append(x.getMessage());
-                }
-                contextualData.append('\n');
-                if (tx.hasConfidence())
-                    contextualData.append("  confidence: ").append(tx.getConfidence()).append('\n');
-                final String[] blockExplorers = activity.getResources()
-                        .getStringArray(R.array.preferences_block_explorer_values);
-                for (final String blockExplorer : blockExplorers)
-                    contextualData
-                            .append(Uri.withAppendedPath(Uri.parse(blockExplorer), "tx/" + tx.getTxId().toString()))
-                            .append('\n');
-                contextualData.append(tx.toString()).append('\n');
-                contextualData.append(Constants.HEX.encode(tx.unsafeBitcoinSerialize())).append('\n');
-                return contextualData;
+                return contextualData.getValue();
             }
 
             @Override
@@ -199,12 +182,55 @@ public class ReportIssueDialogFragment extends DialogFragment {
             positiveButton = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
             positiveButton.setEnabled(false);
 
-            walletActivityViewModel.wallet.observe(ReportIssueDialogFragment.this, wallet -> positiveButton.setEnabled(true));
+            walletActivityViewModel.wallet.observe(ReportIssueDialogFragment.this, wallet -> {
+                if (contextualTransactionHash == null) {
+                    positiveButton.setEnabled(true);
+                } else if (!contextualDataRequested) {
+                    // archived transactions and their index entries are read in the background
+                    contextualDataRequested = true;
+                    AsyncTask.execute(() -> {
+                        org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                        contextualData.postValue(contextualData(wallet, contextualTransactionHash));
+                    });
+                }
+            });
+            contextualData.observe(ReportIssueDialogFragment.this, data -> positiveButton.setEnabled(true));
         });
 
         return dialog;
     }
 
+    private CharSequence contextualData(final Wallet wallet, final Sha256Hash transactionHash) {
+        final StringBuilder contextualData = new StringBuilder();
+        Transaction tx = wallet.getTransaction(transactionHash);
+        final Coin value;
+        try {
+            if (tx != null) {
+                value = application.getTransactionArchive().getValue(tx, wallet);
+            } else {
+                tx = application.findArchivedTransaction(transactionHash);
+                if (tx == null)
+                    return contextualData.append("unknown transaction ").append(transactionHash).append('\n');
+                value = application.getArchivedTransactionValue(tx, wallet);
+            }
+            contextualData.append(value.toFriendlyString()).append(" total value");
+        } catch (final ScriptException x) {
+            contextualData.append(x.getMessage());
+        }
+        contextualData.append('\n');
+        if (tx.hasConfidence())
+            contextualData.append("  confidence: ").append(tx.getConfidence()).append('\n');
+        final String[] blockExplorers = activity.getResources()
+                .getStringArray(R.array.preferences_block_explorer_values);
+        for (final String blockExplorer : blockExplorers)
+            contextualData
+                    .append(Uri.withAppendedPath(Uri.parse(blockExplorer), "tx/" + tx.getTxId().toString()))
+                    .append('\n');
+        contextualData.append(tx.toString()).append('\n');
+        contextualData.append(Constants.HEX.encode(tx.unsafeBitcoinSerialize())).append('\n');
+        return contextualData;
+    }
+
     @Override
     public void onDismiss(final DialogInterface dialog) {
         CrashReporter.deleteSaveCrashTrace();
@@ -250,6 +276,7 @@ public class ReportIssueDialogFragment extends DialogFragment {
                 DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(lastBlockchainResetTime)) : "none").append("\n");
         report.append("Network: ").append(Constants.NETWORK_PARAMETERS.getId()).append("\n");
         report.append("Sync mode: ").append(config.getSyncMode().name()).append("\n");
+        report.append("Wallet events: ").append(application.walletEvents.toString()).append("\n");
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         report.append("Encrypted: ").append(String.valueOf(wallet.isEncrypted())).append("\n");
         report.append("Keychain size: ").append(String.valueOf(wallet.getKeyChainGroupSize())).append("\n");
@@ -112,10 +112,12 @@ public class RequestCoinsViewModel extends AndroidViewModel {
     }
 
     public static class FreshReceiveAddressLiveData extends AbstractWalletLiveData<Address> {
+        private final WalletApplication application;
         private Script.ScriptType outputScriptType = null;
 
         public FreshReceiveAddressLiveData(final WalletApplication application) {
             super(application);
+            this.application = application;
         }
 
         public void overrideOutputScriptType(final Script.ScriptType outputScriptType) {
@@ -127,6 +129,11 @@ public class RequestCoinsViewModel extends AndroidViewModel {
             super.setValue(address);
         }
 
+        @Override
+        protected boolean isPartialWalletSufficient() {
+            return true;
+        }
+
         @Override
         protected void onWalletActive(final Wallet wallet) {
             maybeLoad();
@@ -138,8 +145,7 @@ public class RequestCoinsViewModel extends AndroidViewModel {
                 final Script.ScriptType outputScriptType = this.outputScriptType;
                 AsyncTask.execute(() -> {
                     org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-                    postValue(outputScriptType != null ? wallet.freshReceiveAddress(outputScriptType)
-                            : wallet.freshReceiveAddress());
+                    postValue(application.freshReceiveAddress(wallet, outputScriptType));
                 });
             }
         }
@@ -20,6 +20,8 @@ package de.schildbach.wallet.ui;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Html;
 import android.text.Spanned;
 import android.text.SpannedString;
@@ -43,6 +45,7 @@ import de.schildbach.wallet.R;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
 import de.schildbach.wallet.util.Formats;
+import de.schildbach.wallet.util.ItemWindow;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
@@ -61,24 +64,23 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * @author Andreas Schildbach
  */
 public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListItem, RecyclerView.ViewHolder> {
-    public static List<ListItem> buildListItems(final Context context, final List<Transaction> transactions,
-            final WarningType warning, final @Nullable Wallet wallet,
-            final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
-            final int maxConnectedPeers) {
-        final MonetaryFormat noCodeFormat = format.noCode();
-        final List<ListItem> items = new ArrayList<>(transactions.size() + 1);
+    public static List<ListItem> buildListItems(final List<ListItem.TransactionRow> transactionRows,
+            final WarningType warning) {
+        final List<ListItem> items = new ArrayList<>(transactionRows.size() + 1);
         if (warning != null)
             items.add(new ListItem.WarningItem(warning));
-        for (final Transaction tx : transactions)
-            items.add(new ListItem.TransactionItem(context, tx, wallet, addressBook, noCodeFormat, maxConnectedPeers));
+        items.addAll(transactionRows);
         return items;
     }
 
@@ -90,8 +92,40 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             this.id = id;
         }
 
+        /**
+         * A transaction in the list. Its {@link TransactionItem} is only materialized while near the visible range,
+         * see {@link ItemWindow}.
+         */
+        public static class TransactionRow extends ListItem {
+            public final Sha256Hash transactionId;
+            // changes whenever the item changes
+            public final long version;
+
+            public TransactionRow(final Sha256Hash transactionId, final long version) {
+                super(TransactionItem.id(transactionId));
+                this.transactionId = transactionId;
+                this.version = version;
+            }
+
+            @Override
+            public boolean equals(final Object o) {
+                if (this == o)
+                    return true;
+                if (o == null || getClass() != o.getClass())
+                    return false;
+                final TransactionRow other = (TransactionRow) o;
+                return transactionId.equals(other.transactionId) && version == other.version;
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(transactionId, version);
+            }
+        }
+
         public static class TransactionItem extends ListItem {
             public final Sha256Hash transactionId;
+            public final Transaction tx;
             public final int confidenceCircularProgress, confidenceCircularMaxProgress;
             public final int confidenceCircularSize, confidenceCircularMaxSize;
             public final int confidenceCircularFillColor, confidenceCircularStrokeColor;
@@ -126,8 +160,15 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             public TransactionItem(final Context context, final Transaction tx, final @Nullable Wallet wallet,
                     final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
                     final int maxConnectedPeers) {
+                this(context, tx, tx.getValue(wallet), wallet, addressBook, format, maxConnectedPeers);
+            }
+
+            public TransactionItem(final Context context, final Transaction tx, final Coin value,
+                    final @Nullable Wallet wallet, final @Nullable Map<String, AddressBookEntry> addressBook,
+                    final MonetaryFormat format, final int maxConnectedPeers) {
                 super(id(tx.getTxId()));
                 this.transactionId = tx.getTxId();
+                this.tx = tx;
 
                 final int colorSignificant = context.getColor(R.color.fg_significant);
                 final int colorLessSignificant = context.getColor(R.color.fg_less_significant);
@@ -136,7 +177,6 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 final int colorValueNegative = context.getColor(R.color.fg_value_negative);
                 final int colorError = context.getColor(R.color.fg_error);
 
-                final Coin value = tx.getValue(wallet);
                 final boolean sent = value.signum() < 0;
                 final boolean self = WalletUtils.isEntirelySelf(tx, wallet);
                 final TransactionConfidence confidence = tx.getConfidence();
@@ -402,14 +442,18 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
     }
 
     public interface ContextMenuCallback {
-        void onInflateTransactionContextMenu(MenuInflater inflater, Menu menu, Sha256Hash transactionId);
+        void onInflateTransactionContextMenu(MenuInflater inflater, Menu menu, TransactionItem transactionItem);
 
-        boolean onClickTransactionContextMenuItem(MenuItem item, Sha256Hash transactionId);
+        boolean onClickTransactionContextMenuItem(MenuItem item, TransactionItem transactionItem);
     }
 
     private final Context context;
+    private final ItemWindow<ListItem.TransactionRow, TransactionItem> itemWindow;
     private final LayoutInflater inflater;
     private final MenuInflater menuInflater;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // showing a placeholder until their item is loaded
+    private final Set<TransactionViewHolder> placeholderHolders = new HashSet<>();
 
     @Nullable
     private final OnClickListener onClickListener;
@@ -422,6 +466,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
     private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
     private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
 
+    private static final int PREFETCH_DISTANCE = 20;
+
     private static final int VIEW_TYPE_TRANSACTION = 0;
     private static final int VIEW_TYPE_WARNING = 1;
 
@@ -429,7 +475,9 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         CONFIDENCE, TIME, ADDRESS, FEE, VALUE, FIAT, MESSAGE, SELECTION
     }
 
-    public TransactionsAdapter(final Context context, @Nullable final OnClickListener onClickListener,
+    public TransactionsAdapter(final Context context,
+                               final ItemWindow<ListItem.TransactionRow, TransactionItem> itemWindow,
+                               @Nullable final OnClickListener onClickListener,
                                @Nullable final ContextMenuCallback contextMenuCallback) {
         super(new DiffUtil.ItemCallback<ListItem>() {
             @Override
@@ -439,128 +487,28 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
 
             @Override
             public boolean areContentsTheSame(final ListItem oldItem, final ListItem newItem) {
-                if (oldItem instanceof TransactionItem) {
-                    final TransactionItem oldTransactionItem = (TransactionItem) oldItem;
-                    final TransactionItem newTransactionItem = (TransactionItem) newItem;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularProgress,
-                            newTransactionItem.confidenceCircularProgress))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularMaxProgress,
-                            newTransactionItem.confidenceCircularMaxProgress))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularSize,
-                            newTransactionItem.confidenceCircularSize))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularMaxSize,
-                            newTransactionItem.confidenceCircularMaxSize))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularFillColor,
-                            newTransactionItem.confidenceCircularFillColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceCircularStrokeColor,
-                            newTransactionItem.confidenceCircularStrokeColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceTextual, newTransactionItem.confidenceTextual))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceTextualColor,
-                            newTransactionItem.confidenceTextualColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceMessage, newTransactionItem.confidenceMessage))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.confidenceMessageOnlyShownWhenSelected,
-                            newTransactionItem.confidenceMessageOnlyShownWhenSelected))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.time, newTransactionItem.time))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.timeSelected, newTransactionItem.timeSelected))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.timeColor, newTransactionItem.timeColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.address, newTransactionItem.address))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.addressColor, newTransactionItem.addressColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.addressTypeface, newTransactionItem.addressTypeface))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.fee, newTransactionItem.fee))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.feeFormat, newTransactionItem.feeFormat))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.value, newTransactionItem.value))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.valueFormat, newTransactionItem.valueFormat))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.valueColor, newTransactionItem.valueColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.fiat, newTransactionItem.fiat))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.fiatFormat, newTransactionItem.fiatFormat))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.fiatPrefixColor, newTransactionItem.fiatPrefixColor))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.message, newTransactionItem.message))
-                        return false;
-                    if (!Objects.equals(oldTransactionItem.messageColor, newTransactionItem.messageColor))
-                        return false;
-                    return true;
-                } else {
+                if (oldItem instanceof ListItem.TransactionRow)
+                    return oldItem.equals(newItem); // rows change version whenever their item changes
+                else
                     return true;
-                }
             }
 
             @Override
             public Object getChangePayload(final ListItem oldItem, final ListItem newItem) {
-                final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
-                if (oldItem instanceof TransactionItem) {
-                    final TransactionItem oldTransactionItem = (TransactionItem) oldItem;
-                    final TransactionItem newTransactionItem = (TransactionItem) newItem;
-                    if (!(Objects.equals(oldTransactionItem.confidenceCircularProgress,
-                            newTransactionItem.confidenceCircularProgress)
-                            && Objects.equals(oldTransactionItem.confidenceCircularMaxProgress,
-                                    newTransactionItem.confidenceCircularMaxProgress)
-                            && Objects.equals(oldTransactionItem.confidenceCircularSize,
-                                    newTransactionItem.confidenceCircularSize)
-                            && Objects.equals(oldTransactionItem.confidenceCircularMaxSize,
-                                    newTransactionItem.confidenceCircularMaxSize)
-                            && Objects.equals(oldTransactionItem.confidenceCircularFillColor,
-                                    newTransactionItem.confidenceCircularFillColor)
-                            && Objects.equals(oldTransactionItem.confidenceCircularStrokeColor,
-                                    newTransactionItem.confidenceCircularStrokeColor)
-                            && Objects.equals(oldTransactionItem.confidenceTextual,
-                                    newTransactionItem.confidenceTextual)
-                            && Objects.equals(oldTransactionItem.confidenceTextualColor,
-                                    newTransactionItem.confidenceTextualColor)
-                            && Objects.equals(oldTransactionItem.confidenceMessage,
-                                    newTransactionItem.confidenceMessage)
-                            && Objects.equals(oldTransactionItem.confidenceMessageOnlyShownWhenSelected,
-                                    newTransactionItem.confidenceMessageOnlyShownWhenSelected)))
-                        changes.add(ChangeType.CONFIDENCE);
-                    if (!(Objects.equals(oldTransactionItem.time, newTransactionItem.time)
-                            && Objects.equals(oldTransactionItem.timeSelected, newTransactionItem.timeSelected)
-                            && Objects.equals(oldTransactionItem.timeColor, newTransactionItem.timeColor)))
-                        changes.add(ChangeType.TIME);
-                    if (!(Objects.equals(oldTransactionItem.address, newTransactionItem.address)
-                            && Objects.equals(oldTransactionItem.addressColor, newTransactionItem.addressColor)
-                            && Objects.equals(oldTransactionItem.addressTypeface, newTransactionItem.addressTypeface)))
-                        changes.add(ChangeType.ADDRESS);
-                    if (!(Objects.equals(oldTransactionItem.fee, newTransactionItem.fee)
-                            && Objects.equals(oldTransactionItem.feeFormat, newTransactionItem.feeFormat)))
-                        changes.add(ChangeType.FEE);
-                    if (!(Objects.equals(oldTransactionItem.value, newTransactionItem.value)
-                            && Objects.equals(oldTransactionItem.valueFormat, newTransactionItem.valueFormat)
-                            && Objects.equals(oldTransactionItem.valueColor, newTransactionItem.valueColor)))
-                        changes.add(ChangeType.VALUE);
-                    if (!(Objects.equals(oldTransactionItem.fiat, newTransactionItem.fiat)
-                            && Objects.equals(oldTransactionItem.fiatFormat, newTransactionItem.fiatFormat)
-                            && Objects.equals(oldTransactionItem.fiatPrefixColor, newTransactionItem.fiatPrefixColor)))
-                        changes.add(ChangeType.FIAT);
-                    if (!(Objects.equals(oldTransactionItem.message, newTransactionItem.message)
-                            && Objects.equals(oldTransactionItem.messageColor, newTransactionItem.messageColor)))
-                        changes.add(ChangeType.MESSAGE);
+                if (oldItem instanceof ListItem.TransactionRow) {
+                    // only worth it for rows around the visible range, anything else is bound from scratch anyway
+                    final TransactionItem oldTransactionItem = itemWindow.peek((ListItem.TransactionRow) oldItem);
+                    if (oldTransactionItem == null)
+                        return null;
+                    final TransactionItem newTransactionItem = itemWindow.peek((ListItem.TransactionRow) newItem);
+                    if (newTransactionItem == null)
+                        return null;
+                    return changes(oldTransactionItem, newTransactionItem);
                 }
-                return changes;
+                return EnumSet.noneOf(ChangeType.class);
             }
         });
+        this.itemWindow = itemWindow;
         this.context = context;
         this.inflater = LayoutInflater.from(context);
         this.menuInflater = new MenuInflater(context);
@@ -570,6 +518,80 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         setHasStableIds(true);
     }
 
+    @Override
+    public void onAttachedToRecyclerView(final RecyclerView recyclerView) {
+        itemWindow.setOnLoadedListener(row -> handler.post(() -> onTransactionItemLoaded(row)));
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+        itemWindow.setOnLoadedListener(null);
+        handler.removeCallbacksAndMessages(null);
+        placeholderHolders.clear();
+    }
+
+    @MainThread
+    private void onTransactionItemLoaded(final ListItem.TransactionRow row) {
+        for (final Iterator<TransactionViewHolder> i = placeholderHolders.iterator(); i.hasNext();) {
+            final TransactionViewHolder holder = i.next();
+            if (row.equals(holder.placeholderRow)) {
+                i.remove();
+                final int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION)
+                    notifyItemChanged(position);
+            }
+        }
+    }
+
+    private static EnumSet<ChangeType> changes(final TransactionItem oldTransactionItem,
+            final TransactionItem newTransactionItem) {
+        final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+        if (!(Objects.equals(oldTransactionItem.confidenceCircularProgress,
+                newTransactionItem.confidenceCircularProgress)
+                && Objects.equals(oldTransactionItem.confidenceCircularMaxProgress,
+                        newTransactionItem.confidenceCircularMaxProgress)
+                && Objects.equals(oldTransactionItem.confidenceCircularSize,
+                        newTransactionItem.confidenceCircularSize)
+                && Objects.equals(oldTransactionItem.confidenceCircularMaxSize,
+                        newTransactionItem.confidenceCircularMaxSize)
+                && Objects.equals(oldTransactionItem.confidenceCircularFillColor,
+                        newTransactionItem.confidenceCircularFillColor)
+                && Objects.equals(oldTransactionItem.confidenceCircularStrokeColor,
+                        newTransactionItem.confidenceCircularStrokeColor)
+                && Objects.equals(oldTransactionItem.confidenceTextual,
+                        newTransactionItem.confidenceTextual)
+                && Objects.equals(oldTransactionItem.confidenceTextualColor,
+                        newTransactionItem.confidenceTextualColor)
+                && Objects.equals(oldTransactionItem.confidenceMessage,
+                        newTransactionItem.confidenceMessage)
+                && Objects.equals(oldTransactionItem.confidenceMessageOnlyShownWhenSelected,
+                        newTransactionItem.confidenceMessageOnlyShownWhenSelected)))
+            changes.add(ChangeType.CONFIDENCE);
+        if (!(Objects.equals(oldTransactionItem.time, newTransactionItem.time)
+                && Objects.equals(oldTransactionItem.timeSelected, newTransactionItem.timeSelected)
+                && Objects.equals(oldTransactionItem.timeColor, newTransactionItem.timeColor)))
+            changes.add(ChangeType.TIME);
+        if (!(Objects.equals(oldTransactionItem.address, newTransactionItem.address)
+                && Objects.equals(oldTransactionItem.addressColor, newTransactionItem.addressColor)
+                && Objects.equals(oldTransactionItem.addressTypeface, newTransactionItem.addressTypeface)))
+            changes.add(ChangeType.ADDRESS);
+        if (!(Objects.equals(oldTransactionItem.fee, newTransactionItem.fee)
+                && Objects.equals(oldTransactionItem.feeFormat, newTransactionItem.feeFormat)))
+            changes.add(ChangeType.FEE);
+        if (!(Objects.equals(oldTransactionItem.value, newTransactionItem.value)
+                && Objects.equals(oldTransactionItem.valueFormat, newTransactionItem.valueFormat)
+                && Objects.equals(oldTransactionItem.valueColor, newTransactionItem.valueColor)))
+            changes.add(ChangeType.VALUE);
+        if (!(Objects.equals(oldTransactionItem.fiat, newTransactionItem.fiat)
+                && Objects.equals(oldTransactionItem.fiatFormat, newTransactionItem.fiatFormat)
+                && Objects.equals(oldTransactionItem.fiatPrefixColor, newTransactionItem.fiatPrefixColor)))
+            changes.add(ChangeType.FIAT);
+        if (!(Objects.equals(oldTransactionItem.message, newTransactionItem.message)
+                && Objects.equals(oldTransactionItem.messageColor, newTransactionItem.messageColor)))
+            changes.add(ChangeType.MESSAGE);
+        return changes;
+    }
+
     @MainThread
     public void setSelectedTransaction(final Sha256Hash newSelectedTransactionId) {
         if (Objects.equals(newSelectedTransactionId, selectedTransactionId))
@@ -581,13 +603,33 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         this.selectedTransactionId = newSelectedTransactionId;
     }
 
+    /**
+     * Tells which rows are visible, so their items and those within prefetch distance are materialized.
+     */
+    @MainThread
+    public void setVisibleRange(final int firstPosition, final int lastPosition) {
+        final List<ListItem> list = getCurrentList();
+        if (firstPosition == RecyclerView.NO_POSITION || list.isEmpty())
+            return;
+        final int from = Math.max(firstPosition - PREFETCH_DISTANCE, 0);
+        final int to = Math.min(lastPosition + PREFETCH_DISTANCE, list.size() - 1);
+        final List<ListItem.TransactionRow> rows = new ArrayList<>(to - from + 1);
+        for (int i = from; i <= to; i++) {
+            final ListItem item = list.get(i);
+            if (item instanceof ListItem.TransactionRow)
+                rows.add((ListItem.TransactionRow) item);
+        }
+        itemWindow.setWindow(rows);
+    }
+
     @MainThread
     public int positionOf(final Sha256Hash transactionId) {
         if (transactionId != null) {
             final List<ListItem> list = getCurrentList();
             for (int i = 0; i < list.size(); i++) {
                 final ListItem item = list.get(i);
-                if (item instanceof ListItem.TransactionItem && ((TransactionItem) item).transactionId.equals(transactionId))
+                if (item instanceof ListItem.TransactionRow
+                        && ((ListItem.TransactionRow) item).transactionId.equals(transactionId))
                     return i;
             }
         }
@@ -599,7 +641,7 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         final ListItem listItem = getItem(position);
         if (listItem instanceof ListItem.WarningItem)
             return VIEW_TYPE_WARNING;
-        else if (listItem instanceof ListItem.TransactionItem)
+        else if (listItem instanceof ListItem.TransactionRow)
             return VIEW_TYPE_TRANSACTION;
         else
             throw new IllegalStateException();
@@ -629,7 +671,9 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
     @Override
     public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position,
                                  final List<Object> payloads) {
-        final boolean fullBind = payloads.isEmpty();
+        // what was waiting for its item to load can't be bound partially
+        final boolean wasPlaceholder = placeholderHolders.remove(holder);
+        final boolean fullBind = payloads.isEmpty() || wasPlaceholder;
         final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
         for (final Object payload : payloads)
             changes.addAll((EnumSet<ChangeType>) payload);
@@ -637,7 +681,19 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         final ListItem listItem = getItem(position);
         if (holder instanceof TransactionViewHolder) {
             final TransactionViewHolder transactionHolder = (TransactionViewHolder) holder;
-            final ListItem.TransactionItem transactionItem = (ListItem.TransactionItem) listItem;
+            final ListItem.TransactionRow transactionRow = (ListItem.TransactionRow) listItem;
+            // never wait for an item to load, rather bind it once it's there
+            final TransactionItem transactionItem = itemWindow.getOrRequest(transactionRow);
+            if (transactionItem == null) {
+                // an older version of the same transaction is good enough to show meanwhile
+                if (!transactionRow.transactionId.equals(transactionHolder.transactionId))
+                    transactionHolder.bindPlaceholder();
+                transactionHolder.placeholderRow = transactionRow;
+                placeholderHolders.add(transactionHolder);
+                return;
+            }
+            transactionHolder.placeholderRow = null;
+            transactionHolder.transactionId = transactionItem.transactionId;
             final boolean isSelected = transactionItem.transactionId.equals(selectedTransactionId);
             if (fullBind) {
                 final OnClickListener onClickListener = this.onClickListener;
@@ -651,12 +707,11 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 if (contextMenuCallback != null && isSelected) {
                     final Menu menu = transactionHolder.contextBar.getMenu();
                     menu.clear();
-                    contextMenuCallback.onInflateTransactionContextMenu(menuInflater, menu,
-                            transactionItem.transactionId);
+                    contextMenuCallback.onInflateTransactionContextMenu(menuInflater, menu, transactionItem);
                     if (menu.hasVisibleItems()) {
                         transactionHolder.contextBar.setVisibility(View.VISIBLE);
                         transactionHolder.contextBar.setOnMenuItemClickListener(item ->
-                                contextMenuCallback.onClickTransactionContextMenuItem(item, transactionItem.transactionId));
+                                contextMenuCallback.onClickTransactionContextMenuItem(item, transactionItem));
                     }
                 }
             }
@@ -704,6 +759,12 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         }
     }
 
+    @Override
+    public void onViewRecycled(final RecyclerView.ViewHolder holder) {
+        if (holder instanceof TransactionViewHolder)
+            placeholderHolders.remove(holder);
+    }
+
     public static class TransactionViewHolder extends RecyclerView.ViewHolder {
         private final View extendTime;
         private final TextView fullTime;
@@ -721,6 +782,12 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         private final View extendMessage;
         private final TextView message;
         private final Toolbar contextBar;
+        // what is bound, or null if a placeholder
+        @Nullable
+        private Sha256Hash transactionId;
+        // what is waited for to load
+        @Nullable
+        private ListItem.TransactionRow placeholderRow;
 
         public TransactionViewHolder(final View itemView) {
             super(itemView);
@@ -756,6 +823,28 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             bindMessage(item, true);
         }
 
+        private void bindPlaceholder() {
+            transactionId = null;
+            itemView.setOnClickListener(null);
+            itemView.setSelected(false);
+            contextBar.setVisibility(View.GONE);
+            confidenceCircularNormal.setVisibility(View.INVISIBLE);
+            confidenceCircularSelected.setVisibility(View.INVISIBLE);
+            confidenceTextualNormal.setVisibility(View.GONE);
+            confidenceTextualSelected.setVisibility(View.GONE);
+            extendConfidenceMessageNormal.setVisibility(View.GONE);
+            extendConfidenceMessageSelected.setVisibility(View.GONE);
+            extendTime.setVisibility(View.GONE);
+            time.setVisibility(View.VISIBLE);
+            time.setText(null);
+            extendAddress.setVisibility(View.VISIBLE);
+            address.setText(null);
+            extendFee.setVisibility(View.GONE);
+            value.setVisibility(View.GONE);
+            fiat.setVisibility(View.GONE);
+            extendMessage.setVisibility(View.GONE);
+        }
+
         private void bindConfidence(final TransactionItem item, final boolean isSelected) {
             if (isSelected) {
                 confidenceCircularNormal.setVisibility(View.INVISIBLE);
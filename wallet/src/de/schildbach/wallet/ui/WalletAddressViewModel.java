@@ -29,19 +29,14 @@ import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
 import de.schildbach.wallet.data.ConfigOwnNameLiveData;
+import de.schildbach.wallet.data.WalletEventDispatcher;
 import de.schildbach.wallet.util.Qr;
 import org.bitcoinj.core.Address;
-import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.LegacyAddress;
-import org.bitcoinj.core.Transaction;
 import org.bitcoinj.uri.BitcoinURI;
-import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
-import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
-import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
 
+import java.util.EnumSet;
 import java.util.Locale;
 
 /**
@@ -95,27 +90,13 @@ public class WalletAddressViewModel extends AndroidViewModel {
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
-            addWalletListener(wallet);
+            observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.TRANSACTIONS));
             load();
         }
 
         @Override
         protected void onWalletInactive(final Wallet wallet) {
-            removeWalletListener(wallet);
-        }
-
-        private void addWalletListener(final Wallet wallet) {
-            wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
-        }
-
-        private void removeWalletListener(final Wallet wallet) {
-            wallet.removeChangeEventListener(walletListener);
-            wallet.removeReorganizeEventListener(walletListener);
-            wallet.removeCoinsSentEventListener(walletListener);
-            wallet.removeCoinsReceivedEventListener(walletListener);
+            unobserveWalletChanges(wallet);
         }
 
         @Override
@@ -126,32 +107,5 @@ public class WalletAddressViewModel extends AndroidViewModel {
                 postValue(wallet.currentReceiveAddress());
             });
         }
-
-        private final WalletListener walletListener = new WalletListener();
-
-        private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
-                WalletReorganizeEventListener, WalletChangeEventListener {
-            @Override
-            public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                    final Coin newBalance) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                    final Coin newBalance) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onReorganize(final Wallet wallet) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onWalletChanged(final Wallet wallet) {
-                triggerLoad();
-            }
-        }
     }
 }
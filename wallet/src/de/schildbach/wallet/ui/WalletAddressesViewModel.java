@@ -29,15 +29,15 @@ import de.schildbach.wallet.addressbook.AddressBookDatabase;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
 import de.schildbach.wallet.data.ConfigOwnNameLiveData;
+import de.schildbach.wallet.data.WalletEventDispatcher;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.LegacyAddress;
-import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
-import org.bitcoinj.wallet.listeners.KeyChainEventListener;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 /**
@@ -61,29 +61,24 @@ public class WalletAddressesViewModel extends AndroidViewModel {
         this.ownName = new ConfigOwnNameLiveData(this.application);
     }
 
-    public static class IssuedReceiveAddressesLiveData extends AbstractWalletLiveData<List<Address>>
-            implements KeyChainEventListener {
+    public static class IssuedReceiveAddressesLiveData extends AbstractWalletLiveData<List<Address>> {
         public IssuedReceiveAddressesLiveData(final WalletApplication application) {
             super(application);
         }
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
-            wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
-            loadAddresses();
+            observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.KEYS));
+            load();
         }
 
         @Override
         protected void onWalletInactive(final Wallet wallet) {
-            wallet.removeKeyChainEventListener(this);
+            unobserveWalletChanges(wallet);
         }
 
         @Override
-        public void onKeysAdded(final List<ECKey> keys) {
-            loadAddresses();
-        }
-
-        private void loadAddresses() {
+        protected void load() {
             final Wallet wallet = getWallet();
             AsyncTask.execute(() -> {
                 final List<Address> addresses = wallet.getIssuedReceiveAddresses();
@@ -93,29 +88,24 @@ public class WalletAddressesViewModel extends AndroidViewModel {
         }
     }
 
-    public static class ImportedAddressesLiveData extends AbstractWalletLiveData<List<Address>>
-            implements KeyChainEventListener {
+    public static class ImportedAddressesLiveData extends AbstractWalletLiveData<List<Address>> {
         public ImportedAddressesLiveData(final WalletApplication application) {
             super(application);
         }
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
-            wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
-            loadAddresses();
+            observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.KEYS));
+            load();
         }
 
         @Override
         protected void onWalletInactive(final Wallet wallet) {
-            wallet.removeKeyChainEventListener(this);
+            unobserveWalletChanges(wallet);
         }
 
         @Override
-        public void onKeysAdded(final List<ECKey> keys) {
-            loadAddresses();
-        }
-
-        private void loadAddresses() {
+        protected void load() {
             final Wallet wallet = getWallet();
             AsyncTask.execute(() -> {
                 final List<ECKey> importedKeys = wallet.getImportedKeys();
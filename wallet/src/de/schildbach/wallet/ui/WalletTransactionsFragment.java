@@ -34,6 +34,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.SearchView;
+import android.widget.SearchView.OnQueryTextListener;
 import android.widget.TextView;
 import android.widget.ViewAnimator;
 import androidx.core.graphics.Insets;
@@ -43,6 +45,7 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
@@ -50,6 +53,7 @@ import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookDao;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
+import de.schildbach.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
 import de.schildbach.wallet.ui.TransactionsAdapter.WarningType;
 import de.schildbach.wallet.ui.send.RaiseFeeDialogFragment;
 import de.schildbach.wallet.util.Qr;
@@ -139,7 +143,7 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
                 recyclerView.smoothScrollToPosition(position);
         });
         viewModel.list.observe(this, listItems -> {
-            adapter.submitList(listItems);
+            adapter.submitList(listItems, this::updateVisibleRange);
             activityViewModel.transactionsLoadingFinished();
         });
         viewModel.showBitmapDialog.observe(this, new Event.Observer<Bitmap>() {
@@ -162,13 +166,28 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
             }
         });
 
-        adapter = new TransactionsAdapter(activity, this, this);
+        adapter = new TransactionsAdapter(activity, viewModel.transactionItems, this, this);
 
         activity.addMenuProvider(new MenuProvider() {
             @Override
             public void onCreateMenu(final Menu menu, final MenuInflater inflater) {
                 inflater.inflate(R.menu.wallet_transactions_fragment_options, menu);
                 filterMenuItem = menu.findItem(R.id.wallet_transactions_options_filter);
+                final SearchView searchView = (SearchView) menu.findItem(R.id.wallet_transactions_options_search)
+                        .getActionView();
+                searchView.setOnQueryTextListener(new OnQueryTextListener() {
+                    @Override
+                    public boolean onQueryTextChange(final String newText) {
+                        viewModel.setSearchQuery(newText);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onQueryTextSubmit(final String query) {
+                        searchView.clearFocus();
+                        return true;
+                    }
+                });
             }
 
             @Override
@@ -220,6 +239,12 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
         recyclerView.setHasFixedSize(true);
         recyclerView.setLayoutManager(new StickToTopLinearLayoutManager(activity));
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+                updateVisibleRange();
+            }
+        });
         recyclerView.addItemDecoration(new RecyclerView.ItemDecoration() {
             private final int PADDING = 2
                     * activity.getResources().getDimensionPixelOffset(R.dimen.card_margin_vertical);
@@ -247,6 +272,14 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
         return view;
     }
 
+    private void updateVisibleRange() {
+        if (recyclerView == null)
+            return;
+        final LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        adapter.setVisibleRange(layoutManager.findFirstVisibleItemPosition(),
+                layoutManager.findLastVisibleItemPosition());
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -260,10 +293,10 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
 
     @Override
     public void onInflateTransactionContextMenu(final MenuInflater inflater, final Menu menu,
-                                                final Sha256Hash transactionId) {
+                                                final TransactionItem transactionItem) {
         final Wallet wallet = viewModel.wallet.getValue();
-        final Transaction tx = wallet.getTransaction(transactionId);
-        final boolean txSent = tx.getValue(wallet).signum() < 0;
+        final Transaction tx = transactionItem.tx;
+        final boolean txSent = transactionItem.value.signum() < 0;
         final Address txAddress = txSent ? WalletUtils.getToAddressOfSent(tx, wallet)
                 : WalletUtils.getWalletAddressOfReceived(tx, wallet);
         final byte[] txSerialized = tx.unsafeBitcoinSerialize();
@@ -294,12 +327,13 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
     }
 
     @Override
-    public boolean onClickTransactionContextMenuItem(final MenuItem item, final Sha256Hash transactionId) {
+    public boolean onClickTransactionContextMenuItem(final MenuItem item, final TransactionItem transactionItem) {
         final Wallet wallet = viewModel.wallet.getValue();
-        final Transaction tx = wallet.getTransaction(transactionId);
+        final Transaction tx = transactionItem.tx;
+        final Sha256Hash transactionId = transactionItem.transactionId;
         final int itemId = item.getItemId();
         if (itemId == R.id.wallet_transactions_context_edit_address) {
-            final boolean txSent = tx.getValue(wallet).signum() < 0;
+            final boolean txSent = transactionItem.value.signum() < 0;
             final Address txAddress = txSent ? WalletUtils.getToAddressOfSent(tx, wallet)
                     : WalletUtils.getWalletAddressOfReceived(tx, wallet);
             viewModel.showEditAddressBookEntryDialog.setValue(new Event<>(txAddress));
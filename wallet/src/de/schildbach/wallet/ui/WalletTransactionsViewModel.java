@@ -18,41 +18,53 @@
 package de.schildbach.wallet.ui;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.sqlite.db.SimpleSQLiteQuery;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.archive.ArchivedTransactionTime;
+import de.schildbach.wallet.archive.TransactionArchiveDatabase;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
 import de.schildbach.wallet.data.ConfigFormatLiveData;
+import de.schildbach.wallet.data.WalletEventDispatcher;
 import de.schildbach.wallet.data.WalletLiveData;
+import de.schildbach.wallet.txindex.TransactionIndexDatabase;
+import de.schildbach.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
+import de.schildbach.wallet.ui.TransactionsAdapter.ListItem.TransactionRow;
+import de.schildbach.wallet.util.ItemWindow;
+import de.schildbach.wallet.util.TransactionArchive;
+import de.schildbach.wallet.util.TransactionListIndex;
+import de.schildbach.wallet.util.TransactionSearch;
+import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.Transaction.Purpose;
-import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
-import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.bitcoinj.utils.MonetaryFormat;
-import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
-import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
-import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Andreas Schildbach
@@ -66,9 +78,34 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     public final TransactionsLiveData transactions;
     public final WalletLiveData wallet;
     private final TransactionsConfidenceLiveData transactionsConfidence;
+    private final LiveData<List<ArchivedTransactionTime>> archivedTransactions;
     private final LiveData<List<AddressBookEntry>> addressBook;
     private final ConfigFormatLiveData configFormat;
+    private final TransactionListIndex<TransactionRow> transactionListIndex =
+            new TransactionListIndex<>(Math.max(Constants.MAX_NUM_CONFIRMATIONS,
+                    Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()));
+    private final AtomicLong transactionRowVersion = new AtomicLong();
+    // what the rows in the transaction list index stand for, guarded by the index
+    private Wallet listWallet;
+    private List<ArchivedTransactionTime> listArchivedTransactionTimes;
+    private List<TransactionListIndex.Archived> listArchivedTransactions;
+    private List<AddressBookEntry> listAddressBook;
+    private Map<String, AddressBookEntry> listAddressBookMap;
+    private MonetaryFormat listFormat;
+    private int listMaxConnectedPeers;
+    private final ExecutorService transactionItemsExecutor = Executors.newSingleThreadExecutor(
+            new ContextPropagatingThreadFactory("transaction items"));
+    public final ItemWindow<TransactionRow, TransactionItem> transactionItems = new ItemWindow<>(
+            this::loadTransactionItem, TRANSACTION_ITEMS_CAPACITY, transactionItemsExecutor);
     public final MutableLiveData<Direction> direction = new MutableLiveData<>();
+    private volatile LiveData<List<String>> directionTransactionIds;
+    private volatile TransactionSearch.Query searchQuery;
+    private volatile LiveData<List<String>> searchTransactionIds;
+    // transactions in the direction and found by the search, guarded by the index
+    private List<String> listDirectionTransactionIds;
+    private Set<Sha256Hash> listDirectionTransactionIdsSet;
+    private List<String> listSearchTransactionIds;
+    private Set<Sha256Hash> listSearchTransactionIdsSet;
     public final MutableLiveData<Sha256Hash> selectedTransaction = new MutableLiveData<>();
     public final MutableLiveData<TransactionsAdapter.WarningType> warning = new MutableLiveData<>();
     public final MediatorLiveData<List<TransactionsAdapter.ListItem>> list = new MediatorLiveData<>();
@@ -76,26 +113,111 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     public final MutableLiveData<Event<Address>> showEditAddressBookEntryDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<Sha256Hash>> showReportIssueDialog = new MutableLiveData<>();
 
+    private static final int TRANSACTION_ITEMS_CAPACITY = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletTransactionsViewModel.class);
+
     public WalletTransactionsViewModel(final Application application) {
         super(application);
         this.application = (WalletApplication) application;
         this.transactions = new TransactionsLiveData(this.application);
         this.wallet = new WalletLiveData(this.application);
         this.transactionsConfidence = new TransactionsConfidenceLiveData(this.application);
+        this.archivedTransactions = TransactionArchiveDatabase.getDatabase(this.application).transactionArchiveDao()
+                .getTimes();
         this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
         this.configFormat = new ConfigFormatLiveData(this.application);
         this.list.addSource(transactions, transactions -> maybePostList());
         this.list.addSource(wallet, wallet -> maybePostList());
         this.list.addSource(transactionsConfidence, v -> maybePostList());
-        this.list.addSource(addressBook, addressBook -> maybePostList());
+        this.list.addSource(archivedTransactions, archivedTransactions -> maybePostList());
+        this.list.addSource(addressBook, addressBook -> {
+            if (searchQuery != null)
+                querySearch(); // for the labels
+            maybePostList();
+        });
         this.list.addSource(direction, direction -> maybePostList());
         this.list.addSource(configFormat, format -> maybePostList());
+        this.application.registerComponentCallbacks(componentCallbacks);
     }
 
+    @Override
+    protected void onCleared() {
+        application.unregisterComponentCallbacks(componentCallbacks);
+        transactionItemsExecutor.shutdownNow();
+        super.onCleared();
+    }
+
+    private final ComponentCallbacks2 componentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(final int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                log.info("trimming {} transaction items, level {}", transactionItems.size(), level);
+                transactionItems.trim();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+            // nothing to do
+        }
+
+        @Override
+        public void onLowMemory() {
+            transactionItems.trim();
+        }
+    };
+
+    /**
+     * Narrows the list down to transactions in the given direction. Transactions in the wallet are filtered right
+     * away, archived ones by the transaction index.
+     *
+     * @param direction or {@code null} for all transactions
+     */
     public void setDirection(final Direction direction) {
+        if (directionTransactionIds != null)
+            list.removeSource(directionTransactionIds);
+        directionTransactionIds = direction != null ? TransactionIndexDatabase.getDatabase(application)
+                .transactionIndexDao().getIdsByDirection(direction.name()) : null;
+        if (directionTransactionIds != null)
+            list.addSource(directionTransactionIds, ids -> maybePostList());
         this.direction.setValue(direction);
     }
 
+    /**
+     * Narrows the list down to transactions matching the given search query, by ID, address, label, memo or amount.
+     * Transactions in the wallet are matched right away, archived ones by the transaction index.
+     *
+     * @param query what the user typed, or {@code null} for no search
+     */
+    public void setSearchQuery(final String query) {
+        searchQuery = query != null ? TransactionSearch.Query.parse(query) : null;
+        querySearch();
+        maybePostList();
+    }
+
+    private void querySearch() {
+        if (searchTransactionIds != null)
+            list.removeSource(searchTransactionIds);
+        final TransactionSearch.Query searchQuery = this.searchQuery;
+        if (searchQuery != null) {
+            // labels aren't indexed, they are looked up in the address book as it is now
+            final Map<String, String> labels = new HashMap<>();
+            final List<AddressBookEntry> addressBookEntries = addressBook.getValue();
+            if (addressBookEntries != null)
+                for (final AddressBookEntry entry : addressBookEntries)
+                    if (entry.getLabel() != null)
+                        labels.put(entry.getAddress(), entry.getLabel());
+            final List<Object> args = new ArrayList<>();
+            final String sql = TransactionSearch.sql(searchQuery, labels, args);
+            searchTransactionIds = TransactionIndexDatabase.getDatabase(application).transactionIndexDao()
+                    .search(new SimpleSQLiteQuery(sql, args.toArray()));
+            list.addSource(searchTransactionIds, ids -> maybePostList());
+        } else {
+            searchTransactionIds = null;
+        }
+    }
+
     public void setWarning(final TransactionsAdapter.WarningType warning) {
         this.warning.setValue(warning);
     }
@@ -103,45 +225,162 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     private void maybePostList() {
         AsyncTask.execute(() -> {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-            final Set<Transaction> transactions = WalletTransactionsViewModel.this.transactions.getValue();
+            final Set<Transaction> liveTransactions = WalletTransactionsViewModel.this.transactions.getValue();
+            final List<ArchivedTransactionTime> archivedTransactions =
+                    WalletTransactionsViewModel.this.archivedTransactions.getValue();
             final MonetaryFormat format = configFormat.getValue();
-            final Map<String, AddressBookEntry> addressBook = AddressBookEntry
-                    .asMap(WalletTransactionsViewModel.this.addressBook.getValue());
-            if (transactions != null && format != null && addressBook != null) {
-                final List<Transaction> filteredTransactions = new ArrayList<>(transactions.size());
+            final List<AddressBookEntry> addressBookEntries = WalletTransactionsViewModel.this.addressBook.getValue();
+            if (liveTransactions != null && archivedTransactions != null && format != null
+                    && addressBookEntries != null) {
                 final Wallet wallet = application.getWallet();
+                final TransactionArchive transactionArchive = application.getTransactionArchive();
+                final int maxConnectedPeers = application.maxConnectedPeers();
                 final Direction direction = WalletTransactionsViewModel.this.direction.getValue();
-                for (final Transaction tx : transactions) {
-                    final boolean sent = tx.getValue(wallet).signum() < 0;
-                    final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
-                    if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-                            || (direction == Direction.SENT && sent && !isInternal))
-                        filteredTransactions.add(tx);
-                }
+                final LiveData<List<String>> directionTransactionIds =
+                        WalletTransactionsViewModel.this.directionTransactionIds;
+                final List<String> directionTxIds = directionTransactionIds != null
+                        ? directionTransactionIds.getValue() : null;
+                final TransactionSearch.Query searchQuery = WalletTransactionsViewModel.this.searchQuery;
+                final LiveData<List<String>> searchTransactionIds =
+                        WalletTransactionsViewModel.this.searchTransactionIds;
+                final List<String> searchTxIds = searchTransactionIds != null ? searchTransactionIds.getValue()
+                        : null;
 
-                Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+                final TransactionListIndex.ItemFactory<TransactionRow> rowFactory =
+                        new TransactionListIndex.ItemFactory<TransactionRow>() {
+                            @Override
+                            public Coin value(final Transaction tx) {
+                                return transactionArchive.getValue(tx, wallet);
+                            }
 
-                list.postValue(TransactionsAdapter.buildListItems(application, filteredTransactions,
-                        warning.getValue(), wallet, addressBook, format, application.maxConnectedPeers()));
+                            @Override
+                            public TransactionRow item(final Transaction tx, final Coin value) {
+                                return new TransactionRow(tx.getTxId(), transactionRowVersion.incrementAndGet());
+                            }
+
+                            @Override
+                            public TransactionRow archivedItem(final Sha256Hash txId) {
+                                return new TransactionRow(txId, transactionRowVersion.incrementAndGet());
+                            }
+                        };
+                final List<TransactionRow> transactionRows;
+                synchronized (transactionListIndex) {
+                    if (directionTxIds != listDirectionTransactionIds) {
+                        listDirectionTransactionIdsSet = asTxIdSet(directionTxIds);
+                        listDirectionTransactionIds = directionTxIds;
+                    }
+                    if (searchTxIds != listSearchTransactionIds) {
+                        listSearchTransactionIdsSet = asTxIdSet(searchTxIds);
+                        listSearchTransactionIds = searchTxIds;
+                    }
+                    final Set<Sha256Hash> directionTxIdsSet = listDirectionTransactionIdsSet;
+                    final Set<Sha256Hash> searchTxIdsSet = listSearchTransactionIdsSet;
+                    final TransactionListIndex.Filter filter = new TransactionListIndex.Filter() {
+                        @Override
+                        public boolean include(final Transaction tx, final Coin value) {
+                            // transactions in the wallet don't need to wait for the index to be up to date
+                            if (direction != null) {
+                                final boolean sent = value.signum() < 0;
+                                final boolean isInternal = tx.getPurpose() == Transaction.Purpose.KEY_ROTATION;
+                                if (isInternal || sent != (direction == Direction.SENT))
+                                    return false;
+                            }
+                            return searchQuery == null
+                                    || searchQuery.matches(searchText(tx, value, wallet, listAddressBookMap));
+                        }
+
+                        @Override
+                        public boolean includeArchived(final Sha256Hash txId) {
+                            // archived transactions are left out until the index has been queried
+                            return (direction == null
+                                    || (directionTxIdsSet != null && directionTxIdsSet.contains(txId)))
+                                    && (searchQuery == null
+                                    || (searchTxIdsSet != null && searchTxIdsSet.contains(txId)));
+                        }
+                    };
+                    if (archivedTransactions != listArchivedTransactionTimes) {
+                        listArchivedTransactions = new ArrayList<>(archivedTransactions.size());
+                        for (final ArchivedTransactionTime archivedTx : archivedTransactions)
+                            listArchivedTransactions.add(new TransactionListIndex.Archived(archivedTx.txId(),
+                                    archivedTx.time));
+                        listArchivedTransactionTimes = archivedTransactions;
+                    }
+                    if (wallet != listWallet) {
+                        transactionListIndex.clear();
+                        listWallet = wallet;
+                    } else if (addressBookEntries != listAddressBook || !format.equals(listFormat)
+                            || maxConnectedPeers != listMaxConnectedPeers) {
+                        transactionListIndex.invalidateItems();
+                    }
+                    if (addressBookEntries != listAddressBook)
+                        listAddressBookMap = AddressBookEntry.asMap(addressBookEntries);
+                    listAddressBook = addressBookEntries;
+                    listFormat = format;
+                    listMaxConnectedPeers = maxConnectedPeers;
+                    transactionRows = transactionListIndex.update(liveTransactions, listArchivedTransactions,
+                            rowFactory, filter, System.currentTimeMillis());
+                    log.debug("rebuilt {} of {} transaction rows", transactionListIndex.lastRebuilt(),
+                            transactionListIndex.size());
+                }
+
+                list.postValue(TransactionsAdapter.buildListItems(transactionRows, warning.getValue()));
             }
         });
     }
 
-    private static final Comparator<Transaction> TRANSACTION_COMPARATOR = (tx1, tx2) -> {
-        final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-        final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-        if (pending1 != pending2)
-            return pending1 ? -1 : 1;
+    private static String searchText(final Transaction tx, final Coin value, final Wallet wallet,
+            final Map<String, AddressBookEntry> addressBook) {
+        final Address address = value.signum() < 0 ? WalletUtils.getToAddressOfSent(tx, wallet)
+                : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+        final AddressBookEntry entry = address != null ? addressBook.get(address.toString()) : null;
+        return TransactionSearch.text(tx.getTxId(), address != null ? address.toString() : null,
+                entry != null ? entry.getLabel() : null, tx.getMemo(), value);
+    }
+
+    private static Set<Sha256Hash> asTxIdSet(final List<String> txIds) {
+        if (txIds == null)
+            return null;
+        final Set<Sha256Hash> set = new HashSet<>(txIds.size());
+        for (final String txId : txIds)
+            set.add(Sha256Hash.wrap(txId));
+        return set;
+    }
 
-        final Date updateTime1 = tx1.getUpdateTime();
-        final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-        final Date updateTime2 = tx2.getUpdateTime();
-        final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-        if (time1 != time2)
-            return time1 > time2 ? -1 : 1;
+    /**
+     * Materializes a row of the list, from what the rows currently stand for.
+     */
+    private TransactionItem loadTransactionItem(final TransactionRow row) {
+        org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+        final Transaction tx;
+        final Coin value;
+        final Wallet wallet;
+        final Map<String, AddressBookEntry> addressBook;
+        final MonetaryFormat format;
+        final int maxConnectedPeers;
+        final boolean archived;
+        synchronized (transactionListIndex) {
+            tx = transactionListIndex.getTransaction(row.transactionId);
+            value = transactionListIndex.getValue(row.transactionId);
+            archived = transactionListIndex.isArchived(row.transactionId);
+            wallet = listWallet;
+            addressBook = listAddressBookMap;
+            format = listFormat;
+            maxConnectedPeers = listMaxConnectedPeers;
+        }
+        if (tx != null)
+            return new TransactionItem(application, tx, value, wallet, addressBook, format.noCode(),
+                    maxConnectedPeers);
+        if (!archived)
+            return null;
 
-        return tx1.getTxId().compareTo(tx2.getTxId());
-    };
+        // archived transactions are only read once they're about to be shown
+        final Transaction archivedTx = application.findArchivedTransaction(row.transactionId);
+        if (archivedTx == null)
+            return null;
+        final Coin archivedValue = application.getArchivedTransactionValue(archivedTx, wallet);
+        return new TransactionItem(application, archivedTx, archivedValue, wallet, addressBook, format.noCode(),
+                maxConnectedPeers);
+    }
 
     public static class TransactionsLiveData extends AbstractWalletLiveData<Set<Transaction>> {
         private static final long THROTTLE_MS = 1000;
@@ -152,27 +391,13 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
-            addWalletListener(wallet);
+            observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.TRANSACTIONS));
             load();
         }
 
         @Override
         protected void onWalletInactive(final Wallet wallet) {
-            removeWalletListener(wallet);
-        }
-
-        private void addWalletListener(final Wallet wallet) {
-            wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
-            wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
-        }
-
-        private void removeWalletListener(final Wallet wallet) {
-            wallet.removeChangeEventListener(walletListener);
-            wallet.removeReorganizeEventListener(walletListener);
-            wallet.removeCoinsSentEventListener(walletListener);
-            wallet.removeCoinsReceivedEventListener(walletListener);
+            unobserveWalletChanges(wallet);
         }
 
         @Override
@@ -183,54 +408,21 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
                 postValue(wallet.getTransactions(true));
             });
         }
-
-        private final WalletListener walletListener = new WalletListener();
-
-        private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
-                WalletReorganizeEventListener, WalletChangeEventListener {
-            @Override
-            public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                    final Coin newBalance) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                    final Coin newBalance) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onReorganize(final Wallet wallet) {
-                triggerLoad();
-            }
-
-            @Override
-            public void onWalletChanged(final Wallet wallet) {
-                triggerLoad();
-            }
-        }
     }
 
-    private static class TransactionsConfidenceLiveData extends AbstractWalletLiveData<Void>
-            implements TransactionConfidenceEventListener {
+    private static class TransactionsConfidenceLiveData extends AbstractWalletLiveData<Void> {
         public TransactionsConfidenceLiveData(final WalletApplication application) {
             super(application);
         }
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
-            wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+            observeWalletChanges(wallet, EnumSet.of(WalletEventDispatcher.Change.CONFIDENCE));
         }
 
         @Override
         protected void onWalletInactive(final Wallet wallet) {
-            wallet.removeTransactionConfidenceEventListener(this);
-        }
-
-        @Override
-        public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
-            triggerLoad();
+            unobserveWalletChanges(wallet);
         }
 
         @Override
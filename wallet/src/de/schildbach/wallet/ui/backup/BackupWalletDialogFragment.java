@@ -40,7 +40,12 @@ import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
-import com.google.common.io.CharStreams;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
@@ -57,17 +62,11 @@ import org.bitcoinj.wallet.WalletProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
 import java.text.DateFormat;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -114,40 +113,33 @@ public class BackupWalletDialogFragment extends DialogFragment {
                                     wipePasswords();
                                     dismiss();
 
-                                    byte[] plainBytes = null;
-                                    try (final Writer cipherOut = new OutputStreamWriter(
-                                            activity.getContentResolver().openOutputStream(uri),
-                                            StandardCharsets.UTF_8)) {
+                                    HashCode plainHash = null;
+                                    try (final CountingOutputStream cipherOut = new CountingOutputStream(
+                                            activity.getContentResolver().openOutputStream(uri))) {
                                         final Protos.Wallet walletProto =
                                                 new WalletProtobufSerializer().walletToProto(wallet);
-                                        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                        walletProto.writeTo(baos);
-                                        baos.close();
-                                        plainBytes = baos.toByteArray();
+                                        final HashingInputStream plainIn = new HashingInputStream(Hashing.sha256(),
+                                                walletProto.toByteString().newInput());
 
-                                        final String cipherText = Crypto.encrypt(plainBytes, password.toCharArray());
-                                        cipherOut.write(cipherText);
+                                        Crypto.encrypt(plainIn, cipherOut, password.toCharArray());
                                         cipherOut.flush();
+                                        plainHash = plainIn.hash();
 
                                         log.info("backed up wallet to: '{}'{}, {} characters written", uri,
                                                 targetProvider != null ? " (" + targetProvider + ")" : "",
-                                                cipherText.length());
+                                                cipherOut.getCount());
                                     } catch (final IOException x) {
                                         log.error("problem backing up wallet to " + uri, x);
                                         ErrorDialogFragment.showDialog(getParentFragmentManager(), x.toString());
                                         return;
                                     }
 
-                                    try (final Reader cipherIn = new InputStreamReader(
-                                            activity.getContentResolver().openInputStream(uri),
-                                            StandardCharsets.UTF_8)) {
-                                        final StringBuilder cipherText = new StringBuilder();
-                                        CharStreams.copy(cipherIn, cipherText);
-                                        cipherIn.close();
-
-                                        final byte[] plainBytes2 = Crypto.decryptBytes(cipherText.toString(),
-                                                password.toCharArray());
-                                        if (!Arrays.equals(plainBytes, plainBytes2))
+                                    try (final InputStream cipherIn =
+                                            activity.getContentResolver().openInputStream(uri)) {
+                                        final HashingOutputStream plainOut = new HashingOutputStream(Hashing.sha256(),
+                                                ByteStreams.nullOutputStream());
+                                        Crypto.decrypt(cipherIn, plainOut, password.toCharArray());
+                                        if (!plainHash.equals(plainOut.hash()))
                                             throw new IOException("verification failed");
 
                                         log.info("verified successfully: '" + uri + "'");
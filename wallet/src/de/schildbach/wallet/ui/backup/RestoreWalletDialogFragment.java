@@ -37,7 +37,6 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
-import com.google.common.io.CharStreams;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
@@ -54,12 +53,10 @@ import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -233,13 +230,11 @@ public class RestoreWalletDialogFragment extends DialogFragment {
     }
 
     private Wallet restoreWalletFromEncrypted(final InputStream cipher, final String password) throws IOException {
-        final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(cipher, StandardCharsets.UTF_8));
-        final StringBuilder cipherText = new StringBuilder();
-        CharStreams.copy(cipherIn, cipherText);
-        cipherIn.close();
-
-        final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-        final InputStream is = new ByteArrayInputStream(plainText);
+        final ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        try (final InputStream cipherIn = cipher) {
+            Crypto.decrypt(cipherIn, plainOut, password.toCharArray());
+        }
+        final InputStream is = new ByteArrayInputStream(plainOut.toByteArray());
 
         return WalletUtils.restoreWalletFromProtobuf(is, Constants.NETWORK_PARAMETERS);
     }
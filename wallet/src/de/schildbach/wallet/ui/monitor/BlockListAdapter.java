@@ -40,37 +40,41 @@ import com.google.common.hash.Hashing;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.txindex.BlockTransaction;
+import de.schildbach.wallet.txindex.IndexedTransactionEntry;
 import de.schildbach.wallet.ui.CurrencyTextView;
 import de.schildbach.wallet.ui.SeparatorViewHolder;
+import de.schildbach.wallet.util.TransactionIndex;
 import de.schildbach.wallet.util.WalletUtils;
-import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.Transaction.Purpose;
 import org.bitcoinj.params.AbstractBitcoinNetParams;
 import org.bitcoinj.utils.MonetaryFormat;
-import org.bitcoinj.wallet.Wallet;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * @author Andreas Schildbach
  */
 public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, RecyclerView.ViewHolder> {
     public static List<ListItem> buildListItems(final Context context, final List<StoredBlock> blocks, final Date currentTime,
-            final MonetaryFormat format, final @Nullable Set<Transaction> transactions, final @Nullable Wallet wallet,
+            final MonetaryFormat format, final @Nullable List<BlockTransaction> transactions,
             final @Nullable Map<String, AddressBookEntry> addressBook) {
+        final Map<String, List<IndexedTransactionEntry>> transactionsByBlock = new HashMap<>();
+        if (transactions != null)
+            for (final BlockTransaction transaction : transactions)
+                transactionsByBlock.computeIfAbsent(transaction.blockHash, k -> new LinkedList<>())
+                        .add(transaction.transaction);
         final List<ListItem> items = new ArrayList<>(blocks.size());
         for (final StoredBlock block : blocks) {
             final Sha256Hash blockHash = block.getHeader().getHash();
@@ -82,8 +86,8 @@ public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, Rec
                         DateUtils.WEEK_IN_MILLIS, 0).toString();
             else
                 time = context.getString(R.string.block_row_now);
-            final List<ListItem.TxItem> transactionItems = buildTransactionItems(context, blockHash, transactions,
-                    wallet, addressBook);
+            final List<ListItem.TxItem> transactionItems = buildTransactionItems(context,
+                    transactionsByBlock.get(blockHash.toString()), addressBook);
             if (((AbstractBitcoinNetParams) Constants.NETWORK_PARAMETERS).isRewardHalvingPoint(height))
                 items.add(new ListItem.SeparatorItem(context.getString(R.string.block_row_mining_reward_adjustment)));
             if (((AbstractBitcoinNetParams) Constants.NETWORK_PARAMETERS).isDifficultyTransitionPoint(height))
@@ -93,55 +97,46 @@ public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, Rec
         return items;
     }
 
-    private static List<ListItem.TxItem> buildTransactionItems(final Context context, final Sha256Hash blockHash,
-                                                               final @Nullable Set<Transaction> transactions,
-                                                               final @Nullable Wallet wallet,
+    private static List<ListItem.TxItem> buildTransactionItems(final Context context,
+                                                               final @Nullable List<IndexedTransactionEntry> transactions,
                                                                final @Nullable Map<String, AddressBookEntry> addressBook) {
         final List<ListItem.TxItem> transactionItems = new LinkedList<>();
-        if (transactions != null && wallet != null) {
-            for (final Transaction tx : transactions) {
-                final Map<Sha256Hash, Integer> appearsInHashes = tx.getAppearsInHashes();
-                if (appearsInHashes != null && appearsInHashes.containsKey(blockHash)) {
-                    final boolean isCoinBase = tx.isCoinBase();
-                    final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
-
-                    final Coin value = tx.getValue(wallet);
-                    final boolean sent = value.signum() < 0;
-                    final boolean self = WalletUtils.isEntirelySelf(tx, wallet);
-                    final Address address;
-                    if (sent)
-                        address = WalletUtils.getToAddressOfSent(tx, wallet);
-                    else
-                        address = WalletUtils.getWalletAddressOfReceived(tx, wallet);
-
-                    final CharSequence fromTo;
-                    if (isInternal || self)
-                        fromTo = context.getString(R.string.symbol_internal);
-                    else if (sent)
-                        fromTo = context.getString(R.string.symbol_to);
+        if (transactions != null) {
+            for (final IndexedTransactionEntry tx : transactions) {
+                final boolean isCoinBase = tx.isCoinbase();
+                final boolean isInternal = tx.direction() == TransactionIndex.Direction.INTERNAL || tx.isSelf();
+
+                final Coin value = tx.value();
+                final boolean sent = value.signum() < 0;
+                final String address = tx.getAddress();
+
+                final CharSequence fromTo;
+                if (isInternal)
+                    fromTo = context.getString(R.string.symbol_internal);
+                else if (sent)
+                    fromTo = context.getString(R.string.symbol_to);
+                else
+                    fromTo = context.getString(R.string.symbol_from);
+
+                final CharSequence label;
+                if (isCoinBase) {
+                    label = context.getString(R.string.wallet_transactions_fragment_coinbase);
+                } else if (isInternal) {
+                    label = context.getString(R.string.wallet_transactions_fragment_internal);
+                } else if (address != null && addressBook != null) {
+                    final AddressBookEntry entry = addressBook.get(address);
+                    if (entry != null)
+                        label = entry.getLabel();
                     else
-                        fromTo = context.getString(R.string.symbol_from);
-
-                    final CharSequence label;
-                    if (isCoinBase) {
-                        label = context.getString(R.string.wallet_transactions_fragment_coinbase);
-                    } else if (isInternal || self) {
-                        label = context.getString(R.string.wallet_transactions_fragment_internal);
-                    } else if (address != null && addressBook != null) {
-                        final AddressBookEntry entry = addressBook.get(address.toString());
-                        if (entry != null)
-                            label = entry.getLabel();
-                        else
-                            label = "?";
-                    } else {
                         label = "?";
-                    }
+                } else {
+                    label = "?";
+                }
 
-                    final CharSequence addressText = label != null ? label : address.toString();
-                    final Typeface addressTypeface = label != null ? Typeface.DEFAULT : Typeface.MONOSPACE;
+                final CharSequence addressText = label != null ? label : address;
+                final Typeface addressTypeface = label != null ? Typeface.DEFAULT : Typeface.MONOSPACE;
 
-                    transactionItems.add(new ListItem.TxItem(fromTo, addressText, addressTypeface, label, value));
-                }
+                transactionItems.add(new ListItem.TxItem(fromTo, addressText, addressTypeface, label, value));
             }
         }
         return transactionItems;
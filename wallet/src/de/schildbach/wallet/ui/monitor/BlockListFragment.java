@@ -39,11 +39,9 @@ import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.ui.AbstractWalletActivity;
-import de.schildbach.wallet.ui.AbstractWalletActivityViewModel;
 import de.schildbach.wallet.ui.StickToTopLinearLayoutManager;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
-import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,7 +61,6 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
     private RecyclerView recyclerView;
     private BlockListAdapter adapter;
 
-    private AbstractWalletActivityViewModel walletActivityViewModel;
     private NetworkMonitorViewModel activityViewModel;
     private BlockListViewModel viewModel;
 
@@ -80,8 +77,6 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
     @Override
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        walletActivityViewModel = new ViewModelProvider(activity).get(AbstractWalletActivityViewModel.class);
-        walletActivityViewModel.wallet.observe(this, wallet -> maybeSubmitList());
         activityViewModel = new ViewModelProvider(activity).get(NetworkMonitorViewModel.class);
         activityViewModel.selectedItem.observe(this, item -> {
             if (item instanceof Sha256Hash) {
@@ -98,9 +93,8 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         viewModel.blocks.observe(this, blocks -> {
             maybeSubmitList();
             viewGroup.setDisplayedChild(1);
-            viewModel.getTransactions().loadTransactions();
         });
-        viewModel.getTransactions().observe(this, transactions -> maybeSubmitList());
+        viewModel.transactions.observe(this, transactions -> maybeSubmitList());
         viewModel.getTime().observe(this, time -> maybeSubmitList());
 
         adapter = new BlockListAdapter(activity, this, this);
@@ -125,11 +119,10 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 
     private void maybeSubmitList() {
         final List<StoredBlock> blocks = viewModel.blocks.getValue();
-        final Wallet wallet = walletActivityViewModel.wallet.getValue();
         if (blocks != null) {
             final Map<String, AddressBookEntry> addressBook = AddressBookEntry.asMap(viewModel.addressBook.getValue());
             adapter.submitList(BlockListAdapter.buildListItems(activity, blocks, viewModel.getTime().getValue(),
-                    config.getFormat(), viewModel.getTransactions().getValue(), wallet, addressBook));
+                    config.getFormat(), viewModel.transactions.getValue(), addressBook));
         }
     }
 
@@ -18,26 +18,21 @@
 package de.schildbach.wallet.ui.monitor;
 
 import android.app.Application;
-import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
-import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
-import de.schildbach.wallet.data.AbstractWalletLiveData;
 import de.schildbach.wallet.data.BlockchainServiceLiveData;
 import de.schildbach.wallet.data.TimeLiveData;
 import de.schildbach.wallet.service.BlockchainService;
-import org.bitcoinj.core.Sha256Hash;
+import de.schildbach.wallet.txindex.BlockTransaction;
+import de.schildbach.wallet.txindex.TransactionIndexDatabase;
 import org.bitcoinj.core.StoredBlock;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.wallet.Wallet;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -47,7 +42,9 @@ public class BlockListViewModel extends AndroidViewModel {
     private final WalletApplication application;
     private final BlockchainServiceLiveData blockchainService;
     public final MediatorLiveData<List<StoredBlock>> blocks;
-    private TransactionsLiveData transactions;
+    public final MediatorLiveData<List<BlockTransaction>> transactions;
+    private LiveData<List<BlockTransaction>> blockTransactions;
+    private Set<String> blockTransactionsHashes;
     public final LiveData<List<AddressBookEntry>> addressBook;
     private TimeLiveData time;
 
@@ -60,19 +57,34 @@ public class BlockListViewModel extends AndroidViewModel {
         this.blocks = new MediatorLiveData<>();
         this.blocks.addSource(blockchainService, blockchainService -> maybeRefreshBlocks());
         this.blocks.addSource(this.application.blockchainState, blockchainState -> maybeRefreshBlocks());
+        this.transactions = new MediatorLiveData<>();
         this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
     }
 
     private void maybeRefreshBlocks() {
         final BlockchainService blockchainService = this.blockchainService.getValue();
-        if (blockchainService != null)
-            this.blocks.setValue(blockchainService.getRecentBlocks(MAX_BLOCKS));
+        if (blockchainService != null) {
+            final List<StoredBlock> blocks = blockchainService.getRecentBlocks(MAX_BLOCKS);
+            this.blocks.setValue(blocks);
+            maybeQueryTransactions(blocks);
+        }
     }
 
-    public TransactionsLiveData getTransactions() {
-        if (transactions == null)
-            transactions = new TransactionsLiveData(application);
-        return transactions;
+    /**
+     * Queries the transactions in the given blocks from the transaction index, which keeps them up to date.
+     */
+    private void maybeQueryTransactions(final List<StoredBlock> blocks) {
+        final Set<String> blockHashes = new HashSet<>(blocks.size());
+        for (final StoredBlock block : blocks)
+            blockHashes.add(block.getHeader().getHash().toString());
+        if (blockHashes.equals(blockTransactionsHashes))
+            return;
+        if (blockTransactions != null)
+            transactions.removeSource(blockTransactions);
+        blockTransactionsHashes = blockHashes;
+        blockTransactions = TransactionIndexDatabase.getDatabase(application).transactionIndexDao()
+                .getInBlocks(blockHashes);
+        transactions.addSource(blockTransactions, transactions::setValue);
     }
 
     public TimeLiveData getTime() {
@@ -80,32 +92,4 @@ public class BlockListViewModel extends AndroidViewModel {
             time = new TimeLiveData(application);
         return time;
     }
-
-    public static class TransactionsLiveData extends AbstractWalletLiveData<Set<Transaction>> {
-        private TransactionsLiveData(final WalletApplication application) {
-            super(application);
-        }
-
-        @Override
-        protected void onWalletActive(final Wallet wallet) {
-            loadTransactions();
-        }
-
-        public void loadTransactions() {
-            final Wallet wallet = getWallet();
-            if (wallet == null)
-                return;
-            AsyncTask.execute(() -> {
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-                final Set<Transaction> transactions = wallet.getTransactions(false);
-                final Set<Transaction> filteredTransactions = new HashSet<>(transactions.size());
-                for (final Transaction tx : transactions) {
-                    final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-                    if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-                        filteredTransactions.add(tx);
-                }
-                postValue(filteredTransactions);
-            });
-        }
-    }
 }
@@ -19,6 +19,7 @@ package de.schildbach.wallet.ui.monitor;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,11 +37,15 @@ import com.google.common.hash.Hashing;
 import com.google.common.net.HostAndPort;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
+import de.schildbach.wallet.util.BloomFilterTuner;
+import de.schildbach.wallet.util.PeerScores;
+import de.schildbach.wallet.util.SyncMetrics;
 import org.bitcoinj.core.Peer;
 import org.bitcoinj.core.PeerAddress;
 import org.bitcoinj.core.VersionMessage;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -55,7 +60,9 @@ import java.util.Set;
  */
 public class PeerListAdapter extends ListAdapter<PeerListAdapter.ListItem, PeerListAdapter.ViewHolder> {
     public static List<ListItem> buildListItems(final Context context, final List<Peer> peers,
-            final Map<InetAddress, String> hostnames) {
+            final Map<InetAddress, String> hostnames, @Nullable final SyncMetrics.Snapshot syncMetrics,
+            @Nullable final Map<InetSocketAddress, PeerScores.Score> peerScores,
+            @Nullable final BloomFilterTuner.Snapshot bloomFilterTuning) {
         final List<ListItem> items = new ArrayList<>(peers.size());
         final Set<Long> itemIds = new HashSet<>(peers.size());
         for (final Peer peer : peers) {
@@ -77,8 +84,23 @@ public class PeerListAdapter extends ListAdapter<PeerListAdapter.ListItem, PeerL
             final String protocol = "protocol: " + versionMessage.clientVersion;
             final String services = VersionMessage.toStringServices(versionMessage.localServices).toLowerCase(Locale.US);
             final long pingTime = peer.getPingTime();
-            final String ping = pingTime < Long.MAX_VALUE ?
-                    context.getString(R.string.peer_list_row_ping_time, pingTime) : null;
+            final InetSocketAddress socketAddress = peerAddress.toSocketAddress();
+            final SyncMetrics.PeerSnapshot peerMetrics = syncMetrics != null ? syncMetrics.peers.get(socketAddress) :
+                    null;
+            final PeerScores.Score peerScore = peerScores != null ? peerScores.get(socketAddress) : null;
+            final List<String> pingParts = new ArrayList<>(4);
+            if (pingTime < Long.MAX_VALUE)
+                pingParts.add(context.getString(R.string.peer_list_row_ping_time, pingTime));
+            if (peerMetrics != null && peerMetrics.bytesPerSecond > 0)
+                pingParts.add(context.getString(R.string.peer_list_row_throughput,
+                        Formatter.formatShortFileSize(context, (long) peerMetrics.bytesPerSecond)));
+            if (peerScore != null)
+                pingParts.add(context.getString(R.string.peer_list_row_score, peerScore.score));
+            // the filter is the same for all peers, but it matters most for the one we download from
+            if (bloomFilterTuning != null && bloomFilterTuning.blocks > 0 && peer.isDownloadData())
+                pingParts.add(context.getString(R.string.peer_list_row_bloom_filter, bloomFilterTuning.fpRate * 100,
+                        bloomFilterTuning.observedFpRate * 100));
+            final String ping = !pingParts.isEmpty() ? String.join("  ", pingParts) : null;
             final Drawable icon;
             if (peer.isDownloadData()) {
                 icon = context.getDrawable(R.drawable.ic_sync_white_24dp);
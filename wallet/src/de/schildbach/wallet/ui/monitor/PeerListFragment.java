@@ -80,6 +80,9 @@ public final class PeerListFragment extends Fragment implements PeerListAdapter.
                     viewModel.getHostnames().reverseLookup(peer.getAddress().getAddr());
         });
         viewModel.getHostnames().observe(this, hostnames -> maybeSubmitList());
+        viewModel.syncMetrics.observe(this, syncMetrics -> maybeSubmitList());
+        viewModel.peerScores.observe(this, peerScores -> maybeSubmitList());
+        viewModel.bloomFilterTuning.observe(this, bloomFilterTuning -> maybeSubmitList());
 
         adapter = new PeerListAdapter(activity, this);
     }
@@ -104,7 +107,9 @@ public final class PeerListFragment extends Fragment implements PeerListAdapter.
     private void maybeSubmitList() {
         final List<Peer> peers = viewModel.peers.getValue();
         if (peers != null)
-            adapter.submitList(PeerListAdapter.buildListItems(activity, peers, viewModel.getHostnames().getValue()));
+            adapter.submitList(PeerListAdapter.buildListItems(activity, peers, viewModel.getHostnames().getValue(),
+                    viewModel.syncMetrics.getValue(), viewModel.peerScores.getValue(),
+                    viewModel.bloomFilterTuning.getValue()));
     }
 
     @Override
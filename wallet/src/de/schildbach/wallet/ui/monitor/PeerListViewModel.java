@@ -26,9 +26,13 @@ import androidx.lifecycle.MediatorLiveData;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.BlockchainServiceLiveData;
 import de.schildbach.wallet.service.BlockchainService;
+import de.schildbach.wallet.util.BloomFilterTuner;
+import de.schildbach.wallet.util.PeerScores;
+import de.schildbach.wallet.util.SyncMetrics;
 import org.bitcoinj.core.Peer;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +44,9 @@ public class PeerListViewModel extends AndroidViewModel {
     private final WalletApplication application;
     private final BlockchainServiceLiveData blockchainService;
     public final MediatorLiveData<List<Peer>> peers;
+    public final LiveData<SyncMetrics.Snapshot> syncMetrics;
+    public final LiveData<Map<InetSocketAddress, PeerScores.Score>> peerScores;
+    public final LiveData<BloomFilterTuner.Snapshot> bloomFilterTuning;
     private HostnamesLiveData hostnames;
 
     public PeerListViewModel(final Application application) {
@@ -49,6 +56,9 @@ public class PeerListViewModel extends AndroidViewModel {
         this.peers = new MediatorLiveData<>();
         this.peers.addSource(blockchainService, blockchainService -> maybeRefreshPeers());
         this.peers.addSource(this.application.peerState, numPeers -> maybeRefreshPeers());
+        this.syncMetrics = this.application.syncMetrics;
+        this.peerScores = this.application.peerScores;
+        this.bloomFilterTuning = this.application.bloomFilterTuning;
     }
 
     private void maybeRefreshPeers() {
@@ -20,40 +20,73 @@ package de.schildbach.wallet.ui.preference;
 import android.os.Handler;
 import android.os.Looper;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.schildbach.wallet.Constants;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * Resolves host names in parallel, each on its own thread. Callbacks are posted to the looper of the thread that
+ * created the task. Every host name gets exactly one callback; if resolving takes longer than the timeout, that's
+ * {@link #onTimeout(HostAndPort)}.
+ *
  * @author Andreas Schildbach
  */
 public abstract class ResolveDnsTask {
-    private final Handler backgroundHandler;
+    private final Duration timeout;
     private final Handler callbackHandler;
 
-    public ResolveDnsTask(final Handler backgroundHandler) {
-        this.backgroundHandler = backgroundHandler;
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("resolve-dns-%d").setDaemon(true).build());
+
+    public ResolveDnsTask(final Duration timeout) {
+        this.timeout = timeout;
         this.callbackHandler = new Handler(Looper.myLooper());
     }
 
     public final void resolve(final HostAndPort hostAndPort) {
-        backgroundHandler.post(() -> {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Future<?> future = EXECUTOR.submit(() -> {
             try {
                 final InetAddress address = checkNotNull(InetAddress.getByName(hostAndPort.getHost())); // blocks on network
                 final int port = hostAndPort.getPortOrDefault(Constants.NETWORK_PARAMETERS.getPort());
                 final InetSocketAddress socketAddress = new InetSocketAddress(address, port);
-                callbackHandler.post(() -> onSuccess(hostAndPort, socketAddress));
+                callbackHandler.post(() -> {
+                    if (done.compareAndSet(false, true))
+                        onSuccess(hostAndPort, socketAddress);
+                });
             } catch (final UnknownHostException x) {
-                callbackHandler.post(() -> onUnknownHost(hostAndPort));
+                callbackHandler.post(() -> {
+                    if (done.compareAndSet(false, true))
+                        onUnknownHost(hostAndPort);
+                });
             }
         });
+        callbackHandler.postDelayed(() -> {
+            if (done.compareAndSet(false, true)) {
+                future.cancel(true);
+                onTimeout(hostAndPort);
+            }
+        }, timeout.toMillis());
     }
 
     protected abstract void onSuccess(HostAndPort hostAndPort, InetSocketAddress socketAddress);
 
     protected abstract void onUnknownHost(HostAndPort hostAndPort);
+
+    /**
+     * Called if resolving didn't finish in time. By default, this is treated like an unknown host.
+     */
+    protected void onTimeout(final HostAndPort hostAndPort) {
+        onUnknownHost(hostAndPort);
+    }
 }
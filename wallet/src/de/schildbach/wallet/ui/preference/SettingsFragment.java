@@ -27,9 +27,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.PowerManager;
-import android.os.Process;
 import android.preference.EditTextPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
@@ -67,8 +65,6 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
     private BluetoothManager bluetoothManager;
 
     private final Handler handler = new Handler();
-    private HandlerThread backgroundThread;
-    private Handler backgroundHandler;
 
     private EditTextPreference trustedPeerPreference;
     private Preference trustedPeerOnlyPreference;
@@ -96,16 +92,14 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
 
         addPreferencesFromResource(R.xml.preference_settings);
 
-        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
-
         final ListPreference syncModePreference = (ListPreference) findPreference(Configuration.PREFS_KEY_SYNC_MODE);
         syncModePreference.setEntryValues(new CharSequence[] {
                 Configuration.SyncMode.CONNECTION_FILTER.name(),
+                Configuration.SyncMode.COMPACT_FILTERS.name(),
                 Configuration.SyncMode.FULL.name() });
         syncModePreference.setEntries(new CharSequence[] {
                 Html.fromHtml(getString(R.string.preferences_sync_mode_labels_connection_filter)),
+                Html.fromHtml(getString(R.string.preferences_sync_mode_labels_compact_filters)),
                 Html.fromHtml(getString(R.string.preferences_sync_mode_labels_full)) });
         if (!application.fullSyncCapable())
             removeOrDisablePreference(syncModePreference);
@@ -166,8 +160,6 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
         trustedPeerOnlyPreference.setOnPreferenceChangeListener(null);
         trustedPeerPreference.setOnPreferenceChangeListener(null);
 
-        backgroundThread.getLooper().quit();
-
         super.onDestroy();
     }
 
@@ -195,7 +187,7 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
             trustedPeerOnlyPreference.setEnabled(true);
 
             for (final HostAndPort trustedPeer : trustedPeers) {
-                new ResolveDnsTask(backgroundHandler) {
+                new ResolveDnsTask(Constants.TRUSTED_PEER_RESOLVE_TIMEOUT) {
                     @Override
                     protected void onSuccess(final HostAndPort hostAndPort, final InetSocketAddress socketAddress) {
                         appendToTrustedPeerSummary(Constants.CHAR_CHECKMARK + " " + hostAndPort);
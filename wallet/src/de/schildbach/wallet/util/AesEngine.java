@@ -0,0 +1,188 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.io.BaseEncoding;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.OutputLengthException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Implementations of AES in CBC mode with PKCS#7 padding, as used by OpenSSL. They differ in speed only, their output
+ * is identical.
+ *
+ * @author Andreas Schildbach
+ */
+public enum AesEngine {
+    /**
+     * The platform's cryptography provider. On Android this is Conscrypt, which makes use of the CPU's AES
+     * instructions.
+     */
+    JCE {
+        @Override
+        public Cipher newCipher() {
+            final javax.crypto.Cipher cipher;
+            try {
+                cipher = javax.crypto.Cipher.getInstance("AES/CBC/PKCS5Padding");
+            } catch (final GeneralSecurityException x) {
+                throw new IllegalStateException(x);
+            }
+            return new Cipher() {
+                @Override
+                public void init(final boolean forEncryption, final ParametersWithIV key) {
+                    try {
+                        cipher.init(forEncryption ? javax.crypto.Cipher.ENCRYPT_MODE : javax.crypto.Cipher.DECRYPT_MODE,
+                                new SecretKeySpec(((KeyParameter) key.getParameters()).getKey(), "AES"),
+                                new IvParameterSpec(key.getIV()));
+                    } catch (final GeneralSecurityException x) {
+                        throw new IllegalStateException(x);
+                    }
+                }
+
+                @Override
+                public int getOutputSize(final int len) {
+                    return cipher.getOutputSize(len);
+                }
+
+                @Override
+                public int processBytes(final byte[] in, final int inOff, final int len, final byte[] out,
+                        final int outOff) {
+                    try {
+                        return cipher.update(in, inOff, len, out, outOff);
+                    } catch (final ShortBufferException x) {
+                        throw new OutputLengthException(x.getMessage());
+                    }
+                }
+
+                @Override
+                public int doFinal(final byte[] out, final int outOff) throws InvalidCipherTextException {
+                    try {
+                        return cipher.doFinal(out, outOff);
+                    } catch (final ShortBufferException x) {
+                        throw new OutputLengthException(x.getMessage());
+                    } catch (final IllegalBlockSizeException | BadPaddingException x) {
+                        throw new InvalidCipherTextException(x.getMessage(), x);
+                    }
+                }
+            };
+        }
+    },
+
+    /**
+     * Bouncy Castle's implementation, in plain Java. Always available.
+     */
+    BOUNCY_CASTLE {
+        @Override
+        public Cipher newCipher() {
+            final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
+            return new Cipher() {
+                @Override
+                public void init(final boolean forEncryption, final ParametersWithIV key) {
+                    cipher.init(forEncryption, key);
+                }
+
+                @Override
+                public int getOutputSize(final int len) {
+                    return cipher.getOutputSize(len);
+                }
+
+                @Override
+                public int processBytes(final byte[] in, final int inOff, final int len, final byte[] out,
+                        final int outOff) {
+                    return cipher.processBytes(in, inOff, len, out, outOff);
+                }
+
+                @Override
+                public int doFinal(final byte[] out, final int outOff) throws InvalidCipherTextException {
+                    return cipher.doFinal(out, outOff);
+                }
+            };
+        }
+    };
+
+    /**
+     * A cipher instance, modeled after Bouncy Castle's {@link BufferedBlockCipher}. Output buffers that are too short
+     * cause an {@link OutputLengthException}.
+     */
+    public interface Cipher {
+        void init(boolean forEncryption, ParametersWithIV key);
+
+        int getOutputSize(int len);
+
+        int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff);
+
+        int doFinal(byte[] out, int outOff) throws InvalidCipherTextException;
+    }
+
+    public abstract Cipher newCipher();
+
+    private static final Logger log = LoggerFactory.getLogger(AesEngine.class);
+
+    // test vector from NIST SP 800-38A, F.2.5 CBC-AES256.Encrypt
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+    private static final byte[] TEST_KEY = HEX
+            .decode("603deb1015ca71be2b73aef0857d77811f352c073b6108d72d9810a30914dff4");
+    private static final byte[] TEST_IV = HEX.decode("000102030405060708090a0b0c0d0e0f");
+    private static final byte[] TEST_PLAIN = HEX.decode("6bc1bee22e409f96e93d7e117393172a");
+    private static final byte[] TEST_CIPHER = HEX.decode("f58c4c04d6e5f1ba779eabfb5f7bfbd6");
+
+    /**
+     * Checks if this engine is usable on the running platform, by encrypting a test vector.
+     */
+    public boolean isAvailable() {
+        try {
+            final Cipher cipher = newCipher();
+            cipher.init(true, new ParametersWithIV(new KeyParameter(TEST_KEY), TEST_IV));
+            final byte[] out = new byte[cipher.getOutputSize(TEST_PLAIN.length)];
+            final int len = cipher.processBytes(TEST_PLAIN, 0, TEST_PLAIN.length, out, 0);
+            cipher.doFinal(out, len);
+            return Arrays.equals(TEST_CIPHER, Arrays.copyOf(out, TEST_CIPHER.length));
+        } catch (final Exception x) {
+            log.info("AES engine {} not available: {}", this, x.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Selects the fastest engine that is available on the running platform.
+     */
+    public static AesEngine select() {
+        for (final AesEngine engine : values()) {
+            if (engine.isAvailable()) {
+                log.info("using AES engine: {}", engine);
+                return engine;
+            }
+        }
+        throw new IllegalStateException("no AES engine available");
+    }
+}
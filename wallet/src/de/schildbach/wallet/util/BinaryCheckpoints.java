@@ -0,0 +1,161 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Block checkpoints in a binary format, so that the checkpoint for a given time can be looked up without reading all
+ * of them. The format is generated from the text format of {@link org.bitcoinj.core.CheckpointManager} at build time.
+ *
+ * <p>
+ * All numbers are big endian. The file starts with the magic {@link #MAGIC}, followed by the record size and the
+ * number of records as 32 bit integers. Records are compact serialized {@link StoredBlock}s, sorted by block time.
+ * Record size {@link StoredBlock#COMPACT_SERIALIZED_SIZE} denotes the original compact format,
+ * {@link StoredBlock#COMPACT_SERIALIZED_SIZE_V2} its second version.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BinaryCheckpoints {
+    public static final byte[] MAGIC = "BIN CHECKPOINTS 1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4;
+    private static final int TIME_OFFSET_IN_HEADER = 4 + 32 + 32;
+
+    private final NetworkParameters params;
+    private final ByteBuffer buffer;
+    private final int recordSize;
+    private final int chainWorkSize;
+    private final int numCheckpoints;
+
+    /**
+     * @param buffer
+     *            the binary checkpoints, for example memory-mapped from a file; is not modified
+     */
+    public BinaryCheckpoints(final NetworkParameters params, final ByteBuffer buffer) throws IOException {
+        this.params = params;
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (this.buffer.remaining() < HEADER_SIZE)
+            throw new IOException("truncated binary checkpoints");
+        final byte[] magic = new byte[MAGIC.length];
+        this.buffer.get(magic);
+        if (!Arrays.equals(MAGIC, magic))
+            throw new IOException("not binary checkpoints");
+        this.recordSize = this.buffer.getInt();
+        if (recordSize == StoredBlock.COMPACT_SERIALIZED_SIZE)
+            this.chainWorkSize = 12;
+        else if (recordSize == StoredBlock.COMPACT_SERIALIZED_SIZE_V2)
+            this.chainWorkSize = 32;
+        else
+            throw new IOException("unknown record size: " + recordSize);
+        this.numCheckpoints = this.buffer.getInt();
+        if (numCheckpoints < 0 || this.buffer.capacity() != HEADER_SIZE + (long) numCheckpoints * recordSize)
+            throw new IOException("unexpected number of checkpoints: " + numCheckpoints);
+    }
+
+    public int numCheckpoints() {
+        return numCheckpoints;
+    }
+
+    /**
+     * Returns the last checkpoint with a block time at or before the given time, or the genesis block if there is
+     * none. This is the same as {@link org.bitcoinj.core.CheckpointManager#getCheckpointBefore(long)}, but takes a
+     * binary search over the records rather than parsing all of them.
+     */
+    public StoredBlock getCheckpointBefore(final long timeSecs) {
+        checkArgument(timeSecs > params.getGenesisBlock().getTimeSeconds());
+        final int index = indexAfter(timeSecs);
+        if (index == 0) {
+            final Block genesis = params.getGenesisBlock().cloneAsHeader();
+            return new StoredBlock(genesis, genesis.getWork(), 0);
+        }
+        return checkpoint(index - 1);
+    }
+
+    /**
+     * Returns all checkpoints with a block time after the given time, sorted by block time.
+     */
+    public List<StoredBlock> getCheckpointsAfter(final long timeSecs) {
+        final List<StoredBlock> checkpoints = new ArrayList<>();
+        for (int index = indexAfter(timeSecs); index < numCheckpoints; index++)
+            checkpoints.add(checkpoint(index));
+        return checkpoints;
+    }
+
+    /**
+     * Initializes an empty block store with the checkpoint for the given time, like
+     * {@link org.bitcoinj.core.CheckpointManager#checkpoint(NetworkParameters, java.io.InputStream, BlockStore, long)}
+     * does. One week is subtracted from the given time to account for clock drift.
+     */
+    public void checkpoint(final BlockStore store, long timeSecs) throws BlockStoreException {
+        timeSecs -= 60 * 60 * 24 * 7;
+        checkArgument(timeSecs > 0);
+        final StoredBlock checkpoint = getCheckpointBefore(timeSecs);
+        store.put(checkpoint);
+        store.setChainHead(checkpoint);
+    }
+
+    /**
+     * Returns the index of the first checkpoint with a block time after the given time, or the number of
+     * checkpoints if there is none.
+     */
+    private int indexAfter(final long timeSecs) {
+        int low = 0;
+        int high = numCheckpoints; // exclusive
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (timeOf(mid) <= timeSecs)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private StoredBlock checkpoint(final int index) {
+        final ByteBuffer record = recordBuffer(index);
+        return recordSize == StoredBlock.COMPACT_SERIALIZED_SIZE ? StoredBlock.deserializeCompact(params, record)
+                : StoredBlock.deserializeCompactV2(params, record);
+    }
+
+    private ByteBuffer recordBuffer(final int index) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(HEADER_SIZE + index * recordSize);
+        record.limit(HEADER_SIZE + (index + 1) * recordSize);
+        return record.slice();
+    }
+
+    private long timeOf(final int index) {
+        // the block header serializes its time as little endian
+        final int offset = HEADER_SIZE + index * recordSize + chainWorkSize + 4 + TIME_OFFSET_IN_HEADER;
+        return Integer.reverseBytes(buffer.getInt(offset)) & 0xffffffffL;
+    }
+}
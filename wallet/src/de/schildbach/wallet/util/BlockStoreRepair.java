@@ -0,0 +1,196 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Salvages what can be salvaged from a corrupt {@link SPVBlockStore}, rather than resyncing from scratch. The ring
+ * buffer is scanned for records that are consistent in themselves, and those are linked into chains. Of the chains
+ * that contain the block the wallet has last seen, the one with the most work is truncated back to that block, so
+ * wallet and chain agree. If no chain contains the wallet's block, nothing is salvaged.
+ *
+ * <p>
+ * The salvaged chain is written to a fresh block store, which then replaces the corrupt one. Reads the file format of
+ * bitcoinj 0.16, both versions.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BlockStoreRepair {
+    private static final int FILE_PROLOGUE_BYTES = 1024;
+    private static final int HASH_SIZE = 32;
+    private static final String MAGIC_V1 = "SPVB";
+    private static final String MAGIC_V2 = "SPV2";
+
+    private static final Logger log = LoggerFactory.getLogger(BlockStoreRepair.class);
+
+    /**
+     * Repairs the given block store file in place.
+     *
+     * @param lastSeenHash block the wallet has last seen, or null if it hasn't seen any
+     * @return new chain head, or null if nothing could be salvaged, in which case the file is left untouched
+     */
+    @Nullable
+    public static StoredBlock repair(final NetworkParameters params, final File file, final int capacity,
+            @Nullable final Sha256Hash lastSeenHash) throws IOException, BlockStoreException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        final Collection<StoredBlock> blocks = scan(params, buffer);
+        final List<StoredBlock> chain = heaviestChain(blocks, lastSeenHash);
+        log.info("found {} consistent records, chain has {} blocks", blocks.size(), chain.size());
+        final int headIndex = truncate(chain, lastSeenHash);
+        if (headIndex == -1) {
+            log.info("wallet's last seen block {} is not on any chain, nothing to salvage", lastSeenHash);
+            return null;
+        }
+        final StoredBlock head = chain.get(headIndex);
+        final List<StoredBlock> salvaged = chain.subList(Math.max(headIndex + 2 - capacity, 0), headIndex + 1);
+
+        final File tempFile = new File(file.getPath() + ".repair");
+        Files.deleteIfExists(tempFile.toPath());
+        final SPVBlockStore store = new SPVBlockStore(params, tempFile, capacity, true);
+        try {
+            for (final StoredBlock block : salvaged)
+                store.put(block);
+            store.setChainHead(head);
+        } finally {
+            store.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+        }
+        log.info("salvaged {} blocks, chain head now at height {}", salvaged.size(), head.getHeight());
+        return head;
+    }
+
+    /**
+     * Reads all records that are consistent in themselves: the stored hash matches the header, and the header
+     * verifies.
+     */
+    static Collection<StoredBlock> scan(final NetworkParameters params, final ByteBuffer buffer) {
+        final String magic = buffer.limit() >= 4 ? new String(buffer.array(), 0, 4, StandardCharsets.US_ASCII) : "";
+        final boolean v1 = magic.equals(MAGIC_V1);
+        if (!v1 && !magic.equals(MAGIC_V2))
+            log.info("unknown magic '{}', assuming version 2", magic);
+        final int recordSize = HASH_SIZE + (v1 ? StoredBlock.COMPACT_SERIALIZED_SIZE
+                : StoredBlock.COMPACT_SERIALIZED_SIZE_V2);
+        final Map<Sha256Hash, StoredBlock> blocks = new HashMap<>();
+        final byte[] hashBytes = new byte[HASH_SIZE];
+        for (int position = FILE_PROLOGUE_BYTES; position + recordSize <= buffer.limit(); position += recordSize) {
+            buffer.position(position);
+            buffer.get(hashBytes);
+            try {
+                final StoredBlock block = v1 ? StoredBlock.deserializeCompact(params, buffer)
+                        : StoredBlock.deserializeCompactV2(params, buffer);
+                final Block header = block.getHeader();
+                if (!header.getHash().equals(Sha256Hash.wrap(hashBytes)))
+                    continue;
+                header.verifyHeader();
+                blocks.put(header.getHash(), block);
+            } catch (final VerificationException | IllegalArgumentException x) {
+                // empty or garbled record
+            }
+        }
+        return blocks.values();
+    }
+
+    /**
+     * Links the blocks into chains, by their previous block, height and chain work.
+     *
+     * @param lastSeenHash block the chain must contain, or null for any chain
+     * @return the chain with the most work, sorted by height, or an empty list if no chain contains the block
+     */
+    static List<StoredBlock> heaviestChain(final Collection<StoredBlock> blocks,
+            @Nullable final Sha256Hash lastSeenHash) {
+        final Map<Sha256Hash, StoredBlock> byHash = new HashMap<>(blocks.size());
+        for (final StoredBlock block : blocks)
+            byHash.put(block.getHeader().getHash(), block);
+        final Map<Sha256Hash, Boolean> containsLastSeen = new HashMap<>(blocks.size());
+        StoredBlock tip = null;
+        final Deque<StoredBlock> unresolved = new ArrayDeque<>();
+        for (final StoredBlock block : blocks) {
+            // walk back until a block that is already resolved, without recursion
+            StoredBlock current = block;
+            while (current != null && !containsLastSeen.containsKey(current.getHeader().getHash())) {
+                unresolved.push(current);
+                current = previous(current, byHash);
+            }
+            boolean contains = current != null ? containsLastSeen.get(current.getHeader().getHash())
+                    : lastSeenHash == null;
+            while (!unresolved.isEmpty()) {
+                final StoredBlock resolved = unresolved.pop();
+                contains |= resolved.getHeader().getHash().equals(lastSeenHash);
+                containsLastSeen.put(resolved.getHeader().getHash(), contains);
+            }
+            if (containsLastSeen.get(block.getHeader().getHash())
+                    && (tip == null || block.getChainWork().compareTo(tip.getChainWork()) > 0))
+                tip = block;
+        }
+        final List<StoredBlock> chain = new ArrayList<>();
+        for (StoredBlock current = tip; current != null; current = previous(current, byHash))
+            chain.add(current);
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    @Nullable
+    private static StoredBlock previous(final StoredBlock block, final Map<Sha256Hash, StoredBlock> byHash) {
+        final StoredBlock prev = byHash.get(block.getHeader().getPrevBlockHash());
+        if (prev == null || prev.getHeight() + 1 != block.getHeight()
+                || !prev.getChainWork().add(block.getHeader().getWork()).equals(block.getChainWork()))
+            return null;
+        return prev;
+    }
+
+    /**
+     * @return index of the new chain head: the block the wallet has last seen or, if it hasn't seen any, the tip;
+     *         -1 if the wallet's block is not on the chain
+     */
+    static int truncate(final List<StoredBlock> chain, @Nullable final Sha256Hash lastSeenHash) {
+        if (chain.isEmpty())
+            return -1;
+        if (lastSeenHash == null)
+            return chain.size() - 1;
+        for (int i = chain.size() - 1; i >= 0; i--)
+            if (chain.get(i).getHeader().getHash().equals(lastSeenHash))
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tunes the false positive rate of a Bloom filter from the traffic it lets through. For every filtered block, the
+ * transactions the filter matched are split into relevant ones, which the wallet kept, and irrelevant ones, the
+ * false positives. Once a window of blocks is complete, a new rate is proposed:
+ *
+ * <ul>
+ * <li>If false positives are observed way more often than the filter was built for, the filter is saturated, e.g.
+ * by many keys. The rate is lowered by the excess.</li>
+ * <li>If there are too few false positives per relevant transaction to hide the relevant ones among them, the rate
+ * is raised.</li>
+ * <li>If there are way more than needed, the rate is lowered to save bandwidth.</li>
+ * </ul>
+ *
+ * The rate always stays within the given bounds, and a new rate is only proposed if it differs from the current one
+ * by a significant factor, as every change means sending a new filter to all peers.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BloomFilterTuner {
+    /** False positives per relevant transaction, below which the relevant ones are too easy to single out. */
+    private static final double MIN_DECOYS = 10;
+    /** False positives per relevant transaction, above which bandwidth is wasted. */
+    private static final double MAX_DECOYS = 1000;
+    /** Observed versus expected false positive rate, above which the filter is considered saturated. */
+    private static final double SATURATION_FACTOR = 3;
+    /** Factor by which the rate must change in order to be worth a new filter. */
+    private static final double SIGNIFICANT_FACTOR = 2;
+
+    private final double minFpRate;
+    private final double maxFpRate;
+    private final int windowBlocks;
+    private double fpRate;
+
+    private int blocks = 0;
+    private long transactions = 0;
+    private long matched = 0;
+    private long relevant = 0;
+    @Nullable
+    private Snapshot lastWindow = null;
+
+    public BloomFilterTuner(final double fpRate, final double minFpRate, final double maxFpRate,
+            final int windowBlocks) {
+        checkArgument(minFpRate > 0 && minFpRate <= maxFpRate && maxFpRate < 1);
+        checkArgument(windowBlocks > 0);
+        this.minFpRate = minFpRate;
+        this.maxFpRate = maxFpRate;
+        this.windowBlocks = windowBlocks;
+        this.fpRate = clamp(fpRate);
+    }
+
+    /**
+     * Returns the rate the filter should currently be built with.
+     */
+    public synchronized double getFpRate() {
+        return fpRate;
+    }
+
+    /**
+     * Records a filtered block.
+     *
+     * @param numTransactions number of transactions in the full block
+     * @param numMatched number of transactions matched by the filter
+     * @param numRelevant number of matched transactions that are relevant to the wallet
+     */
+    public synchronized void onFilteredBlock(final int numTransactions, final int numMatched, final int numRelevant) {
+        checkArgument(numRelevant <= numMatched && numMatched <= numTransactions);
+        blocks++;
+        transactions += numTransactions;
+        matched += numMatched;
+        relevant += numRelevant;
+    }
+
+    /**
+     * Evaluates the current window, if it is complete, and starts a new one.
+     *
+     * @return new rate, or {@code null} if the window is incomplete or the rate should stay as it is
+     */
+    @Nullable
+    public synchronized Double maybeAdjust() {
+        if (blocks < windowBlocks)
+            return null;
+        final long irrelevant = matched - relevant;
+        final double observedFpRate = observedFpRate(transactions, matched, relevant);
+        double target = fpRate;
+        if (observedFpRate > fpRate * SATURATION_FACTOR)
+            target = fpRate * fpRate / observedFpRate;
+        else if (relevant > 0 && irrelevant > relevant * MAX_DECOYS)
+            target = fpRate * relevant * MAX_DECOYS / irrelevant;
+        // privacy comes first: whatever the above, keep enough false positives around the relevant transactions
+        if (relevant > 0 && target / fpRate * irrelevant < relevant * MIN_DECOYS)
+            target = fpRate * relevant * MIN_DECOYS / Math.max(irrelevant, 1);
+        target = clamp(target);
+
+        lastWindow = new Snapshot(fpRate, blocks, transactions, matched, relevant);
+        blocks = 0;
+        transactions = 0;
+        matched = 0;
+        relevant = 0;
+
+        if (Math.max(target / fpRate, fpRate / target) < SIGNIFICANT_FACTOR)
+            return null;
+        fpRate = target;
+        return target;
+    }
+
+    /**
+     * Returns the last complete window, or the current one if there is none yet.
+     */
+    public synchronized Snapshot snapshot() {
+        if (lastWindow != null)
+            return new Snapshot(fpRate, lastWindow.blocks, lastWindow.transactions, lastWindow.matched,
+                    lastWindow.relevant);
+        return new Snapshot(fpRate, blocks, transactions, matched, relevant);
+    }
+
+    private double clamp(final double fpRate) {
+        return Math.max(minFpRate, Math.min(maxFpRate, fpRate));
+    }
+
+    private static double observedFpRate(final long transactions, final long matched, final long relevant) {
+        final long irrelevant = matched - relevant;
+        final long candidates = transactions - relevant;
+        return candidates > 0 ? (double) irrelevant / candidates : 0;
+    }
+
+    public static final class Snapshot {
+        /** Rate the filter is currently built with. */
+        public final double fpRate;
+        public final int blocks;
+        public final long transactions;
+        public final long matched;
+        public final long relevant;
+        /** Share of the transactions not relevant to the wallet that matched anyway. */
+        public final double observedFpRate;
+
+        private Snapshot(final double fpRate, final int blocks, final long transactions, final long matched,
+                final long relevant) {
+            this.fpRate = fpRate;
+            this.blocks = blocks;
+            this.transactions = transactions;
+            this.matched = matched;
+            this.relevant = relevant;
+            this.observedFpRate = observedFpRate(transactions, matched, relevant);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("fp rate %.6f, observed %.6f; %d of %d transactions in %d blocks matched, "
+                    + "%d relevant", fpRate, observedFpRate, matched, transactions, blocks, relevant);
+        }
+    }
+}
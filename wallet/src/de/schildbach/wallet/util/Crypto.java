@@ -17,23 +17,23 @@
 package de.schildbach.wallet.util;
 
 import com.google.common.io.BaseEncoding;
-import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.PBEParametersGenerator;
-import org.bouncycastle.crypto.engines.AESFastEngine;
 import org.bouncycastle.crypto.generators.OpenSSLPBEParametersGenerator;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -70,6 +70,11 @@ public class Crypto {
      */
     private static final int IV_LENGTH = 128;
 
+    /**
+     * AES block size in bytes.
+     */
+    private static final int BLOCK_SIZE = 16;
+
     /**
      * The length of the salt.
      */
@@ -94,8 +99,18 @@ public class Crypto {
 
     private static final int NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT = 10;
 
+    /**
+     * Size of the chunks streams are processed in.
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
     private static final SecureRandom secureRandom = new SecureRandom();
 
+    /**
+     * The AES implementation to use, the fastest one available.
+     */
+    private static final AesEngine AES_ENGINE = AesEngine.select();
+
     /**
      * Get password and generate key and iv.
      * 
@@ -138,7 +153,15 @@ public class Crypto {
      * @throws IOException
      */
     public static String encrypt(final byte[] plainTextAsBytes, final char[] password) throws IOException {
-        final byte[] encryptedBytes = encryptRaw(plainTextAsBytes, password);
+        return encrypt(plainTextAsBytes, password, AES_ENGINE);
+    }
+
+    /**
+     * Like {@link #encrypt(byte[], char[])}, but using the given AES implementation.
+     */
+    static String encrypt(final byte[] plainTextAsBytes, final char[] password, final AesEngine engine)
+            throws IOException {
+        final byte[] encryptedBytes = encryptRaw(plainTextAsBytes, password, engine);
 
         // OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
         final byte[] encryptedBytesPlusSaltedText = concat(OPENSSL_SALTED_BYTES, encryptedBytes);
@@ -153,10 +176,13 @@ public class Crypto {
      *            The bytes to encrypt
      * @param password
      *            The password to use for encryption
+     * @param engine
+     *            The AES implementation to use
      * @return SALT_LENGTH bytes of salt followed by the encrypted bytes.
      * @throws IOException
      */
-    private static byte[] encryptRaw(final byte[] plainTextAsBytes, final char[] password) throws IOException {
+    private static byte[] encryptRaw(final byte[] plainTextAsBytes, final char[] password, final AesEngine engine)
+            throws IOException {
         try {
             // Generate salt - each encryption call has a different salt.
             final byte[] salt = new byte[SALT_LENGTH];
@@ -165,7 +191,7 @@ public class Crypto {
             final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
 
             // The following code uses an AES cipher to encrypt the message.
-            final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+            final AesEngine.Cipher cipher = engine.newCipher();
             cipher.init(true, key);
             final byte[] encryptedBytes = new byte[cipher.getOutputSize(plainTextAsBytes.length)];
             final int processLen = cipher.processBytes(plainTextAsBytes, 0, plainTextAsBytes.length, encryptedBytes, 0);
@@ -205,6 +231,14 @@ public class Crypto {
      * @throws IOException
      */
     public static byte[] decryptBytes(final String textToDecode, final char[] password) throws IOException {
+        return decryptBytes(textToDecode, password, AES_ENGINE);
+    }
+
+    /**
+     * Like {@link #decryptBytes(String, char[])}, but using the given AES implementation.
+     */
+    static byte[] decryptBytes(final String textToDecode, final char[] password, final AesEngine engine)
+            throws IOException {
         if (textToDecode.isEmpty())
             throw new IOException("empty ciphertext");
 
@@ -222,7 +256,7 @@ public class Crypto {
         System.arraycopy(decodeTextAsBytes, OPENSSL_SALTED_BYTES.length, cipherBytes, 0,
                 decodeTextAsBytes.length - OPENSSL_SALTED_BYTES.length);
 
-        return decryptRaw(cipherBytes, password);
+        return decryptRaw(cipherBytes, password, engine);
     }
 
     /**
@@ -232,10 +266,13 @@ public class Crypto {
      *            The bytes to decrypt
      * @param password
      *            password to use for decryption
+     * @param engine
+     *            The AES implementation to use
      * @return The decrypted bytes
      * @throws IOException
      */
-    private static byte[] decryptRaw(final byte[] bytesToDecode, final char[] password) throws IOException {
+    private static byte[] decryptRaw(final byte[] bytesToDecode, final char[] password, final AesEngine engine)
+            throws IOException {
         try {
             // separate the salt and bytes to decrypt
             final byte[] salt = new byte[SALT_LENGTH];
@@ -248,7 +285,7 @@ public class Crypto {
             final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
 
             // decrypt the message
-            final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+            final AesEngine.Cipher cipher = engine.newCipher();
             cipher.init(false, key);
 
             final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherBytes.length)];
@@ -261,6 +298,225 @@ public class Crypto {
         }
     }
 
+    /**
+     * Password based encryption using AES - CBC 256 bits, from stream to stream. The output is exactly the same as
+     * that of {@link #encrypt(byte[], char[])}, but memory usage doesn't depend on the size of the input. The input
+     * stream is read to its end, but neither stream is closed.
+     *
+     * @param plainIn
+     *            The bytes to encrypt
+     * @param cipherOut
+     *            Where to write the encrypted text to, encoded as UTF-8
+     * @param password
+     *            The password to use for encryption
+     * @throws IOException
+     */
+    public static void encrypt(final InputStream plainIn, final OutputStream cipherOut, final char[] password)
+            throws IOException {
+        encrypt(plainIn, cipherOut, password, AES_ENGINE);
+    }
+
+    /**
+     * Like {@link #encrypt(InputStream, OutputStream, char[])}, but using the given AES implementation.
+     */
+    static void encrypt(final InputStream plainIn, final OutputStream cipherOut, final char[] password,
+            final AesEngine engine) throws IOException {
+        // Generate salt - each encryption call has a different salt.
+        final byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+
+        final AesEngine.Cipher cipher = engine.newCipher();
+        cipher.init(true, (ParametersWithIV) getAESPasswordKey(password, salt));
+
+        final Base64Encoder base64Out = new Base64Encoder(
+                new OutputStreamWriter(cipherOut, StandardCharsets.UTF_8));
+        base64Out.write(OPENSSL_SALTED_BYTES, 0, OPENSSL_SALTED_BYTES.length);
+        base64Out.write(salt, 0, salt.length);
+        try {
+            final byte[] plainBuf = new byte[STREAM_BUFFER_SIZE];
+            final byte[] cipherBuf = new byte[STREAM_BUFFER_SIZE + 2 * BLOCK_SIZE];
+            int plainLen;
+            while ((plainLen = plainIn.read(plainBuf)) != -1) {
+                final int cipherLen = cipher.processBytes(plainBuf, 0, plainLen, cipherBuf, 0);
+                base64Out.write(cipherBuf, 0, cipherLen);
+            }
+            final int doFinalLen = cipher.doFinal(cipherBuf, 0);
+            base64Out.write(cipherBuf, 0, doFinalLen);
+        } catch (final InvalidCipherTextException | DataLengthException x) {
+            throw new IOException("Could not encrypt bytes", x);
+        }
+        base64Out.finish();
+    }
+
+    /**
+     * Decrypt a stream previously encrypted with this class, or with OpenSSL. Memory usage doesn't depend on the size
+     * of the input. The input stream is read to its end, but neither stream is closed.
+     *
+     * <p>
+     * Note that decrypted bytes are written as they become available, so in case of an exception the output may
+     * already contain some garbage.
+     *
+     * @param cipherIn
+     *            The text to decrypt, encoded as UTF-8
+     * @param plainOut
+     *            Where to write the decrypted bytes to
+     * @param password
+     *            password to use for decryption
+     * @throws IOException
+     */
+    public static void decrypt(final InputStream cipherIn, final OutputStream plainOut, final char[] password)
+            throws IOException {
+        decrypt(cipherIn, plainOut, password, AES_ENGINE);
+    }
+
+    /**
+     * Like {@link #decrypt(InputStream, OutputStream, char[])}, but using the given AES implementation.
+     */
+    static void decrypt(final InputStream cipherIn, final OutputStream plainOut, final char[] password,
+            final AesEngine engine) throws IOException {
+        final Base64Decoder base64In = new Base64Decoder(new InputStreamReader(cipherIn, StandardCharsets.UTF_8));
+
+        final byte[] saltedBytes = new byte[OPENSSL_SALTED_BYTES.length];
+        final int saltedLen = base64In.readFully(saltedBytes);
+        if (saltedLen == 0)
+            throw new IOException("empty ciphertext");
+        final byte[] salt = new byte[SALT_LENGTH];
+        if (saltedLen < saltedBytes.length || base64In.readFully(salt) < salt.length)
+            throw new IOException("out of salt");
+
+        try {
+            final AesEngine.Cipher cipher = engine.newCipher();
+            cipher.init(false, (ParametersWithIV) getAESPasswordKey(password, salt));
+
+            final byte[] plainBuf = new byte[STREAM_BUFFER_SIZE + 2 * BLOCK_SIZE];
+            byte[] cipherBytes;
+            while ((cipherBytes = base64In.read()) != null) {
+                final int plainLen = cipher.processBytes(cipherBytes, 0, cipherBytes.length, plainBuf, 0);
+                plainOut.write(plainBuf, 0, plainLen);
+            }
+            final int doFinalLen = cipher.doFinal(plainBuf, 0);
+            plainOut.write(plainBuf, 0, doFinalLen);
+        } catch (final InvalidCipherTextException | DataLengthException x) {
+            throw new IOException("Could not decrypt bytes", x);
+        }
+    }
+
+    /**
+     * Encodes to the same base64 text as {@link #BASE64_ENCRYPT}, but chunk by chunk. Each chunk consists of whole
+     * lines, so the encoded chunks can simply be joined by a line separator.
+     */
+    private static class Base64Encoder {
+        private static final int CHUNK_SIZE = 57 * 128; // 57 bytes encode to a line of 76 characters
+
+        private final Writer out;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int chunkLen = 0;
+        private boolean first = true;
+
+        public Base64Encoder(final Writer out) {
+            this.out = out;
+        }
+
+        public void write(final byte[] bytes, int off, int len) throws IOException {
+            while (len > 0) {
+                final int n = Math.min(len, CHUNK_SIZE - chunkLen);
+                System.arraycopy(bytes, off, chunk, chunkLen, n);
+                chunkLen += n;
+                off += n;
+                len -= n;
+                if (chunkLen == CHUNK_SIZE)
+                    writeChunk();
+            }
+        }
+
+        public void finish() throws IOException {
+            if (chunkLen > 0)
+                writeChunk();
+            out.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (!first)
+                out.write('\n');
+            out.write(BASE64_ENCRYPT.encode(chunk, 0, chunkLen));
+            chunkLen = 0;
+            first = false;
+        }
+    }
+
+    /**
+     * Decodes base64 text like {@link #BASE64_DECRYPT}, but chunk by chunk.
+     */
+    private static class Base64Decoder {
+        private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+        private final Reader in;
+        private final char[] buf = new char[STREAM_BUFFER_SIZE];
+        private final StringBuilder chars = new StringBuilder(STREAM_BUFFER_SIZE + 4);
+        private byte[] pending = null;
+        private boolean eof = false;
+
+        public Base64Decoder(final Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next chunk of decoded bytes, or {@code null} at the end of the input
+         */
+        public byte[] read() throws IOException {
+            if (pending != null) {
+                final byte[] bytes = pending;
+                pending = null;
+                return bytes;
+            }
+            while (!eof) {
+                final int len = in.read(buf);
+                if (len == -1) {
+                    eof = true;
+                } else {
+                    for (int i = 0; i < len; i++) {
+                        final char c = buf[i];
+                        if (c != '\r' && c != '\n')
+                            chars.append(c);
+                    }
+                }
+
+                // decode whole quantums of four characters, and the rest at the end of the input
+                final int decodeLen = eof ? chars.length() : chars.length() - chars.length() % 4;
+                if (decodeLen > 0) {
+                    try {
+                        final byte[] bytes = BASE64.decode(chars.subSequence(0, decodeLen));
+                        chars.delete(0, decodeLen);
+                        return bytes;
+                    } catch (final IllegalArgumentException x) {
+                        throw new IOException("invalid base64 encoding");
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Fills the given array as far as the input goes.
+         *
+         * @return number of bytes read
+         */
+        public int readFully(final byte[] bytes) throws IOException {
+            int len = 0;
+            while (len < bytes.length) {
+                final byte[] chunk = read();
+                if (chunk == null)
+                    break;
+                final int n = Math.min(chunk.length, bytes.length - len);
+                System.arraycopy(chunk, 0, bytes, len, n);
+                len += n;
+                if (n < chunk.length)
+                    pending = Arrays.copyOfRange(chunk, n, chunk.length);
+            }
+            return len;
+        }
+    }
+
     /**
      * Concatenate two byte arrays.
      */
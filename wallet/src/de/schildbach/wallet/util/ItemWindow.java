@@ -0,0 +1,193 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Materializes heavy items only around what is visible of a long list, rather than for the whole list. The list
+ * itself consists of lightweight keys; a key must change whenever its item would. Items are loaded on demand, and
+ * the window around the visible range is prefetched in the background. At most a fixed number of items is retained,
+ * least recently used first out, and under memory pressure everything outside the window can be dropped.
+ *
+ * <p>
+ * Loading can be slow, so the UI shouldn't wait for it: it uses {@link #getOrRequest(Object)}, shows a placeholder
+ * for what isn't there yet and is told by an {@link OnLoadedListener} once it is.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ItemWindow<K, V> {
+    public interface Loader<K, V> {
+        /**
+         * @return the item, or {@code null} if the key has gone away meanwhile
+         */
+        @Nullable
+        V load(K key);
+    }
+
+    public interface OnLoadedListener<K> {
+        /**
+         * Called on the thread the item was loaded on.
+         */
+        void onLoaded(K key);
+    }
+
+    private final Loader<K, V> loader;
+    private final int capacity;
+    private final Executor executor;
+    private final LinkedHashMap<K, V> items; // guarded by this
+    private Set<K> window = new HashSet<>(); // guarded by this
+    private final Set<K> loading = new HashSet<>(); // guarded by this
+    private int numLoaded = 0; // guarded by this
+    @Nullable
+    private volatile OnLoadedListener<K> onLoadedListener;
+
+    /**
+     * @param capacity maximum number of items retained, should be well above the size of the window
+     * @param executor for prefetching
+     */
+    public ItemWindow(final Loader<K, V> loader, final int capacity, final Executor executor) {
+        checkArgument(capacity > 0);
+        this.loader = loader;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.items = new LinkedHashMap<K, V>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return size() > ItemWindow.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets an item, loading it right away if it hasn't been loaded yet.
+     */
+    @Nullable
+    public V get(final K key) {
+        synchronized (this) {
+            final V item = items.get(key);
+            if (item != null)
+                return item;
+        }
+        return load(key);
+    }
+
+    /**
+     * Gets an item only if it has been loaded already. Otherwise, it is loaded in the background and the
+     * {@link OnLoadedListener} is told once it is there.
+     */
+    @Nullable
+    public V getOrRequest(final K key) {
+        synchronized (this) {
+            final V item = items.get(key);
+            if (item != null || !loading.add(key))
+                return item;
+        }
+        executor.execute(() -> load(key));
+        return null;
+    }
+
+    /**
+     * Gets an item only if it has been loaded already, without counting as a use.
+     */
+    @Nullable
+    public synchronized V peek(final K key) {
+        // unlike get(), iterating doesn't touch the access order
+        for (final Map.Entry<K, V> entry : items.entrySet())
+            if (entry.getKey().equals(key))
+                return entry.getValue();
+        return null;
+    }
+
+    /**
+     * Sets the window, usually the visible range plus a prefetch distance on both sides, and loads the items in it
+     * that haven't been loaded yet in the background.
+     */
+    public void setWindow(final List<K> keys) {
+        final List<K> missing = new ArrayList<>();
+        synchronized (this) {
+            window = new HashSet<>(keys);
+            for (final K key : keys)
+                if (!items.containsKey(key) && loading.add(key))
+                    missing.add(key);
+        }
+        if (!missing.isEmpty())
+            executor.execute(() -> {
+                for (final K key : missing) {
+                    synchronized (this) {
+                        if (!window.contains(key)) {
+                            loading.remove(key);
+                            continue; // scrolled away meanwhile
+                        }
+                    }
+                    load(key);
+                }
+            });
+    }
+
+    public void setOnLoadedListener(@Nullable final OnLoadedListener<K> onLoadedListener) {
+        this.onLoadedListener = onLoadedListener;
+    }
+
+    /**
+     * Drops all items outside the window, e.g. under memory pressure.
+     */
+    public synchronized void trim() {
+        for (final Iterator<K> i = items.keySet().iterator(); i.hasNext();)
+            if (!window.contains(i.next()))
+                i.remove();
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    /** Number of items loaded so far. */
+    public synchronized int numLoaded() {
+        return numLoaded;
+    }
+
+    private V load(final K key) {
+        final V item = loader.load(key);
+        synchronized (this) {
+            loading.remove(key);
+            if (item != null) {
+                items.put(key, item);
+                numLoaded++;
+            }
+        }
+        final OnLoadedListener<K> onLoadedListener = this.onLoadedListener;
+        if (item != null && onLoadedListener != null)
+            onLoadedListener.onLoaded(key);
+        return item;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.DeterministicSeed;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletExtension;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Helpers for the automatic key backup. The backup is a wallet protobuf without transactions and without the last
+ * seen block, so restoring it triggers a rescan.
+ *
+ * @author Andreas Schildbach
+ */
+public final class KeyBackup {
+    /**
+     * Serializes the given wallet for the key backup. The result is the same as
+     * {@link org.bitcoinj.wallet.WalletProtobufSerializer#walletToProto(Wallet)} with transactions and last seen
+     * block stripped, but the transactions are never serialized in the first place.
+     */
+    public static Protos.Wallet toProto(final Wallet wallet) {
+        final Protos.Wallet.Builder walletProto = Protos.Wallet.newBuilder();
+        walletProto.setNetworkIdentifier(wallet.getNetworkParameters().getId());
+        if (wallet.getDescription() != null)
+            walletProto.setDescription(wallet.getDescription());
+        walletProto.addAllKey(wallet.serializeKeyChainGroupToProtobuf());
+        for (final Script script : wallet.getWatchedScripts())
+            walletProto.addWatchedScript(Protos.Script.newBuilder()
+                    .setProgram(ByteString.copyFrom(script.getProgram()))
+                    .setCreationTimestamp(script.getCreationTimeSeconds() * 1000));
+        walletProto.setLastSeenBlockHeight(-1);
+
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        if (keyCrypter == null) {
+            walletProto.setEncryptionType(Protos.Wallet.EncryptionType.UNENCRYPTED);
+        } else {
+            walletProto.setEncryptionType(keyCrypter.getUnderstoodEncryptionType());
+            if (keyCrypter instanceof KeyCrypterScrypt)
+                walletProto.setEncryptionParameters(((KeyCrypterScrypt) keyCrypter).getScryptParameters());
+            else
+                throw new IllegalStateException("unsupported key crypter: " + keyCrypter.getClass().getName());
+        }
+
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        if (keyRotationTime != null)
+            walletProto.setKeyRotationTime(keyRotationTime.getTime() / 1000);
+        for (final WalletExtension extension : wallet.getExtensions().values())
+            walletProto.addExtension(Protos.Extension.newBuilder().setId(extension.getWalletExtensionID())
+                    .setMandatory(extension.isWalletExtensionMandatory())
+                    .setData(ByteString.copyFrom(extension.serializeWalletExtension())));
+        for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+            walletProto.addTags(Protos.Tag.newBuilder().setTag(tag.getKey()).setData(tag.getValue()));
+        walletProto.setVersion(wallet.getVersion());
+        return walletProto.build();
+    }
+
+    /**
+     * Fingerprints everything that goes into the key backup: key chains and their seeds, issued key counters,
+     * imported keys and encryption state. It is much cheaper to compute than the backup itself, and changes whenever
+     * the backup would change.
+     */
+    public static HashCode fingerprint(final Wallet wallet) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(wallet.getNetworkParameters().getId(), StandardCharsets.UTF_8);
+        putNullableString(hasher, wallet.getDescription());
+        hasher.putInt(wallet.getVersion());
+        hasher.putInt(wallet.getKeyChainGroupSize());
+
+        for (final DeterministicKeyChain chain : wallet.getActiveKeyChains()) {
+            final DeterministicKey watchingKey = chain.getWatchingKey();
+            hasher.putString(String.valueOf(chain.getOutputScriptType()), StandardCharsets.UTF_8);
+            hasher.putBytes(watchingKey.getPubKey()).putBytes(watchingKey.getChainCode());
+            hasher.putInt(chain.getIssuedExternalKeys()).putInt(chain.getIssuedInternalKeys());
+            hasher.putInt(chain.getLookaheadSize()).putInt(chain.getLookaheadThreshold());
+            final DeterministicSeed seed = chain.getSeed();
+            if (seed != null)
+                hasher.putBoolean(seed.isEncrypted()).putLong(seed.getCreationTimeSeconds());
+        }
+        for (final ECKey key : wallet.getImportedKeys())
+            hasher.putBytes(key.getPubKey()).putLong(key.getCreationTimeSeconds()).putBoolean(key.isEncrypted());
+        for (final Script script : wallet.getWatchedScripts())
+            hasher.putBytes(script.getProgram()).putLong(script.getCreationTimeSeconds());
+
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        if (keyCrypter instanceof KeyCrypterScrypt)
+            hasher.putBytes(((KeyCrypterScrypt) keyCrypter).getScryptParameters().toByteArray());
+        else
+            hasher.putBoolean(keyCrypter != null);
+
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        hasher.putLong(keyRotationTime != null ? keyRotationTime.getTime() : 0);
+        for (final WalletExtension extension : wallet.getExtensions().values())
+            hasher.putString(extension.getWalletExtensionID(), StandardCharsets.UTF_8)
+                    .putBytes(extension.serializeWalletExtension());
+        for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+            hasher.putString(tag.getKey(), StandardCharsets.UTF_8).putBytes(tag.getValue().toByteArray());
+        return hasher.hash();
+    }
+
+    /**
+     * Writes the key backup of the given wallet to the given file, unless its fingerprint is the given one and the
+     * file exists. The file is replaced atomically.
+     *
+     * @return fingerprint of the backup written, or {@code null} if the backup was up to date
+     */
+    public static HashCode write(final Wallet wallet, final File file, final HashCode previousFingerprint)
+            throws IOException {
+        final HashCode fingerprint = fingerprint(wallet);
+        if (file.exists() && fingerprint.equals(previousFingerprint))
+            return null;
+
+        final Protos.Wallet walletProto = toProto(wallet);
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (final FileOutputStream os = new FileOutputStream(tempFile)) {
+            walletProto.writeTo(os);
+            os.flush();
+            os.getFD().sync();
+        } catch (final IOException x) {
+            tempFile.delete();
+            throw x;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("cannot rename: '" + tempFile + "'");
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Reads a wallet from a backup in protobuf format, e.g. the key backup.
+     */
+    public static Wallet read(final InputStream is, final NetworkParameters expectedNetworkParameters)
+            throws IOException {
+        try {
+            final Wallet wallet = new WalletProtobufSerializer().readWallet(is, true, null);
+
+            if (!wallet.getParams().equals(expectedNetworkParameters))
+                throw new IOException("bad wallet backup network parameters: " + wallet.getParams().getId());
+            if (!wallet.isConsistent())
+                throw new IOException("inconsistent wallet backup");
+
+            return wallet;
+        } catch (final UnreadableWalletException x) {
+            throw new IOException("unreadable wallet", x);
+        }
+    }
+
+    private static void putNullableString(final Hasher hasher, final String string) {
+        hasher.putBoolean(string != null);
+        if (string != null)
+            hasher.putString(string, StandardCharsets.UTF_8);
+    }
+}
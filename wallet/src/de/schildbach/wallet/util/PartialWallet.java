@@ -0,0 +1,110 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.protobuf.ByteString;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyChain;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helpers for loading a wallet in two phases. The partial wallet contains the key chains and just the transactions
+ * needed for the balance: the unspent and pending ones plus their direct spenders. The full wallet including the
+ * transaction history is loaded afterwards and replaces the partial one.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PartialWallet {
+    /**
+     * Strips the transaction history from the given wallet protobuf.
+     */
+    public static Protos.Wallet withoutHistory(final Protos.Wallet walletProto) {
+        final Map<ByteString, Protos.Transaction> txs = new HashMap<>(walletProto.getTransactionCount());
+        for (final Protos.Transaction tx : walletProto.getTransactionList())
+            txs.put(tx.getHash(), tx);
+
+        final Set<ByteString> keep = new HashSet<>();
+        for (final Protos.Transaction tx : walletProto.getTransactionList()) {
+            final Protos.Transaction.Pool pool = tx.getPool();
+            if (pool != Protos.Transaction.Pool.UNSPENT && pool != Protos.Transaction.Pool.PENDING)
+                continue;
+            keep.add(tx.getHash());
+            // spenders are needed to mark outputs as spent
+            for (final Protos.TransactionOutput output : tx.getTransactionOutputList()) {
+                if (output.hasSpentByTransactionHash()) {
+                    final Protos.Transaction spendingTx = txs.get(output.getSpentByTransactionHash());
+                    if (spendingTx != null && spendingTx.getPool() != Protos.Transaction.Pool.DEAD)
+                        keep.add(spendingTx.getHash());
+                }
+            }
+        }
+
+        final Protos.Wallet.Builder partialWallet = walletProto.toBuilder().clearTransaction();
+        for (final Protos.Transaction tx : walletProto.getTransactionList()) {
+            if (!keep.contains(tx.getHash()))
+                continue;
+            final Protos.Transaction.Builder partialTx = tx.toBuilder();
+            for (int i = 0; i < partialTx.getTransactionOutputCount(); i++) {
+                final Protos.TransactionOutput output = partialTx.getTransactionOutput(i);
+                if (output.hasSpentByTransactionHash() && !keep.contains(output.getSpentByTransactionHash()))
+                    partialTx.setTransactionOutput(i,
+                            output.toBuilder().clearSpentByTransactionHash().clearSpentByTransactionIndex());
+            }
+            final Protos.TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.hasOverridingTransaction() && !keep.contains(confidence.getOverridingTransaction()))
+                partialTx.setConfidence(confidence.toBuilder().clearOverridingTransaction());
+            partialWallet.addTransaction(partialTx);
+        }
+        return partialWallet.build();
+    }
+
+    /**
+     * Issues keys on the full wallet that have been handed out by the partial wallet in the meantime, e.g. for
+     * showing a fresh receive address.
+     */
+    public static void carryOverIssuedKeys(final Wallet partialWallet, final Wallet wallet) {
+        for (final DeterministicKeyChain partialChain : partialWallet.getActiveKeyChains()) {
+            for (final DeterministicKeyChain chain : wallet.getActiveKeyChains()) {
+                if (!isSameChain(partialChain, chain))
+                    continue;
+                final int numReceiveKeys = partialChain.getIssuedExternalKeys() - chain.getIssuedExternalKeys();
+                if (numReceiveKeys > 0)
+                    chain.getKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, numReceiveKeys);
+                final int numChangeKeys = partialChain.getIssuedInternalKeys() - chain.getIssuedInternalKeys();
+                if (numChangeKeys > 0)
+                    chain.getKeys(KeyChain.KeyPurpose.CHANGE, numChangeKeys);
+            }
+        }
+    }
+
+    private static boolean isSameChain(final DeterministicKeyChain chain1, final DeterministicKeyChain chain2) {
+        final DeterministicKey watchingKey1 = chain1.getWatchingKey();
+        final DeterministicKey watchingKey2 = chain2.getWatchingKey();
+        return chain1.getOutputScriptType() == chain2.getOutputScriptType()
+                && Arrays.equals(watchingKey1.getPubKey(), watchingKey2.getPubKey())
+                && Arrays.equals(watchingKey1.getChainCode(), watchingKey2.getChainCode());
+    }
+}
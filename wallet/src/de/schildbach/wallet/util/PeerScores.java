@@ -0,0 +1,296 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Scores of peers by address, from their measured download rate, latency and how their connections ended. Scores are
+ * meant to be persisted across service restarts via {@link #save(Writer)} and {@link #load(Reader)}, so that fast
+ * peers can be preferred and laggards dropped early.
+ *
+ * <p>
+ * The score is {@code log2(1 + kB/s) - ping / 500 ms - 4 * (stalls + misbehaviors) / connections
+ * - 2 * unexpected disconnects / connections}. Rates and pings are exponentially weighted moving averages. Penalties
+ * are relative to the number of connections, so a peer makes up for past failures by serving well.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerScores {
+    public enum Reason {
+        /** Closed by the remote or the network. */
+        UNEXPECTED,
+        /** Dropped by us for not making progress on the chain download. */
+        STALLED,
+        /** Dropped by us for misbehaving, e.g. announcing a chain behind ours. */
+        MISBEHAVING,
+        /** Dropped by us without blaming the peer. */
+        DROPPED
+    }
+
+    private static final String MAGIC = "PEER SCORES 1";
+    private static final double EWMA_ALPHA = 0.1;
+    private static final double LAGGARD_SCORE = -2;
+    private static final int LAGGARD_MIN_CONNECTIONS = 2;
+
+    private final int capacity;
+    private final Map<InetSocketAddress, Entry> entries = new LinkedHashMap<>();
+    private final Set<InetSocketAddress> connected = new HashSet<>();
+
+    private static final Logger log = LoggerFactory.getLogger(PeerScores.class);
+
+    public PeerScores(final int capacity) {
+        checkArgument(capacity > 0);
+        this.capacity = capacity;
+    }
+
+    public synchronized void recordConnected(final InetSocketAddress address, final long timeMs) {
+        final Entry entry = entry(address);
+        entry.connections++;
+        entry.lastSeenMs = timeMs;
+        connected.add(address);
+    }
+
+    /**
+     * Records the end of a connection. Only the first call after {@link #recordConnected(InetSocketAddress, long)}
+     * counts, so when dropping a peer, record the reason before closing the connection.
+     */
+    public synchronized void recordDisconnected(final InetSocketAddress address, final Reason reason) {
+        if (!connected.remove(address))
+            return;
+        final Entry entry = entry(address);
+        if (reason == Reason.UNEXPECTED)
+            entry.unexpectedDisconnects++;
+        else if (reason == Reason.STALLED)
+            entry.stalls++;
+        else if (reason == Reason.MISBEHAVING)
+            entry.misbehaviors++;
+    }
+
+    public synchronized void recordPing(final InetSocketAddress address, final long pingMs) {
+        final Entry entry = entry(address);
+        entry.pingMs = entry.pingMs < 0 ? pingMs : ewma(entry.pingMs, pingMs);
+    }
+
+    /**
+     * Records a sample of the rate the peer is serving the chain download at.
+     */
+    public synchronized void recordDownloadRate(final InetSocketAddress address, final double bytesPerSecond) {
+        final Entry entry = entry(address);
+        entry.bytesPerSecond = entry.bytesPerSecond < 0 ? bytesPerSecond : ewma(entry.bytesPerSecond,
+                bytesPerSecond);
+    }
+
+    @Nullable
+    public synchronized Score get(final InetSocketAddress address) {
+        final Entry entry = entries.get(address);
+        return entry != null ? entry.toScore(address) : null;
+    }
+
+    /**
+     * Returns whether the peer is known to be bad enough to be dropped right away.
+     */
+    public synchronized boolean isLaggard(final InetSocketAddress address) {
+        final Entry entry = entries.get(address);
+        return entry != null && entry.connections >= LAGGARD_MIN_CONNECTIONS && entry.score() < LAGGARD_SCORE;
+    }
+
+    /**
+     * Returns up to {@code maxPeers} of the peers with a positive score, best first.
+     */
+    public synchronized List<Score> best(final int maxPeers) {
+        final List<Score> scores = new ArrayList<>();
+        for (final Map.Entry<InetSocketAddress, Entry> entry : entries.entrySet())
+            if (entry.getValue().score() > 0)
+                scores.add(entry.getValue().toScore(entry.getKey()));
+        Collections.sort(scores, Comparator.comparingDouble((Score score) -> score.score).reversed());
+        return scores.subList(0, Math.min(maxPeers, scores.size()));
+    }
+
+    public synchronized Map<InetSocketAddress, Score> snapshot() {
+        final Map<InetSocketAddress, Score> scores = new LinkedHashMap<>(entries.size());
+        for (final Map.Entry<InetSocketAddress, Entry> entry : entries.entrySet())
+            scores.put(entry.getKey(), entry.getValue().toScore(entry.getKey()));
+        return Collections.unmodifiableMap(scores);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads scores, for example from a previous run. Lines that cannot be parsed are skipped.
+     */
+    public synchronized void load(final Reader reader) throws IOException {
+        final BufferedReader bufferedReader = new BufferedReader(reader);
+        final String magic = bufferedReader.readLine();
+        if (!MAGIC.equals(magic))
+            throw new IOException("not peer scores: " + magic);
+        while (true) {
+            final String line = bufferedReader.readLine();
+            if (line == null)
+                break;
+            final String[] fields = line.trim().split("\\s+");
+            try {
+                if (fields.length != 9)
+                    throw new IllegalArgumentException("expected 9 fields");
+                final InetSocketAddress address = new InetSocketAddress(InetAddresses.forString(fields[0]),
+                        Integer.parseInt(fields[1]));
+                final Entry entry = entry(address);
+                entry.bytesPerSecond = Double.parseDouble(fields[2]);
+                entry.pingMs = Double.parseDouble(fields[3]);
+                entry.connections = Integer.parseInt(fields[4]);
+                entry.unexpectedDisconnects = Integer.parseInt(fields[5]);
+                entry.stalls = Integer.parseInt(fields[6]);
+                entry.misbehaviors = Integer.parseInt(fields[7]);
+                entry.lastSeenMs = Long.parseLong(fields[8]);
+            } catch (final IllegalArgumentException x) {
+                log.warn("cannot parse line, ignoring: '{}'", line, x);
+            }
+        }
+    }
+
+    public synchronized void save(final Writer writer) throws IOException {
+        writer.write(MAGIC);
+        writer.write('\n');
+        for (final Map.Entry<InetSocketAddress, Entry> mapEntry : entries.entrySet()) {
+            final InetSocketAddress address = mapEntry.getKey();
+            if (address.isUnresolved())
+                continue;
+            final Entry entry = mapEntry.getValue();
+            writer.write(String.format(Locale.US, "%s %d %.1f %.1f %d %d %d %d %d\n",
+                    address.getAddress().getHostAddress(), address.getPort(), entry.bytesPerSecond, entry.pingMs,
+                    entry.connections, entry.unexpectedDisconnects, entry.stalls, entry.misbehaviors,
+                    entry.lastSeenMs));
+        }
+    }
+
+    private Entry entry(final InetSocketAddress address) {
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            if (entries.size() >= capacity)
+                evictLeastRecentlySeen();
+            entry = new Entry();
+            entries.put(address, entry);
+        }
+        return entry;
+    }
+
+    private void evictLeastRecentlySeen() {
+        InetSocketAddress evict = null;
+        long evictLastSeenMs = Long.MAX_VALUE;
+        for (final Map.Entry<InetSocketAddress, Entry> entry : entries.entrySet()) {
+            if (connected.contains(entry.getKey()))
+                continue;
+            if (entry.getValue().lastSeenMs < evictLastSeenMs) {
+                evict = entry.getKey();
+                evictLastSeenMs = entry.getValue().lastSeenMs;
+            }
+        }
+        if (evict != null)
+            entries.remove(evict);
+    }
+
+    private static double ewma(final double average, final double sample) {
+        return average + EWMA_ALPHA * (sample - average);
+    }
+
+    public static final class Score {
+        public final InetSocketAddress address;
+        public final double score;
+        /** Download rate in bytes per second, or negative if never measured. */
+        public final double bytesPerSecond;
+        /** Ping in milliseconds, or negative if never measured. */
+        public final double pingMs;
+        public final int connections;
+        public final int unexpectedDisconnects;
+        public final int stalls;
+        public final int misbehaviors;
+
+        private Score(final InetSocketAddress address, final double score, final double bytesPerSecond,
+                final double pingMs, final int connections, final int unexpectedDisconnects, final int stalls,
+                final int misbehaviors) {
+            this.address = address;
+            this.score = score;
+            this.bytesPerSecond = bytesPerSecond;
+            this.pingMs = pingMs;
+            this.connections = connections;
+            this.unexpectedDisconnects = unexpectedDisconnects;
+            this.stalls = stalls;
+            this.misbehaviors = misbehaviors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: score %.2f, %.0f bytes/s, %.0f ms ping, %d connections, "
+                    + "%d unexpected disconnects, %d stalls, %d misbehaviors", address, score, bytesPerSecond,
+                    pingMs, connections, unexpectedDisconnects, stalls, misbehaviors);
+        }
+    }
+
+    private static final class Entry {
+        double bytesPerSecond = -1;
+        double pingMs = -1;
+        int connections = 0;
+        int unexpectedDisconnects = 0;
+        int stalls = 0;
+        int misbehaviors = 0;
+        long lastSeenMs = 0;
+
+        double score() {
+            double score = 0;
+            if (bytesPerSecond >= 0)
+                score += Math.log(1 + bytesPerSecond / 1000) / Math.log(2);
+            if (pingMs >= 0)
+                score -= pingMs / 500;
+            if (connections > 0) {
+                score -= 4.0 * (stalls + misbehaviors) / connections;
+                score -= 2.0 * unexpectedDisconnects / connections;
+            }
+            return score;
+        }
+
+        Score toScore(final InetSocketAddress address) {
+            return new Score(address, score(), bytesPerSecond, pingMs, connections, unexpectedDisconnects, stalls,
+                    misbehaviors);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.StoredBlock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded cache of the most recent blocks of the best chain, indexed by height. Blocks are kept in a ring buffer, so
+ * looking up the {@code k} most recent blocks takes {@code k} array reads. The cached blocks always form a
+ * contiguous chain; a block that doesn't connect replaces the whole cache.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class RecentBlocks {
+    private final StoredBlock[] ring;
+    private int headHeight = -1;
+    private int size = 0;
+
+    public RecentBlocks(final int capacity) {
+        checkArgument(capacity > 0);
+        this.ring = new StoredBlock[capacity];
+    }
+
+    /**
+     * Adds a new best block. If it is already cached, nothing happens. If it connects to a cached block other than
+     * the head, the blocks above that one are rolled back first.
+     */
+    public synchronized void add(final StoredBlock block) {
+        final int height = block.getHeight();
+        final StoredBlock existing = atHeight(height);
+        if (existing != null && existing.equals(block))
+            return;
+        final StoredBlock prev = atHeight(height - 1);
+        if (prev != null && prev.getHeader().getHash().equals(block.getHeader().getPrevBlockHash())) {
+            size -= headHeight - (height - 1);
+        } else {
+            size = 0;
+        }
+        headHeight = height;
+        ring[index(height)] = block;
+        size = Math.min(size + 1, ring.length);
+    }
+
+    /**
+     * Adds a block below the oldest cached block, as long as there is room. Blocks that don't connect are ignored.
+     *
+     * @return true if the block was added
+     */
+    public synchronized boolean addOldest(final StoredBlock block) {
+        if (size == 0 || size == ring.length)
+            return false;
+        final StoredBlock oldest = ring[index(headHeight - size + 1)];
+        if (block.getHeight() != oldest.getHeight() - 1
+                || !block.getHeader().getHash().equals(oldest.getHeader().getPrevBlockHash()))
+            return false;
+        ring[index(block.getHeight())] = block;
+        size++;
+        return true;
+    }
+
+    /**
+     * Applies a reorganize of the best chain, as reported by
+     * {@link org.bitcoinj.core.listeners.ReorganizeListener#reorganize(StoredBlock, List, List)}.
+     *
+     * @param newBlocks
+     *            the blocks of the new best chain above the split point, from top to bottom
+     */
+    public synchronized void reorganize(final StoredBlock splitPoint, final List<StoredBlock> newBlocks) {
+        if (atHeight(splitPoint.getHeight()) != null) {
+            size -= headHeight - splitPoint.getHeight();
+            headHeight = splitPoint.getHeight();
+        } else {
+            size = 0;
+        }
+        for (int i = newBlocks.size() - 1; i >= 0; i--)
+            add(newBlocks.get(i));
+    }
+
+    /**
+     * Returns up to {@code maxBlocks} of the most recent blocks, from top to bottom.
+     */
+    public synchronized List<StoredBlock> get(final int maxBlocks) {
+        final int n = Math.min(maxBlocks, size);
+        final List<StoredBlock> blocks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            blocks.add(ring[index(headHeight - i)]);
+        return blocks;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+    }
+
+    private StoredBlock atHeight(final int height) {
+        if (size == 0 || height > headHeight || height <= headHeight - size)
+            return null;
+        return ring[index(height)];
+    }
+
+    private int index(final int height) {
+        return height % ring.length;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Splitter;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of resolved host names, with a fixed time to live. Entries that outlived it are still available via
+ * {@link #getAnyAge(HostAndPort)}, as a fallback if resolving fails. The cache can be serialized to a string, for
+ * persisting it across restarts.
+ *
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ResolvedAddressCache {
+    private final Duration ttl;
+    private final Map<HostAndPort, Entry> entries = new LinkedHashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(ResolvedAddressCache.class);
+
+    public ResolvedAddressCache(final Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public void put(final HostAndPort hostAndPort, final InetSocketAddress socketAddress, final long timeMs) {
+        entries.put(hostAndPort, new Entry(socketAddress, timeMs));
+    }
+
+    /**
+     * Returns the cached address, if it was resolved within the time to live.
+     */
+    @Nullable
+    public InetSocketAddress get(final HostAndPort hostAndPort, final long nowMs) {
+        final Entry entry = entries.get(hostAndPort);
+        if (entry == null || nowMs - entry.timeMs > ttl.toMillis() || nowMs < entry.timeMs)
+            return null;
+        return entry.socketAddress;
+    }
+
+    @Nullable
+    public InetSocketAddress getAnyAge(final HostAndPort hostAndPort) {
+        final Entry entry = entries.get(hostAndPort);
+        return entry != null ? entry.socketAddress : null;
+    }
+
+    /**
+     * Removes all entries for host names not in the given set.
+     */
+    public void retainAll(final Set<HostAndPort> hostAndPorts) {
+        entries.keySet().retainAll(hostAndPorts);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Serializes the cache, one entry per line: host name and port, resolved address, time resolved.
+     */
+    public String serialize() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Map.Entry<HostAndPort, Entry> entry : entries.entrySet()) {
+            final InetSocketAddress socketAddress = entry.getValue().socketAddress;
+            builder.append(entry.getKey()).append(' ');
+            builder.append(HostAndPort.fromParts(socketAddress.getAddress().getHostAddress(),
+                    socketAddress.getPort())).append(' ');
+            builder.append(entry.getValue().timeMs).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a cache serialized by {@link #serialize()}. Entries that cannot be parsed are skipped.
+     */
+    public static ResolvedAddressCache parse(@Nullable final String serialized, final Duration ttl) {
+        final ResolvedAddressCache cache = new ResolvedAddressCache(ttl);
+        if (serialized == null)
+            return cache;
+        for (final String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(serialized)) {
+            try {
+                final List<String> fields = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+                if (fields.size() != 3)
+                    throw new IllegalArgumentException("expected 3 fields");
+                final HostAndPort hostAndPort = HostAndPort.fromString(fields.get(0));
+                final HostAndPort resolved = HostAndPort.fromString(fields.get(1));
+                final InetAddress address = InetAddresses.forString(resolved.getHost());
+                cache.put(hostAndPort, new InetSocketAddress(address, resolved.getPort()),
+                        Long.parseLong(fields.get(2)));
+            } catch (final IllegalArgumentException x) {
+                log.info("cannot parse: '{}'", line);
+            }
+        }
+        return cache;
+    }
+
+    private static final class Entry {
+        final InetSocketAddress socketAddress;
+        final long timeMs;
+
+        Entry(final InetSocketAddress socketAddress, final long timeMs) {
+            this.socketAddress = socketAddress;
+            this.timeMs = timeMs;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Accounts for what a background run costs and how much of it was useful work: how long the wake lock was held,
+ * how long the radio was kept active and how many blocks were processed. The radio is assumed to stay active for a
+ * fixed tail after each bit of network activity, so activity within the tail of earlier activity only extends the
+ * active time. Work is useful up to the point where the chain tip was reached and nothing was left to do; the rest
+ * of the wake lock time was spent idling.
+ *
+ * <p>
+ * Finished runs can be appended to a serialized history, for persisting them across restarts.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class RunAccounting {
+    private final Duration radioTail;
+    private final long startedMs;
+    private long wakeLockAcquiredMs = -1;
+    private long wakeLockMs = 0;
+    private long radioActiveUntilMs = -1;
+    private long radioActiveMs = 0;
+    private int blocks = 0;
+    private long usefulUntilMs = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(RunAccounting.class);
+
+    /**
+     * @param radioTail how long the radio is assumed to stay active after network activity
+     */
+    public RunAccounting(final Duration radioTail, final long startedMs) {
+        this.radioTail = radioTail;
+        this.startedMs = startedMs;
+    }
+
+    public synchronized void onWakeLockAcquired(final long nowMs) {
+        checkState(wakeLockAcquiredMs == -1, "already acquired");
+        wakeLockAcquiredMs = nowMs;
+    }
+
+    public synchronized void onWakeLockReleased(final long nowMs) {
+        checkState(wakeLockAcquiredMs != -1, "not acquired");
+        wakeLockMs += Math.max(nowMs - wakeLockAcquiredMs, 0);
+        wakeLockAcquiredMs = -1;
+    }
+
+    public synchronized void onNetworkActivity(final long nowMs) {
+        final long untilMs = nowMs + radioTail.toMillis();
+        if (untilMs <= radioActiveUntilMs)
+            return;
+        radioActiveMs += untilMs - Math.max(nowMs, radioActiveUntilMs);
+        radioActiveUntilMs = untilMs;
+    }
+
+    public synchronized void onBlockProcessed() {
+        blocks++;
+    }
+
+    /**
+     * Marks everything up to now as useful work, e.g. when the chain tip was reached or a broadcast was finished.
+     */
+    public synchronized void onWorkDone(final long nowMs) {
+        usefulUntilMs = Math.max(usefulUntilMs, nowMs);
+    }
+
+    /**
+     * Finishes the run. The wake lock must have been released.
+     *
+     * @param stoppedAtTip whether the run was stopped because the chain tip was reached, rather than idling out
+     */
+    public synchronized Run finish(final long nowMs, final boolean stoppedAtTip) {
+        checkState(wakeLockAcquiredMs == -1, "still acquired");
+        final long durationMs = Math.max(nowMs - startedMs, 0);
+        final long usefulMs = usefulUntilMs != -1 ? Math.min(usefulUntilMs - startedMs, durationMs) : durationMs;
+        return new Run(startedMs, durationMs, wakeLockMs, radioActiveMs, blocks, Math.max(usefulMs, 0),
+                stoppedAtTip);
+    }
+
+    /**
+     * Appends a run to a history serialized by this method, evicting the oldest runs if over capacity. Lines that
+     * cannot be parsed are dropped.
+     */
+    public static String append(@Nullable final String serialized, final Run run, final int capacity) {
+        checkArgument(capacity > 0);
+        final LinkedList<Run> runs = new LinkedList<>(parse(serialized));
+        runs.add(run);
+        while (runs.size() > capacity)
+            runs.removeFirst();
+        final StringBuilder builder = new StringBuilder();
+        for (final Run r : runs)
+            builder.append(r.startedMs).append(' ').append(r.durationMs).append(' ').append(r.wakeLockMs)
+                    .append(' ').append(r.radioActiveMs).append(' ').append(r.blocks).append(' ')
+                    .append(r.usefulMs).append(' ').append(r.stoppedAtTip).append('\n');
+        return builder.toString();
+    }
+
+    public static List<Run> parse(@Nullable final String serialized) {
+        final List<Run> runs = new LinkedList<>();
+        if (serialized == null)
+            return runs;
+        for (final String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(serialized)) {
+            try {
+                final List<String> fields = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+                if (fields.size() != 7)
+                    throw new IllegalArgumentException("wrong number of fields");
+                runs.add(new Run(Long.parseLong(fields.get(0)), Long.parseLong(fields.get(1)),
+                        Long.parseLong(fields.get(2)), Long.parseLong(fields.get(3)),
+                        Integer.parseInt(fields.get(4)), Long.parseLong(fields.get(5)),
+                        Boolean.parseBoolean(fields.get(6))));
+            } catch (final IllegalArgumentException x) {
+                log.info("cannot parse: '{}'", line);
+            }
+        }
+        return runs;
+    }
+
+    public static final class Run {
+        public final long startedMs;
+        public final long durationMs;
+        public final long wakeLockMs;
+        public final long radioActiveMs;
+        public final int blocks;
+        /** Time from the start until the last useful work was done. */
+        public final long usefulMs;
+        public final boolean stoppedAtTip;
+
+        public Run(final long startedMs, final long durationMs, final long wakeLockMs, final long radioActiveMs,
+                final int blocks, final long usefulMs, final boolean stoppedAtTip) {
+            checkArgument(durationMs >= 0 && wakeLockMs >= 0 && radioActiveMs >= 0 && blocks >= 0
+                    && usefulMs >= 0);
+            this.startedMs = startedMs;
+            this.durationMs = durationMs;
+            this.wakeLockMs = wakeLockMs;
+            this.radioActiveMs = radioActiveMs;
+            this.blocks = blocks;
+            this.usefulMs = usefulMs;
+            this.stoppedAtTip = stoppedAtTip;
+        }
+
+        /** Wake lock time spent after the useful work was done. */
+        public long idleMs() {
+            return Math.max(wakeLockMs - usefulMs, 0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blocks in %s, wake lock %s (%s idle), radio active %s%s", blocks,
+                    Duration.ofMillis(durationMs), Duration.ofMillis(wakeLockMs), Duration.ofMillis(idleMs()),
+                    Duration.ofMillis(radioActiveMs), stoppedAtTip ? ", stopped at tip" : "");
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * History of recent blockchain syncs: when they started, how long they took to reach the chain tip, how many bytes
+ * they transferred and how many blocks they were behind. From the history, a model is fitted:
+ *
+ * <ul>
+ * <li>how often blocks arrive, from the blocks that piled up between syncs</li>
+ * <li>a fixed cost per sync, in time and bytes, from the cheapest sync</li>
+ * <li>a variable cost per block, from what the syncs cost beyond that</li>
+ * </ul>
+ *
+ * The model predicts what the next sync will cost, and when it becomes useful: a sync is worth its fixed cost only
+ * once enough blocks piled up. Without enough history, defaults are assumed. The last prediction is kept, so it can
+ * be compared to the sync that follows. The history can be serialized to a string, for persisting it across
+ * restarts.
+ *
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncHistory {
+    /** Syncs needed before the model is trusted. */
+    public static final int MIN_RUNS = 3;
+    public static final Duration DEFAULT_BLOCK_INTERVAL = Duration.ofMinutes(10);
+    public static final long DEFAULT_BYTES_PER_BLOCK = 16 * 1024;
+
+    private final int capacity;
+    private final LinkedList<Run> runs = new LinkedList<>();
+    @Nullable
+    private Prediction lastPrediction = null;
+
+    private static final Logger log = LoggerFactory.getLogger(SyncHistory.class);
+
+    public SyncHistory(final int capacity) {
+        checkArgument(capacity >= MIN_RUNS);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records a finished sync, evicting the oldest if over capacity.
+     *
+     * @return the prediction that was made for this sync, if any
+     */
+    @Nullable
+    public Prediction record(final Run run) {
+        runs.add(run);
+        while (runs.size() > capacity)
+            runs.removeFirst();
+        final Prediction prediction = lastPrediction;
+        lastPrediction = null;
+        return prediction;
+    }
+
+    public List<Run> getRuns() {
+        return Collections.unmodifiableList(runs);
+    }
+
+    @Nullable
+    public Prediction getLastPrediction() {
+        return lastPrediction;
+    }
+
+    /**
+     * Predicts the next sync and remembers the prediction.
+     *
+     * @param nowMs current time
+     * @param blocksBehindNow blocks known to be missing already
+     * @param minInterval earliest the next sync should start, e.g. depending on how recently the app was used
+     * @param maxInterval latest the next sync should start
+     */
+    public Prediction predict(final long nowMs, final int blocksBehindNow, final Duration minInterval,
+            final Duration maxInterval) {
+        final boolean trusted = runs.size() >= MIN_RUNS;
+        final double blockIntervalMs = trusted ? blockIntervalMs() : DEFAULT_BLOCK_INTERVAL.toMillis();
+
+        long fixedMs = 0, fixedBytes = 0;
+        double msPerBlock = 0, bytesPerBlock = DEFAULT_BYTES_PER_BLOCK;
+        if (trusted) {
+            fixedMs = Long.MAX_VALUE;
+            fixedBytes = Long.MAX_VALUE;
+            for (final Run run : runs) {
+                fixedMs = Math.min(fixedMs, run.durationMs);
+                fixedBytes = Math.min(fixedBytes, run.bytes);
+            }
+            long variableMs = 0, variableBytes = 0, blocks = 0;
+            for (final Run run : runs) {
+                variableMs += run.durationMs - fixedMs;
+                variableBytes += run.bytes - fixedBytes;
+                blocks += run.blocks;
+            }
+            if (blocks > 0) {
+                msPerBlock = (double) variableMs / blocks;
+                bytesPerBlock = (double) variableBytes / blocks;
+            }
+        }
+
+        // a sync is useful once it spends at least as much time on new blocks as it spends on getting started
+        long intervalMs = minInterval.toMillis();
+        if (msPerBlock > 0) {
+            final double usefulBlocks = fixedMs / msPerBlock;
+            intervalMs = Math.max(intervalMs, (long) (usefulBlocks * blockIntervalMs));
+        }
+        intervalMs = Math.min(intervalMs, maxInterval.toMillis());
+
+        // blocks pile up since the last sync ended, which might have been a while ago
+        final Run lastRun = runs.peekLast();
+        final long sinceMs = lastRun != null ? Math.max(0, nowMs - lastRun.endedMs()) : 0;
+        final int blocks = blocksBehindNow + (int) ((sinceMs + intervalMs) / blockIntervalMs);
+        final long bytes = fixedBytes + (long) (blocks * bytesPerBlock);
+        final long durationMs = fixedMs + (long) (blocks * msPerBlock);
+        lastPrediction = new Prediction(nowMs, intervalMs, blocks, bytes, durationMs, trusted);
+        return lastPrediction;
+    }
+
+    /**
+     * Average time it takes for a block to arrive, from the blocks that piled up in the gaps between syncs.
+     */
+    private double blockIntervalMs() {
+        long gapsMs = 0, blocks = 0;
+        Run previous = null;
+        for (final Run run : runs) {
+            if (previous != null && run.startedMs > previous.endedMs()) {
+                gapsMs += run.startedMs - previous.endedMs();
+                blocks += run.blocksBehind;
+            }
+            previous = run;
+        }
+        if (blocks == 0 || gapsMs == 0)
+            return DEFAULT_BLOCK_INTERVAL.toMillis();
+        return (double) gapsMs / blocks;
+    }
+
+    public String serialize() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Run run : runs)
+            builder.append("run ").append(run.startedMs).append(' ').append(run.durationMs).append(' ')
+                    .append(run.bytes).append(' ').append(run.blocks).append(' ').append(run.blocksBehind)
+                    .append('\n');
+        final Prediction prediction = lastPrediction;
+        if (prediction != null)
+            builder.append("prediction ").append(prediction.madeMs).append(' ').append(prediction.intervalMs)
+                    .append(' ').append(prediction.blocks).append(' ').append(prediction.bytes).append(' ')
+                    .append(prediction.durationMs).append(' ').append(prediction.trusted).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Reads a history serialized by {@link #serialize()}. Lines that cannot be parsed are skipped.
+     */
+    public static SyncHistory parse(@Nullable final String serialized, final int capacity) {
+        final SyncHistory history = new SyncHistory(capacity);
+        if (serialized == null)
+            return history;
+        for (final String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(serialized)) {
+            try {
+                final List<String> fields = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+                if (fields.size() == 6 && fields.get(0).equals("run"))
+                    history.record(new Run(Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)),
+                            Long.parseLong(fields.get(3)), Integer.parseInt(fields.get(4)),
+                            Integer.parseInt(fields.get(5))));
+                else if (fields.size() == 7 && fields.get(0).equals("prediction"))
+                    history.lastPrediction = new Prediction(Long.parseLong(fields.get(1)),
+                            Long.parseLong(fields.get(2)), Integer.parseInt(fields.get(3)),
+                            Long.parseLong(fields.get(4)), Long.parseLong(fields.get(5)),
+                            Boolean.parseBoolean(fields.get(6)));
+                else
+                    throw new IllegalArgumentException("unknown line");
+            } catch (final IllegalArgumentException x) {
+                log.info("cannot parse: '{}'", line);
+            }
+        }
+        return history;
+    }
+
+    public static final class Run {
+        public final long startedMs;
+        /** Time it took to reach the chain tip, or the whole run if it never got there. */
+        public final long durationMs;
+        public final long bytes;
+        /** Blocks downloaded. */
+        public final int blocks;
+        /** Blocks missing when the chain download started. */
+        public final int blocksBehind;
+
+        public Run(final long startedMs, final long durationMs, final long bytes, final int blocks,
+                final int blocksBehind) {
+            checkArgument(durationMs >= 0 && bytes >= 0 && blocks >= 0 && blocksBehind >= 0);
+            this.startedMs = startedMs;
+            this.durationMs = durationMs;
+            this.bytes = bytes;
+            this.blocks = blocks;
+            this.blocksBehind = blocksBehind;
+        }
+
+        public long endedMs() {
+            return startedMs + durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blocks (%d behind), %d bytes in %s", blocks, blocksBehind, bytes,
+                    Duration.ofMillis(durationMs));
+        }
+    }
+
+    public static final class Prediction {
+        public final long madeMs;
+        public final long intervalMs;
+        public final int blocks;
+        public final long bytes;
+        public final long durationMs;
+        /** Whether it is based on enough history, rather than on defaults. */
+        public final boolean trusted;
+
+        private Prediction(final long madeMs, final long intervalMs, final int blocks, final long bytes,
+                final long durationMs, final boolean trusted) {
+            this.madeMs = madeMs;
+            this.intervalMs = intervalMs;
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.durationMs = durationMs;
+            this.trusted = trusted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("in %s: %d blocks, %d bytes in %s%s", Duration.ofMillis(intervalMs), blocks, bytes,
+                    Duration.ofMillis(durationMs), trusted ? "" : " (defaults)");
+        }
+    }
+}
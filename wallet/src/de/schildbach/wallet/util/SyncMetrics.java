@@ -0,0 +1,306 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Throughput metrics of a blockchain sync. Blocks, transactions and bytes are counted in a rolling window of one
+ * second buckets, so rates reflect the recent past rather than the whole session. Per peer, received bytes, blocks and
+ * the last ping time are tracked. Also accounted for are the time spent in wallet callbacks, the time it took to
+ * catch up with the chain tip, and stall events: gaps of at least a threshold between two blocks during a chain
+ * download.
+ *
+ * <p>
+ * This class is thread-safe. Use {@link #snapshot()} to get an immutable view for display or logging.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncMetrics {
+    private static final long BUCKET_MS = 1000;
+
+    private final Clock clock;
+    private final long windowMs;
+    private final long stallThresholdMs;
+    private final long startedMs;
+
+    private final RollingCounter blocks;
+    private final RollingCounter transactions;
+    private final RollingCounter bytes;
+    private long totalBlocks = 0;
+    private long totalTransactions = 0;
+    private long totalBytes = 0;
+    private final Map<InetSocketAddress, PeerCounters> peers = new LinkedHashMap<>();
+
+    private long walletCallbackNanos = 0;
+    private long walletCallbacks = 0;
+
+    private boolean downloading = false;
+    private long downloadStartedMs;
+    private long lastProgressMs;
+    private long timeToTipMs = -1;
+    private int stalls = 0;
+    private long stalledMs = 0;
+
+    public SyncMetrics(final Duration window, final Duration stallThreshold, final Clock clock) {
+        checkArgument(window.toMillis() >= BUCKET_MS);
+        this.clock = clock;
+        this.windowMs = window.toMillis();
+        this.stallThresholdMs = stallThreshold.toMillis();
+        this.startedMs = clock.millis();
+        final int numBuckets = (int) (windowMs / BUCKET_MS);
+        this.blocks = new RollingCounter(numBuckets);
+        this.transactions = new RollingCounter(numBuckets);
+        this.bytes = new RollingCounter(numBuckets);
+    }
+
+    /**
+     * Records the start of a chain download. If a download is already in progress, it continues from a new download
+     * peer, which counts as progress.
+     */
+    public synchronized void onChainDownloadStarted(final int blocksToDownload) {
+        if (downloading) {
+            progress(clock.millis());
+            return;
+        }
+        if (blocksToDownload <= 0)
+            return;
+        downloading = true;
+        downloadStartedMs = clock.millis();
+        lastProgressMs = downloadStartedMs;
+        timeToTipMs = -1;
+    }
+
+    /**
+     * Records a downloaded block and the number of transactions that came with it.
+     */
+    public synchronized void onBlockDownloaded(@Nullable final InetSocketAddress peer, final int numTransactions,
+            final int blocksLeft) {
+        final long now = clock.millis();
+        blocks.add(now, 1);
+        transactions.add(now, numTransactions);
+        totalBlocks++;
+        totalTransactions += numTransactions;
+        if (peer != null)
+            peer(peer).blocks++;
+        if (downloading) {
+            progress(now);
+            if (blocksLeft <= 0) {
+                downloading = false;
+                timeToTipMs = now - downloadStartedMs;
+            }
+        }
+    }
+
+    /**
+     * Records a received message of the given size.
+     */
+    public synchronized void onMessageReceived(final InetSocketAddress peer, final int numBytes) {
+        final long now = clock.millis();
+        bytes.add(now, numBytes);
+        totalBytes += numBytes;
+        final PeerCounters counters = peer(peer);
+        counters.bytes.add(now, numBytes);
+        counters.totalBytes += numBytes;
+    }
+
+    public synchronized void onPing(final InetSocketAddress peer, final long pingMs) {
+        peer(peer).pingMs = pingMs;
+    }
+
+    public synchronized void onWalletCallback(final long nanos) {
+        walletCallbackNanos += nanos;
+        walletCallbacks++;
+    }
+
+    public synchronized Snapshot snapshot() {
+        final long now = clock.millis();
+        final long elapsedMs = Math.max(BUCKET_MS, Math.min(windowMs, now - startedMs));
+        final Map<InetSocketAddress, PeerSnapshot> peerSnapshots = new LinkedHashMap<>(peers.size());
+        for (final Map.Entry<InetSocketAddress, PeerCounters> entry : peers.entrySet()) {
+            final PeerCounters counters = entry.getValue();
+            peerSnapshots.put(entry.getKey(), new PeerSnapshot(counters.pingMs,
+                    rate(counters.bytes.sum(now), elapsedMs), counters.totalBytes, counters.blocks));
+        }
+        final long currentGapMs = downloading ? now - lastProgressMs : 0;
+        final boolean stalled = currentGapMs >= stallThresholdMs;
+        return new Snapshot(Duration.ofMillis(now - startedMs), rate(blocks.sum(now), elapsedMs),
+                rate(transactions.sum(now), elapsedMs), rate(bytes.sum(now), elapsedMs), totalBlocks,
+                totalTransactions, totalBytes, Collections.unmodifiableMap(peerSnapshots),
+                Duration.ofNanos(walletCallbackNanos), walletCallbacks, downloading,
+                Duration.ofMillis(currentGapMs), timeToTipMs >= 0 ? Duration.ofMillis(timeToTipMs) : null,
+                stalled ? stalls + 1 : stalls, Duration.ofMillis(stalled ? stalledMs + currentGapMs : stalledMs),
+                stalled);
+    }
+
+    private void progress(final long now) {
+        final long gap = now - lastProgressMs;
+        if (gap >= stallThresholdMs) {
+            stalls++;
+            stalledMs += gap;
+        }
+        lastProgressMs = now;
+    }
+
+    private PeerCounters peer(final InetSocketAddress peer) {
+        PeerCounters counters = peers.get(peer);
+        if (counters == null) {
+            counters = new PeerCounters(blocks.counts.length);
+            peers.put(peer, counters);
+        }
+        return counters;
+    }
+
+    private static double rate(final long count, final long elapsedMs) {
+        return count * 1000.0 / elapsedMs;
+    }
+
+    public static final class Snapshot {
+        public final Duration uptime;
+        public final double blocksPerSecond;
+        public final double transactionsPerSecond;
+        public final double bytesPerSecond;
+        public final long totalBlocks;
+        public final long totalTransactions;
+        public final long totalBytes;
+        public final Map<InetSocketAddress, PeerSnapshot> peers;
+        public final Duration walletCallbackTime;
+        public final long walletCallbacks;
+        public final boolean downloading;
+        /** Time since the last progress of the chain download, or zero if not downloading. */
+        public final Duration sinceProgress;
+        @Nullable
+        public final Duration timeToTip;
+        public final int stalls;
+        public final Duration stalledTime;
+        public final boolean stalled;
+
+        private Snapshot(final Duration uptime, final double blocksPerSecond, final double transactionsPerSecond,
+                final double bytesPerSecond, final long totalBlocks, final long totalTransactions,
+                final long totalBytes, final Map<InetSocketAddress, PeerSnapshot> peers,
+                final Duration walletCallbackTime, final long walletCallbacks, final boolean downloading,
+                final Duration sinceProgress, @Nullable final Duration timeToTip, final int stalls, final Duration stalledTime,
+                final boolean stalled) {
+            this.uptime = uptime;
+            this.blocksPerSecond = blocksPerSecond;
+            this.transactionsPerSecond = transactionsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.totalBlocks = totalBlocks;
+            this.totalTransactions = totalTransactions;
+            this.totalBytes = totalBytes;
+            this.peers = peers;
+            this.walletCallbackTime = walletCallbackTime;
+            this.walletCallbacks = walletCallbacks;
+            this.downloading = downloading;
+            this.sinceProgress = sinceProgress;
+            this.timeToTip = timeToTip;
+            this.stalls = stalls;
+            this.stalledTime = stalledTime;
+            this.stalled = stalled;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%d blocks, %d transactions, %d bytes in %s;", totalBlocks,
+                    totalTransactions, totalBytes, uptime));
+            builder.append(String.format(" recently %.1f blocks/s, %.1f tx/s, %.0f bytes/s;", blocksPerSecond,
+                    transactionsPerSecond, bytesPerSecond));
+            builder.append(String.format(" %s in %d wallet callbacks;", walletCallbackTime, walletCallbacks));
+            if (timeToTip != null)
+                builder.append(" reached tip in ").append(timeToTip).append(';');
+            else if (downloading)
+                builder.append(" still downloading;");
+            builder.append(String.format(" %d stalls for %s", stalls, stalledTime));
+            for (final Map.Entry<InetSocketAddress, PeerSnapshot> entry : peers.entrySet())
+                builder.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+            return builder.toString();
+        }
+    }
+
+    public static final class PeerSnapshot {
+        public final long pingMs;
+        public final double bytesPerSecond;
+        public final long totalBytes;
+        public final long blocks;
+
+        private PeerSnapshot(final long pingMs, final double bytesPerSecond, final long totalBytes,
+                final long blocks) {
+            this.pingMs = pingMs;
+            this.bytesPerSecond = bytesPerSecond;
+            this.totalBytes = totalBytes;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s ping, recently %.0f bytes/s, %d bytes, %d blocks",
+                    pingMs < Long.MAX_VALUE ? pingMs + " ms" : "no", bytesPerSecond, totalBytes, blocks);
+        }
+    }
+
+    private static final class PeerCounters {
+        final RollingCounter bytes;
+        long totalBytes = 0;
+        long blocks = 0;
+        long pingMs = Long.MAX_VALUE;
+
+        PeerCounters(final int numBuckets) {
+            this.bytes = new RollingCounter(numBuckets);
+        }
+    }
+
+    private static final class RollingCounter {
+        final long[] counts;
+        final long[] buckets;
+
+        RollingCounter(final int numBuckets) {
+            this.counts = new long[numBuckets];
+            this.buckets = new long[numBuckets];
+            Arrays.fill(buckets, -1);
+        }
+
+        void add(final long timeMs, final long n) {
+            final long bucket = timeMs / BUCKET_MS;
+            final int i = (int) (bucket % counts.length);
+            if (buckets[i] != bucket) {
+                buckets[i] = bucket;
+                counts[i] = 0;
+            }
+            counts[i] += n;
+        }
+
+        long sum(final long timeMs) {
+            final long bucket = timeMs / BUCKET_MS;
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++)
+                if (buckets[i] > bucket - counts.length && buckets[i] <= bucket)
+                    sum += counts[i];
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bitcoinj.wallet.WalletTransaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helpers for moving old transactions out of the wallet. A transaction can be archived once it is fully spent and
+ * it and all of its spenders are buried deep enough in the chain. Archived transactions are stripped from the wallet
+ * while it is loaded, so they don't take up heap and don't slow down loading, saving or balance calculation.
+ *
+ * <p>
+ * Because an archived transaction isn't there to connect to any more, the value of each transaction spending from it
+ * would come out too high. The archive remembers these archived spends and corrects for them in
+ * {@link #getValue(Transaction, Wallet)}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionArchive {
+    public static final TransactionArchive EMPTY = new TransactionArchive(Collections.emptyMap());
+
+    private final Map<Sha256Hash, Coin> archivedSpends;
+
+    /**
+     * @param archivedSpends
+     *            for each spending transaction, the sum of wallet outputs it spends from archived transactions
+     */
+    public TransactionArchive(final Map<Sha256Hash, Coin> archivedSpends) {
+        this.archivedSpends = archivedSpends;
+    }
+
+    /**
+     * Like {@link Transaction#getValue(org.bitcoinj.core.TransactionBag)}, but takes into account wallet outputs that
+     * have been spent from archived transactions.
+     */
+    public Coin getValue(final Transaction tx, final Wallet wallet) {
+        final Coin value = tx.getValue(wallet);
+        final Coin archivedSpend = archivedSpends.get(tx.getTxId());
+        return archivedSpend != null ? value.subtract(archivedSpend) : value;
+    }
+
+    /**
+     * A wallet output of an archived transaction, spent by another transaction.
+     */
+    public static final class Spend {
+        public final Sha256Hash spendingTxId;
+        public final Sha256Hash archivedTxId;
+        public final Coin value;
+
+        public Spend(final Sha256Hash spendingTxId, final Sha256Hash archivedTxId, final Coin value) {
+            this.spendingTxId = spendingTxId;
+            this.archivedTxId = archivedTxId;
+            this.value = value;
+        }
+    }
+
+    public static final class Selection {
+        /** Archived transactions by ID, serialized without references to other transactions. */
+        public final Map<Sha256Hash, Protos.Transaction> transactions;
+        public final List<Spend> spends;
+
+        private Selection(final Map<Sha256Hash, Protos.Transaction> transactions, final List<Spend> spends) {
+            this.transactions = transactions;
+            this.spends = spends;
+        }
+    }
+
+    /**
+     * Selects the transactions of the given wallet that can be archived. Transactions any of whose inputs connect
+     * to a transaction that stays in the wallet are not selected, because stripping them would leave the wallet
+     * inconsistent.
+     *
+     * @param minDepth
+     *            depth in blocks that both a transaction and all of its spenders need to be buried at
+     */
+    public static Selection select(final Wallet wallet, final int minDepth) {
+        final Map<Sha256Hash, Transaction> spent = new HashMap<>();
+        final Set<Sha256Hash> overridden = new HashSet<>();
+        for (final WalletTransaction walletTx : wallet.getWalletTransactions()) {
+            final Transaction tx = walletTx.getTransaction();
+            if (walletTx.getPool() == WalletTransaction.Pool.SPENT) {
+                spent.put(tx.getTxId(), tx);
+            } else if (walletTx.getPool() == WalletTransaction.Pool.DEAD) {
+                final Transaction overridingTx = tx.getConfidence().getOverridingTransaction();
+                if (overridingTx != null)
+                    overridden.add(overridingTx.getTxId());
+            }
+        }
+
+        final Set<Sha256Hash> candidates = new HashSet<>();
+        for (final Transaction tx : spent.values())
+            if (isBuried(tx, minDepth) && !overridden.contains(tx.getTxId()) && areSpendersBuried(tx, minDepth))
+                candidates.add(tx.getTxId());
+
+        // parents of archived transactions need to be archived too, so repeat until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Sha256Hash txId : new ArrayList<>(candidates)) {
+                for (final TransactionInput input : spent.get(txId).getInputs()) {
+                    final Sha256Hash parentId = input.getOutpoint().getHash();
+                    if (wallet.getTransaction(parentId) != null && !candidates.contains(parentId)) {
+                        candidates.remove(txId);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        final Map<Sha256Hash, Protos.Transaction> transactions = new LinkedHashMap<>();
+        final List<Spend> spends = new ArrayList<>();
+        for (final Sha256Hash txId : candidates) {
+            final Transaction tx = spent.get(txId);
+            final Protos.Transaction.Builder txProto = WalletJournal.makeTxProto(tx, WalletTransaction.Pool.SPENT)
+                    .toBuilder();
+            for (int i = 0; i < txProto.getTransactionOutputCount(); i++)
+                txProto.setTransactionOutput(i, txProto.getTransactionOutput(i).toBuilder()
+                        .clearSpentByTransactionHash().clearSpentByTransactionIndex());
+            transactions.put(txId, txProto.build());
+            for (final TransactionOutput output : tx.getOutputs()) {
+                final TransactionInput spentBy = output.getSpentBy();
+                if (spentBy != null && output.isMine(wallet))
+                    spends.add(new Spend(spentBy.getParentTransaction().getTxId(), txId, output.getValue()));
+            }
+        }
+        return new Selection(transactions, spends);
+    }
+
+    private static boolean isBuried(final Transaction tx, final int minDepth) {
+        final TransactionConfidence confidence = tx.getConfidence();
+        return confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING
+                && confidence.getDepthInBlocks() >= minDepth;
+    }
+
+    private static boolean areSpendersBuried(final Transaction tx, final int minDepth) {
+        for (final TransactionOutput output : tx.getOutputs()) {
+            final TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null && !isBuried(spentBy.getParentTransaction(), minDepth))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Strips archived transactions from the given wallet protobuf. Archived transactions that are still referenced
+     * by a transaction staying in the wallet are kept, so the result can always be read back.
+     */
+    public static Protos.Wallet strip(final Protos.Wallet walletProto, final Set<Sha256Hash> archivedTxIds) {
+        final Set<ByteString> strip = new HashSet<>(archivedTxIds.size());
+        for (final Protos.Transaction tx : walletProto.getTransactionList())
+            if (archivedTxIds.contains(Sha256Hash.wrap(tx.getHash().toByteArray())))
+                strip.add(tx.getHash());
+        if (strip.isEmpty())
+            return walletProto;
+
+        // keeping a transaction may make another one referenced, so repeat until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Protos.Transaction tx : walletProto.getTransactionList()) {
+                if (strip.contains(tx.getHash()))
+                    continue;
+                for (final Protos.TransactionOutput output : tx.getTransactionOutputList())
+                    if (output.hasSpentByTransactionHash() && strip.remove(output.getSpentByTransactionHash()))
+                        changed = true;
+                final Protos.TransactionConfidence confidence = tx.getConfidence();
+                if (confidence.hasOverridingTransaction() && strip.remove(confidence.getOverridingTransaction()))
+                    changed = true;
+            }
+        }
+
+        final Protos.Wallet.Builder strippedWallet = walletProto.toBuilder().clearTransaction();
+        for (final Protos.Transaction tx : walletProto.getTransactionList())
+            if (!strip.contains(tx.getHash()))
+                strippedWallet.addTransaction(tx);
+        return strippedWallet.build();
+    }
+
+    /**
+     * Reads back archived transactions, as serialized by {@link #select(Wallet, int)}.
+     */
+    public static Map<Sha256Hash, Transaction> readTransactions(final NetworkParameters params,
+            final Collection<byte[]> serializedTxs) throws UnreadableWalletException {
+        // the serializer can only read transactions as part of a wallet, so wrap them into one without keys
+        final Protos.Wallet.Builder walletProto = Protos.Wallet.newBuilder().setNetworkIdentifier(params.getId());
+        try {
+            for (final byte[] serializedTx : serializedTxs)
+                walletProto.addTransaction(Protos.Transaction.parseFrom(serializedTx));
+        } catch (final InvalidProtocolBufferException x) {
+            throw new UnreadableWalletException("unreadable archived transaction", x);
+        }
+        final Wallet wallet = new WalletProtobufSerializer().readWallet(params, null, walletProto.build());
+        final Map<Sha256Hash, Transaction> txs = new HashMap<>();
+        for (final Transaction tx : wallet.getTransactions(true))
+            txs.put(tx.getTxId(), tx);
+        return txs;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a persistent index of wallet transactions up to date, so they can be filtered, sorted and looked up by query
+ * rather than by walking the wallet. For each transaction, a fingerprint of what its row is derived from is
+ * remembered: confidence, the blocks it appears in, connected inputs, update time, purpose and memo. An update only
+ * yields rows for transactions whose fingerprint has changed, plus the IDs of transactions that have gone.
+ * Fingerprints are persisted along with the rows, so the index can be resumed without building it again.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionIndex {
+    public enum Direction {
+        RECEIVED, SENT, INTERNAL
+    }
+
+    public interface RowFactory {
+        Row row(Transaction tx, long fingerprint);
+    }
+
+    /**
+     * What is indexed about a transaction.
+     */
+    public static final class Row {
+        public final Sha256Hash txId;
+        public final Coin value;
+        public final Direction direction;
+        /** if all inputs and outputs belong to the wallet, e.g. a payment to self */
+        public final boolean self;
+        public final Transaction.Purpose purpose;
+        public final long updateTimeMs;
+        /** height of the block the transaction appeared in, or -1 if it isn't in the best chain */
+        public final int height;
+        /** all blocks the transaction appears in, including those on side chains */
+        public final Set<Sha256Hash> blockHashes;
+        public final boolean coinbase;
+        /** the counterparty if sent, the wallet address if received; {@code null} if unknown */
+        public final Address address;
+        /** {@code null} if unknown */
+        public final Coin fee;
+        /** {@code null} if none */
+        public final String memo;
+        public final long fingerprint;
+
+        public Row(final Transaction tx, final Coin value, final Direction direction, final boolean self,
+                final Address address, final long fingerprint) {
+            this.txId = tx.getTxId();
+            this.value = value;
+            this.direction = direction;
+            this.self = self;
+            this.purpose = tx.getPurpose();
+            final Date updateTime = tx.getUpdateTime();
+            this.updateTimeMs = updateTime != null ? updateTime.getTime() : 0;
+            final TransactionConfidence confidence = tx.getConfidence();
+            this.height = confidence.getConfidenceType() == ConfidenceType.BUILDING
+                    ? confidence.getAppearedAtChainHeight() : -1;
+            final Map<Sha256Hash, Integer> appearsInHashes = tx.getAppearsInHashes();
+            this.blockHashes = appearsInHashes != null ? new HashSet<>(appearsInHashes.keySet())
+                    : Collections.emptySet();
+            this.coinbase = tx.isCoinBase();
+            this.address = address;
+            this.fee = tx.getFee();
+            this.memo = tx.getMemo();
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    public static final class Delta {
+        /** rows of transactions that are new or have changed */
+        public final List<Row> rows;
+        /** transactions that have gone */
+        public final Set<Sha256Hash> removed;
+
+        private Delta(final List<Row> rows, final Set<Sha256Hash> removed) {
+            this.rows = rows;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return rows.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static final long INVALID = 0;
+
+    private final Map<Sha256Hash, Long> fingerprints = new HashMap<>();
+
+    /**
+     * Resumes from the fingerprints of the persisted rows. Transactions not among the next update are reported as
+     * removed by it.
+     */
+    public synchronized void resume(final Map<Sha256Hash, Long> fingerprints) {
+        this.fingerprints.clear();
+        this.fingerprints.putAll(fingerprints);
+    }
+
+    /**
+     * Brings the index up to date with the given transactions.
+     */
+    public synchronized Delta update(final Iterable<Transaction> transactions, final RowFactory factory) {
+        final List<Row> rows = new ArrayList<>();
+        final Set<Sha256Hash> seen = new HashSet<>();
+        for (final Transaction tx : transactions) {
+            final Sha256Hash txId = tx.getTxId();
+            seen.add(txId);
+            final long fingerprint = fingerprint(tx);
+            final Long previous = fingerprints.put(txId, fingerprint);
+            if (previous == null || previous != fingerprint)
+                rows.add(factory.row(tx, fingerprint));
+        }
+        final Set<Sha256Hash> removed = new HashSet<>();
+        for (final Iterator<Sha256Hash> i = fingerprints.keySet().iterator(); i.hasNext();) {
+            final Sha256Hash txId = i.next();
+            if (!seen.contains(txId)) {
+                removed.add(txId);
+                i.remove();
+            }
+        }
+        return new Delta(rows, removed);
+    }
+
+    /**
+     * Makes the next update yield rows for all transactions. Call if anything the rows are derived from has changed
+     * other than the transactions themselves, e.g. keys have been added to the wallet.
+     */
+    public synchronized void invalidate() {
+        for (final Map.Entry<Sha256Hash, Long> entry : fingerprints.entrySet())
+            entry.setValue(INVALID);
+    }
+
+    /**
+     * Forgets everything, e.g. if the wallet has been replaced.
+     */
+    public synchronized void clear() {
+        fingerprints.clear();
+    }
+
+    public synchronized int size() {
+        return fingerprints.size();
+    }
+
+    public static long fingerprint(final Transaction tx) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        final TransactionConfidence confidence = tx.getConfidence();
+        final ConfidenceType confidenceType = confidence.getConfidenceType();
+        hasher.putInt(confidenceType.ordinal());
+        if (confidenceType == ConfidenceType.BUILDING)
+            hasher.putInt(confidence.getAppearedAtChainHeight());
+        final Map<Sha256Hash, Integer> appearsInHashes = tx.getAppearsInHashes();
+        if (appearsInHashes != null) {
+            final List<Sha256Hash> blockHashes = new ArrayList<>(appearsInHashes.keySet());
+            Collections.sort(blockHashes);
+            for (final Sha256Hash blockHash : blockHashes)
+                hasher.putBytes(blockHash.getBytes());
+        }
+        int numConnectedInputs = 0;
+        for (final TransactionInput input : tx.getInputs())
+            if (input.getConnectedOutput() != null)
+                numConnectedInputs++;
+        hasher.putInt(numConnectedInputs);
+        final Date updateTime = tx.getUpdateTime();
+        hasher.putLong(updateTime != null ? updateTime.getTime() : 0);
+        hasher.putInt(tx.getPurpose().ordinal());
+        final String memo = tx.getMemo();
+        if (memo != null)
+            hasher.putUnencodedChars(memo);
+        final long fingerprint = hasher.hash().asLong();
+        return fingerprint != INVALID ? fingerprint : 1;
+    }
+}
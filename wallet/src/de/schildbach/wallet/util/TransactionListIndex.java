@@ -0,0 +1,362 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.utils.ExchangeRate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the transaction list sorted and its items built across updates, so that an update only costs as much as
+ * what changed. Transactions are keyed by their ID. For each one, the state its value and item are built from is
+ * remembered: confidence, update time, connected inputs, memo, purpose and the like. If that state hasn't changed,
+ * neither its value nor its item is built again, and it keeps its place in the sorted index. Unchanged transactions
+ * thus yield the very same item instances as before, which makes diffing the list cheap.
+ *
+ * <p>
+ * Items show the time relative to now, so they are also rebuilt as they age: every minute during the first hour,
+ * every hour during the first day and every day during the first week.
+ *
+ * <p>
+ * Archived transactions, which have been stripped from the wallet, are listed too. They are buried deep in the chain
+ * and don't change any more, so all that is kept of them is their ID and update time. Their items are expected to be
+ * lightweight, materializing the transaction only when needed.
+ *
+ * <p>
+ * Transactions are sorted pending first, then by update time descending, then by ID.
+ *
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionListIndex<T> {
+    public interface ItemFactory<T> {
+        Coin value(Transaction tx);
+
+        T item(Transaction tx, Coin value);
+
+        T archivedItem(Sha256Hash txId);
+    }
+
+    public interface Filter {
+        boolean include(Transaction tx, Coin value);
+
+        boolean includeArchived(Sha256Hash txId);
+    }
+
+    /**
+     * A transaction that has been archived.
+     */
+    public static final class Archived {
+        public final Sha256Hash txId;
+        public final long updateTimeMs;
+
+        public Archived(final Sha256Hash txId, final long updateTimeMs) {
+            this.txId = txId;
+            this.updateTimeMs = updateTimeMs;
+        }
+    }
+
+    /** The order of the list, for comparison with building it from scratch. */
+    public static final Comparator<Transaction> COMPARATOR = (tx1, tx2) -> {
+        final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+        final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+        if (pending1 != pending2)
+            return pending1 ? -1 : 1;
+        final long time1 = updateTimeMs(tx1), time2 = updateTimeMs(tx2);
+        if (time1 != time2)
+            return time1 > time2 ? -1 : 1;
+        return tx1.getTxId().compareTo(tx2.getTxId());
+    };
+
+    private static final Comparator<Entry<?>> ORDER = (entry1, entry2) -> {
+        if (entry1.state.pending != entry2.state.pending)
+            return entry1.state.pending ? -1 : 1;
+        if (entry1.state.updateTimeMs != entry2.state.updateTimeMs)
+            return entry1.state.updateTimeMs > entry2.state.updateTimeMs ? -1 : 1;
+        return entry1.txId.compareTo(entry2.txId);
+    };
+
+    private final int maxDepth;
+    private final Map<Sha256Hash, Entry<T>> entries = new HashMap<>();
+    private final TreeSet<Entry<T>> sorted = new TreeSet<>(ORDER);
+    private int generation = 0;
+    private int lastRebuilt = 0;
+
+    /**
+     * @param maxDepth depth beyond which items don't change any more
+     */
+    public TransactionListIndex(final int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Brings the index up to date with the given transactions, and returns the items of those matching the filter,
+     * in order.
+     *
+     * @param nowMs current time, for the age of the transactions
+     */
+    public List<T> update(final Iterable<Transaction> transactions, final ItemFactory<T> factory,
+            final Filter filter, final long nowMs) {
+        return update(transactions, Collections.emptyList(), factory, filter, nowMs);
+    }
+
+    /**
+     * Like {@link #update(Iterable, ItemFactory, Filter, long)}, but also lists archived transactions. Those still
+     * among the given transactions are listed as such.
+     */
+    public synchronized List<T> update(final Iterable<Transaction> transactions, final Iterable<Archived> archived,
+            final ItemFactory<T> factory, final Filter filter, final long nowMs) {
+        lastRebuilt = 0;
+        generation++;
+        for (final Transaction tx : transactions) {
+            final Sha256Hash txId = tx.getTxId();
+            final State state = new State(tx, maxDepth, nowMs);
+            final Entry<T> entry = entries.get(txId);
+            if (entry == null) {
+                final Entry<T> newEntry = new Entry<>(txId, tx, state, generation, factory);
+                entries.put(txId, newEntry);
+                sorted.add(newEntry);
+                lastRebuilt++;
+            } else if (entry.tx != tx || !entry.state.equals(state)) {
+                sorted.remove(entry);
+                final Entry<T> newEntry = new Entry<>(txId, tx, state, generation, factory);
+                entries.put(txId, newEntry);
+                sorted.add(newEntry);
+                lastRebuilt++;
+            } else {
+                entry.generation = generation;
+                if (entry.item == null) {
+                    entry.item = factory.item(tx, entry.value);
+                    lastRebuilt++;
+                }
+            }
+        }
+        for (final Archived archivedTx : archived) {
+            final Entry<T> entry = entries.get(archivedTx.txId);
+            if (entry != null && entry.generation == generation)
+                continue; // still in the wallet
+            if (entry == null || entry.tx != null || entry.state.updateTimeMs != archivedTx.updateTimeMs) {
+                if (entry != null)
+                    sorted.remove(entry);
+                final Entry<T> newEntry = new Entry<>(archivedTx, generation, factory);
+                entries.put(archivedTx.txId, newEntry);
+                sorted.add(newEntry);
+                lastRebuilt++;
+            } else {
+                entry.generation = generation;
+                if (entry.item == null) {
+                    entry.item = factory.archivedItem(archivedTx.txId);
+                    lastRebuilt++;
+                }
+            }
+        }
+        for (final Iterator<Entry<T>> i = entries.values().iterator(); i.hasNext();) {
+            final Entry<T> entry = i.next();
+            if (entry.generation != generation) {
+                sorted.remove(entry);
+                i.remove();
+            }
+        }
+
+        final List<T> items = new ArrayList<>(sorted.size());
+        for (final Entry<T> entry : sorted)
+            if (entry.tx != null ? filter.include(entry.tx, entry.value) : filter.includeArchived(entry.txId))
+                items.add(entry.item);
+        return items;
+    }
+
+    /**
+     * Drops all items, keeping values and order. Call if anything the items are built from has changed other than
+     * the transactions themselves, e.g. the address book or the format.
+     */
+    public synchronized void invalidateItems() {
+        for (final Entry<T> entry : entries.values())
+            entry.item = null;
+    }
+
+    /**
+     * Drops everything, e.g. if the wallet the values are computed against has changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sorted.clear();
+    }
+
+    /** @return the transaction, or {@code null} if it isn't in the index or has been archived */
+    public synchronized Transaction getTransaction(final Sha256Hash txId) {
+        final Entry<T> entry = entries.get(txId);
+        return entry != null ? entry.tx : null;
+    }
+
+    /** @return the value of the transaction, or {@code null} if it isn't in the index or has been archived */
+    public synchronized Coin getValue(final Sha256Hash txId) {
+        final Entry<T> entry = entries.get(txId);
+        return entry != null ? entry.value : null;
+    }
+
+    public synchronized boolean isArchived(final Sha256Hash txId) {
+        final Entry<T> entry = entries.get(txId);
+        return entry != null && entry.tx == null;
+    }
+
+    /** Number of items built by the last update. */
+    public synchronized int lastRebuilt() {
+        return lastRebuilt;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static long updateTimeMs(final Transaction tx) {
+        final Date updateTime = tx.getUpdateTime();
+        return updateTime != null ? updateTime.getTime() : 0;
+    }
+
+    private static final class Entry<T> {
+        final Sha256Hash txId;
+        final Transaction tx;
+        final State state;
+        final Coin value;
+        int generation;
+        T item;
+
+        Entry(final Sha256Hash txId, final Transaction tx, final State state, final int generation,
+                final ItemFactory<T> factory) {
+            this.txId = txId;
+            this.tx = tx;
+            this.state = state;
+            this.generation = generation;
+            this.value = factory.value(tx);
+            this.item = factory.item(tx, value);
+        }
+
+        Entry(final Archived archivedTx, final int generation, final ItemFactory<T> factory) {
+            this.txId = archivedTx.txId;
+            this.tx = null;
+            this.state = new State(archivedTx.updateTimeMs);
+            this.generation = generation;
+            this.value = null;
+            this.item = factory.archivedItem(txId);
+        }
+    }
+
+    /**
+     * Everything about a transaction its value and item are built from that can change over time. Value and fee
+     * depend on which inputs are connected, e.g. once a dependency has arrived.
+     */
+    private static final class State {
+        final boolean pending;
+        final long updateTimeMs;
+        final long age;
+        final ConfidenceType confidenceType;
+        final TransactionConfidence.Source source;
+        final int depth;
+        final int numBroadcastPeers;
+        final int numConnectedInputs;
+        final String memo;
+        final Transaction.Purpose purpose;
+        final ExchangeRate exchangeRate;
+
+        State(final Transaction tx, final int maxDepth, final long nowMs) {
+            final TransactionConfidence confidence = tx.getConfidence();
+            this.confidenceType = confidence.getConfidenceType();
+            this.pending = confidenceType == ConfidenceType.PENDING;
+            this.updateTimeMs = updateTimeMs(tx);
+            this.age = age(nowMs - updateTimeMs);
+            this.source = confidence.getSource();
+            this.depth = confidenceType == ConfidenceType.BUILDING
+                    ? Math.min(confidence.getDepthInBlocks(), maxDepth) : 0;
+            this.numBroadcastPeers = pending ? confidence.numBroadcastPeers() : 0;
+            int numConnectedInputs = 0;
+            for (final TransactionInput input : tx.getInputs())
+                if (input.getConnectedOutput() != null)
+                    numConnectedInputs++;
+            this.numConnectedInputs = numConnectedInputs;
+            this.memo = tx.getMemo();
+            this.purpose = tx.getPurpose();
+            this.exchangeRate = tx.getExchangeRate();
+        }
+
+        /** State of an archived transaction, which doesn't change any more. */
+        State(final long updateTimeMs) {
+            this.confidenceType = ConfidenceType.BUILDING;
+            this.pending = false;
+            this.updateTimeMs = updateTimeMs;
+            this.age = -1;
+            this.source = null;
+            this.depth = 0;
+            this.numBroadcastPeers = 0;
+            this.numConnectedInputs = 0;
+            this.memo = null;
+            this.purpose = null;
+            this.exchangeRate = null;
+        }
+
+        /** Age rounded down to the unit the relative time is shown in, or -1 if it's not shown relative any more. */
+        private static long age(final long ageMs) {
+            final long unitMs;
+            if (ageMs < TimeUnit.HOURS.toMillis(1))
+                unitMs = TimeUnit.MINUTES.toMillis(1);
+            else if (ageMs < TimeUnit.DAYS.toMillis(1))
+                unitMs = TimeUnit.HOURS.toMillis(1);
+            else if (ageMs < TimeUnit.DAYS.toMillis(7))
+                unitMs = TimeUnit.DAYS.toMillis(1);
+            else
+                return -1;
+            return ageMs - ageMs % unitMs;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof State))
+                return false;
+            final State other = (State) o;
+            return pending == other.pending && updateTimeMs == other.updateTimeMs && age == other.age
+                    && confidenceType == other.confidenceType && source == other.source && depth == other.depth
+                    && numBroadcastPeers == other.numBroadcastPeers
+                    && numConnectedInputs == other.numConnectedInputs && Objects.equals(memo, other.memo)
+                    && purpose == other.purpose && Objects.equals(exchangeRate, other.exchangeRate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pending, updateTimeMs, age, confidenceType, depth, numBroadcastPeers);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.utils.MonetaryFormat;
+
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for the full-text search over transactions. Each transaction is indexed as a single text, made up of its
+ * ID, counterparty address, memo and amount. The amount is indexed in each of the denominations it can be shown in,
+ * so it can be found no matter which one is configured.
+ *
+ * <p>
+ * Address book labels can change at any time, so rather than being indexed they are looked up while searching, see
+ * {@link #sql(Query, Map, List)}. Transactions in the wallet needn't wait for the index at all: they can be matched
+ * in memory, see {@link Query#matches(String)}.
+ *
+ * <p>
+ * Search queries are turned into full-text queries that match words by prefix, so results come up while typing.
+ * Amounts are split into words at the decimal point, which is why each word of a query is matched as a phrase.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionSearch {
+    private static final Pattern PATTERN_WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PATTERN_NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern PATTERN_DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final int[] SHIFTS = { 0, 3, 6, 8 };
+    private static final MonetaryFormat[] FORMATS = new MonetaryFormat[SHIFTS.length];
+
+    static {
+        for (int i = 0; i < SHIFTS.length; i++) {
+            final int shift = SHIFTS[i];
+            final int minDecimals = shift <= 3 ? 2 : 0;
+            final int maxDecimals = MonetaryFormat.MAX_DECIMALS - shift;
+            FORMATS[i] = new MonetaryFormat().noCode().shift(shift).minDecimals(minDecimals)
+                    .repeatOptionalDecimals(1, maxDecimals - minDecimals);
+        }
+    }
+
+    private TransactionSearch() {
+    }
+
+    /**
+     * Row ID of a transaction in the full-text index, derived from its ID so it can be updated and deleted without
+     * searching for it.
+     */
+    public static long rowId(final Sha256Hash txId) {
+        return ByteBuffer.wrap(txId.getBytes()).getLong();
+    }
+
+    /**
+     * Text a transaction is found by.
+     *
+     * @param address counterparty address, or {@code null} if unknown
+     * @param label address book label of the address, or {@code null} if none
+     * @param memo or {@code null} if none
+     */
+    public static String text(final Sha256Hash txId, final String address, final String label, final String memo,
+            final Coin value) {
+        final StringBuilder text = new StringBuilder(txId.toString());
+        if (address != null)
+            text.append(' ').append(address);
+        if (label != null)
+            text.append(' ').append(label);
+        if (memo != null)
+            text.append(' ').append(memo);
+        final Coin amount = value.isNegative() ? value.negate() : value;
+        for (final MonetaryFormat format : FORMATS)
+            text.append(' ').append(format.format(amount));
+        return text.toString();
+    }
+
+    /**
+     * What the user typed, as one phrase per word. Every phrase has to match, its last word by prefix.
+     */
+    public static final class Query {
+        private final List<List<String>> phrases;
+
+        private Query(final List<List<String>> phrases) {
+            this.phrases = phrases;
+        }
+
+        /**
+         * @return the query, or {@code null} if there is nothing to search for
+         */
+        public static Query parse(final String query) {
+            final List<List<String>> phrases = new ArrayList<>();
+            for (final String word : PATTERN_WHITESPACE.split(query.trim())) {
+                final List<String> phrase = new ArrayList<>();
+                for (final String token : PATTERN_NON_WORD.split(word))
+                    if (!token.isEmpty())
+                        phrase.add(token.toLowerCase(Locale.ROOT));
+                if (!phrase.isEmpty())
+                    phrases.add(phrase);
+            }
+            return !phrases.isEmpty() ? new Query(phrases) : null;
+        }
+
+        public int numPhrases() {
+            return phrases.size();
+        }
+
+        /** Full-text query for all phrases. */
+        public String matchQuery() {
+            final List<String> matchQueries = new ArrayList<>(phrases.size());
+            for (int i = 0; i < phrases.size(); i++)
+                matchQueries.add(matchQuery(i));
+            return String.join(" ", matchQueries);
+        }
+
+        /** Full-text query for a single phrase. */
+        public String matchQuery(final int phrase) {
+            return '"' + String.join(" ", phrases.get(phrase)) + "*\"";
+        }
+
+        /**
+         * Matches a text in memory, like the full-text index would.
+         */
+        public boolean matches(final String text) {
+            final List<String> tokens = tokens(text);
+            for (final List<String> phrase : phrases)
+                if (!matches(phrase, tokens))
+                    return false;
+            return true;
+        }
+
+        /**
+         * Matches a single phrase against a text in memory, like the full-text index would.
+         */
+        public boolean matches(final int phrase, final String text) {
+            return matches(phrases.get(phrase), tokens(text));
+        }
+
+        private static boolean matches(final List<String> phrase, final List<String> tokens) {
+            final List<String> foldedPhrase = new ArrayList<>(phrase.size());
+            for (final String word : phrase)
+                foldedPhrase.add(fold(word));
+            final int last = foldedPhrase.size() - 1;
+            for (int i = 0; i + last < tokens.size(); i++) {
+                boolean matches = tokens.get(i + last).startsWith(foldedPhrase.get(last));
+                for (int j = 0; matches && j < last; j++)
+                    matches = tokens.get(i + j).equals(foldedPhrase.get(j));
+                if (matches)
+                    return true;
+            }
+            return false;
+        }
+
+        private static List<String> tokens(final String text) {
+            final List<String> tokens = new ArrayList<>();
+            for (final String token : PATTERN_NON_WORD.split(text))
+                if (!token.isEmpty())
+                    tokens.add(fold(token.toLowerCase(Locale.ROOT)));
+            return tokens;
+        }
+
+        // like the unicode61 tokenizer, which removes diacritics
+        private static String fold(final String word) {
+            return PATTERN_DIACRITICS.matcher(Normalizer.normalize(word, Normalizer.Form.NFD)).replaceAll("");
+        }
+    }
+
+    /**
+     * SQL query for the IDs of indexed transactions matching the given query. Each phrase has to match either the
+     * full-text index, or the address book label of the transaction's address.
+     *
+     * @param labels address book labels by address
+     * @param args filled with the arguments of the SQL query
+     */
+    public static String sql(final Query query, final Map<String, String> labels, final List<Object> args) {
+        final StringBuilder sql = new StringBuilder("SELECT tx_id FROM indexed_transactions WHERE ");
+        for (int i = 0; i < query.numPhrases(); i++) {
+            if (i > 0)
+                sql.append(" AND ");
+            sql.append("(tx_id IN (SELECT tx_id FROM transaction_search WHERE transaction_search MATCH ?)");
+            args.add(query.matchQuery(i));
+            final List<String> addresses = new ArrayList<>();
+            for (final Map.Entry<String, String> label : labels.entrySet())
+                if (query.matches(i, label.getValue()))
+                    addresses.add(label.getKey());
+            if (!addresses.isEmpty()) {
+                sql.append(" OR address IN (").append(String.join(", ", Collections.nCopies(addresses.size(), "?")))
+                        .append(')');
+                args.addAll(addresses);
+            }
+            sql.append(')');
+        }
+        return sql.toString();
+    }
+}
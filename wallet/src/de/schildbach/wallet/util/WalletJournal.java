@@ -0,0 +1,594 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.TransactionWitness;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of wallet changes, complementing the full protobuf snapshot written by {@link WalletFiles}.
+ *
+ * Each record is a partial {@link Protos.Wallet} carrying only changed transactions and/or the last seen block. On
+ * load, records are merged into the snapshot before it is deserialized. Because merging replaces transactions by
+ * hash, replaying a record twice is harmless. The journal is rotated whenever a snapshot is taken, and the rotated
+ * part is deleted once the snapshot has been written successfully.
+ *
+ * Changes to the key chains are not journaled. bitcoinj saves the wallet immediately on those anyway.
+ *
+ * @author Andreas Schildbach
+ */
+public class WalletJournal implements WalletFiles.Listener {
+    private final Wallet wallet;
+    private final File journalFile;
+    private final File rotatedJournalFile;
+    private final long maxJournalSize;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), new ContextPropagatingThreadFactory("wallet journal"));
+    private final Map<Sha256Hash, Integer> journaledConfidences = new ConcurrentHashMap<>();
+    private WalletFiles walletFiles;
+    private Sha256Hash journaledLastBlockSeenHash;
+
+    // only accessed from executor thread
+    private FileOutputStream journalFileStream;
+    private DataOutputStream journalStream;
+    private long journalSize;
+    private boolean compacting = false;
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String ROTATED_JOURNAL_SUFFIX = ".journal.old";
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    /**
+     * Enables autosaving of the wallet to the given file, with changes in between saves being journaled.
+     *
+     * @param delay
+     *            how long to wait between full snapshots of the wallet
+     * @param maxJournalSize
+     *            journal size in bytes that triggers a snapshot before the delay has passed
+     */
+    public static WalletJournal autosaveToFile(final Wallet wallet, final File walletFile, final long delay,
+            final TimeUnit timeUnit, final long maxJournalSize) {
+        final WalletJournal journal = new WalletJournal(wallet, walletFile, maxJournalSize);
+        journal.walletFiles = wallet.autosaveToFile(walletFile, delay, timeUnit, journal);
+        journal.start();
+        return journal;
+    }
+
+    private WalletJournal(final Wallet wallet, final File walletFile, final long maxJournalSize) {
+        this.wallet = wallet;
+        this.journalFile = journalFile(walletFile);
+        this.rotatedJournalFile = rotatedJournalFile(walletFile);
+        this.maxJournalSize = maxJournalSize;
+    }
+
+    private void start() {
+        executor.execute(() -> {
+            try {
+                // cut off a torn record from a crash
+                final long validSize = scan(journalFile, null);
+                if (journalFile.exists() && journalFile.length() > validSize) {
+                    log.warn("truncating wallet journal '{}' from {} to {} bytes", journalFile,
+                            journalFile.length(), validSize);
+                    try (final RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                        file.setLength(validSize);
+                    }
+                }
+                journalSize = validSize;
+            } catch (final IOException x) {
+                log.warn("problem checking wallet journal", x);
+            }
+        });
+        journaledLastBlockSeenHash = wallet.getLastBlockSeenHash();
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
+    }
+
+    public WalletFiles getWalletFiles() {
+        return walletFiles;
+    }
+
+    /**
+     * Stops journaling and autosaving. A pending snapshot is still written.
+     */
+    public void shutdownAndWait() {
+        wallet.removeChangeEventListener(walletListener);
+        wallet.removeReorganizeEventListener(walletListener);
+        wallet.removeTransactionConfidenceEventListener(walletListener);
+        wallet.removeCoinsSentEventListener(walletListener);
+        wallet.removeCoinsReceivedEventListener(walletListener);
+        wallet.shutdownAutosaveAndWait();
+        executor.execute(this::close);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (final InterruptedException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    /**
+     * Blocks until all records journaled so far have been written.
+     */
+    void awaitWritten() {
+        try {
+            executor.submit(this::sync).get();
+        } catch (final InterruptedException | ExecutionException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    private final WalletListener walletListener = new WalletListener();
+
+    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            TransactionConfidenceEventListener, WalletReorganizeEventListener, WalletChangeEventListener {
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            journalTransaction(tx, true);
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            journalTransaction(tx, true);
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+            journalTransaction(tx, false);
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            // too many transactions affected, take a snapshot instead
+            executor.execute(WalletJournal.this::compact);
+        }
+
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            final Sha256Hash lastBlockSeenHash = wallet.getLastBlockSeenHash();
+            if (lastBlockSeenHash != null && !lastBlockSeenHash.equals(journaledLastBlockSeenHash)) {
+                journaledLastBlockSeenHash = lastBlockSeenHash;
+                final Protos.Wallet.Builder record = newRecord();
+                record.setLastSeenBlockHash(hashToByteString(lastBlockSeenHash));
+                record.setLastSeenBlockHeight(wallet.getLastBlockSeenHeight());
+                if (wallet.getLastBlockSeenTimeSecs() > 0)
+                    record.setLastSeenBlockTimeSecs(wallet.getLastBlockSeenTimeSecs());
+                append(record.build());
+            }
+        }
+    }
+
+    private void journalTransaction(final Transaction tx, final boolean force) {
+        final Protos.Wallet.Builder record = newRecord();
+        if (!addTransaction(record, tx, force))
+            return;
+        // spending a transaction changes its pool and spent-by markers
+        for (final TransactionInput input : tx.getInputs()) {
+            final Transaction parent = wallet.getTransaction(input.getOutpoint().getHash());
+            if (parent != null)
+                addTransaction(record, parent, true);
+        }
+        append(record.build());
+    }
+
+    private boolean addTransaction(final Protos.Wallet.Builder record, final Transaction tx, final boolean force) {
+        final WalletTransaction.Pool pool = poolOf(tx);
+        if (pool == null)
+            return false;
+        final TransactionConfidence confidence = tx.getConfidence();
+        final ConfidenceType confidenceType = confidence.getConfidenceType();
+        final Transaction overridingTx = confidenceType == ConfidenceType.DEAD ?
+                confidence.getOverridingTransaction() : null;
+        final int appearedAtChainHeight = confidenceType == ConfidenceType.BUILDING ?
+                confidence.getAppearedAtChainHeight() : -1;
+        // depth is left out on purpose, it changes on every block and is recomputed on replay
+        final int confidenceHash = Objects.hash(pool, confidenceType, appearedAtChainHeight, confidence.getSource(),
+                confidence.numBroadcastPeers(), overridingTx != null ? overridingTx.getTxId() : null);
+        final Integer previousConfidenceHash = journaledConfidences.put(tx.getTxId(), confidenceHash);
+        if (!force && previousConfidenceHash != null && previousConfidenceHash == confidenceHash)
+            return false;
+        record.addTransaction(makeTxProto(tx, pool));
+        return true;
+    }
+
+    private WalletTransaction.Pool poolOf(final Transaction tx) {
+        final Sha256Hash txId = tx.getTxId();
+        for (final WalletTransaction.Pool pool : WalletTransaction.Pool.values())
+            if (wallet.getTransactionPool(pool).containsKey(txId))
+                return pool;
+        return null;
+    }
+
+    private Protos.Wallet.Builder newRecord() {
+        return Protos.Wallet.newBuilder().setNetworkIdentifier(wallet.getNetworkParameters().getId());
+    }
+
+    private void append(final Protos.Wallet record) {
+        final byte[] bytes = record.toByteArray();
+        try {
+            executor.execute(() -> write(bytes));
+        } catch (final RejectedExecutionException x) {
+            log.warn("wallet journal already shut down, dropping record");
+        }
+    }
+
+    private void write(final byte[] record) {
+        try {
+            if (journalStream == null) {
+                journalFileStream = new FileOutputStream(journalFile, true);
+                journalStream = new DataOutputStream(new BufferedOutputStream(journalFileStream));
+            }
+            journalStream.writeInt(record.length);
+            journalStream.writeInt(crc(record));
+            journalStream.write(record);
+            journalSize += 8 + record.length;
+
+            // batch syncs while more records are queued
+            if (executor.getQueue().isEmpty())
+                sync();
+        } catch (final IOException x) {
+            log.warn("problem writing wallet journal", x);
+        }
+
+        if (journalSize > maxJournalSize && !compacting) {
+            log.info("wallet journal reached {} bytes, compacting", journalSize);
+            compact();
+        }
+    }
+
+    private void compact() {
+        compacting = true;
+        try {
+            walletFiles.saveNow();
+        } catch (final IOException x) {
+            log.warn("problem compacting wallet journal", x);
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void sync() {
+        if (journalStream != null) {
+            try {
+                journalStream.flush();
+                journalFileStream.getFD().sync();
+            } catch (final IOException x) {
+                log.warn("problem syncing wallet journal", x);
+            }
+        }
+    }
+
+    private void close() {
+        if (journalStream != null) {
+            try {
+                sync();
+                journalStream.close();
+            } catch (final IOException x) {
+                log.warn("problem closing wallet journal", x);
+            }
+            journalStream = null;
+            journalFileStream = null;
+        }
+    }
+
+    private void rotate() {
+        close();
+        // if a previous snapshot failed, keep appending to the current journal
+        if (!rotatedJournalFile.exists() && journalFile.exists()) {
+            if (journalFile.renameTo(rotatedJournalFile))
+                journalSize = 0;
+            else
+                log.warn("problem rotating wallet journal '{}'", journalFile);
+        }
+    }
+
+    @Override
+    public void onBeforeAutoSave(final File tempFile) {
+        // everything journaled up to here will be covered by the snapshot
+        executor.execute(this::rotate);
+    }
+
+    @Override
+    public void onAfterAutoSave(final File newlySavedFile) {
+        executor.execute(() -> {
+            if (rotatedJournalFile.exists() && !rotatedJournalFile.delete())
+                log.warn("problem deleting rotated wallet journal '{}'", rotatedJournalFile);
+        });
+    }
+
+    /**
+     * Merges all journal records belonging to the given wallet file into the wallet snapshot.
+     */
+    public static Protos.Wallet replay(final Protos.Wallet snapshot, final File walletFile) throws IOException {
+        final Protos.Wallet.Builder wallet = snapshot.toBuilder();
+        final Map<ByteString, Integer> txIndex = new HashMap<>(wallet.getTransactionCount());
+        for (int i = 0; i < wallet.getTransactionCount(); i++)
+            txIndex.put(wallet.getTransaction(i).getHash(), i);
+        final Replay replay = record -> {
+            for (final Protos.Transaction tx : record.getTransactionList()) {
+                final Integer index = txIndex.get(tx.getHash());
+                if (index != null) {
+                    wallet.setTransaction(index, tx);
+                } else {
+                    txIndex.put(tx.getHash(), wallet.getTransactionCount());
+                    wallet.addTransaction(tx);
+                }
+            }
+            if (record.hasLastSeenBlockHash()) {
+                wallet.setLastSeenBlockHash(record.getLastSeenBlockHash());
+                wallet.setLastSeenBlockHeight(record.getLastSeenBlockHeight());
+                if (record.hasLastSeenBlockTimeSecs())
+                    wallet.setLastSeenBlockTimeSecs(record.getLastSeenBlockTimeSecs());
+                else
+                    wallet.clearLastSeenBlockTimeSecs();
+            }
+        };
+        final int numRotatedRecords = scanRecords(rotatedJournalFile(walletFile), replay);
+        final int numRecords = scanRecords(journalFile(walletFile), replay);
+        if (numRotatedRecords + numRecords == 0)
+            return snapshot;
+
+        // depth is not journaled, derive from last seen block
+        if (wallet.hasLastSeenBlockHeight()) {
+            final int lastSeenBlockHeight = wallet.getLastSeenBlockHeight();
+            for (int i = 0; i < wallet.getTransactionCount(); i++) {
+                final Protos.Transaction tx = wallet.getTransaction(i);
+                final Protos.TransactionConfidence confidence = tx.getConfidence();
+                if (confidence.getType() == Protos.TransactionConfidence.Type.BUILDING
+                        && confidence.hasAppearedAtHeight()) {
+                    final int depth = lastSeenBlockHeight - confidence.getAppearedAtHeight() + 1;
+                    if (depth > 0 && depth != confidence.getDepth())
+                        wallet.setTransaction(i, tx.toBuilder().setConfidence(confidence.toBuilder().setDepth(depth)));
+                }
+            }
+        }
+
+        log.info("replayed {} wallet journal records", numRotatedRecords + numRecords);
+        return wallet.build();
+    }
+
+    /**
+     * Deletes all journal files belonging to the given wallet file, e.g. because the wallet is being replaced.
+     */
+    public static void delete(final File walletFile) {
+        for (final File file : new File[] { journalFile(walletFile), rotatedJournalFile(walletFile) })
+            if (file.exists() && !file.delete())
+                log.warn("problem deleting wallet journal '{}'", file);
+    }
+
+    private interface Replay {
+        void apply(Protos.Wallet record);
+    }
+
+    private static int scanRecords(final File file, final Replay replay) throws IOException {
+        final int[] numRecords = new int[1];
+        scan(file, record -> {
+            replay.apply(record);
+            numRecords[0]++;
+        });
+        return numRecords[0];
+    }
+
+    /**
+     * @return length of the valid part of the journal
+     */
+    private static long scan(final File file, final Replay replay) throws IOException {
+        if (!file.exists())
+            return 0;
+        long validSize = 0;
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length = is.readInt();
+                final int crc = is.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE)
+                    throw new IOException("bad record length: " + length);
+                final byte[] bytes = new byte[length];
+                is.readFully(bytes);
+                if (crc(bytes) != crc)
+                    throw new IOException("bad record checksum");
+                if (replay != null)
+                    replay.apply(Protos.Wallet.parseFrom(bytes));
+                validSize += 8 + length;
+            }
+        } catch (final EOFException x) {
+            if (validSize < file.length())
+                log.warn("wallet journal '{}' ends with torn record at offset {}", file, validSize);
+        } catch (final InvalidProtocolBufferException x) {
+            log.warn("wallet journal '" + file + "' has unreadable record at offset " + validSize, x);
+        } catch (final IOException x) {
+            log.warn("wallet journal '{}' has corrupt record at offset {}: {}", file, validSize, x.getMessage());
+        }
+        return validSize;
+    }
+
+    private static File journalFile(final File walletFile) {
+        return new File(walletFile.getParentFile(), walletFile.getName() + JOURNAL_SUFFIX);
+    }
+
+    private static File rotatedJournalFile(final File walletFile) {
+        return new File(walletFile.getParentFile(), walletFile.getName() + ROTATED_JOURNAL_SUFFIX);
+    }
+
+    private static int crc(final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static ByteString hashToByteString(final Sha256Hash hash) {
+        return ByteString.copyFrom(hash.getBytes());
+    }
+
+    /**
+     * Serializes a single transaction the same way {@link org.bitcoinj.wallet.WalletProtobufSerializer} does as
+     * part of the whole wallet.
+     */
+    static Protos.Transaction makeTxProto(final Transaction tx, final WalletTransaction.Pool pool) {
+        final Protos.Transaction.Builder txBuilder = Protos.Transaction.newBuilder();
+        txBuilder.setPool(Protos.Transaction.Pool.valueOf(pool.name()));
+        txBuilder.setHash(hashToByteString(tx.getTxId()));
+        txBuilder.setVersion((int) tx.getVersion());
+        final Date updateTime = tx.getUpdateTime();
+        if (updateTime != null)
+            txBuilder.setUpdatedAt(updateTime.getTime());
+        if (tx.getLockTime() > 0)
+            txBuilder.setLockTime((int) tx.getLockTime());
+
+        for (final TransactionInput input : tx.getInputs()) {
+            final Protos.TransactionInput.Builder inputBuilder = Protos.TransactionInput.newBuilder();
+            inputBuilder.setScriptBytes(ByteString.copyFrom(input.getScriptBytes()));
+            inputBuilder.setTransactionOutPointHash(hashToByteString(input.getOutpoint().getHash()));
+            inputBuilder.setTransactionOutPointIndex((int) input.getOutpoint().getIndex());
+            if (input.hasSequence())
+                inputBuilder.setSequence((int) input.getSequenceNumber());
+            if (input.getValue() != null)
+                inputBuilder.setValue(input.getValue().value);
+            if (input.hasWitness()) {
+                final TransactionWitness witness = input.getWitness();
+                final Protos.ScriptWitness.Builder witnessBuilder = Protos.ScriptWitness.newBuilder();
+                for (int i = 0; i < witness.getPushCount(); i++)
+                    witnessBuilder.addData(ByteString.copyFrom(witness.getPush(i)));
+                inputBuilder.setWitness(witnessBuilder);
+            }
+            txBuilder.addTransactionInput(inputBuilder);
+        }
+
+        for (final TransactionOutput output : tx.getOutputs()) {
+            final Protos.TransactionOutput.Builder outputBuilder = Protos.TransactionOutput.newBuilder();
+            outputBuilder.setScriptBytes(ByteString.copyFrom(output.getScriptBytes()));
+            outputBuilder.setValue(output.getValue().value);
+            final TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null) {
+                final Transaction spendingTx = spentBy.getParentTransaction();
+                outputBuilder.setSpentByTransactionHash(hashToByteString(spendingTx.getTxId()));
+                outputBuilder.setSpentByTransactionIndex(spendingTx.getInputs().indexOf(spentBy));
+            }
+            txBuilder.addTransactionOutput(outputBuilder);
+        }
+
+        final Map<Sha256Hash, Integer> appearsInHashes = tx.getAppearsInHashes();
+        if (appearsInHashes != null) {
+            for (final Map.Entry<Sha256Hash, Integer> entry : appearsInHashes.entrySet()) {
+                txBuilder.addBlockHash(hashToByteString(entry.getKey()));
+                txBuilder.addBlockRelativityOffsets(entry.getValue());
+            }
+        }
+
+        if (tx.hasConfidence())
+            txBuilder.setConfidence(makeConfidenceProto(tx.getConfidence()));
+
+        txBuilder.setPurpose(Protos.Transaction.Purpose.valueOf(tx.getPurpose().name()));
+
+        final ExchangeRate exchangeRate = tx.getExchangeRate();
+        if (exchangeRate != null)
+            txBuilder.setExchangeRate(Protos.ExchangeRate.newBuilder().setCoinValue(exchangeRate.coin.value)
+                    .setFiatValue(exchangeRate.fiat.value).setFiatCurrencyCode(exchangeRate.fiat.currencyCode));
+
+        if (tx.getMemo() != null)
+            txBuilder.setMemo(tx.getMemo());
+
+        return txBuilder.build();
+    }
+
+    private static Protos.TransactionConfidence makeConfidenceProto(final TransactionConfidence confidence) {
+        final Protos.TransactionConfidence.Builder confidenceBuilder = Protos.TransactionConfidence.newBuilder();
+        synchronized (confidence) {
+            final ConfidenceType confidenceType = confidence.getConfidenceType();
+            confidenceBuilder.setType(Protos.TransactionConfidence.Type.valueOf(confidenceType.name()));
+            if (confidenceType == ConfidenceType.BUILDING) {
+                confidenceBuilder.setAppearedAtHeight(confidence.getAppearedAtChainHeight());
+                confidenceBuilder.setDepth(confidence.getDepthInBlocks());
+            }
+            if (confidenceType == ConfidenceType.DEAD) {
+                final Transaction overridingTx = confidence.getOverridingTransaction();
+                if (overridingTx != null)
+                    confidenceBuilder.setOverridingTransaction(hashToByteString(overridingTx.getTxId()));
+            }
+            switch (confidence.getSource()) {
+            case SELF:
+                confidenceBuilder.setSource(Protos.TransactionConfidence.Source.SOURCE_SELF);
+                break;
+            case NETWORK:
+                confidenceBuilder.setSource(Protos.TransactionConfidence.Source.SOURCE_NETWORK);
+                break;
+            default:
+                confidenceBuilder.setSource(Protos.TransactionConfidence.Source.SOURCE_UNKNOWN);
+                break;
+            }
+        }
+        for (final PeerAddress address : confidence.getBroadcastBy())
+            confidenceBuilder.addBroadcastBy(Protos.PeerAddress.newBuilder()
+                    .setIpAddress(ByteString.copyFrom(address.getAddr().getAddress())).setPort(address.getPort())
+                    .setServices(address.getServices().longValue()));
+        final Date lastBroadcastedAt = confidence.getLastBroadcastedAt();
+        if (lastBroadcastedAt != null)
+            confidenceBuilder.setLastBroadcastedAt(lastBroadcastedAt.getTime());
+        return confidenceBuilder.build();
+    }
+}
@@ -26,7 +26,10 @@ import android.text.SpannedString;
 import android.text.style.TypefaceSpan;
 import androidx.annotation.Nullable;
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.service.BlockchainService;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.NetworkParameters;
@@ -36,16 +39,15 @@ import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptException;
-import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 /**
  * @author Andreas Schildbach
@@ -169,24 +171,34 @@ public class WalletUtils {
         return true;
     }
 
+    private static final Object AUTO_BACKUP_LOCK = new Object();
+
+    /**
+     * Backs up the keys of the given wallet, if they changed since the last backup. The backup file is replaced
+     * atomically.
+     */
     public static void autoBackupWallet(final Context context, final Wallet wallet) {
-        final Stopwatch watch = Stopwatch.createStarted();
-        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-        // strip redundant
-        builder.clearTransaction();
-        builder.clearLastSeenBlockHash();
-        builder.setLastSeenBlockHeight(-1);
-        builder.clearLastSeenBlockTimeSecs();
-        final Protos.Wallet walletProto = builder.build();
-
-        try (final OutputStream os = context.openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF,
-                Context.MODE_PRIVATE)) {
-            walletProto.writeTo(os);
+        final Configuration config = ((WalletApplication) context.getApplicationContext()).getConfiguration();
+        final File file = context.getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF);
+        synchronized (AUTO_BACKUP_LOCK) {
+            final Stopwatch watch = Stopwatch.createStarted();
+            final String previousFingerprint = config.getKeyBackupFingerprint();
+            final HashCode fingerprint;
+            try {
+                fingerprint = KeyBackup.write(wallet, file,
+                        previousFingerprint != null ? HashCode.fromString(previousFingerprint) : null);
+            } catch (final IOException x) {
+                log.error("problem writing wallet backup", x);
+                return;
+            }
             watch.stop();
-            log.info("wallet backed up to: '{}', took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, watch);
-        } catch (final IOException x) {
-            log.error("problem writing wallet backup", x);
+            if (fingerprint != null) {
+                config.setKeyBackupFingerprint(fingerprint.toString());
+                log.info("wallet backed up to: '{}', took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, watch);
+            } else {
+                log.info("wallet backup '{}' is up to date, took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF,
+                        watch);
+            }
         }
     }
 
@@ -206,18 +218,7 @@ public class WalletUtils {
 
     public static Wallet restoreWalletFromProtobuf(final InputStream is,
             final NetworkParameters expectedNetworkParameters) throws IOException {
-        try {
-            final Wallet wallet = new WalletProtobufSerializer().readWallet(is, true, null);
-
-            if (!wallet.getParams().equals(expectedNetworkParameters))
-                throw new IOException("bad wallet backup network parameters: " + wallet.getParams().getId());
-            if (!wallet.isConsistent())
-                throw new IOException("inconsistent wallet backup");
-
-            return wallet;
-        } catch (final UnreadableWalletException x) {
-            throw new IOException("unreadable wallet", x);
-        }
+        return KeyBackup.read(is, expectedNetworkParameters);
     }
 
     public static boolean isPayToManyTransaction(final Transaction transaction) {
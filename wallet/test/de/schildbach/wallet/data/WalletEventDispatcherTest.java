@@ -0,0 +1,152 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import de.schildbach.wallet.data.WalletEventDispatcher.Change;
+import de.schildbach.wallet.data.WalletEventDispatcher.Event;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletEventDispatcherTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+    private final List<Runnable> nextFlush = new ArrayList<>();
+    private WalletEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        dispatcher = new WalletEventDispatcher(nextFlush::add);
+    }
+
+    @Test
+    public void coalescesPerFlush() {
+        final RecordingListener keys = new RecordingListener();
+        dispatcher.addListener(wallet, EnumSet.of(Change.KEYS), keys);
+        wallet.importKey(new ECKey());
+        wallet.importKey(new ECKey());
+        wallet.importKey(new ECKey());
+        assertEquals(1, nextFlush.size());
+        assertEquals(0, keys.calls.size());
+        flush();
+        assertEquals(1, keys.calls.size());
+        assertEquals(EnumSet.of(Change.KEYS), keys.calls.get(0));
+        assertEquals(3, (long) dispatcher.getEventCounts().get(Event.KEYS_ADDED));
+        assertEquals(1, dispatcher.getFlushCount());
+
+        wallet.importKey(new ECKey());
+        flush();
+        assertEquals(2, keys.calls.size());
+    }
+
+    @Test
+    public void deliversOnlySubscribedChanges() {
+        final RecordingListener balance = new RecordingListener();
+        final RecordingListener all = new RecordingListener();
+        dispatcher.addListener(wallet, EnumSet.of(Change.BALANCE), balance);
+        dispatcher.addListener(wallet, EnumSet.allOf(Change.class), all);
+        wallet.importKey(new ECKey());
+        flush();
+        assertEquals(0, balance.calls.size());
+        assertEquals(1, all.calls.size());
+
+        wallet.receivePending(incoming(), null);
+        flush();
+        assertEquals(1, balance.calls.size());
+        assertEquals(EnumSet.of(Change.BALANCE), balance.calls.get(0));
+        assertTrue(all.calls.get(1).containsAll(EnumSet.of(Change.BALANCE, Change.TRANSACTIONS)));
+        assertEquals(1, (long) dispatcher.getEventCounts().get(Event.COINS_RECEIVED));
+    }
+
+    @Test
+    public void unregistersWithLastListener() {
+        final RecordingListener first = new RecordingListener();
+        final RecordingListener second = new RecordingListener();
+        dispatcher.addListener(wallet, EnumSet.of(Change.KEYS), first);
+        dispatcher.addListener(wallet, EnumSet.of(Change.KEYS), second);
+        dispatcher.removeListener(wallet, first);
+        wallet.importKey(new ECKey());
+        flush();
+        assertEquals(0, first.calls.size());
+        assertEquals(1, second.calls.size());
+
+        dispatcher.removeListener(wallet, second);
+        wallet.importKey(new ECKey());
+        assertEquals(0, nextFlush.size());
+        assertEquals(1, (long) dispatcher.getEventCounts().get(Event.KEYS_ADDED));
+    }
+
+    @Test
+    public void dropsFlushAfterUnsubscribing() {
+        final RecordingListener keys = new RecordingListener();
+        dispatcher.addListener(wallet, EnumSet.of(Change.KEYS), keys);
+        wallet.importKey(new ECKey());
+        dispatcher.removeListener(wallet, keys);
+        flush();
+        assertEquals(0, keys.calls.size());
+        assertEquals(0, dispatcher.getFlushCount());
+    }
+
+    private void flush() {
+        final List<Runnable> flushes = new ArrayList<>(nextFlush);
+        nextFlush.clear();
+        for (final Runnable flush : flushes)
+            flush.run();
+    }
+
+    private Transaction incoming() {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, 0,
+                Sha256Hash.of(new byte[] { 1 }))));
+        tx.addOutput(Coin.COIN, wallet.freshReceiveAddress());
+        return tx;
+    }
+
+    private static class RecordingListener implements WalletEventDispatcher.Listener {
+        final List<Set<Change>> calls = new ArrayList<>();
+
+        @Override
+        public void onWalletChanges(final Set<Change> changes) {
+            calls.add(changes);
+        }
+    }
+}
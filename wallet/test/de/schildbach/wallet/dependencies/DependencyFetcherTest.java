@@ -0,0 +1,177 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.dependencies;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class DependencyFetcherTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final Duration TIMEOUT = Duration.ofMillis(200);
+
+    private ScheduledExecutorService timeoutExecutor;
+    private final Map<Sha256Hash, Transaction> mempool = new HashMap<>();
+    private final Sha256Hash confirmedId = Sha256Hash.of(new byte[] { 1 });
+    private long nonce = 0;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        timeoutExecutor.shutdownNow();
+    }
+
+    @Test
+    public void walksLevelsInBatches() throws Exception {
+        final List<Transaction> grandparents = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            grandparents.add(tx(confirmedId));
+        final Transaction parent1 = tx(grandparents.get(0).getTxId(), grandparents.get(1).getTxId());
+        final Transaction parent2 = tx(grandparents.get(2).getTxId(), grandparents.get(3).getTxId());
+        final Transaction parent3 = tx(grandparents.get(4).getTxId(), grandparents.get(5).getTxId());
+        final Transaction child = tx(parent1.getTxId(), parent2.getTxId(), parent3.getTxId());
+        final StandInSource source = new StandInSource();
+
+        final List<Transaction> dependencies = new DependencyFetcher(10, 100, 2, 100, TIMEOUT, timeoutExecutor)
+                .fetch(source, child).get();
+        assertEquals(9, dependencies.size());
+        assertTrue(dependencies.containsAll(grandparents));
+        // 3 parents in 2 batches, 6 grandparents in 3 batches, the confirmed transaction in 1 batch
+        assertEquals(6, source.requests.size());
+        for (final Collection<Sha256Hash> request : source.requests)
+            assertTrue(request.size() <= 2);
+    }
+
+    @Test
+    public void deepChainWithoutRecursion() throws Exception {
+        final int length = 20_000;
+        Transaction tx = tx(confirmedId);
+        for (int i = 0; i < length; i++)
+            tx = tx(tx.getTxId());
+        final DependencyFetcher fetcher = new DependencyFetcher(length + 1, length + 1, 10, length + 1, TIMEOUT,
+                timeoutExecutor);
+        assertEquals(length, fetcher.fetch(new StandInSource(), tx).get().size());
+    }
+
+    @Test
+    public void boundsDepthAndCount() throws Exception {
+        Transaction tx = tx(confirmedId);
+        for (int i = 0; i < 10; i++)
+            tx = tx(tx.getTxId(), tx.getTxId()); // spends two outputs of the same parent
+        assertEquals(5,
+                new DependencyFetcher(5, 100, 10, 100, TIMEOUT, timeoutExecutor).fetch(new StandInSource(), tx).get()
+                        .size());
+        assertEquals(3,
+                new DependencyFetcher(100, 3, 10, 100, TIMEOUT, timeoutExecutor).fetch(new StandInSource(), tx).get()
+                        .size());
+    }
+
+    @Test
+    public void cachesAcrossSources() throws Exception {
+        final Transaction parent = tx(confirmedId);
+        final Transaction child = tx(parent.getTxId());
+        final DependencyFetcher fetcher = new DependencyFetcher(10, 100, 10, 100, TIMEOUT, timeoutExecutor);
+        final StandInSource source1 = new StandInSource(), source2 = new StandInSource();
+        assertEquals(1, fetcher.fetch(source1, child).get().size());
+        assertEquals(2, source1.requests.size());
+        assertEquals(2, fetcher.cacheSize()); // including the confirmed transaction, as unknown
+        assertEquals(1, fetcher.fetch(source2, child).get().size());
+        assertEquals(0, source2.requests.size());
+    }
+
+    @Test
+    public void partialResultOnTimeout() throws Exception {
+        final Transaction parent = tx(confirmedId);
+        final Transaction child = tx(parent.getTxId());
+        final StandInSource source = new StandInSource() {
+            @Override
+            public ListenableFuture<List<Transaction>> getTransactions(final Collection<Sha256Hash> txIds) {
+                if (txIds.contains(confirmedId)) {
+                    requests.add(txIds);
+                    return SettableFuture.create(); // never answers
+                }
+                return super.getTransactions(txIds);
+            }
+        };
+        final List<Transaction> dependencies = new DependencyFetcher(10, 100, 10, 100, TIMEOUT, timeoutExecutor)
+                .fetch(source, child).get();
+        assertEquals(1, dependencies.size());
+        assertEquals(parent, dependencies.get(0));
+    }
+
+    private Transaction tx(final Sha256Hash... parentIds) {
+        final Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < parentIds.length; i++)
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, i,
+                    parentIds[i])));
+        tx.addOutput(new TransactionOutput(PARAMS, tx, Coin.valueOf(++nonce), new byte[0])); // makes it unique
+        tx.addOutput(new TransactionOutput(PARAMS, tx, Coin.COIN, new byte[0]));
+        mempool.put(tx.getTxId(), tx);
+        return tx;
+    }
+
+    /**
+     * Stand-in for the memory pool of a remote peer, answering right away.
+     */
+    private class StandInSource implements TransactionSource {
+        final List<Collection<Sha256Hash>> requests = new ArrayList<>();
+
+        @Override
+        public ListenableFuture<List<Transaction>> getTransactions(final Collection<Sha256Hash> txIds) {
+            requests.add(txIds);
+            final List<Transaction> found = new ArrayList<>();
+            for (final Sha256Hash txId : txIds) {
+                final Transaction tx = mempool.get(txId);
+                if (tx != null)
+                    found.add(tx);
+            }
+            return Futures.immediateFuture(found);
+        }
+    }
+}
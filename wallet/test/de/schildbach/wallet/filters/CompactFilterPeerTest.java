@@ -0,0 +1,163 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.utils.Threading;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class CompactFilterPeerTest {
+    private static final NetworkParameters PARAMS = RegTestParams.get();
+    private static final int READ_BUFFER_SIZE = 64;
+
+    private CompactFilterPeer peer;
+    private final List<Message> received = new ArrayList<>();
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        peer = new CompactFilterPeer(PARAMS, new VersionMessage(PARAMS, 0),
+                new PeerAddress(PARAMS, InetAddress.getLoopbackAddress(), PARAMS.getPort()), null, 0, 0, null);
+        peer.addPreMessageReceivedEventListener(Threading.SAME_THREAD, (p, m) -> {
+            received.add(m);
+            return null;
+        });
+        peer.setWriteTarget(new MessageWriteTarget() {
+            @Override
+            public ListenableFuture writeBytes(final byte[] message) {
+                sent.write(message, 0, message.length);
+                return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public void closeConnection() {
+            }
+        });
+    }
+
+    @Test
+    public void receiveFilters() throws Exception {
+        final CompactFilterMessage small = filter(1, 8);
+        final CompactFilterMessage large = filter(2, READ_BUFFER_SIZE * 3);
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final CompactFilterSerializer serializer = new CompactFilterSerializer(PARAMS);
+        serializer.serialize(small, stream);
+        serializer.serialize(new Ping(7), stream);
+        serializer.serialize(large, stream);
+        serializer.serialize(small, stream);
+        feed(stream.toByteArray());
+
+        assertEquals(4, received.size());
+        assertFilter(small, received.get(0));
+        assertEquals(7, ((Ping) received.get(1)).getNonce());
+        assertFilter(large, received.get(2));
+        assertFilter(small, received.get(3));
+    }
+
+    @Test
+    public void sendFilterRequest() throws Exception {
+        final Sha256Hash stopHash = Sha256Hash.of(new byte[] { 1 });
+        peer.sendMessage(new GetCompactFiltersMessage(PARAMS, GolombCodedSet.FILTER_TYPE_BASIC, 100, stopHash));
+
+        final Message message = new CompactFilterSerializer(PARAMS).deserialize(ByteBuffer.wrap(sent.toByteArray()));
+        assertTrue(message instanceof GetCompactFiltersMessage);
+        assertEquals(100, ((GetCompactFiltersMessage) message).getStartHeight());
+        assertEquals(stopHash, ((GetCompactFiltersMessage) message).getStopHash());
+    }
+
+    @Test
+    public void canServe() {
+        final VersionMessage ver = new VersionMessage(PARAMS, 0);
+        ver.localServices = VersionMessage.NODE_COMPACT_FILTERS;
+        final PeerAddress address = new PeerAddress(PARAMS, InetAddress.getLoopbackAddress(), PARAMS.getPort());
+        final Peer plainPeer = new Peer(PARAMS, ver, address, null) {
+            @Override
+            public VersionMessage getPeerVersionMessage() {
+                return ver;
+            }
+        };
+        final CompactFilterPeer filterPeer = new CompactFilterPeer(PARAMS, ver, address, null, 0, 0, null) {
+            @Override
+            public VersionMessage getPeerVersionMessage() {
+                return ver;
+            }
+        };
+        assertTrue(PeerCompactFilterSource.canServe(filterPeer));
+        assertEquals(false, PeerCompactFilterSource.canServe(plainPeer));
+    }
+
+    /**
+     * Feeds the stream in small chunks, keeping unconsumed bytes like the connection handler does.
+     */
+    private void feed(final byte[] stream) {
+        final ByteBuffer buff = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int pos = 0;
+        while (pos < stream.length || buff.position() > 0) {
+            final int chunk = Math.min(Math.min(buff.remaining(), 13), stream.length - pos);
+            buff.put(stream, pos, chunk);
+            pos += chunk;
+            buff.flip();
+            final int consumed = peer.receiveBytes(buff);
+            assertTrue(consumed >= 0);
+            buff.position(consumed);
+            buff.compact();
+            if (chunk == 0 && consumed == 0)
+                break;
+        }
+    }
+
+    private static CompactFilterMessage filter(final int seed, final int size) {
+        final byte[] filter = new byte[size];
+        Arrays.fill(filter, (byte) seed);
+        return new CompactFilterMessage(PARAMS, GolombCodedSet.FILTER_TYPE_BASIC,
+                Sha256Hash.of(new byte[] { (byte) seed }), filter);
+    }
+
+    private static void assertFilter(final CompactFilterMessage expected, final Message actual) {
+        assertTrue(actual instanceof CompactFilterMessage);
+        assertEquals(expected.getBlockHash(), ((CompactFilterMessage) actual).getBlockHash());
+        assertArrayEquals(expected.getFilter(), ((CompactFilterMessage) actual).getFilter());
+    }
+}
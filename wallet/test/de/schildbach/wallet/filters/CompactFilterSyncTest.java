@@ -0,0 +1,270 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class CompactFilterSyncTest {
+    private static final NetworkParameters PARAMS = RegTestParams.get();
+
+    private Wallet wallet;
+    private MemoryBlockStore blockStore;
+    private BlockChain chain;
+    private StandInPeer peer;
+    private Block lastBlock;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        Utils.setMockClock(PARAMS.getGenesisBlock().getTimeSeconds()); // wallet is born with the chain
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        wallet.getActiveKeyChain().setLookaheadSize(5); // fewer false positives
+        blockStore = new MemoryBlockStore(PARAMS);
+        chain = new BlockChain(PARAMS, wallet, blockStore);
+        peer = new StandInPeer();
+        lastBlock = PARAMS.getGenesisBlock();
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void fetchesOnlyMatchingBlocks() throws Exception {
+        final Address walletAddress = wallet.freshReceiveAddress();
+        mineHeaders(10, null);
+        mineHeaders(1, walletAddress);
+        mineHeaders(10, null);
+
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5), null);
+        assertEquals(1, sync.scan(peer));
+        assertEquals(1, peer.blocksServed);
+        assertEquals(1, wallet.getTransactions(false).size());
+        final Transaction tx = wallet.getTransactions(false).iterator().next();
+        assertEquals(11, tx.getConfidence().getDepthInBlocks());
+        assertEquals(Coin.FIFTY_COINS, wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        assertEquals(lastBlock.getHash(), sync.getScannedHash());
+    }
+
+    @Test
+    public void resumes() throws Exception {
+        final Address walletAddress = wallet.freshReceiveAddress();
+        mineHeaders(5, walletAddress);
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5), null);
+        assertEquals(5, sync.scan(peer));
+        assertEquals(1, peer.filterRequests);
+
+        mineHeaders(3, null);
+        mineHeaders(1, walletAddress);
+        final CompactFilterSync resumed = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5),
+                sync.getScannedHash());
+        assertEquals(1, resumed.scan(peer));
+        assertEquals(4, peer.lastFilterCount);
+        assertEquals(6, wallet.getTransactions(false).size());
+
+        // nothing left to do
+        assertEquals(0, resumed.scan(peer));
+        assertEquals(2, peer.filterRequests);
+    }
+
+    @Test
+    public void batches() throws Exception {
+        mineHeaders(GetCompactFiltersMessage.MAX_FILTERS + 10, null);
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5), null);
+        sync.scan(peer); // might fetch a false positive
+        assertEquals(2, peer.filterRequests);
+        assertEquals(11, peer.lastFilterCount); // including genesis
+        assertTrue(wallet.getTransactions(false).isEmpty());
+    }
+
+    @Test
+    public void scannedBlockReorganizedAway() throws Exception {
+        mineHeaders(3, null);
+        final Block forkPoint = lastBlock;
+        mineHeaders(2, null);
+        final Sha256Hash orphan = lastBlock.getHash();
+
+        // longer chain from the fork point, paying to the wallet
+        lastBlock = forkPoint;
+        mineHeaders(3, wallet.freshReceiveAddress());
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5), orphan);
+        assertEquals(3, sync.scan(peer));
+        assertEquals(3, peer.lastFilterCount);
+    }
+
+    @Test
+    public void nothingToScan() throws Exception {
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5),
+                PARAMS.getGenesisBlock().getHash());
+        assertEquals(0, sync.scan(peer));
+        assertEquals(0, peer.filterRequests);
+        assertEquals(PARAMS.getGenesisBlock().getHash(), sync.getScannedHash());
+        assertNull(new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(5), null).getScannedHash());
+    }
+
+    @Test
+    public void cancelWhileWaiting() throws Exception {
+        mineHeaders(3, null);
+        final CompactFilterSource silent = new CompactFilterSource() {
+            @Override
+            public ListenableFuture<List<CompactFilterMessage>> getFilters(final int startHeight,
+                    final Sha256Hash stopHash, final int count) {
+                return SettableFuture.create(); // never answers
+            }
+
+            @Override
+            public ListenableFuture<Block> getBlock(final Sha256Hash blockHash) {
+                return SettableFuture.create();
+            }
+        };
+        final CompactFilterSync sync = new CompactFilterSync(wallet, blockStore, Duration.ofSeconds(30), null);
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.schedule(sync::cancel, 100, TimeUnit.MILLISECONDS);
+        final Stopwatch watch = Stopwatch.createStarted();
+        try {
+            sync.scan(silent);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue("took " + watch, watch.elapsed(TimeUnit.SECONDS) < 5);
+        assertNull(sync.getScannedHash());
+    }
+
+    private void mineHeaders(final int count, final Address to) throws Exception {
+        for (int i = 0; i < count; i++) {
+            lastBlock = lastBlock.createNextBlock(to != null ? to : LegacyAddress.fromKey(PARAMS, new ECKey()));
+            peer.record(lastBlock);
+            chain.add(lastBlock.cloneAsHeader());
+        }
+    }
+
+    /**
+     * Stand-in for a remote peer, serving recorded filters and blocks. Requests and responses go through the
+     * serializer, as they would on the wire.
+     */
+    private class StandInPeer implements CompactFilterSource {
+        private final CompactFilterSerializer serializer = new CompactFilterSerializer(PARAMS);
+        private final Map<Sha256Hash, Block> blocks = new HashMap<>();
+        private final Map<Sha256Hash, byte[]> filters = new HashMap<>();
+        int filterRequests = 0;
+        int lastFilterCount = 0;
+        int blocksServed = 0;
+
+        StandInPeer() {
+            record(PARAMS.getGenesisBlock());
+        }
+
+        void record(final Block block) {
+            final List<byte[]> scripts = new ArrayList<>();
+            for (final Transaction tx : block.getTransactions())
+                for (final TransactionOutput output : tx.getOutputs())
+                    scripts.add(output.getScriptBytes());
+            blocks.put(block.getHash(), block);
+            filters.put(block.getHash(), GolombCodedSet.buildBasic(block.getHash(), scripts));
+        }
+
+        @Override
+        public ListenableFuture<List<CompactFilterMessage>> getFilters(final int startHeight,
+                final Sha256Hash stopHash, final int count) {
+            final GetCompactFiltersMessage request = (GetCompactFiltersMessage) roundTrip(
+                    new GetCompactFiltersMessage(PARAMS, GolombCodedSet.FILTER_TYPE_BASIC, startHeight, stopHash));
+            filterRequests++;
+            final List<CompactFilterMessage> response = new ArrayList<>();
+            Block block = blocks.get(request.getStopHash());
+            for (int height = heightOf(block); height >= request.getStartHeight(); height--) {
+                response.add(0, (CompactFilterMessage) roundTrip(new CompactFilterMessage(PARAMS,
+                        request.getFilterType(), block.getHash(), filters.get(block.getHash()))));
+                block = blocks.get(block.getPrevBlockHash());
+            }
+            lastFilterCount = response.size();
+            return Futures.immediateFuture(response);
+        }
+
+        @Override
+        public ListenableFuture<Block> getBlock(final Sha256Hash blockHash) {
+            blocksServed++;
+            return Futures.immediateFuture(blocks.get(blockHash));
+        }
+
+        private int heightOf(Block block) {
+            int height = 0;
+            while (!block.getHash().equals(PARAMS.getGenesisBlock().getHash())) {
+                block = blocks.get(block.getPrevBlockHash());
+                height++;
+            }
+            return height;
+        }
+
+        private Message roundTrip(final Message message) {
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                serializer.serialize(message, out);
+                return serializer.deserialize(ByteBuffer.wrap(out.toByteArray()));
+            } catch (final Exception x) {
+                throw new RuntimeException(x);
+            }
+        }
+    }
+}
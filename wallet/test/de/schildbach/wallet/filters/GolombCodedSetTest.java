@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.filters;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.TestNet3Params;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class GolombCodedSetTest {
+    @Test
+    public void testnetGenesisBlock() {
+        // test vector from BIP158
+        final Block genesis = TestNet3Params.get().getGenesisBlock();
+        final byte[] script = genesis.getTransactions().get(0).getOutput(0).getScriptBytes();
+        final byte[] filter = GolombCodedSet.buildBasic(genesis.getHash(), ImmutableList.of(script));
+        assertArrayEquals(Utils.HEX.decode("019dfca8"), filter);
+
+        final GolombCodedSet set = GolombCodedSet.parseBasic(genesis.getHash(), filter);
+        assertEquals(1, set.size());
+        assertTrue(set.match(script));
+        assertFalse(set.match(new byte[] { 0x51 }));
+    }
+
+    @Test
+    public void matchAny() {
+        final Sha256Hash blockHash = Sha256Hash.of(new byte[] { 1 });
+        final Random random = new Random(0);
+        final List<byte[]> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            items.add(randomScript(random));
+        final GolombCodedSet set = GolombCodedSet.parseBasic(blockHash, GolombCodedSet.buildBasic(blockHash, items));
+        assertEquals(1000, set.size());
+        for (final byte[] item : items)
+            assertTrue(set.match(item));
+
+        final List<byte[]> others = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            others.add(randomScript(random));
+        assertFalse(set.matchAny(others));
+        others.add(items.get(500));
+        assertTrue(set.matchAny(others));
+        assertFalse(set.matchAny(ImmutableList.of()));
+    }
+
+    @Test
+    public void empty() {
+        final Sha256Hash blockHash = Sha256Hash.of(new byte[] { 2 });
+        final byte[] filter = GolombCodedSet.buildBasic(blockHash, ImmutableList.of());
+        assertArrayEquals(new byte[] { 0 }, filter);
+        assertFalse(GolombCodedSet.parseBasic(blockHash, filter).match(new byte[] { 0x51 }));
+    }
+
+    @Test
+    public void multiplyHighUnsigned() {
+        assertEquals(0, GolombCodedSet.multiplyHighUnsigned(Long.MAX_VALUE, 1));
+        assertEquals(1, GolombCodedSet.multiplyHighUnsigned(-1L, 2));
+        assertEquals(-2L, GolombCodedSet.multiplyHighUnsigned(-1L, -1L));
+        assertEquals(784930, GolombCodedSet.multiplyHighUnsigned(-1L, 784931));
+    }
+
+    private static byte[] randomScript(final Random random) {
+        final byte[] script = new byte[25];
+        random.nextBytes(script);
+        return script;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.headers;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class HeadersFirstSyncTest {
+    private static final NetworkParameters PARAMS = RegTestParams.get();
+    private static final long BLOCK_SPACING_SECS = 600;
+    private static final int CHAIN_LENGTH = 4500; // more than two batches
+
+    private static List<StoredBlock> chain; // index is height
+
+    private MemoryBlockStore blockStore;
+    private BlockChain blockChain;
+    private ExecutorService executor;
+    private ScheduledExecutorService network;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        if (chain == null)
+            chain = mineChain(CHAIN_LENGTH);
+        // blocks must not be too far in the future
+        Utils.setMockClock(chain.get(CHAIN_LENGTH).getHeader().getTimeSeconds());
+        blockStore = new MemoryBlockStore(PARAMS);
+        blockChain = new BlockChain(PARAMS, blockStore);
+        executor = Executors.newFixedThreadPool(4);
+        network = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        network.shutdownNow();
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void catchesUpInParallel() throws Exception {
+        final List<HeaderSource> sources = ImmutableList.of(new StandInPeer(), new StandInPeer(), new StandInPeer());
+        final int added = new HeadersFirstSync(blockChain, executor, Duration.ofSeconds(5)).sync(sources,
+                anchors(1000), Long.MAX_VALUE);
+        assertEquals(CHAIN_LENGTH, added);
+        assertEquals(chain.get(CHAIN_LENGTH), blockChain.getChainHead());
+        assertTrue("max in flight: " + maxInFlight, maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void stopsAtStopTime() throws Exception {
+        final List<HeaderSource> sources = ImmutableList.of(new StandInPeer(), new StandInPeer());
+        final long stopTimeSecs = chain.get(3000).getHeader().getTimeSeconds();
+        new HeadersFirstSync(blockChain, executor, Duration.ofSeconds(5)).sync(sources, anchors(1000),
+                stopTimeSecs);
+        assertEquals(chain.get(2999), blockChain.getChainHead());
+    }
+
+    @Test
+    public void tailOnly() throws Exception {
+        final StandInPeer peer1 = new StandInPeer(), peer2 = new StandInPeer();
+        final int added = new HeadersFirstSync(blockChain, executor, Duration.ofSeconds(5))
+                .sync(ImmutableList.of(peer1, peer2), ImmutableList.of(), Long.MAX_VALUE);
+        assertEquals(CHAIN_LENGTH, added);
+        assertEquals(chain.get(CHAIN_LENGTH), blockChain.getChainHead());
+        // batches alternate between peers
+        assertEquals(2, peer1.requests);
+        assertEquals(1, peer2.requests);
+    }
+
+    @Test
+    public void keepsRangesBeforeFailure() throws Exception {
+        final StandInPeer liar = new StandInPeer() {
+            @Override
+            List<Block> headersAfter(final int height, final Sha256Hash stopHash) {
+                final List<Block> headers = new ArrayList<>(super.headersAfter(height, stopHash));
+                headers.remove(headers.size() / 2); // breaks linkage
+                return headers;
+            }
+        };
+        final List<HeaderSource> sources = ImmutableList.of(new StandInPeer(), liar);
+        try {
+            new HeadersFirstSync(blockChain, executor, Duration.ofSeconds(5)).sync(sources, anchors(1000),
+                    Long.MAX_VALUE);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        assertEquals(chain.get(1000), blockChain.getChainHead());
+    }
+
+    @Test
+    public void cancelWhileWaiting() throws Exception {
+        final StandInPeer silent = new StandInPeer() {
+            @Override
+            public ListenableFuture<List<Block>> getHeaders(final Sha256Hash startHash, final Sha256Hash stopHash) {
+                return SettableFuture.create(); // never answers
+            }
+        };
+        final HeadersFirstSync sync = new HeadersFirstSync(blockChain, executor, Duration.ofSeconds(30));
+        network.schedule(sync::cancel, 100, TimeUnit.MILLISECONDS);
+        final Stopwatch watch = Stopwatch.createStarted();
+        try {
+            sync.sync(ImmutableList.of(silent), anchors(1000), Long.MAX_VALUE);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        assertTrue("took " + watch, watch.elapsed(TimeUnit.SECONDS) < 5);
+        assertEquals(0, blockChain.getBestChainHeight());
+    }
+
+    @Test(expected = VerificationException.class)
+    public void verifyRejectsGap() {
+        HeadersFirstSync.verify(ImmutableList.of(chain.get(1).getHeader(), chain.get(3).getHeader()),
+                PARAMS.getGenesisBlock().getHash());
+    }
+
+    private static List<StoredBlock> anchors(final int every) {
+        final List<StoredBlock> anchors = new ArrayList<>();
+        for (int height = every; height <= CHAIN_LENGTH; height += every)
+            anchors.add(chain.get(height));
+        return anchors;
+    }
+
+    private static List<StoredBlock> mineChain(final int length) throws Exception {
+        final Address to = LegacyAddress.fromKey(PARAMS, new ECKey());
+        final Block genesis = PARAMS.getGenesisBlock();
+        final List<StoredBlock> chain = new ArrayList<>(length + 1);
+        chain.add(new StoredBlock(genesis.cloneAsHeader(), genesis.getWork(), 0));
+        Block block = genesis;
+        for (int height = 1; height <= length; height++) {
+            block = block.createNextBlock(to, block.getVersion(),
+                    genesis.getTimeSeconds() + height * BLOCK_SPACING_SECS, height);
+            chain.add(chain.get(height - 1).build(block.cloneAsHeader()));
+        }
+        return chain;
+    }
+
+    /**
+     * Stand-in for a remote peer, serving headers from the mined chain after a bit of latency.
+     */
+    private class StandInPeer implements HeaderSource {
+        int requests = 0;
+
+        @Override
+        public ListenableFuture<List<Block>> getHeaders(final Sha256Hash startHash, final Sha256Hash stopHash) {
+            requests++;
+            final SettableFuture<List<Block>> future = SettableFuture.create();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            network.schedule(() -> {
+                inFlight.decrementAndGet();
+                for (int height = 0; height <= CHAIN_LENGTH; height++) {
+                    if (chain.get(height).getHeader().getHash().equals(startHash)) {
+                        future.set(headersAfter(height, stopHash));
+                        return;
+                    }
+                }
+                future.set(ImmutableList.of());
+            }, 20, TimeUnit.MILLISECONDS);
+            return future;
+        }
+
+        List<Block> headersAfter(final int height, final Sha256Hash stopHash) {
+            final List<Block> headers = new ArrayList<>();
+            for (int h = height + 1; h <= CHAIN_LENGTH && headers.size() < HeadersMessage.MAX_HEADERS; h++) {
+                // as if received over the wire, without any cached hash
+                final Block header = chain.get(h).getHeader();
+                headers.add(PARAMS.getDefaultSerializer().makeBlock(header.bitcoinSerialize()));
+                if (header.getHash().equals(stopHash))
+                    break;
+            }
+            return headers;
+        }
+    }
+}
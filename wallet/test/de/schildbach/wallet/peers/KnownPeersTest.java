@@ -0,0 +1,77 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.peers;
+
+import org.bitcoinj.core.VersionMessage;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class KnownPeersTest {
+    private static final long NOW_MS = Duration.ofDays(100).toMillis();
+    private static final long SERVICES = VersionMessage.NODE_NETWORK | VersionMessage.NODE_WITNESS;
+    private static final KnownPeers KNOWN_PEERS = new KnownPeers(Duration.ofDays(14));
+
+    @Test
+    public void bestOrdering() {
+        final PeerAddressEntry reliable = peer("10.0.0.1", 5, 3);
+        final PeerAddressEntry recent = peer("10.0.0.2", 1, 0);
+        final PeerAddressEntry older = peer("10.0.0.3", 1, 2);
+        final List<PeerAddressEntry> best = KNOWN_PEERS.best(Arrays.asList(older, recent, reliable), SERVICES, 10,
+                NOW_MS);
+        assertEquals(Arrays.asList(reliable, recent, older), best);
+        assertEquals(Arrays.asList(reliable, recent), KNOWN_PEERS.best(Arrays.asList(older, recent, reliable),
+                SERVICES, 2, NOW_MS));
+    }
+
+    @Test
+    public void bestRequiredServices() {
+        final PeerAddressEntry full = peer("10.0.0.1", 1, 0);
+        final PeerAddressEntry legacy = new PeerAddressEntry("10.0.0.2", 8333, VersionMessage.NODE_NETWORK,
+                NOW_MS, 10);
+        assertEquals(Arrays.asList(full), KNOWN_PEERS.best(Arrays.asList(full, legacy), SERVICES, 10, NOW_MS));
+        assertEquals(Arrays.asList(legacy, full),
+                KNOWN_PEERS.best(Arrays.asList(full, legacy), VersionMessage.NODE_NETWORK, 10, NOW_MS));
+    }
+
+    @Test
+    public void pruning() {
+        final PeerAddressEntry fresh = peer("10.0.0.1", 1, 14);
+        final PeerAddressEntry stale = peer("2001:db8::2", 100, 15);
+        final List<PeerAddressEntry> peers = Arrays.asList(fresh, stale);
+
+        // stale peers are neither seeded, no matter how reliable they used to be, ...
+        assertEquals(Arrays.asList(fresh), KNOWN_PEERS.best(peers, SERVICES, 10, NOW_MS));
+        // ...nor kept
+        assertEquals(Arrays.asList(stale), KNOWN_PEERS.expired(peers, NOW_MS));
+        assertTrue(KNOWN_PEERS.expired(peers, NOW_MS - Duration.ofDays(1).toMillis()).isEmpty());
+    }
+
+    private static PeerAddressEntry peer(final String host, final int successCount, final int daysAgo) {
+        return new PeerAddressEntry(host, 8333, SERVICES, NOW_MS - Duration.ofDays(daysAgo).toMillis(),
+                successCount);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BinaryCheckpointsTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final long INTERVAL_SECS = 60 * 60 * 24 * 14;
+
+    private List<StoredBlock> checkpoints;
+    private long genesisTimeSecs;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        final Block genesis = PARAMS.getGenesisBlock();
+        genesisTimeSecs = genesis.getTimeSeconds();
+        Utils.setMockClock(genesisTimeSecs + 60 * INTERVAL_SECS); // blocks must not be too far in the future
+        checkpoints = new ArrayList<>();
+        Block block = genesis;
+        for (int i = 1; i <= 50; i++) {
+            block = block.createNextBlock(null, Block.BLOCK_VERSION_GENESIS, genesisTimeSecs + i * INTERVAL_SECS, i)
+                    .cloneAsHeader();
+            checkpoints.add(new StoredBlock(block, BigInteger.valueOf(i), i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void sameAsCheckpointManager() throws Exception {
+        final CheckpointManager manager = new CheckpointManager(PARAMS, new ByteArrayInputStream(toText(checkpoints)));
+        final BinaryCheckpoints binaryCheckpoints = new BinaryCheckpoints(PARAMS, toBinary(checkpoints));
+        assertEquals(manager.numCheckpoints(), binaryCheckpoints.numCheckpoints());
+
+        for (long time = genesisTimeSecs + 1; time < genesisTimeSecs + 52 * INTERVAL_SECS; time += INTERVAL_SECS / 3)
+            assertEquals(manager.getCheckpointBefore(time), binaryCheckpoints.getCheckpointBefore(time));
+        for (final StoredBlock checkpoint : checkpoints) {
+            final long time = checkpoint.getHeader().getTimeSeconds();
+            assertEquals(checkpoint, binaryCheckpoints.getCheckpointBefore(time));
+            assertEquals(manager.getCheckpointBefore(time - 1), binaryCheckpoints.getCheckpointBefore(time - 1));
+        }
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        final BinaryCheckpoints binaryCheckpoints = new BinaryCheckpoints(PARAMS, toBinary(checkpoints));
+        final StoredBlock expected = checkpoints.get(9);
+        final MemoryBlockStore store = new MemoryBlockStore(PARAMS);
+        binaryCheckpoints.checkpoint(store, expected.getHeader().getTimeSeconds() + 60 * 60 * 24 * 7);
+        assertEquals(expected, store.getChainHead());
+    }
+
+    @Test
+    public void checkpointsAfter() throws Exception {
+        final BinaryCheckpoints binaryCheckpoints = new BinaryCheckpoints(PARAMS, toBinary(checkpoints));
+        assertEquals(checkpoints, binaryCheckpoints.getCheckpointsAfter(genesisTimeSecs));
+        final long time = checkpoints.get(39).getHeader().getTimeSeconds();
+        assertEquals(checkpoints.subList(40, 50), binaryCheckpoints.getCheckpointsAfter(time));
+        assertEquals(checkpoints.subList(39, 50), binaryCheckpoints.getCheckpointsAfter(time - 1));
+        assertTrue(binaryCheckpoints.getCheckpointsAfter(time + 20 * INTERVAL_SECS).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        final ByteBuffer buffer = toBinary(checkpoints);
+        buffer.limit(buffer.limit() - 1);
+        new BinaryCheckpoints(PARAMS, buffer);
+    }
+
+    private static byte[] toText(final List<StoredBlock> checkpoints) {
+        final StringBuilder text = new StringBuilder("TXT CHECKPOINTS 1\n0\n").append(checkpoints.size()).append('\n');
+        final ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        for (final StoredBlock checkpoint : checkpoints) {
+            buffer.clear();
+            checkpoint.serializeCompact(buffer);
+            text.append(CheckpointManager.BASE64.encode(buffer.array())).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer toBinary(final List<StoredBlock> checkpoints) {
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                BinaryCheckpoints.MAGIC.length + 8 + checkpoints.size() * StoredBlock.COMPACT_SERIALIZED_SIZE);
+        buffer.put(BinaryCheckpoints.MAGIC);
+        buffer.putInt(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        buffer.putInt(checkpoints.size());
+        for (final StoredBlock checkpoint : checkpoints)
+            checkpoint.serializeCompact(buffer);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BlockStoreRepairTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int CAPACITY = 100;
+    private static final int FILE_PROLOGUE_BYTES = 1024;
+    private static final int RECORD_SIZE = 32 + StoredBlock.COMPACT_SERIALIZED_SIZE_V2;
+    private static final int HEADER_OFFSET = 32 + 32 + 4; // after hash, chain work and height
+    private static final byte[] GARBAGE = new byte[32];
+
+    static {
+        Arrays.fill(GARBAGE, (byte) 0x5a); // zeros would match empty records
+    }
+
+    private File file;
+    private final List<StoredBlock> chain = new ArrayList<>(); // index is height
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        file = File.createTempFile("blockstore", ".spvchain");
+        file.delete();
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, CAPACITY, true);
+        StoredBlock block = store.getChainHead();
+        chain.add(block);
+        for (int height = 1; height <= 50; height++) {
+            final Block next = block.getHeader().createNextBlock(null);
+            block = block.build(next.cloneAsHeader());
+            store.put(block);
+            chain.add(block);
+        }
+        store.setChainHead(block);
+        store.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void corruptChainHeadPointer() throws Exception {
+        overwrite(8, GARBAGE);
+        final StoredBlock head = BlockStoreRepair.repair(PARAMS, file, CAPACITY, chain.get(40).getHeader().getHash());
+        assertEquals(chain.get(40), head);
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, CAPACITY, true);
+        assertEquals(chain.get(40), store.getChainHead());
+        assertNotNull(store.get(chain.get(1).getHeader().getHash()));
+        assertNull(store.get(chain.get(41).getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void corruptRecordSplitsChain() throws Exception {
+        overwrite(recordPosition(30) + HEADER_OFFSET, GARBAGE);
+        assertEquals(chain.get(45), BlockStoreRepair.repair(PARAMS, file, CAPACITY,
+                chain.get(45).getHeader().getHash()));
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, CAPACITY, true);
+        assertEquals(chain.get(45), store.getChainHead());
+        assertNotNull(store.get(chain.get(31).getHeader().getHash()));
+        assertNull(store.get(chain.get(30).getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void walletBlockBeforeSplit() throws Exception {
+        overwrite(recordPosition(30) + HEADER_OFFSET, GARBAGE);
+        assertEquals(chain.get(20), BlockStoreRepair.repair(PARAMS, file, CAPACITY,
+                chain.get(20).getHeader().getHash()));
+    }
+
+    @Test
+    public void walletBlockLost() throws Exception {
+        final long length = file.length();
+        overwrite(recordPosition(30) + HEADER_OFFSET, GARBAGE);
+        assertNull(BlockStoreRepair.repair(PARAMS, file, CAPACITY, chain.get(30).getHeader().getHash()));
+        assertEquals(length, file.length()); // left untouched
+    }
+
+    @Test
+    public void freshWalletTakesTip() throws Exception {
+        overwrite(8, GARBAGE);
+        assertEquals(chain.get(50), BlockStoreRepair.repair(PARAMS, file, CAPACITY, null));
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void corruptionIsDetected() throws Exception {
+        overwrite(8, GARBAGE);
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, CAPACITY, true);
+        try {
+            store.getChainHead();
+        } finally {
+            store.close();
+        }
+    }
+
+    private int recordPosition(final int height) {
+        return FILE_PROLOGUE_BYTES + height * RECORD_SIZE; // genesis is the first record
+    }
+
+    private void overwrite(final long position, final byte[] bytes) throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            raf.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BloomFilterTunerTest {
+    private static final double MIN = 0.000001;
+    private static final double MAX = 0.001;
+    private static final double DELTA = 0.0000000001;
+
+    @Test
+    public void waitsForWindow() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.00001, MIN, MAX, 10);
+        for (int i = 0; i < 9; i++) {
+            tuner.onFilteredBlock(2000, 10, 0); // heavily saturated
+            assertNull(tuner.maybeAdjust());
+        }
+        assertEquals(9, tuner.snapshot().blocks);
+        tuner.onFilteredBlock(2000, 10, 0);
+        assertTrue(tuner.maybeAdjust() < 0.00001);
+    }
+
+    @Test
+    public void tightensSaturatedFilter() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.0001, MIN, MAX, 10);
+        feed(tuner, 10, 1000, 1, 0); // observed 0.001, ten times the rate
+        assertEquals(0.00001, tuner.maybeAdjust(), DELTA);
+        assertEquals(0.00001, tuner.getFpRate(), DELTA);
+        assertEquals(0.001, tuner.snapshot().observedFpRate, DELTA);
+    }
+
+    @Test
+    public void loosensForPrivacy() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.00001, MIN, MAX, 10);
+        feed(tuner, 10, 1000, 2, 1); // one decoy per relevant transaction
+        assertEquals(0.0001, tuner.maybeAdjust(), DELTA);
+
+        feed(tuner, 10, 1000, 1, 1); // no decoys at all
+        assertEquals(MAX, tuner.maybeAdjust(), DELTA);
+    }
+
+    @Test
+    public void tightensForBandwidth() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.001, MIN, MAX, 600);
+        feed(tuner, 599, 4000, 4, 0);
+        tuner.onFilteredBlock(4000, 4, 1); // 2399 decoys for a single relevant transaction
+        assertEquals(0.001 * 1000 / 2399, tuner.maybeAdjust(), DELTA);
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.01, MIN, MAX, 1);
+        assertEquals(MAX, tuner.getFpRate(), DELTA);
+        tuner.onFilteredBlock(1000, 1000, 0); // everything matches
+        assertEquals(MIN, tuner.maybeAdjust(), DELTA);
+        tuner.onFilteredBlock(1000, 1000, 0);
+        assertNull(tuner.maybeAdjust());
+    }
+
+    @Test
+    public void ignoresInsignificantChange() {
+        final BloomFilterTuner tuner = new BloomFilterTuner(0.0001, MIN, MAX, 10);
+        feed(tuner, 10, 1000, 0, 0);
+        assertNull(tuner.maybeAdjust()); // no traffic, no reason to change
+
+        feed(tuner, 10, 10000, 2, 0); // slightly more false positives than expected
+        tuner.onFilteredBlock(1000, 1, 1);
+        assertNull(tuner.maybeAdjust());
+        assertEquals(11, tuner.snapshot().blocks);
+        assertEquals(0.0001, tuner.getFpRate(), DELTA);
+    }
+
+    private static void feed(final BloomFilterTuner tuner, final int blocks, final int transactions,
+            final int matched, final int relevant) {
+        for (int i = 0; i < blocks; i++)
+            tuner.onFilteredBlock(transactions, matched, relevant);
+    }
+}
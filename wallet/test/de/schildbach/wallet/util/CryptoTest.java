@@ -19,6 +19,8 @@ package de.schildbach.wallet.util;
 
 import com.google.common.io.CharStreams;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.junit.Test;
 
 import java.io.BufferedReader;
@@ -27,6 +29,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -88,6 +92,40 @@ public class CryptoTest {
         }
     }
 
+    @Test
+    public void roundtripStreams() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream(4096);
+        while (stream.toByteArray().length < 4096) {
+            final byte[] plainBytes = stream.toByteArray();
+            final byte[] roundtrippedPlainBytes = decryptStream(encryptStream(plainBytes, PASSWORD), PASSWORD);
+            assertArrayEquals(plainBytes, roundtrippedPlainBytes);
+
+            stream.write(42);
+        }
+    }
+
+    @Test
+    public void streamsCompatibleWithStrings() throws Exception {
+        final byte[] plainBytes = new byte[100000];
+        new Random(0).nextBytes(plainBytes);
+
+        final String cipherText = encryptStream(plainBytes, PASSWORD);
+        assertEquals(Crypto.encrypt(plainBytes, PASSWORD).length(), cipherText.length());
+        assertArrayEquals(plainBytes, Crypto.decryptBytes(cipherText, PASSWORD));
+        assertArrayEquals(plainBytes, decryptStream(Crypto.encrypt(plainBytes, PASSWORD), PASSWORD));
+    }
+
+    @Test(expected = IOException.class)
+    public void decryptStreamWrongPassword() throws Exception {
+        // a fixed salt, as with a random one the padding happens to be valid by chance every now and then
+        decryptStream(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50"), "wrong".toCharArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void decryptStreamEmpty() throws Exception {
+        decryptStream("", PASSWORD);
+    }
+
     @Test
     public void backups() throws Exception {
         final byte[] backup = Crypto.decryptBytes(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50"),
@@ -99,6 +137,84 @@ public class CryptoTest {
         assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backupCrLf)));
     }
 
+    @Test
+    public void backupsFromStream() throws Exception {
+        for (final String filename : new String[] { "bitcoin-wallet-backup-testnet-3.50",
+                "bitcoin-wallet-backup-testnet-3.50-crlf" }) {
+            final ByteArrayOutputStream backup = new ByteArrayOutputStream();
+            Crypto.decrypt(getClass().getResourceAsStream(filename), backup, PASSWORD);
+            assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backup.toByteArray())));
+        }
+    }
+
+    @Test
+    public void enginesByteIdentical() throws Exception {
+        for (final AesEngine engine : AesEngine.values()) {
+            assertTrue(engine.toString(), engine.isAvailable());
+
+            // existing backups decrypt with any engine
+            for (final String filename : new String[] { "bitcoin-wallet-backup-testnet-3.50",
+                    "bitcoin-wallet-backup-testnet-3.50-crlf" }) {
+                final String backup = readBackupFromResource(filename);
+                final byte[] plainBytes = Crypto.decryptBytes(backup, PASSWORD, engine);
+                assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(plainBytes)));
+                assertArrayEquals(plainBytes, decryptStream(backup, PASSWORD, engine));
+            }
+
+            // the same key and IV yield the same ciphertext, and each engine reads the other's
+            final AesEngine other = AesEngine.BOUNCY_CASTLE;
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream(1024);
+            while (stream.size() < 1024) {
+                final byte[] plainBytes = stream.toByteArray();
+                assertArrayEquals(aesEncrypt(other, plainBytes), aesEncrypt(engine, plainBytes));
+                final String cipherText = Crypto.encrypt(plainBytes, PASSWORD, engine);
+                final String streamCipherText = encryptStream(plainBytes, PASSWORD, engine);
+                assertArrayEquals(plainBytes, Crypto.decryptBytes(cipherText, PASSWORD, other));
+                assertArrayEquals(plainBytes, decryptStream(streamCipherText, PASSWORD, other));
+                final String otherCipherText = Crypto.encrypt(plainBytes, PASSWORD, other);
+                assertArrayEquals(plainBytes, Crypto.decryptBytes(otherCipherText, PASSWORD, engine));
+                assertArrayEquals(plainBytes, decryptStream(otherCipherText, PASSWORD, engine));
+
+                stream.write(42);
+            }
+        }
+    }
+
+    private static byte[] aesEncrypt(final AesEngine engine, final byte[] plainBytes) throws Exception {
+        final AesEngine.Cipher cipher = engine.newCipher();
+        cipher.init(true, new ParametersWithIV(new KeyParameter(new byte[32]), new byte[16]));
+        final byte[] cipherBytes = new byte[cipher.getOutputSize(plainBytes.length)];
+        final int len = cipher.processBytes(plainBytes, 0, plainBytes.length, cipherBytes, 0);
+        return Arrays.copyOf(cipherBytes, len + cipher.doFinal(cipherBytes, len));
+    }
+
+    private static String encryptStream(final byte[] plainBytes, final char[] password) throws IOException {
+        final ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+        Crypto.encrypt(new ByteArrayInputStream(plainBytes), cipherOut, password);
+        return new String(cipherOut.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String encryptStream(final byte[] plainBytes, final char[] password, final AesEngine engine)
+            throws IOException {
+        final ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+        Crypto.encrypt(new ByteArrayInputStream(plainBytes), cipherOut, password, engine);
+        return new String(cipherOut.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] decryptStream(final String cipherText, final char[] password) throws IOException {
+        final ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        Crypto.decrypt(new ByteArrayInputStream(cipherText.getBytes(StandardCharsets.UTF_8)), plainOut, password);
+        return plainOut.toByteArray();
+    }
+
+    private static byte[] decryptStream(final String cipherText, final char[] password, final AesEngine engine)
+            throws IOException {
+        final ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        Crypto.decrypt(new ByteArrayInputStream(cipherText.getBytes(StandardCharsets.UTF_8)), plainOut, password,
+                engine);
+        return plainOut.toByteArray();
+    }
+
     private String readBackupFromResource(final String filename) throws IOException {
         final BufferedReader reader = new BufferedReader(
                 new InputStreamReader(getClass().getResourceAsStream(filename), StandardCharsets.UTF_8));
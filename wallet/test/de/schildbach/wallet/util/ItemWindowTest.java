@@ -0,0 +1,127 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ItemWindowTest {
+    private final List<Runnable> background = new ArrayList<>();
+    private final List<Integer> loaded = new ArrayList<>();
+
+    private ItemWindow<Integer, String> window(final int capacity) {
+        return new ItemWindow<>(key -> {
+            loaded.add(key);
+            return key >= 0 ? "item " + key : null;
+        }, capacity, background::add);
+    }
+
+    @Test
+    public void loadsOnce() {
+        final ItemWindow<Integer, String> window = window(10);
+        assertEquals("item 1", window.get(1));
+        assertEquals("item 1", window.get(1));
+        assertEquals(ImmutableList.of(1), loaded);
+        assertNull(window.get(-1)); // gone meanwhile
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void prefetchesMissingOnly() {
+        final ItemWindow<Integer, String> window = window(10);
+        window.get(2);
+        window.setWindow(ImmutableList.of(1, 2, 3));
+        window.setWindow(ImmutableList.of(1, 2, 3)); // already being loaded
+        assertNull(window.peek(1));
+        runBackground();
+        assertEquals(ImmutableList.of(2, 1, 3), loaded);
+        assertNotNull(window.peek(1));
+        assertNotNull(window.peek(3));
+    }
+
+    @Test
+    public void skipsWhatScrolledAway() {
+        final ItemWindow<Integer, String> window = window(10);
+        window.setWindow(ImmutableList.of(1, 2));
+        window.setWindow(ImmutableList.of(2, 3));
+        runBackground();
+        assertEquals(ImmutableList.of(2, 3), loaded);
+        window.setWindow(ImmutableList.of(1));
+        runBackground();
+        assertEquals(ImmutableList.of(2, 3, 1), loaded); // no longer considered loading
+    }
+
+    @Test
+    public void requestsInBackground() {
+        final ItemWindow<Integer, String> window = window(10);
+        final List<Integer> notified = new ArrayList<>();
+        window.setOnLoadedListener(notified::add);
+        assertNull(window.getOrRequest(1));
+        assertNull(window.getOrRequest(1)); // already being loaded
+        assertNull(window.getOrRequest(-1));
+        assertEquals(ImmutableList.of(), loaded);
+        runBackground();
+        assertEquals(ImmutableList.of(1, -1), loaded);
+        assertEquals(ImmutableList.of(1), notified); // gone meanwhile
+        assertEquals("item 1", window.getOrRequest(1));
+        assertEquals(0, background.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final ItemWindow<Integer, String> window = window(3);
+        window.get(1);
+        window.get(2);
+        window.get(3);
+        window.get(1);
+        window.get(4);
+        assertEquals(3, window.size());
+        assertNull(window.peek(2));
+        assertNotNull(window.peek(1));
+    }
+
+    @Test
+    public void trimKeepsWindow() {
+        final ItemWindow<Integer, String> window = window(10);
+        for (int i = 0; i < 6; i++)
+            window.get(i);
+        window.setWindow(ImmutableList.of(4, 5));
+        window.trim();
+        assertEquals(2, window.size());
+        assertNotNull(window.peek(4));
+        assertNotNull(window.peek(5));
+        assertEquals(0, background.size()); // nothing to prefetch
+    }
+
+    private void runBackground() {
+        final List<Runnable> tasks = new ArrayList<>(background);
+        background.clear();
+        for (final Runnable task : tasks)
+            task.run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.hash.HashCode;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class KeyBackupTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS, 100, Coin.ZERO, false));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+    }
+
+    @Test
+    public void toProto() throws Exception {
+        receive(wallet.freshReceiveAddress(), Coin.COIN);
+        wallet.importKey(new ECKey());
+        assertEquals(strippedWalletToProto(wallet), KeyBackup.toProto(wallet));
+
+        wallet.encrypt(new KeyCrypterScrypt(2), new KeyCrypterScrypt(2).deriveKey("password"));
+        assertEquals(strippedWalletToProto(wallet), KeyBackup.toProto(wallet));
+    }
+
+    @Test
+    public void fingerprint() throws Exception {
+        HashCode fingerprint = KeyBackup.fingerprint(wallet);
+        assertEquals(fingerprint, KeyBackup.fingerprint(wallet));
+
+        final Address address = wallet.freshReceiveAddress();
+        wallet.freshReceiveAddress();
+        fingerprint = assertChanged(fingerprint);
+
+        // transactions to already issued addresses don't change the backup
+        receive(address, Coin.COIN);
+        assertEquals(fingerprint, KeyBackup.fingerprint(wallet));
+
+        wallet.importKey(new ECKey());
+        fingerprint = assertChanged(fingerprint);
+
+        final KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(2);
+        wallet.encrypt(keyCrypter, keyCrypter.deriveKey("password"));
+        fingerprint = assertChanged(fingerprint);
+
+        wallet.decrypt(keyCrypter.deriveKey("password"));
+        assertChanged(fingerprint);
+    }
+
+    private HashCode assertChanged(final HashCode previousFingerprint) {
+        final HashCode fingerprint = KeyBackup.fingerprint(wallet);
+        assertNotEquals(previousFingerprint, fingerprint);
+        return fingerprint;
+    }
+
+    private static Protos.Wallet strippedWalletToProto(final Wallet wallet) {
+        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
+        builder.clearTransaction();
+        builder.clearLastSeenBlockHash();
+        builder.setLastSeenBlockHeight(-1);
+        builder.clearLastSeenBlockTimeSecs();
+        return builder.build();
+    }
+
+    private void receive(final Address address, final Coin value) throws Exception {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(Sha256Hash.of(value.toString().getBytes()), 0, new ScriptBuilder().build());
+        tx.addOutput(value, address);
+        final StoredBlock block = new StoredBlock(PARAMS.getGenesisBlock().createNextBlock(null).cloneAsHeader(),
+                BigInteger.ONE, 1);
+        wallet.receivePending(tx, null);
+        wallet.receiveFromBlock(tx, block, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        wallet.notifyNewBestBlock(block);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class PartialWalletTest {
+    private static final NetworkParameters PARAMS = WalletFixture.PARAMS;
+
+    private WalletFixture fixture;
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new WalletFixture();
+        wallet = fixture.wallet;
+    }
+
+    @Test
+    public void withoutHistory() throws Exception {
+        // history: each transaction spends the previous one completely
+        Transaction tx = fixture.receive(Coin.COIN);
+        for (int i = 0; i < 5; i++)
+            tx = fixture.spend(tx, Coin.COIN.subtract(Coin.MILLICOIN.multiply(i + 1)));
+        fixture.receive(Coin.CENT);
+        fixture.spendPending(tx, Coin.MILLICOIN);
+
+        final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+        final Protos.Wallet partialWalletProto = PartialWallet.withoutHistory(walletProto);
+        assertEquals(8, walletProto.getTransactionCount());
+        assertEquals(2, partialWalletProto.getTransactionCount()); // unspent receive and pending spend
+
+        final Wallet partialWallet = new WalletProtobufSerializer().readWallet(PARAMS, null, partialWalletProto);
+        for (final Wallet.BalanceType balanceType : Wallet.BalanceType.values())
+            assertEquals(wallet.getBalance(balanceType), partialWallet.getBalance(balanceType));
+        final Wallet fullWallet = new WalletProtobufSerializer().readWallet(PARAMS, null, walletProto);
+        assertEquals(fullWallet.currentReceiveAddress(), partialWallet.currentReceiveAddress());
+    }
+
+    @Test
+    public void carryOverIssuedKeys() throws Exception {
+        final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+        final Wallet partialWallet = new WalletProtobufSerializer().readWallet(PARAMS, null,
+                PartialWallet.withoutHistory(walletProto));
+        partialWallet.freshReceiveAddress();
+        partialWallet.freshReceiveAddress();
+
+        PartialWallet.carryOverIssuedKeys(partialWallet, wallet);
+        assertEquals(partialWallet.getIssuedReceiveAddresses(), wallet.getIssuedReceiveAddresses());
+        assertEquals(partialWallet.freshReceiveAddress(), wallet.freshReceiveAddress());
+    }
+
+    @Test
+    public void carryOverIssuedKeys_differentWallet() throws Exception {
+        final Wallet otherWallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        otherWallet.freshReceiveAddress();
+        otherWallet.freshReceiveAddress();
+
+        PartialWallet.carryOverIssuedKeys(otherWallet, wallet);
+        assertEquals(0, wallet.getIssuedReceiveAddresses().size());
+    }
+}
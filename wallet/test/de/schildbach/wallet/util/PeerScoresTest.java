@@ -0,0 +1,125 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.net.InetAddresses;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class PeerScoresTest {
+    private static final InetSocketAddress FAST = address("10.0.0.1");
+    private static final InetSocketAddress SLOW = address("10.0.0.2");
+    private static final InetSocketAddress STALLING = address("2001:db8::3");
+
+    @Test
+    public void best() {
+        final PeerScores scores = new PeerScores(10);
+        scores.recordConnected(FAST, 1);
+        scores.recordDownloadRate(FAST, 500000);
+        scores.recordPing(FAST, 50);
+        scores.recordConnected(SLOW, 1);
+        scores.recordDownloadRate(SLOW, 20000);
+        scores.recordPing(SLOW, 300);
+        scores.recordConnected(STALLING, 1);
+        scores.recordDownloadRate(STALLING, 5000);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.STALLED);
+
+        final List<PeerScores.Score> best = scores.best(10);
+        assertEquals(2, best.size());
+        assertEquals(FAST, best.get(0).address);
+        assertEquals(SLOW, best.get(1).address);
+        assertEquals(1, scores.best(1).size());
+    }
+
+    @Test
+    public void disconnectCountsOnce() {
+        final PeerScores scores = new PeerScores(10);
+        scores.recordConnected(STALLING, 1);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.STALLED);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.UNEXPECTED);
+        final PeerScores.Score score = scores.get(STALLING);
+        assertEquals(1, score.stalls);
+        assertEquals(0, score.unexpectedDisconnects);
+    }
+
+    @Test
+    public void laggard() {
+        final PeerScores scores = new PeerScores(10);
+        scores.recordConnected(STALLING, 1);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.STALLED);
+        assertFalse(scores.isLaggard(STALLING)); // one strike isn't enough
+        scores.recordConnected(STALLING, 2);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.MISBEHAVING);
+        assertTrue(scores.isLaggard(STALLING));
+
+        // serving well makes up for it
+        for (int i = 0; i < 10; i++) {
+            scores.recordConnected(STALLING, 3 + i);
+            scores.recordDisconnected(STALLING, PeerScores.Reason.DROPPED);
+        }
+        scores.recordDownloadRate(STALLING, 100000);
+        assertFalse(scores.isLaggard(STALLING));
+    }
+
+    @Test
+    public void evictsLeastRecentlySeen() {
+        final PeerScores scores = new PeerScores(2);
+        scores.recordConnected(FAST, 3);
+        scores.recordConnected(SLOW, 1);
+        scores.recordDisconnected(SLOW, PeerScores.Reason.DROPPED);
+        scores.recordConnected(STALLING, 2);
+        assertEquals(2, scores.size());
+        assertNull(scores.get(SLOW));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        final PeerScores scores = new PeerScores(10);
+        scores.recordConnected(FAST, 1000);
+        scores.recordDownloadRate(FAST, 500000);
+        scores.recordPing(FAST, 50);
+        scores.recordConnected(STALLING, 2000);
+        scores.recordDisconnected(STALLING, PeerScores.Reason.STALLED);
+        scores.recordConnected(InetSocketAddress.createUnresolved("example.onion", 8333), 3000);
+        final StringWriter writer = new StringWriter();
+        scores.save(writer);
+
+        final PeerScores loaded = new PeerScores(10);
+        loaded.load(new StringReader(writer.toString() + "garbage\n"));
+        assertEquals(2, loaded.size());
+        assertEquals(scores.get(FAST).score, loaded.get(FAST).score, 0.01);
+        assertEquals(1, loaded.get(STALLING).stalls);
+        assertEquals(scores.best(10).get(0).address, loaded.best(10).get(0).address);
+    }
+
+    private static InetSocketAddress address(final String ip) {
+        return new InetSocketAddress(InetAddresses.forString(ip), 8333);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class RecentBlocksTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private List<StoredBlock> chain;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        chain = extend(new StoredBlock(PARAMS.getGenesisBlock().cloneAsHeader(), BigInteger.ONE, 0), 20);
+    }
+
+    @Test
+    public void add() {
+        final RecentBlocks recentBlocks = new RecentBlocks(10);
+        for (final StoredBlock block : chain)
+            recentBlocks.add(block);
+        assertEquals(10, recentBlocks.size());
+        assertEquals(topDown(chain, 10), recentBlocks.get(100));
+        assertEquals(topDown(chain, 3), recentBlocks.get(3));
+
+        // adding the head again doesn't change anything
+        recentBlocks.add(chain.get(chain.size() - 1));
+        assertEquals(topDown(chain, 10), recentBlocks.get(100));
+    }
+
+    @Test
+    public void addNotConnecting() {
+        final RecentBlocks recentBlocks = new RecentBlocks(10);
+        for (final StoredBlock block : chain.subList(0, 5))
+            recentBlocks.add(block);
+        recentBlocks.add(chain.get(10));
+        assertEquals(Collections.singletonList(chain.get(10)), recentBlocks.get(100));
+    }
+
+    @Test
+    public void addOldest() {
+        final RecentBlocks recentBlocks = new RecentBlocks(10);
+        recentBlocks.add(chain.get(20));
+        assertFalse(recentBlocks.addOldest(chain.get(10)));
+        for (int i = 19; i >= 0; i--)
+            recentBlocks.addOldest(chain.get(i));
+        assertEquals(topDown(chain, 10), recentBlocks.get(100));
+    }
+
+    @Test
+    public void reorganize() {
+        final RecentBlocks recentBlocks = new RecentBlocks(10);
+        for (final StoredBlock block : chain)
+            recentBlocks.add(block);
+
+        final StoredBlock splitPoint = chain.get(15);
+        final List<StoredBlock> fork = extend(splitPoint, 6);
+        recentBlocks.reorganize(splitPoint, Lists.reverse(fork));
+        final List<StoredBlock> expected = new ArrayList<>(chain.subList(0, 16));
+        expected.addAll(fork);
+        assertEquals(topDown(expected, 10), recentBlocks.get(100));
+    }
+
+    @Test
+    public void reorganizeByAdding() {
+        final RecentBlocks recentBlocks = new RecentBlocks(10);
+        for (final StoredBlock block : chain)
+            recentBlocks.add(block);
+
+        // a competing block at an already cached height rolls back the blocks above
+        final List<StoredBlock> fork = extend(chain.get(15), 1);
+        recentBlocks.add(fork.get(0));
+        final List<StoredBlock> expected = new ArrayList<>(chain.subList(0, 16));
+        expected.addAll(fork);
+        assertEquals(topDown(expected, 6), recentBlocks.get(100));
+        assertTrue(recentBlocks.addOldest(chain.get(10)));
+    }
+
+    private static List<StoredBlock> extend(StoredBlock block, final int numBlocks) {
+        final List<StoredBlock> blocks = new ArrayList<>();
+        if (block.getHeight() == 0)
+            blocks.add(block);
+        for (int i = 0; i < numBlocks; i++) {
+            block = block.build(block.getHeader().createNextBlock(null).cloneAsHeader());
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static List<StoredBlock> topDown(final List<StoredBlock> blocks, final int n) {
+        return Lists.reverse(blocks.subList(blocks.size() - n, blocks.size()));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ResolvedAddressCacheTest {
+    private static final Duration TTL = Duration.ofHours(1);
+    private static final HostAndPort NODE_1 = HostAndPort.fromString("node1.example.com");
+    private static final HostAndPort NODE_2 = HostAndPort.fromString("node2.example.com:18333");
+    private static final InetSocketAddress ADDRESS_1 = new InetSocketAddress(InetAddresses.forString("192.0.2.1"),
+            8333);
+    private static final InetSocketAddress ADDRESS_2 = new InetSocketAddress(InetAddresses.forString("2001:db8::2"),
+            18333);
+
+    @Test
+    public void ttl() {
+        final ResolvedAddressCache cache = new ResolvedAddressCache(TTL);
+        cache.put(NODE_1, ADDRESS_1, 1000);
+        assertEquals(ADDRESS_1, cache.get(NODE_1, 1000 + TTL.toMillis()));
+        assertNull(cache.get(NODE_1, 1001 + TTL.toMillis()));
+        assertEquals(ADDRESS_1, cache.getAnyAge(NODE_1));
+        assertNull(cache.get(NODE_2, 1000));
+    }
+
+    @Test
+    public void serializeAndParse() {
+        final ResolvedAddressCache cache = new ResolvedAddressCache(TTL);
+        cache.put(NODE_1, ADDRESS_1, 1000);
+        cache.put(NODE_2, ADDRESS_2, 2000);
+        final ResolvedAddressCache parsed = ResolvedAddressCache.parse(cache.serialize() + "garbage\n", TTL);
+        assertEquals(2, parsed.size());
+        assertEquals(ADDRESS_1, parsed.get(NODE_1, 1000));
+        assertEquals(ADDRESS_2, parsed.get(NODE_2, 2000));
+        assertNull(parsed.get(NODE_2, 2001 + TTL.toMillis()));
+        assertEquals(0, ResolvedAddressCache.parse(null, TTL).size());
+    }
+
+    @Test
+    public void retainAll() {
+        final ResolvedAddressCache cache = new ResolvedAddressCache(TTL);
+        cache.put(NODE_1, ADDRESS_1, 1000);
+        cache.put(NODE_2, ADDRESS_2, 2000);
+        cache.retainAll(ImmutableSet.of(NODE_2));
+        assertEquals(1, cache.size());
+        assertNull(cache.getAnyAge(NODE_1));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class RunAccountingTest {
+    private static final Duration RADIO_TAIL = Duration.ofSeconds(10);
+
+    @Test
+    public void radioTailsOverlap() {
+        final RunAccounting accounting = new RunAccounting(RADIO_TAIL, 0);
+        accounting.onNetworkActivity(0);
+        accounting.onNetworkActivity(4_000); // within the tail
+        accounting.onNetworkActivity(4_000);
+        accounting.onNetworkActivity(30_000); // radio went idle before
+        final RunAccounting.Run run = accounting.finish(40_000, false);
+        assertEquals(14_000 + 10_000, run.radioActiveMs);
+    }
+
+    @Test
+    public void idleAfterUsefulWork() {
+        final RunAccounting accounting = new RunAccounting(RADIO_TAIL, 1_000);
+        accounting.onWakeLockAcquired(1_000);
+        accounting.onBlockProcessed();
+        accounting.onBlockProcessed();
+        accounting.onWorkDone(6_000);
+        accounting.onWakeLockReleased(61_000);
+        final RunAccounting.Run run = accounting.finish(61_000, false);
+        assertEquals(2, run.blocks);
+        assertEquals(60_000, run.wakeLockMs);
+        assertEquals(5_000, run.usefulMs);
+        assertEquals(55_000, run.idleMs());
+    }
+
+    @Test
+    public void noWorkDoneCountsAsUseful() {
+        final RunAccounting accounting = new RunAccounting(RADIO_TAIL, 0);
+        accounting.onWakeLockAcquired(0);
+        accounting.onWakeLockReleased(20_000);
+        final RunAccounting.Run run = accounting.finish(20_000, false);
+        assertEquals(20_000, run.usefulMs);
+        assertEquals(0, run.idleMs());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finishWhileHeld() {
+        final RunAccounting accounting = new RunAccounting(RADIO_TAIL, 0);
+        accounting.onWakeLockAcquired(0);
+        accounting.finish(1_000, false);
+    }
+
+    @Test
+    public void appendAndParse() {
+        String serialized = null;
+        for (int i = 0; i < 5; i++)
+            serialized = RunAccounting.append(serialized,
+                    new RunAccounting.Run(i * 1_000, 500, 400, 300, i, 200, i % 2 == 0), 3);
+        serialized += "garbage\n";
+        final List<RunAccounting.Run> runs = RunAccounting.parse(serialized);
+        assertEquals(3, runs.size());
+        final RunAccounting.Run last = runs.get(2);
+        assertEquals(4_000, last.startedMs);
+        assertEquals(500, last.durationMs);
+        assertEquals(400, last.wakeLockMs);
+        assertEquals(300, last.radioActiveMs);
+        assertEquals(4, last.blocks);
+        assertEquals(200, last.usefulMs);
+        assertTrue(last.stoppedAtTip);
+        assertFalse(runs.get(1).stoppedAtTip);
+    }
+}
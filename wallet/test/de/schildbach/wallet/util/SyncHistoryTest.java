@@ -0,0 +1,102 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SyncHistoryTest {
+    private static final long HOUR_MS = Duration.ofHours(1).toMillis();
+    private static final Duration MIN_INTERVAL = Duration.ofMinutes(15);
+    private static final Duration MAX_INTERVAL = Duration.ofHours(12);
+
+    @Test
+    public void defaultsWithoutHistory() {
+        final SyncHistory history = new SyncHistory(10);
+        final SyncHistory.Prediction prediction = history.predict(0, 6, MIN_INTERVAL, MAX_INTERVAL);
+        assertFalse(prediction.trusted);
+        assertEquals(MIN_INTERVAL.toMillis(), prediction.intervalMs);
+        assertEquals(7, prediction.blocks); // one more block arrives in the interval
+        assertEquals(7 * SyncHistory.DEFAULT_BYTES_PER_BLOCK, prediction.bytes);
+    }
+
+    @Test
+    public void fitsModel() {
+        final SyncHistory history = new SyncHistory(10);
+        // a block every 5 minutes, 10 s and 10 kB to get started, 100 ms and 20 kB per block
+        history.record(new SyncHistory.Run(0, 10_000, 10_000, 0, 0));
+        history.record(new SyncHistory.Run(HOUR_MS, 11_200, 250_000, 12, 12));
+        history.record(new SyncHistory.Run(3 * HOUR_MS, 12_400, 490_000, 24, 24));
+        final long now = history.getRuns().get(2).endedMs();
+        final SyncHistory.Prediction prediction = history.predict(now, 0, MIN_INTERVAL, MAX_INTERVAL);
+        assertTrue(prediction.trusted);
+        // it takes 100 blocks for their download to be worth the 10 s to get started
+        assertEquals(500 * 60_000, prediction.intervalMs, 60_000);
+        assertEquals(100, prediction.blocks, 1);
+        assertEquals(10_000 + 100 * 20_000, prediction.bytes, 20_000);
+        assertEquals(20_000, prediction.durationMs, 100);
+    }
+
+    @Test
+    public void accountsForTimeSinceLastRun() {
+        final SyncHistory history = new SyncHistory(10);
+        history.record(new SyncHistory.Run(0, 10_000, 10_000, 0, 0));
+        final long now = 10_000 + 24 * HOUR_MS; // e.g. after a reboot
+        final SyncHistory.Prediction prediction = history.predict(now, 0, MIN_INTERVAL, MAX_INTERVAL);
+        assertEquals(144 + 1, prediction.blocks);
+    }
+
+    @Test
+    public void capsInterval() {
+        final SyncHistory history = new SyncHistory(10);
+        // very expensive to get started
+        history.record(new SyncHistory.Run(0, 60_000, 10_000, 0, 0));
+        history.record(new SyncHistory.Run(HOUR_MS, 60_001, 10_000, 6, 6));
+        history.record(new SyncHistory.Run(2 * HOUR_MS, 60_002, 10_000, 6, 6));
+        assertEquals(MAX_INTERVAL.toMillis(),
+                history.predict(2 * HOUR_MS, 0, MIN_INTERVAL, MAX_INTERVAL).intervalMs);
+    }
+
+    @Test
+    public void serializeAndParse() {
+        final SyncHistory history = new SyncHistory(3);
+        for (int i = 0; i < 5; i++)
+            history.record(new SyncHistory.Run(i * HOUR_MS, 10_000 + i, 10_000, i, i));
+        final SyncHistory.Prediction prediction = history.predict(5 * HOUR_MS, 0, MIN_INTERVAL, MAX_INTERVAL);
+
+        final SyncHistory parsed = SyncHistory.parse(history.serialize() + "garbage\n", 3);
+        assertEquals(3, parsed.getRuns().size());
+        assertEquals(2 * HOUR_MS, parsed.getRuns().get(0).startedMs);
+        assertEquals(4, parsed.getRuns().get(2).blocksBehind);
+        assertEquals(prediction.toString(), parsed.getLastPrediction().toString());
+
+        // the prediction is handed out once, along with the run it was made for
+        assertEquals(prediction.toString(), parsed.record(new SyncHistory.Run(6 * HOUR_MS, 0, 0, 0, 0)).toString());
+        assertNull(parsed.getLastPrediction());
+        assertEquals(0, SyncHistory.parse(null, 3).getRuns().size());
+    }
+}
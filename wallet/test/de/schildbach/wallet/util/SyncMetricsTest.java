@@ -0,0 +1,165 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SyncMetricsTest {
+    private static final InetSocketAddress PEER_1 = InetSocketAddress.createUnresolved("peer1", 8333);
+    private static final InetSocketAddress PEER_2 = InetSocketAddress.createUnresolved("peer2", 8333);
+
+    private MutableClock clock;
+    private SyncMetrics metrics;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        metrics = new SyncMetrics(Duration.ofSeconds(10), Duration.ofSeconds(5), clock);
+    }
+
+    @Test
+    public void rates() {
+        for (int i = 0; i < 10; i++) {
+            metrics.onBlockDownloaded(PEER_1, 2, 100);
+            metrics.onMessageReceived(PEER_1, 1000);
+            clock.advance(Duration.ofMillis(500));
+        }
+        final SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.totalBlocks);
+        assertEquals(20, snapshot.totalTransactions);
+        assertEquals(10000, snapshot.totalBytes);
+        assertEquals(2.0, snapshot.blocksPerSecond, 0.01);
+        assertEquals(4.0, snapshot.transactionsPerSecond, 0.01);
+        assertEquals(2000.0, snapshot.bytesPerSecond, 0.01);
+    }
+
+    @Test
+    public void ratesRollOver() {
+        for (int i = 0; i < 20; i++) {
+            metrics.onBlockDownloaded(PEER_1, 0, 100);
+            clock.advance(Duration.ofSeconds(1));
+        }
+        // the current bucket has just started and is still empty
+        assertEquals(0.9, metrics.snapshot().blocksPerSecond, 0.01);
+        clock.advance(Duration.ofSeconds(5));
+        assertEquals(0.4, metrics.snapshot().blocksPerSecond, 0.01);
+        clock.advance(Duration.ofSeconds(30));
+        final SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0.0, snapshot.blocksPerSecond, 0.01);
+        assertEquals(20, snapshot.totalBlocks);
+    }
+
+    @Test
+    public void peers() {
+        metrics.onMessageReceived(PEER_1, 3000);
+        metrics.onMessageReceived(PEER_2, 1000);
+        metrics.onBlockDownloaded(PEER_2, 0, 0);
+        metrics.onPing(PEER_1, 42);
+        clock.advance(Duration.ofSeconds(1));
+        final SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.peers.size());
+        final SyncMetrics.PeerSnapshot peer1 = snapshot.peers.get(PEER_1);
+        assertEquals(42, peer1.pingMs);
+        assertEquals(3000.0, peer1.bytesPerSecond, 0.01);
+        assertEquals(0, peer1.blocks);
+        final SyncMetrics.PeerSnapshot peer2 = snapshot.peers.get(PEER_2);
+        assertEquals(Long.MAX_VALUE, peer2.pingMs);
+        assertEquals(1000, peer2.totalBytes);
+        assertEquals(1, peer2.blocks);
+        assertEquals(4000, snapshot.totalBytes);
+    }
+
+    @Test
+    public void stallsAndTimeToTip() {
+        metrics.onChainDownloadStarted(3);
+        clock.advance(Duration.ofSeconds(1));
+        metrics.onBlockDownloaded(PEER_1, 0, 2);
+        clock.advance(Duration.ofSeconds(6));
+        SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertTrue(snapshot.downloading);
+        assertTrue(snapshot.stalled);
+        assertEquals(1, snapshot.stalls);
+        assertEquals(Duration.ofSeconds(6), snapshot.sinceProgress);
+        assertNull(snapshot.timeToTip);
+
+        // download peer changes, download continues
+        metrics.onChainDownloadStarted(2);
+        metrics.onBlockDownloaded(PEER_2, 0, 1);
+        clock.advance(Duration.ofSeconds(1));
+        metrics.onBlockDownloaded(PEER_2, 0, 0);
+        snapshot = metrics.snapshot();
+        assertFalse(snapshot.downloading);
+        assertFalse(snapshot.stalled);
+        assertEquals(1, snapshot.stalls);
+        assertEquals(Duration.ofSeconds(6), snapshot.stalledTime);
+        assertEquals(Duration.ofSeconds(8), snapshot.timeToTip);
+
+        // no stalls while not downloading
+        clock.advance(Duration.ofSeconds(60));
+        metrics.onBlockDownloaded(PEER_2, 0, 0);
+        assertEquals(1, metrics.snapshot().stalls);
+    }
+
+    @Test
+    public void walletCallbacks() {
+        metrics.onWalletCallback(1500000);
+        metrics.onWalletCallback(500000);
+        final SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.walletCallbacks);
+        assertEquals(Duration.ofMillis(2), snapshot.walletCallbackTime);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant = Instant.ofEpochSecond(1700000000);
+
+        public void advance(final Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
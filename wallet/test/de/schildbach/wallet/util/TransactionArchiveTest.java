@@ -0,0 +1,144 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TransactionArchiveTest {
+    private static final NetworkParameters PARAMS = WalletFixture.PARAMS;
+
+    private WalletFixture fixture;
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new WalletFixture();
+        wallet = fixture.wallet;
+    }
+
+    @Test
+    public void selectAndStrip() throws Exception {
+        // history: each transaction spends the previous one completely
+        final List<Transaction> history = new ArrayList<>();
+        Transaction tx = fixture.receive(Coin.COIN);
+        history.add(tx);
+        for (int i = 0; i < 5; i++) {
+            tx = fixture.spend(tx, Coin.COIN.subtract(Coin.MILLICOIN.multiply(i + 1)));
+            history.add(tx);
+        }
+        for (int i = 0; i < 3; i++)
+            fixture.nextBlock();
+
+        // the last two transactions aren't buried deep enough, and the one before is spent by one of them
+        final TransactionArchive.Selection selection = TransactionArchive.select(wallet, 6);
+        assertEquals(3, selection.transactions.size());
+        for (int i = 0; i < 3; i++)
+            assertTrue(selection.transactions.containsKey(history.get(i).getTxId()));
+        assertEquals(3, selection.spends.size());
+
+        final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+        final Protos.Wallet strippedWalletProto = TransactionArchive.strip(walletProto,
+                selection.transactions.keySet());
+        assertEquals(3, strippedWalletProto.getTransactionCount());
+
+        final Wallet strippedWallet = new WalletProtobufSerializer().readWallet(PARAMS, null, strippedWalletProto);
+        assertTrue(strippedWallet.isConsistent());
+        for (final Wallet.BalanceType balanceType : Wallet.BalanceType.values())
+            assertEquals(wallet.getBalance(balanceType), strippedWallet.getBalance(balanceType));
+
+        final TransactionArchive archive = new TransactionArchive(archivedSpends(selection));
+        for (final Transaction strippedTx : strippedWallet.getTransactions(true))
+            assertEquals(wallet.getTransaction(strippedTx.getTxId()).getValue(wallet),
+                    archive.getValue(strippedTx, strippedWallet));
+    }
+
+    @Test
+    public void readTransactions() throws Exception {
+        Transaction tx = fixture.receive(Coin.COIN);
+        for (int i = 0; i < 3; i++)
+            tx = fixture.spend(tx, Coin.COIN.subtract(Coin.MILLICOIN.multiply(i + 1)));
+        for (int i = 0; i < 3; i++)
+            fixture.nextBlock();
+
+        final TransactionArchive.Selection selection = TransactionArchive.select(wallet, 1);
+        assertEquals(3, selection.transactions.size());
+        final List<byte[]> serializedTxs = new ArrayList<>();
+        for (final Protos.Transaction txProto : selection.transactions.values())
+            serializedTxs.add(txProto.toByteArray());
+        final Map<Sha256Hash, Transaction> archivedTxs = TransactionArchive.readTransactions(PARAMS, serializedTxs);
+        assertEquals(selection.transactions.keySet(), archivedTxs.keySet());
+
+        final Wallet strippedWallet = new WalletProtobufSerializer().readWallet(PARAMS, null, TransactionArchive
+                .strip(new WalletProtobufSerializer().walletToProto(wallet), selection.transactions.keySet()));
+        final TransactionArchive archive = new TransactionArchive(archivedSpends(selection));
+        for (final Transaction archivedTx : archivedTxs.values()) {
+            final Transaction originalTx = wallet.getTransaction(archivedTx.getTxId());
+            assertEquals(originalTx.getValue(wallet), archive.getValue(archivedTx, strippedWallet));
+            assertEquals(originalTx.getFee(), archivedTx.getFee());
+            assertEquals(originalTx.getUpdateTime(), archivedTx.getUpdateTime());
+            assertEquals(originalTx.getConfidence().getAppearedAtChainHeight(),
+                    archivedTx.getConfidence().getAppearedAtChainHeight());
+        }
+    }
+
+    @Test
+    public void strip_keepsReferenced() throws Exception {
+        final Transaction tx1 = fixture.receive(Coin.COIN);
+        final Transaction tx2 = fixture.spend(tx1, Coin.CENT);
+
+        // tx1 stays in the wallet and references tx2 as its spender
+        final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+        final Protos.Wallet strippedWalletProto = TransactionArchive.strip(walletProto,
+                Collections.singleton(tx2.getTxId()));
+        assertEquals(2, strippedWalletProto.getTransactionCount());
+
+        final Wallet strippedWallet = new WalletProtobufSerializer().readWallet(PARAMS, null,
+                TransactionArchive.strip(walletProto, Collections.singleton(tx1.getTxId())));
+        assertNull(strippedWallet.getTransaction(tx1.getTxId()));
+        assertNotNull(strippedWallet.getTransaction(tx2.getTxId()));
+    }
+
+    private Map<Sha256Hash, Coin> archivedSpends(final TransactionArchive.Selection selection) {
+        final Map<Sha256Hash, Coin> archivedSpends = new HashMap<>();
+        for (final TransactionArchive.Spend spend : selection.spends)
+            archivedSpends.merge(spend.spendingTxId, spend.value, Coin::add);
+        return archivedSpends;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TransactionIndexTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final TransactionIndex.RowFactory FACTORY = (tx, fingerprint) -> new TransactionIndex.Row(tx,
+            tx.getOutput(0).getValue(), TransactionIndex.Direction.RECEIVED, false, null, fingerprint);
+
+    private int nonce = 0;
+    private TransactionIndex index;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        index = new TransactionIndex();
+    }
+
+    @Test
+    public void yieldsChangedOnly() {
+        final Transaction tx1 = tx(), tx2 = tx();
+        final List<Transaction> txs = ImmutableList.of(tx1, tx2);
+        assertEquals(2, index.update(txs, FACTORY).rows.size());
+        assertTrue(index.update(txs, FACTORY).isEmpty());
+
+        tx2.getConfidence().setDepthInBlocks(3); // depth isn't indexed
+        assertTrue(index.update(txs, FACTORY).isEmpty());
+
+        final Sha256Hash blockHash = Sha256Hash.of(new byte[] { 1 });
+        tx1.addBlockAppearance(blockHash, 1);
+        tx1.getConfidence().setAppearedAtChainHeight(100);
+        final TransactionIndex.Delta delta = index.update(txs, FACTORY);
+        assertEquals(1, delta.rows.size());
+        final TransactionIndex.Row row = delta.rows.get(0);
+        assertEquals(tx1.getTxId(), row.txId);
+        assertEquals(100, row.height);
+        assertEquals(ImmutableSet.of(blockHash), row.blockHashes);
+        assertFalse(row.coinbase);
+    }
+
+    @Test
+    public void reportsRemovedOnce() {
+        final Transaction tx1 = tx(), tx2 = tx();
+        index.update(ImmutableList.of(tx1, tx2), FACTORY);
+        final TransactionIndex.Delta delta = index.update(ImmutableList.of(tx2), FACTORY);
+        assertEquals(ImmutableSet.of(tx1.getTxId()), delta.removed);
+        assertTrue(delta.rows.isEmpty());
+        assertTrue(index.update(ImmutableList.of(tx2), FACTORY).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void resumes() {
+        final Transaction tx1 = tx(), tx2 = tx();
+        final Sha256Hash goneTxId = Sha256Hash.of(new byte[] { 2 });
+        final Map<Sha256Hash, Long> fingerprints = new HashMap<>();
+        fingerprints.put(tx1.getTxId(), TransactionIndex.fingerprint(tx1));
+        fingerprints.put(goneTxId, 42L);
+        index.resume(fingerprints);
+        final TransactionIndex.Delta delta = index.update(ImmutableList.of(tx1, tx2), FACTORY);
+        assertEquals(1, delta.rows.size());
+        assertEquals(tx2.getTxId(), delta.rows.get(0).txId);
+        assertEquals(ImmutableSet.of(goneTxId), delta.removed);
+    }
+
+    @Test
+    public void invalidateYieldsAll() {
+        final List<Transaction> txs = ImmutableList.of(tx(), tx());
+        index.update(txs, FACTORY);
+        index.invalidate();
+        assertEquals(2, index.update(txs, FACTORY).rows.size());
+        assertTrue(index.update(txs, FACTORY).isEmpty());
+    }
+
+    private Transaction tx() {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, 0,
+                Sha256Hash.ZERO_HASH)));
+        tx.addOutput(new TransactionOutput(PARAMS, tx, Coin.valueOf(++nonce), new byte[0])); // makes it unique
+        tx.getConfidence().setConfidenceType(ConfidenceType.PENDING);
+        return tx;
+    }
+}
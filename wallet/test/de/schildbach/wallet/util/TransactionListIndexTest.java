@@ -0,0 +1,263 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TransactionListIndexTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int MAX_DEPTH = 7;
+    private static final long NOW_MS = TimeUnit.DAYS.toMillis(365);
+    private static final TransactionListIndex.Filter ALL = new TransactionListIndex.Filter() {
+        @Override
+        public boolean include(final Transaction tx, final Coin value) {
+            return true;
+        }
+
+        @Override
+        public boolean includeArchived(final Sha256Hash txId) {
+            return true;
+        }
+    };
+
+    private int nonce = 0;
+    private int numValues = 0;
+    private final TransactionListIndex.ItemFactory<Item> factory = new TransactionListIndex.ItemFactory<Item>() {
+        @Override
+        public Coin value(final Transaction tx) {
+            numValues++;
+            return tx.getOutput(0).getValue();
+        }
+
+        @Override
+        public Item item(final Transaction tx, final Coin value) {
+            return new Item(tx);
+        }
+
+        @Override
+        public Item archivedItem(final Sha256Hash txId) {
+            return new Item(txId);
+        }
+    };
+    private TransactionListIndex<Item> index;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        index = new TransactionListIndex<>(MAX_DEPTH);
+    }
+
+    @Test
+    public void sortsLikeComparator() {
+        final List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            txs.add(i % 5 == 0 ? pending(i % 3) : building(i % 4, 3));
+        final List<Item> items = index.update(txs, factory, ALL, NOW_MS);
+        final List<Transaction> expected = new ArrayList<>(txs);
+        Collections.sort(expected, TransactionListIndex.COMPARATOR);
+        assertEquals(expected.size(), items.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertSame(expected.get(i), items.get(i).tx);
+    }
+
+    @Test
+    public void keepsUnchangedItems() {
+        final List<Transaction> txs = ImmutableList.of(building(1, 3), building(2, 3), pending(0));
+        final List<Item> first = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(3, index.lastRebuilt());
+        final List<Item> second = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(0, index.lastRebuilt());
+        assertEquals(3, numValues);
+        for (int i = 0; i < first.size(); i++)
+            assertSame(first.get(i), second.get(i));
+    }
+
+    @Test
+    public void rebuildsChangedOnly() {
+        final Transaction deep = building(1, MAX_DEPTH);
+        final Transaction shallow = building(2, 3);
+        final Transaction pending = pending(3);
+        final List<Transaction> txs = ImmutableList.of(deep, shallow, pending);
+        final List<Item> first = index.update(txs, factory, ALL, NOW_MS);
+        assertSame(pending, first.get(0).tx);
+
+        deep.getConfidence().setDepthInBlocks(MAX_DEPTH + 1); // no visible change any more
+        shallow.getConfidence().setDepthInBlocks(4);
+        pending.getConfidence().setAppearedAtChainHeight(100);
+        pending.getConfidence().setDepthInBlocks(1);
+        final List<Item> second = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(2, index.lastRebuilt());
+        assertSame(pending, second.get(2).tx); // no longer sorted first
+        assertSame(first.get(1), second.get(0)); // the deep one
+    }
+
+    @Test
+    public void rebuildsValueWhenInputsConnect() {
+        final Transaction parent = building(2, 3);
+        final Transaction tx = building(1, 3);
+        final List<Transaction> txs = ImmutableList.of(tx);
+        final List<Item> first = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(1, numValues);
+
+        tx.getInput(0).connect(parent.getOutput(0)); // the dependency has arrived
+        final List<Item> second = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(1, index.lastRebuilt());
+        assertEquals(2, numValues);
+        assertNotSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void dropsRemovedAndFilters() {
+        final Transaction tx1 = building(1, 3), tx2 = building(2, 3), tx3 = building(3, 3);
+        index.update(ImmutableList.of(tx1, tx2, tx3), factory, ALL, NOW_MS);
+        final List<Item> items = index.update(ImmutableList.of(tx1, tx3), factory,
+                new TransactionListIndex.Filter() {
+                    @Override
+                    public boolean include(final Transaction tx, final Coin value) {
+                        return tx != tx1;
+                    }
+
+                    @Override
+                    public boolean includeArchived(final Sha256Hash txId) {
+                        return true;
+                    }
+                }, NOW_MS);
+        assertEquals(2, index.size());
+        assertEquals(1, items.size());
+        assertSame(tx3, items.get(0).tx);
+    }
+
+    @Test
+    public void mergesArchived() {
+        final Transaction live = building(2, 3);
+        final Transaction stillLive = building(3, 3);
+        final TransactionListIndex.Archived archived1 = archived(1), archived2 = archived(4);
+        final List<TransactionListIndex.Archived> archived = ImmutableList.of(archived1,
+                new TransactionListIndex.Archived(stillLive.getTxId(), stillLive.getUpdateTime().getTime()),
+                archived2);
+        final List<Transaction> txs = ImmutableList.of(pending(5), live, stillLive);
+        final List<Item> first = index.update(txs, archived, factory, ALL, NOW_MS);
+        assertEquals(5, first.size());
+        assertSame(live, first.get(2).tx);
+        assertSame(stillLive, first.get(3).tx);
+        assertEquals(archived1.txId, first.get(1).txId);
+        assertEquals(archived2.txId, first.get(4).txId);
+        assertTrue(index.isArchived(archived1.txId));
+        assertFalse(index.isArchived(stillLive.getTxId()));
+        assertEquals(3, numValues); // archived transactions have no value
+
+        final List<Item> second = index.update(ImmutableList.of(live), archived, factory, ALL, NOW_MS);
+        assertEquals(1, index.lastRebuilt()); // the one that has gone from the wallet
+        assertEquals(4, second.size());
+        assertSame(first.get(1), second.get(0));
+        assertEquals(stillLive.getTxId(), second.get(2).txId);
+        assertTrue(index.isArchived(stillLive.getTxId()));
+    }
+
+    @Test
+    public void invalidateItemsKeepsValues() {
+        final List<Transaction> txs = ImmutableList.of(building(1, 3), building(2, 3));
+        final List<Item> first = index.update(txs, factory, ALL, NOW_MS);
+        index.invalidateItems();
+        final List<Item> second = index.update(txs, factory, ALL, NOW_MS);
+        assertEquals(2, index.lastRebuilt());
+        assertEquals(2, numValues);
+        assertEquals(first.get(0).tx, second.get(0).tx);
+    }
+
+    @Test
+    public void rebuildsAsTheyAge() {
+        final Transaction recent = building(0, 3);
+        recent.setUpdateTime(new Date(NOW_MS - TimeUnit.SECONDS.toMillis(30)));
+        final Transaction old = building(30, 3);
+        final List<Transaction> txs = ImmutableList.of(recent, old);
+        index.update(txs, factory, ALL, NOW_MS);
+        index.update(txs, factory, ALL, NOW_MS + TimeUnit.SECONDS.toMillis(20));
+        assertEquals(0, index.lastRebuilt());
+        index.update(txs, factory, ALL, NOW_MS + TimeUnit.SECONDS.toMillis(40));
+        assertEquals(1, index.lastRebuilt());
+    }
+
+    private Transaction building(final int daysAgo, final int depth) {
+        final Transaction tx = tx(daysAgo);
+        tx.getConfidence().setAppearedAtChainHeight(1);
+        tx.getConfidence().setDepthInBlocks(depth);
+        return tx;
+    }
+
+    private Transaction pending(final int daysAgo) {
+        final Transaction tx = tx(daysAgo);
+        tx.getConfidence().setConfidenceType(ConfidenceType.PENDING);
+        return tx;
+    }
+
+    private TransactionListIndex.Archived archived(final int daysAgo) {
+        return new TransactionListIndex.Archived(tx(daysAgo).getTxId(), NOW_MS - TimeUnit.DAYS.toMillis(daysAgo));
+    }
+
+    private Transaction tx(final int daysAgo) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, 0,
+                Sha256Hash.ZERO_HASH)));
+        tx.addOutput(new TransactionOutput(PARAMS, tx, Coin.valueOf(++nonce), new byte[0])); // makes it unique
+        tx.setUpdateTime(new Date(NOW_MS - TimeUnit.DAYS.toMillis(daysAgo)));
+        return tx;
+    }
+
+    private static class Item {
+        final Sha256Hash txId;
+        final Transaction tx;
+
+        Item(final Transaction tx) {
+            this.txId = tx.getTxId();
+            this.tx = tx;
+        }
+
+        Item(final Sha256Hash txId) {
+            this.txId = txId;
+            this.tx = null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TransactionSearchTest {
+    private static final Sha256Hash TX_ID = Sha256Hash.of(new byte[] { 1 });
+
+    @Test
+    public void text() {
+        final String text = TransactionSearch.text(TX_ID, "1BitcoinEaterAddressDontSendf59kuE", "Alice", "coffee",
+                Coin.valueOf(1230000).negate());
+        assertTrue(text.startsWith(TX_ID.toString() + " 1BitcoinEaterAddressDontSendf59kuE Alice coffee "));
+        assertTrue(text.contains(" 0.0123 "));
+        assertTrue(text.contains(" 12.30 "));
+        assertTrue(text.contains(" 12300 "));
+        assertTrue(text.endsWith(" 1230000"));
+    }
+
+    @Test
+    public void textWithoutOptionals() {
+        assertEquals(TX_ID + " 0.00 0.00 0 0", TransactionSearch.text(TX_ID, null, null, null, Coin.ZERO));
+    }
+
+    @Test
+    public void matchQuery() {
+        assertEquals("\"alice*\"", TransactionSearch.Query.parse("Alice").matchQuery());
+        assertEquals("\"alice*\" \"0 012*\"", TransactionSearch.Query.parse(" alice  0.012 ").matchQuery());
+        assertEquals("\"o reilly*\"", TransactionSearch.Query.parse("O'Reilly").matchQuery());
+        assertEquals("\"café*\"", TransactionSearch.Query.parse("Café").matchQuery());
+    }
+
+    @Test
+    public void nothingToSearch() {
+        assertNull(TransactionSearch.Query.parse(""));
+        assertNull(TransactionSearch.Query.parse("  "));
+        assertNull(TransactionSearch.Query.parse("\" * -"));
+    }
+
+    @Test
+    public void queryMatches() {
+        final String text = TransactionSearch.text(TX_ID, "1BitcoinEaterAddressDontSendf59kuE", "O'Reilly Café",
+                "coffee", Coin.valueOf(1230000).negate());
+        assertTrue(TransactionSearch.Query.parse("reil").matches(text));
+        assertTrue(TransactionSearch.Query.parse("o'rei cof").matches(text));
+        assertTrue(TransactionSearch.Query.parse("cafe").matches(text));
+        assertTrue(TransactionSearch.Query.parse("0.012").matches(text));
+        assertTrue(TransactionSearch.Query.parse("1bitcoineater").matches(text));
+        assertFalse(TransactionSearch.Query.parse("offee").matches(text));
+        assertFalse(TransactionSearch.Query.parse("o-reilly-x").matches(text));
+        assertFalse(TransactionSearch.Query.parse("coffee tea").matches(text));
+        assertFalse(TransactionSearch.Query.parse("0.013").matches(text));
+    }
+
+    @Test
+    public void sqlMatchesLabelsPerPhrase() {
+        final TransactionSearch.Query query = TransactionSearch.Query.parse("alice cof");
+        final List<Object> args = new ArrayList<>();
+        final String sql = TransactionSearch.sql(query, ImmutableMap.of("addr1", "Alice", "addr2", "Bob",
+                "addr3", "Alice's Coffee"), args);
+        assertEquals("SELECT tx_id FROM indexed_transactions WHERE"
+                + " (tx_id IN (SELECT tx_id FROM transaction_search WHERE transaction_search MATCH ?)"
+                + " OR address IN (?, ?))"
+                + " AND (tx_id IN (SELECT tx_id FROM transaction_search WHERE transaction_search MATCH ?)"
+                + " OR address IN (?))", sql);
+        assertEquals(ImmutableList.of("\"alice*\"", "addr1", "addr3", "\"cof*\"", "addr3"), args);
+    }
+
+    @Test
+    public void sqlWithoutLabels() {
+        final List<Object> args = new ArrayList<>();
+        final String sql = TransactionSearch.sql(TransactionSearch.Query.parse("memo"),
+                Collections.emptyMap(), args);
+        assertEquals("SELECT tx_id FROM indexed_transactions WHERE"
+                + " (tx_id IN (SELECT tx_id FROM transaction_search WHERE transaction_search MATCH ?))", sql);
+        assertEquals(ImmutableList.of("\"memo*\""), args);
+    }
+
+    @Test
+    public void rowId() {
+        assertEquals(TransactionSearch.rowId(TX_ID), TransactionSearch.rowId(Sha256Hash.wrap(TX_ID.getBytes())));
+        assertNotEquals(TransactionSearch.rowId(TX_ID), TransactionSearch.rowId(Sha256Hash.of(new byte[] { 2 })));
+    }
+}
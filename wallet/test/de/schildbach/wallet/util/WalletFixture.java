@@ -0,0 +1,114 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.Wallet;
+
+import java.math.BigInteger;
+
+/**
+ * A fresh wallet on a simulated block chain, for building up transaction histories in tests.
+ *
+ * @author Andreas Schildbach
+ */
+final class WalletFixture {
+    static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    final Wallet wallet;
+    private StoredBlock chainHead;
+    private int nonce = 0;
+
+    WalletFixture() {
+        Context.propagate(new Context(PARAMS, 100, Coin.ZERO, false));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        chainHead = new StoredBlock(PARAMS.getGenesisBlock().cloneAsHeader(), BigInteger.ONE, 0);
+    }
+
+    /**
+     * Receives a pending transaction from outside the wallet, paying to a fresh address.
+     */
+    Transaction receivePending(final Coin value) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(Sha256Hash.of(new byte[] { (byte) (nonce >> 8), (byte) nonce++ }), 0,
+                new ScriptBuilder().build());
+        tx.addOutput(value, wallet.freshReceiveAddress());
+        wallet.receivePending(tx, null);
+        return tx;
+    }
+
+    /**
+     * Like {@link #receivePending(Coin)}, but confirms the transaction in a new block.
+     */
+    Transaction receive(final Coin value) {
+        return confirm(receivePending(value));
+    }
+
+    /**
+     * Spends the first output of the given transaction to a fresh address of the wallet, pending.
+     */
+    Transaction spendPending(final Transaction parent, final Coin value) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(wallet.getTransaction(parent.getTxId()).getOutput(0));
+        tx.addOutput(value, wallet.freshReceiveAddress());
+        wallet.receivePending(tx, null);
+        return tx;
+    }
+
+    /**
+     * Like {@link #spendPending(Transaction, Coin)}, but confirms the transaction in a new block.
+     */
+    Transaction spend(final Transaction parent, final Coin value) {
+        return confirm(spendPending(parent, value));
+    }
+
+    /**
+     * Confirms a pending transaction in a new block on top of the chain.
+     */
+    Transaction confirm(final Transaction tx) {
+        final StoredBlock block = nextStoredBlock();
+        wallet.receiveFromBlock(tx, block, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        wallet.notifyNewBestBlock(block);
+        chainHead = block;
+        return tx;
+    }
+
+    /**
+     * Adds an empty block on top of the chain.
+     */
+    void nextBlock() {
+        final StoredBlock block = nextStoredBlock();
+        wallet.notifyNewBestBlock(block);
+        chainHead = block;
+    }
+
+    private StoredBlock nextStoredBlock() {
+        final Block header = chainHead.getHeader().createNextBlock(null).cloneAsHeader();
+        return new StoredBlock(header, chainHead.getChainWork().add(BigInteger.ONE), chainHead.getHeight() + 1);
+    }
+}
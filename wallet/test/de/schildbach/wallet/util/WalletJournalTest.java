@@ -0,0 +1,159 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import com.google.protobuf.ByteString;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WalletFixture fixture;
+    private Wallet wallet;
+    private File walletFile;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new WalletFixture();
+        wallet = fixture.wallet;
+        walletFile = new File(folder.getRoot(), "wallet");
+    }
+
+    @Test
+    public void makeTxProto() throws Exception {
+        final Transaction received = fixture.receive(Coin.COIN);
+        final Transaction pending = fixture.receivePending(Coin.CENT);
+        final Transaction spending = fixture.spend(received, Coin.MILLICOIN);
+
+        final Map<ByteString, Protos.Transaction> expected = txProtos(
+                new WalletProtobufSerializer().walletToProto(wallet));
+        for (final Transaction tx : new Transaction[] { received, pending, spending }) {
+            final Transaction walletTx = wallet.getTransaction(tx.getTxId());
+            assertEquals(expected.get(ByteString.copyFrom(tx.getTxId().getBytes())),
+                    WalletJournal.makeTxProto(walletTx, poolOf(walletTx)));
+        }
+    }
+
+    @Test
+    public void replay() throws Exception {
+        wallet.saveToFile(walletFile);
+        final WalletJournal journal = WalletJournal.autosaveToFile(wallet, walletFile, 1, TimeUnit.HOURS,
+                Long.MAX_VALUE);
+
+        final Transaction received = fixture.receive(Coin.COIN);
+        fixture.receivePending(Coin.CENT);
+        fixture.spend(received, Coin.MILLICOIN);
+        for (int i = 0; i < 3; i++)
+            fixture.nextBlock();
+        journal.awaitWritten();
+
+        // simulate crash: snapshot is stale, journal is not
+        final Protos.Wallet replayed;
+        try (final InputStream is = new FileInputStream(walletFile)) {
+            replayed = WalletJournal.replay(WalletProtobufSerializer.parseToProto(is), walletFile);
+        }
+        assertReplayed(new WalletProtobufSerializer().walletToProto(wallet), replayed);
+        final Wallet replayedWallet = new WalletProtobufSerializer().readWallet(WalletFixture.PARAMS, null, replayed);
+        assertEquals(wallet.getBalance(Wallet.BalanceType.ESTIMATED),
+                replayedWallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        assertEquals(wallet.getLastBlockSeenHeight(), replayedWallet.getLastBlockSeenHeight());
+
+        journal.shutdownAndWait();
+    }
+
+    @Test
+    public void replayTornRecord() throws Exception {
+        wallet.saveToFile(walletFile);
+        final WalletJournal journal = WalletJournal.autosaveToFile(wallet, walletFile, 1, TimeUnit.HOURS,
+                Long.MAX_VALUE);
+        fixture.receive(Coin.COIN);
+        journal.awaitWritten();
+        final Protos.Wallet expected = new WalletProtobufSerializer().walletToProto(wallet);
+
+        try (final OutputStream os = new FileOutputStream(new File(folder.getRoot(), "wallet.journal"), true)) {
+            os.write(new byte[] { 0, 0, 1, 0, 42, 42 });
+        }
+
+        final Protos.Wallet replayed;
+        try (final InputStream is = new FileInputStream(walletFile)) {
+            replayed = WalletJournal.replay(WalletProtobufSerializer.parseToProto(is), walletFile);
+        }
+        assertReplayed(expected, replayed);
+
+        journal.shutdownAndWait();
+    }
+
+    @Test
+    public void compact() throws Exception {
+        wallet.saveToFile(walletFile);
+        final WalletJournal journal = WalletJournal.autosaveToFile(wallet, walletFile, 1, TimeUnit.HOURS,
+                Long.MAX_VALUE);
+        fixture.receive(Coin.COIN);
+        journal.getWalletFiles().saveNow();
+        journal.awaitWritten();
+
+        assertEquals(false, new File(folder.getRoot(), "wallet.journal").exists());
+        assertEquals(false, new File(folder.getRoot(), "wallet.journal.old").exists());
+
+        journal.shutdownAndWait();
+    }
+
+    private void assertReplayed(final Protos.Wallet expected, final Protos.Wallet replayed) {
+        assertEquals(expected.getLastSeenBlockHash(), replayed.getLastSeenBlockHash());
+        assertEquals(expected.getLastSeenBlockHeight(), replayed.getLastSeenBlockHeight());
+        assertEquals(txProtos(expected), txProtos(replayed));
+    }
+
+    private Map<ByteString, Protos.Transaction> txProtos(final Protos.Wallet walletProto) {
+        final Map<ByteString, Protos.Transaction> txProtos = new HashMap<>();
+        for (final Protos.Transaction tx : walletProto.getTransactionList())
+            txProtos.put(tx.getHash(), tx);
+        return txProtos;
+    }
+
+    private WalletTransaction.Pool poolOf(final Transaction tx) {
+        for (final WalletTransaction.Pool pool : WalletTransaction.Pool.values())
+            if (wallet.getTransactionPool(pool).containsKey(tx.getTxId()))
+                return pool;
+        throw new IllegalStateException();
+    }
+}